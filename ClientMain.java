@@ -1,7 +1,12 @@
+import client.BulkClient;
 import client.Client;
 
 public class ClientMain {
     public static void main(String[] args) throws Exception {
+        // Avec des arguments (put -r <dossier>, get <motif> <dossier>) : mode bulk non interactif
+        if (args.length > 0) {
+            System.exit(BulkClient.run("localhost", 10000, args));
+        }
         try {
             Client client = new Client("localhost", 10000);
             client.connectToServer();
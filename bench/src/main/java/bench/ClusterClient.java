@@ -0,0 +1,125 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.zip.CRC32C;
+
+// Connexion client au master en protocole texte, comme celle d'un worker de BulkClient : les fichiers sont
+// envoyés depuis la mémoire (UPLOAD_RESUMABLE) et reçus sans être écrits sur disque (DOWNLOAD_FROM), pour
+// ne mesurer que le cluster. Une réponse d'erreur du serveur devient une IOException.
+public class ClusterClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final byte[] buffer = new byte[1 << 16];
+
+    public ClusterClient(String host, int port) throws IOException {
+        this(host, port, 0);
+    }
+
+    // timeoutMs : attente maximale d'une réponse (0 : sans limite), le message de bienvenue compris
+    public ClusterClient(String host, int port, int timeoutMs) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(timeoutMs);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        String welcome = in.readUTF();
+        if (welcome.startsWith("ERROR")) {
+            socket.close();
+            throw new IOException(welcome);
+        }
+    }
+
+    // Noms séparés par des virgules, ou le message du serveur si le catalogue est vide
+    public String listing() throws IOException {
+        out.writeUTF("LISTING");
+        out.flush();
+        return in.readUTF();
+    }
+
+    public void upload(String name, byte[] data) throws IOException {
+        upload(name, data, data.length);
+    }
+
+    // Envoie les length premiers octets de data
+    public void upload(String name, byte[] data, int length) throws IOException {
+        out.writeUTF("UPLOAD_RESUMABLE");
+        out.writeUTF(name);
+        out.writeLong(length);
+        out.flush();
+        String response = in.readUTF();
+        if (!"UPLOAD_ID".equals(response)) {
+            throw new IOException(response);
+        }
+        in.readUTF();
+        in.readLong(); // Toujours 0 pour un nouvel upload
+        out.write(data, 0, length);
+        out.flush();
+        response = in.readUTF();
+        if (!response.startsWith("Fichier ")) {
+            throw new IOException(response);
+        }
+    }
+
+    // Retourne la taille reçue ; le CRC32C est vérifié comme par le client
+    public long download(String name) throws IOException {
+        out.writeUTF("DOWNLOAD_FROM");
+        out.writeUTF(name);
+        out.writeLong(0);
+        out.writeLong(-1);
+        out.flush();
+        String response = in.readUTF();
+        if (!"DOWNLOAD_READY".equals(response)) {
+            throw new IOException(response);
+        }
+        in.readLong(); // Position de reprise : 0
+        long fileSize = in.readLong();
+        in.readLong(); // Version
+
+        CRC32C crc = new CRC32C();
+        long totalRead = 0;
+        while (totalRead < fileSize) {
+            int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, fileSize - totalRead));
+            if (bytesRead < 0) {
+                throw new IOException("Connexion coupée (" + totalRead + "/" + fileSize + " octets).");
+            }
+            crc.update(buffer, 0, bytesRead);
+            totalRead += bytesRead;
+        }
+        if ((int) crc.getValue() != in.readInt()) {
+            throw new IOException("CRC32C différent pour " + name + ".");
+        }
+        return totalRead;
+    }
+
+    public void remove(String name) throws IOException {
+        out.writeUTF("REMOVE");
+        out.writeUTF(name);
+        out.flush();
+        String response = in.readUTF();
+        if (!response.startsWith("Fichier ")) {
+            throw new IOException(response);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.writeUTF("EXIT");
+            out.flush();
+        } catch (IOException e) {
+            // Connexion déjà perdue
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignoré
+        }
+    }
+}
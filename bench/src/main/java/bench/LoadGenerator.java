@@ -0,0 +1,568 @@
+package bench;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import servers.Metrics;
+
+// Générateur de charge en boucle ouverte : des requêtes LISTING, UPLOAD, DOWNLOAD et REMOVE arrivent à débit
+// fixe (--rate par seconde), quel que soit le temps de réponse du serveur, et sont servies par --sessions
+// connexions client (protocole texte réel, un thread par session comme les clients). Une requête qui attend
+// une session libre attend comme un vrai client : sa latence est comptée depuis son heure d'arrivée prévue,
+// pas depuis son envoi (correction de l'omission coordonnée). Le temps de service (envoi -> réponse) est
+// rapporté à part. Chaque session se connecte au démarrage ; une session que le master ne sert pas (tous ses
+// threads sont pris par d'autres connexions) attend --timeout puis réessaie à sa première requête.
+//   LoadGenerator --local 3 --rate 200 --duration 60 --sessions 200
+//   LoadGenerator --host 10.0.0.5 --port 10000 --mix listing=5,upload=25,download=60,remove=10
+//       --sizes 4k:50,1m:40,16m:10
+// Code de sortie : 0 si toutes les requêtes ont réussi (et, avec --max-p99, si le 99e centile de la latence
+// ne dépasse pas la limite), 1 sinon, 2 si les options sont invalides.
+public class LoadGenerator {
+
+    enum Op {
+        LISTING, UPLOAD, DOWNLOAD, REMOVE
+    }
+
+    // Requête planifiée ; measured : arrivée après la période de chauffe
+    private static final class Request {
+        final Op op;
+        final int size;
+        final long intendedStart;
+        final boolean measured;
+
+        Request(Op op, int size, long intendedStart, boolean measured) {
+            this.op = op;
+            this.size = size;
+            this.intendedStart = intendedStart;
+            this.measured = measured;
+        }
+    }
+
+    private static final Request STOP = new Request(null, 0, 0, false);
+    // Temps laissé aux requêtes déjà arrivées à la fin de la charge
+    private static final int DRAIN_SECONDS = 30;
+
+    private String host = "localhost";
+    private int port = 10000;
+    private int localSlaves;
+    private Map<String, String> localConfig = new HashMap<>();
+    private double rate = 100;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private int sessionCount = 50;
+    private int initialFiles = 50;
+    private int timeoutSeconds = 30;
+    private double maxP99Millis;
+    private long seed = 42;
+    private Map<Op, Double> mix = new EnumMap<>(Op.class);
+    private int[] sizes = { 4096, 1 << 20 };
+    private double[] sizeWeights = { 80, 20 };
+
+    private final PrintStream report = System.out;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final FilePool files = new FilePool();
+    private final AtomicLong nextFile = new AtomicLong();
+    private final Map<Op, Metrics.Histogram> latencies = new EnumMap<>(Op.class);
+    private final Map<Op, Metrics.Histogram> serviceTimes = new EnumMap<>(Op.class);
+    private final Map<Op, LongAdder> errors = new EnumMap<>(Op.class);
+    private final Metrics.Histogram totalLatency = new Metrics.Histogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final AtomicInteger busySessions = new AtomicInteger();
+    private final AtomicInteger connectedSessions = new AtomicInteger();
+    // Requêtes mesurées prises par une session et pas encore terminées
+    private final AtomicInteger measuredInFlight = new AtomicInteger();
+    private final AtomicLong lastMeasuredCompletion = new AtomicLong();
+    private final Map<String, LongAdder> errorMessages = new LinkedHashMap<>();
+    private byte[] data;
+
+    public static void main(String[] args) {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            generator.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+        }
+        try {
+            System.exit(generator.run());
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Charge interrompue : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String usage() {
+        return "Usage : LoadGenerator [--host h] [--port p] [--local <slaves>] [--set clé=valeur]...\n"
+                + "    [--rate <requêtes/s>] [--duration <s>] [--warmup <s>] [--sessions n] [--files n]\n"
+                + "    [--mix listing=10,upload=20,download=60,remove=10] [--sizes 4k:80,1m:20]\n"
+                + "    [--timeout <s>] [--max-p99 <ms>] [--seed n]";
+    }
+
+    void parse(String[] args) {
+        mix.put(Op.LISTING, 10.0);
+        mix.put(Op.UPLOAD, 20.0);
+        mix.put(Op.DOWNLOAD, 60.0);
+        mix.put(Op.REMOVE, 10.0);
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Valeur manquante pour " + option + ".");
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--host":
+                        host = value;
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--local":
+                        localSlaves = Integer.parseInt(value);
+                        break;
+                    case "--set":
+                        String[] property = value.split("=", 2);
+                        if (property.length != 2) {
+                            throw new IllegalArgumentException("--set attend clé=valeur : " + value);
+                        }
+                        localConfig.put(property[0], property[1]);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(value);
+                        break;
+                    case "--warmup":
+                        warmupSeconds = Integer.parseInt(value);
+                        break;
+                    case "--sessions":
+                        sessionCount = Integer.parseInt(value);
+                        break;
+                    case "--files":
+                        initialFiles = Integer.parseInt(value);
+                        break;
+                    case "--timeout":
+                        timeoutSeconds = Integer.parseInt(value);
+                        break;
+                    case "--max-p99":
+                        maxP99Millis = Double.parseDouble(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--mix":
+                        parseMix(value);
+                        break;
+                    case "--sizes":
+                        parseSizes(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Option inconnue : " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Nombre invalide pour " + option + " : " + value);
+            }
+        }
+        if (rate <= 0 || durationSeconds <= 0 || warmupSeconds < 0 || sessionCount <= 0 || initialFiles < 0
+                || timeoutSeconds <= 0) {
+            throw new IllegalArgumentException("--rate, --duration, --sessions et --timeout doivent être positifs.");
+        }
+    }
+
+    // listing=10,upload=20,... : poids relatifs, une opération absente n'est pas générée
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] weight = part.split("=", 2);
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("--mix attend op=poids : " + part);
+            }
+            try {
+                mix.put(Op.valueOf(weight[0].trim().toUpperCase()), Double.parseDouble(weight[1]));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Opération ou poids invalide : " + part);
+            }
+        }
+    }
+
+    // 4k:80,1m:20 : tailles (octets, k ou m) et poids relatifs
+    private void parseSizes(String value) {
+        String[] parts = value.split(",");
+        sizes = new int[parts.length];
+        sizeWeights = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String[] size = parts[i].split(":", 2);
+            sizes[i] = parseSize(size[0].trim());
+            sizeWeights[i] = size.length == 2 ? Double.parseDouble(size[1]) : 1;
+        }
+    }
+
+    private static int parseSize(String size) {
+        String lower = size.toLowerCase();
+        if (lower.endsWith("k")) {
+            return Integer.parseInt(lower.substring(0, lower.length() - 1)) << 10;
+        }
+        if (lower.endsWith("m")) {
+            return Integer.parseInt(lower.substring(0, lower.length() - 1)) << 20;
+        }
+        return Integer.parseInt(lower);
+    }
+
+    int run() throws IOException, InterruptedException {
+        for (Op op : Op.values()) {
+            latencies.put(op, new Metrics.Histogram());
+            serviceTimes.put(op, new Metrics.Histogram());
+            errors.put(op, new LongAdder());
+        }
+        int largest = 1;
+        for (int size : sizes) {
+            largest = Math.max(largest, size);
+        }
+        data = new byte[largest];
+        new SplittableRandom(seed).nextBytes(data);
+
+        LocalCluster cluster = null;
+        if (localSlaves > 0) {
+            cluster = new LocalCluster(localSlaves, localConfig);
+            cluster.start();
+            host = cluster.getHost();
+            port = cluster.getMasterPort();
+            report.println("Cluster local : master sur le port " + port + ", " + localSlaves + " slave(s).");
+        }
+        try {
+            preload();
+            return generate();
+        } finally {
+            if (cluster != null) {
+                cluster.stop();
+            }
+        }
+    }
+
+    // Fichiers présents avant la charge, pour que les premiers DOWNLOAD et REMOVE aient une cible
+    private void preload() throws IOException {
+        if (initialFiles == 0) {
+            return;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        try (ClusterClient client = new ClusterClient(host, port, timeoutSeconds * 1000)) {
+            for (int i = 0; i < initialFiles; i++) {
+                String name = newFileName();
+                client.upload(name, data, pickSize(random));
+                files.add(name);
+            }
+        }
+        report.println(initialFiles + " fichier(s) envoyé(s) avant la charge.");
+    }
+
+    private int generate() throws InterruptedException {
+        List<Thread> sessions = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            Thread session = new Thread(this::serve, "load-session-" + i);
+            session.setDaemon(true);
+            session.start();
+            sessions.add(session);
+        }
+
+        report.printf("Charge : %.1f requêtes/s pendant %d s (+%d s de chauffe), %d sessions.%n", rate,
+                durationSeconds, warmupSeconds, sessionCount);
+        SplittableRandom random = new SplittableRandom(seed + 1);
+        long period = (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextProgress = start + TimeUnit.SECONDS.toNanos(1);
+        long lastCompleted = 0;
+        // Heures d'arrivée fixées à l'avance : un retard du générateur ne décale pas les suivantes
+        for (long n = 0;; n++) {
+            long intended = start + n * period;
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(Math.min(intended - now, 1_000_000));
+            }
+            queue.add(new Request(pickOp(random), pickSize(random), intended, intended >= measureStart));
+            if (now >= nextProgress) {
+                long done = completed.sum();
+                report.printf("%3d s : %d requête(s)/s servie(s), %d en attente, %d/%d session(s) occupée(s)/"
+                        + "connectée(s), %d erreur(s)%n", TimeUnit.NANOSECONDS.toSeconds(now - start),
+                        done - lastCompleted, queue.size(), busySessions.get(), connectedSessions.get(),
+                        failed.sum());
+                lastCompleted = done;
+                nextProgress += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+
+        // Les requêtes déjà arrivées sont servies, dans la limite de DRAIN_SECONDS
+        long drainDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(DRAIN_SECONDS);
+        while ((!queue.isEmpty() || measuredInFlight.get() > 0) && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(50);
+        }
+        List<Request> unserved = new ArrayList<>();
+        queue.drainTo(unserved);
+        int unservedMeasured = measuredInFlight.get();
+        for (Request request : unserved) {
+            unservedMeasured += request.measured ? 1 : 0;
+        }
+        int connected = connectedSessions.get();
+        for (int i = 0; i < sessions.size(); i++) {
+            queue.add(STOP);
+        }
+        long joinDeadline = System.currentTimeMillis() + 2000;
+        for (Thread session : sessions) {
+            session.join(Math.max(1, joinDeadline - System.currentTimeMillis()));
+        }
+        long elapsed = Math.max(end, lastMeasuredCompletion.get()) - measureStart;
+        printReport(elapsed, unservedMeasured, connected);
+        boolean withinLimit = maxP99Millis <= 0 || totalLatency.percentile(0.99) <= maxP99Millis * 1e6;
+        if (!withinLimit) {
+            report.printf("p99 au-delà de la limite de %.1f ms.%n", maxP99Millis);
+        }
+        return failed.sum() == 0 && unservedMeasured == 0 && withinLimit ? 0 : 1;
+    }
+
+    // Boucle d'une session : une connexion, refaite après une erreur (le protocole n'est plus synchronisé)
+    private void serve() {
+        ClusterClient client = null;
+        try {
+            client = connect();
+        } catch (IOException e) {
+            // Nouvel essai à la première requête
+        }
+        try {
+            while (true) {
+                Request request = queue.take();
+                if (request == STOP) {
+                    break;
+                }
+                busySessions.incrementAndGet();
+                if (request.measured) {
+                    measuredInFlight.incrementAndGet();
+                }
+                long serviceStart = System.nanoTime();
+                try {
+                    if (client == null) {
+                        client = connect();
+                    }
+                    execute(client, request);
+                    record(request, serviceStart, null);
+                } catch (IOException e) {
+                    record(request, serviceStart, e);
+                    if (client != null) {
+                        disconnect(client);
+                        client = null;
+                    }
+                } finally {
+                    busySessions.decrementAndGet();
+                    if (request.measured) {
+                        measuredInFlight.decrementAndGet();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (client != null) {
+                disconnect(client);
+            }
+        }
+    }
+
+    private ClusterClient connect() throws IOException {
+        try {
+            ClusterClient client = new ClusterClient(host, port, timeoutSeconds * 1000);
+            connectedSessions.incrementAndGet();
+            return client;
+        } catch (IOException e) {
+            rejectedConnections.increment();
+            throw e;
+        }
+    }
+
+    private void disconnect(ClusterClient client) {
+        client.close();
+        connectedSessions.decrementAndGet();
+    }
+
+    // Sans fichier disponible, DOWNLOAD et REMOVE deviennent des UPLOAD (la population se reconstitue)
+    private void execute(ClusterClient client, Request request) throws IOException {
+        switch (request.op) {
+            case LISTING:
+                client.listing();
+                return;
+            case DOWNLOAD: {
+                String name = files.acquire();
+                if (name != null) {
+                    try {
+                        client.download(name);
+                    } finally {
+                        files.releaseRead(name);
+                    }
+                    return;
+                }
+                break;
+            }
+            case REMOVE: {
+                String name = files.take();
+                if (name != null) {
+                    client.remove(name);
+                    return;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        String name = newFileName();
+        client.upload(name, data, request.size);
+        files.add(name);
+    }
+
+    private void record(Request request, long serviceStart, IOException error) {
+        long now = System.nanoTime();
+        completed.increment();
+        if (error != null) {
+            failed.increment();
+            synchronized (errorMessages) {
+                errorMessages.computeIfAbsent(String.valueOf(error.getMessage()), key -> new LongAdder())
+                        .increment();
+            }
+        }
+        if (!request.measured) {
+            return;
+        }
+        if (error != null) {
+            errors.get(request.op).increment();
+            return;
+        }
+        lastMeasuredCompletion.accumulateAndGet(now, Math::max);
+        latencies.get(request.op).record(now - request.intendedStart);
+        serviceTimes.get(request.op).record(now - serviceStart);
+        totalLatency.record(now - request.intendedStart);
+    }
+
+    private void printReport(long elapsedNanos, int unserved, int connected) {
+        double seconds = elapsedNanos / 1e9;
+        long measured = totalLatency.getCount();
+        long measuredErrors = 0;
+        for (LongAdder count : errors.values()) {
+            measuredErrors += count.sum();
+        }
+        report.println();
+        report.printf("== Résultat : %.1f requêtes/s offertes, %d sessions ==%n", rate, sessionCount);
+        report.printf("débit : %.1f requêtes/s réussies (%d en %.1f s), %d erreur(s), %d non servie(s), "
+                + "%d connexion(s) refusée(s) ou sans réponse, %d/%d session(s) connectée(s)%n", measured / seconds,
+                measured, seconds, measuredErrors, unserved, rejectedConnections.sum(), connected, sessionCount);
+        report.println("latence depuis l'arrivée prévue (omission coordonnée corrigée) et temps de service :");
+        report.println("TOTAL    " + totalLatency);
+        for (Op op : Op.values()) {
+            if (latencies.get(op).getCount() == 0 && errors.get(op).sum() == 0) {
+                continue;
+            }
+            report.printf("%-8s %s  erreurs=%d%n", op, latencies.get(op), errors.get(op).sum());
+            report.printf("%-8s %s%n", "  serv.", serviceTimes.get(op));
+        }
+        synchronized (errorMessages) {
+            for (Map.Entry<String, LongAdder> error : errorMessages.entrySet()) {
+                report.println("erreur x" + error.getValue().sum() + " : " + error.getKey());
+            }
+        }
+    }
+
+    private Op pickOp(SplittableRandom random) {
+        double total = 0;
+        for (double weight : mix.values()) {
+            total += weight;
+        }
+        double choice = random.nextDouble() * total;
+        for (Map.Entry<Op, Double> entry : mix.entrySet()) {
+            choice -= entry.getValue();
+            if (choice < 0) {
+                return entry.getKey();
+            }
+        }
+        return Op.LISTING;
+    }
+
+    private int pickSize(SplittableRandom random) {
+        double total = 0;
+        for (double weight : sizeWeights) {
+            total += weight;
+        }
+        double choice = random.nextDouble() * total;
+        for (int i = 0; i < sizes.length; i++) {
+            choice -= sizeWeights[i];
+            if (choice < 0) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private String newFileName() {
+        return "load-" + nextFile.incrementAndGet() + ".bin";
+    }
+
+    // Fichiers existants. Un fichier en cours de lecture n'est pas choisi pour un REMOVE : un DOWNLOAD ne
+    // doit échouer que par la faute du serveur
+    private static final class FilePool {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> readers = new HashMap<>();
+
+        synchronized void add(String name) {
+            names.add(name);
+        }
+
+        synchronized String acquire() {
+            if (names.isEmpty()) {
+                return null;
+            }
+            String name = names.get(ThreadLocalRandom.current().nextInt(names.size()));
+            readers.merge(name, 1, Integer::sum);
+            return name;
+        }
+
+        synchronized void releaseRead(String name) {
+            readers.computeIfPresent(name, (key, count) -> count == 1 ? null : count - 1);
+        }
+
+        // Retire un fichier sans lecteur, ou null si tous sont lus
+        synchronized String take() {
+            if (names.isEmpty()) {
+                return null;
+            }
+            int start = ThreadLocalRandom.current().nextInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                int index = (start + i) % names.size();
+                String name = names.get(index);
+                if (!readers.containsKey(name)) {
+                    names.set(index, names.get(names.size() - 1));
+                    names.remove(names.size() - 1);
+                    return name;
+                }
+            }
+            return null;
+        }
+    }
+}
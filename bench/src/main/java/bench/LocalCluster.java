@@ -0,0 +1,170 @@
+package bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import servers.principal.MasterServer;
+import servers.subservers.SlaveServer;
+
+// Cluster complet dans la JVM du benchmark : un MasterServer et N SlaveServers sur loopback, chacun dans son
+// thread, avec des ports libres et des répertoires temporaires. La configuration est écrite dans un
+// config.properties temporaire, comme pour un vrai déploiement ; extra complète ou remplace ses valeurs.
+// Les serveurs écrivent un message par commande : System.out et System.err sont coupés au démarrage (une
+// erreur de transfert remonte quand même au benchmark, par l'exception du client). Ils le restent après
+// stop() : les hooks d'arrêt des serveurs écriraient encore à la sortie de la JVM. Pour afficher quelque
+// chose, garder une référence à System.out avant start().
+public class LocalCluster {
+
+    private static final String HOST = "127.0.0.1";
+    private static final long STARTUP_TIMEOUT_MS = 15000;
+
+    private final int slaveCount;
+    private final Map<String, String> extra;
+    private Path root;
+    private int masterPort;
+    private MasterServer master;
+    private List<SlaveServer> slaves = new ArrayList<>();
+    private List<Thread> threads = new ArrayList<>();
+
+    public LocalCluster(int slaveCount, Map<String, String> extra) {
+        this.slaveCount = slaveCount;
+        this.extra = extra;
+    }
+
+    public void start() throws IOException {
+        root = Files.createTempDirectory("dfs-bench");
+        String configPath = writeConfig();
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+
+        for (int i = 1; i <= slaveCount; i++) {
+            SlaveServer slave = new SlaveServer(configPath, "slave" + i);
+            slaves.add(slave);
+            startThread("bench-slave" + i, slave::start);
+            waitForPort(slave.getPort());
+        }
+        master = new MasterServer(configPath);
+        startThread("bench-master", master::start);
+        waitForPort(masterPort);
+    }
+
+    public void stop() {
+        if (master != null) {
+            master.stop();
+        }
+        for (SlaveServer slave : slaves) {
+            slave.stop();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        deleteRecursively(root);
+    }
+
+    private String writeConfig() throws IOException {
+        masterPort = freePort();
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("masterHost", HOST);
+        properties.put("masterPort", String.valueOf(masterPort));
+        properties.put("storageDir", dir("master"));
+        properties.put("numOfSlaves", String.valueOf(slaveCount));
+        for (int i = 1; i <= slaveCount; i++) {
+            properties.put("slave" + i + ".host", HOST);
+            properties.put("slave" + i + ".port", String.valueOf(freePort()));
+            properties.put("slave" + i + ".dirPath", dir("slave" + i));
+        }
+        // Pas de rééquilibrage pendant les mesures
+        properties.put("rebalanceBytesPerSec", "0");
+        properties.putAll(extra);
+
+        File config = root.resolve("config.properties").toFile();
+        try (Writer writer = new FileWriter(config)) {
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                writer.write(property.getKey() + "=" + property.getValue() + "\n");
+            }
+        }
+        return config.getPath();
+    }
+
+    private String dir(String name) throws IOException {
+        return Files.createDirectories(root.resolve(name)).toString() + File.separator;
+    }
+
+    private void startThread(String name, Runnable server) {
+        Thread thread = new Thread(server, name);
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    // Attend que le serveur accepte les connexions (la connexion de test est refermée aussitôt)
+    private static void waitForPort(int port) throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(HOST, port), 200);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Serveur absent sur le port " + port + " après " + STARTUP_TIMEOUT_MS
+                            + " ms.");
+                }
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Démarrage interrompu.");
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        if (path == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Répertoire temporaire non supprimé : " + path);
+        }
+    }
+
+    public String getHost() {
+        return HOST;
+    }
+
+    public int getMasterPort() {
+        return masterPort;
+    }
+
+    public MasterServer getMaster() {
+        return master;
+    }
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import servers.principal.ChunkInfo;
+import servers.principal.ReedSolomon;
+
+// Coût de la boucle de UploadSession.writeSegment pour un groupe (une bande), sans réseau : copie des octets
+// du client dans les tampons des chunks, CRC32C de chaque chunk et, en erasure coding, accumulation des
+// parités Reed-Solomon. Le flux du client est remplacé par un tableau en mémoire.
+// layout : "replication" (un chunk par groupe, le même tampon part vers toutes les copies) ou "<k>+<m>"
+// (k chunks de données et m de parité par bande).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StripeCopyBenchmark {
+
+    @Param({ "65536", "1048576" })
+    public int chunkSize;
+
+    @Param({ "replication", "2+1", "4+2" })
+    public String layout;
+
+    private int dataShards;
+    private int parityShards;
+
+    private ByteArrayInputStream source;
+    private DataInputStream in;
+    private byte[][] buffers;
+    private byte[][] parity;
+    private ReedSolomon codec;
+
+    @Setup
+    public void setUp() {
+        if (!"replication".equals(layout)) {
+            String[] shards = layout.split("\\+");
+            dataShards = Integer.parseInt(shards[0]);
+            parityShards = Integer.parseInt(shards[1]);
+        }
+        int chunks = Math.max(1, dataShards);
+        byte[] stripe = new byte[chunks * chunkSize];
+        new SplittableRandom(42).nextBytes(stripe);
+        source = new ByteArrayInputStream(stripe);
+        in = new DataInputStream(source);
+        buffers = new byte[chunks][chunkSize];
+        if (dataShards > 0) {
+            codec = new ReedSolomon(dataShards, parityShards);
+            parity = new byte[parityShards][chunkSize];
+        }
+    }
+
+    @Benchmark
+    public void stripe(Blackhole blackhole) throws IOException {
+        source.reset();
+        if (dataShards == 0) {
+            in.readFully(buffers[0], 0, chunkSize);
+            blackhole.consume(ChunkInfo.crc32c(buffers[0], chunkSize));
+            return;
+        }
+        for (byte[] shard : parity) {
+            Arrays.fill(shard, 0, chunkSize, (byte) 0);
+        }
+        for (int i = 0; i < dataShards; i++) {
+            in.readFully(buffers[i], 0, chunkSize);
+            codec.addToParity(i, buffers[i], chunkSize, parity);
+            blackhole.consume(ChunkInfo.crc32c(buffers[i], chunkSize));
+        }
+        for (byte[] shard : parity) {
+            blackhole.consume(ChunkInfo.crc32c(shard, chunkSize));
+        }
+    }
+}
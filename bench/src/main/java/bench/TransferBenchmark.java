@@ -0,0 +1,156 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Débit d'upload et de download à travers le master, sur un cluster en mémoire (LocalCluster).
+// Une opération est une vague : concurrency clients, chacun sur sa connexion, transfèrent en même temps un
+// fichier de fileSize octets. Les compteurs files et mebibytes donnent les fichiers et Mio par seconde,
+// comparables d'une concurrence à l'autre ; le score lui-même est en vagues par seconde.
+// Les slaves n'attendent pas le disque (slaveFsync=false) : on mesure le code, pas le disque de la machine.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+public class TransferBenchmark {
+
+    @Param({ "1", "3" })
+    public int slaves;
+
+    // 16 Kio : regroupé dans les segments de pack ; au-delà : chunks répartis sur les slaves
+    @Param({ "16384", "1048576", "16777216" })
+    public int fileSize;
+
+    @Param({ "1", "8" })
+    public int concurrency;
+
+    @Param({ "2" })
+    public int replicationFactor;
+
+    @Param({ "1048576" })
+    public int chunkSize;
+
+    private LocalCluster cluster;
+    private ClusterClient[] clients;
+    private ExecutorService workers;
+    private byte[] data;
+
+    // Fichiers et Mio transférés pendant l'itération, rapportés par seconde
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Transferred {
+        public long files;
+        public double mebibytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            files = 0;
+            mebibytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void startCluster() throws Exception {
+        cluster = new LocalCluster(slaves, Map.of(
+                "replicationFactor", String.valueOf(replicationFactor),
+                "chunkSize", String.valueOf(chunkSize),
+                "slaveFsync", "false",
+                "catalogFsync", "false"));
+        cluster.start();
+
+        data = new byte[fileSize];
+        new SplittableRandom(42).nextBytes(data);
+        clients = new ClusterClient[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            clients[i] = new ClusterClient(cluster.getHost(), cluster.getMasterPort());
+        }
+        workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "bench-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Les fichiers lus par download existent dès le départ
+        upload(new Transferred());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopCluster() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (clients != null) {
+            for (ClusterClient client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+        }
+        if (cluster != null) {
+            cluster.stop();
+        }
+    }
+
+    // Chaque client remplace son fichier : le master publie la nouvelle version et libère l'ancienne
+    @Benchmark
+    public void upload(Transferred transferred) throws Exception {
+        wave(transferred, (client, name) -> {
+            client.upload(name, data);
+            return (long) data.length;
+        });
+    }
+
+    @Benchmark
+    public void download(Transferred transferred) throws Exception {
+        wave(transferred, (client, name) -> client.download(name));
+    }
+
+    private interface Transfer {
+        long run(ClusterClient client, String name) throws IOException;
+    }
+
+    private void wave(Transferred transferred, Transfer transfer) throws Exception {
+        List<Future<Long>> results = new ArrayList<>();
+        for (int i = 0; i < clients.length; i++) {
+            ClusterClient client = clients[i];
+            String name = "bench-" + i + ".bin";
+            Callable<Long> task = () -> transfer.run(client, name);
+            results.add(workers.submit(task));
+        }
+        long bytes = 0;
+        for (Future<Long> result : results) {
+            try {
+                bytes += result.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Transfert échoué : " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        transferred.files += clients.length;
+        transferred.mebibytes += bytes / (1024.0 * 1024.0);
+    }
+}
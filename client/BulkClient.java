@@ -0,0 +1,459 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Mode non interactif pour les gros lots de fichiers :
+//   put [-r] <fichier|dossier> [-j N]   envoie un fichier ou toute une arborescence
+//   get <motif> <dossier> [-j N]        récupère les fichiers du serveur dont le nom correspond au motif (glob)
+// N workers (4 par défaut) ont chacun leur connexion au master et se partagent la file des fichiers.
+// Les métadonnées passent par une connexion en protocole binaire : les requêtes STAT partent par lots sans
+// attendre les réponses. Un fichier déjà transféré est sauté si sa taille et sa date de modification locales,
+// ainsi que sa taille et sa version sur le serveur, n'ont pas changé depuis : elles sont gardées dans le
+// fichier .dfs-bulk du dossier local. Progression et débit sont affichés chaque seconde.
+public class BulkClient {
+
+    private static final int DEFAULT_WORKERS = 4;
+    // Noms par requête STAT (le payload d'une trame est limité)
+    private static final int STAT_BATCH = 512;
+    private static final String MANIFEST = ".dfs-bulk";
+
+    private final String host;
+    private final int port;
+    private final int workers;
+    // Nom sur le serveur -> {taille locale, date de modification locale, taille sur le serveur, version}
+    private final Map<String, long[]> manifest = new ConcurrentHashMap<>();
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private int total;
+
+    // Un fichier à transférer : son chemin local et son nom sur le serveur
+    private static final class Transfer {
+        final File file;
+        final String remoteName;
+
+        Transfer(File file, String remoteName) {
+            this.file = file;
+            this.remoteName = remoteName;
+        }
+    }
+
+    // Connexion d'un worker au master (protocole texte)
+    private final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection() throws IOException {
+            this.socket = new Socket(host, port);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            String welcome = in.readUTF();
+            if (welcome.startsWith("ERROR")) {
+                socket.close();
+                throw new IOException(welcome);
+            }
+        }
+
+        void close() {
+            try {
+                out.writeUTF("EXIT");
+                out.flush();
+            } catch (IOException e) {
+                // Connexion déjà perdue
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Déjà fermée
+            }
+        }
+    }
+
+    private interface Action {
+        void run(Connection connection, Transfer transfer) throws IOException;
+    }
+
+    public BulkClient(String host, int port, int workers) {
+        this.host = host;
+        this.port = port;
+        this.workers = workers;
+    }
+
+    // Point d'entrée de ClientMain quand des arguments sont donnés ; retourne le code de sortie
+    public static int run(String host, int port, String[] args) throws IOException {
+        List<String> operands = new ArrayList<>();
+        boolean recursive = false;
+        int workers = DEFAULT_WORKERS;
+        for (int i = 1; i < args.length; i++) {
+            if ("-r".equals(args[i])) {
+                recursive = true;
+            } else if ("-j".equals(args[i]) && i + 1 < args.length) {
+                workers = Math.max(1, Integer.parseInt(args[++i]));
+            } else {
+                operands.add(args[i]);
+            }
+        }
+        BulkClient bulkClient = new BulkClient(host, port, workers);
+        if ("put".equals(args[0]) && operands.size() == 1) {
+            return bulkClient.put(new File(operands.get(0)), recursive);
+        }
+        if ("get".equals(args[0]) && operands.size() == 2) {
+            return bulkClient.get(operands.get(0), new File(operands.get(1)));
+        }
+        System.err.println("Usage: put [-r] <fichier|dossier> [-j N] | get <motif> <dossier> [-j N]");
+        return 2;
+    }
+
+    public int put(File source, boolean recursive) throws IOException {
+        if (source.isDirectory() && !recursive) {
+            System.err.println(source + " dia dossier: ampiasao -r.");
+            return 2;
+        }
+        if (!source.exists()) {
+            System.err.println("Tsy hita ny " + source);
+            return 2;
+        }
+        File root = source.isDirectory() ? source : source.getAbsoluteFile().getParentFile();
+        loadManifest(root);
+        List<Transfer> transfers = new ArrayList<>();
+        if (source.isDirectory()) {
+            Path rootPath = root.toPath();
+            try (Stream<Path> paths = Files.walk(rootPath)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> !path.getFileName().toString().startsWith(MANIFEST))
+                        .forEach(path -> transfers.add(
+                                new Transfer(path.toFile(), remoteName(rootPath.relativize(path).toString()))));
+            }
+        } else {
+            transfers.add(new Transfer(source, source.getName()));
+        }
+
+        try (FramedClient metadata = new FramedClient(host, port)) {
+            List<Transfer> pending = new ArrayList<>();
+            long[][] stats = stat(metadata, transfers);
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                long[] known = manifest.get(transfer.remoteName);
+                boolean unchanged = known != null && known[0] == transfer.file.length()
+                        && known[1] == transfer.file.lastModified() && known[2] == stats[i][0]
+                        && known[3] == stats[i][1];
+                if (unchanged) {
+                    skipped.incrementAndGet();
+                } else {
+                    pending.add(transfer);
+                }
+            }
+            System.out.println(transfers.size() + " fichier(s), " + skipped.get() + " tsy niova, " + pending.size()
+                    + " halefa (" + workers + " workers).");
+
+            List<Transfer> uploaded = runAll(pending, this::upload);
+            // Versions attribuées par le serveur, gardées pour sauter ces fichiers la prochaine fois
+            long[][] versions = stat(metadata, uploaded);
+            for (int i = 0; i < uploaded.size(); i++) {
+                Transfer transfer = uploaded.get(i);
+                manifest.put(transfer.remoteName, new long[] { transfer.file.length(), transfer.file.lastModified(),
+                        versions[i][0], versions[i][1] });
+            }
+        } finally {
+            saveManifest(root);
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    public int get(String pattern, File target) throws IOException {
+        if (!target.isDirectory() && !target.mkdirs()) {
+            System.err.println("Tsy azo noforonina ny " + target);
+            return 2;
+        }
+        loadManifest(target);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (FramedClient metadata = new FramedClient(host, port)) {
+            List<Transfer> transfers = new ArrayList<>();
+            Path targetPath = target.toPath().toAbsolutePath().normalize();
+            for (String remoteName : metadata.listing().join()) {
+                Path local = targetPath.resolve(localName(remoteName)).normalize();
+                // Un nom qui sortirait du dossier cible (.., chemin absolu) n'est jamais écrit
+                if (local.startsWith(targetPath) && !local.equals(targetPath)
+                        && matcher.matches(Paths.get(localName(remoteName)))) {
+                    transfers.add(new Transfer(local.toFile(), remoteName));
+                }
+            }
+
+            List<Transfer> pending = new ArrayList<>();
+            List<long[]> remote = new ArrayList<>();
+            long[][] stats = stat(metadata, transfers);
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                long[] known = manifest.get(transfer.remoteName);
+                boolean unchanged = known != null && transfer.file.isFile() && known[0] == transfer.file.length()
+                        && known[1] == transfer.file.lastModified() && known[2] == stats[i][0]
+                        && known[3] == stats[i][1];
+                if (unchanged) {
+                    skipped.incrementAndGet();
+                } else if (stats[i][0] >= 0) {
+                    pending.add(transfer);
+                    remote.add(stats[i]);
+                }
+            }
+            System.out.println(transfers.size() + " fichier(s), " + skipped.get() + " tsy niova, " + pending.size()
+                    + " halaina (" + workers + " workers).");
+
+            Map<String, long[]> remoteStats = new ConcurrentHashMap<>();
+            for (int i = 0; i < pending.size(); i++) {
+                remoteStats.put(pending.get(i).remoteName, remote.get(i));
+            }
+            for (Transfer transfer : runAll(pending, this::download)) {
+                long[] stat = remoteStats.get(transfer.remoteName);
+                manifest.put(transfer.remoteName, new long[] { transfer.file.length(), transfer.file.lastModified(),
+                        stat[0], stat[1] });
+            }
+        } finally {
+            saveManifest(target);
+        }
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    // Taille et version sur le serveur de chaque fichier : tous les lots STAT partent avant la première réponse
+    private static long[][] stat(FramedClient metadata, List<Transfer> transfers) {
+        List<CompletableFuture<long[][]>> batches = new ArrayList<>();
+        for (int start = 0; start < transfers.size(); start += STAT_BATCH) {
+            List<String> names = new ArrayList<>();
+            for (Transfer transfer : transfers.subList(start, Math.min(transfers.size(), start + STAT_BATCH))) {
+                names.add(transfer.remoteName);
+            }
+            batches.add(metadata.stat(names));
+        }
+        long[][] stats = new long[transfers.size()][];
+        int index = 0;
+        for (CompletableFuture<long[][]> batch : batches) {
+            for (long[] stat : batch.join()) {
+                stats[index++] = stat;
+            }
+        }
+        return stats;
+    }
+
+    // Les workers vident la file ; retourne les transferts réussis
+    private List<Transfer> runAll(List<Transfer> transfers, Action action) {
+        total = transfers.size();
+        ConcurrentLinkedQueue<Transfer> queue = new ConcurrentLinkedQueue<>(transfers);
+        List<Transfer> succeeded = new ArrayList<>();
+        long start = System.nanoTime();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(1000);
+                    printProgress(start);
+                }
+            } catch (InterruptedException e) {
+                // Fin des transferts
+            }
+        }, "bulk-progress");
+        progress.setDaemon(true);
+        progress.start();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < Math.min(workers, transfers.size()); w++) {
+            Thread thread = new Thread(() -> {
+                Connection connection = null;
+                Transfer transfer;
+                while ((transfer = queue.poll()) != null) {
+                    try {
+                        if (connection == null) {
+                            connection = new Connection();
+                        }
+                        action.run(connection, transfer);
+                        synchronized (succeeded) {
+                            succeeded.add(transfer);
+                        }
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        System.err.println(transfer.remoteName + ": " + e.getMessage());
+                        // Position dans le flux inconnue : nouvelle connexion pour le fichier suivant
+                        if (connection != null) {
+                            connection.close();
+                            connection = null;
+                        }
+                    }
+                    done.incrementAndGet();
+                }
+                if (connection != null) {
+                    connection.close();
+                }
+            }, "bulk-worker-" + w);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        progress.interrupt();
+        printProgress(start);
+        return succeeded;
+    }
+
+    private void printProgress(long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        System.out.println(String.format("%d/%d vita, %d tsy niova, %d tsy nety, %.1f Mio (%.1f Mio/s, %.0f fichiers/s)",
+                done.get(), total, skipped.get(), failed.get(), bytes.get() / (double) (1 << 20),
+                bytes.get() / seconds / (1 << 20), done.get() / seconds));
+    }
+
+    // UPLOAD_RESUMABLE sur la connexion du worker : pas de reprise en mode bulk, un échec est compté
+    private void upload(Connection connection, Transfer transfer) throws IOException {
+        long size = transfer.file.length();
+        connection.out.writeUTF("UPLOAD_RESUMABLE");
+        connection.out.writeUTF(transfer.remoteName);
+        connection.out.writeLong(size);
+        connection.out.flush();
+        String response = connection.in.readUTF();
+        if (!"UPLOAD_ID".equals(response)) {
+            throw new IOException(response);
+        }
+        connection.in.readUTF();
+        connection.in.readLong(); // Toujours 0 pour un nouvel upload
+        try (FileInputStream fileInputStream = new FileInputStream(transfer.file)) {
+            byte[] buffer = new byte[1 << 16];
+            long totalSent = 0;
+            int bytesRead;
+            while (totalSent < size && (bytesRead = fileInputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, size - totalSent))) > 0) {
+                connection.out.write(buffer, 0, bytesRead);
+                totalSent += bytesRead;
+                bytes.addAndGet(bytesRead);
+            }
+            if (totalSent != size) {
+                throw new IOException("Niova nandritra ny upload ny fichier.");
+            }
+        }
+        connection.out.flush();
+        response = connection.in.readUTF();
+        if (!response.startsWith("Fichier ")) {
+            throw new IOException(response);
+        }
+    }
+
+    // DOWNLOAD_FROM depuis le début, reçu dans <nom>.bulk.part puis renommé une fois vérifié
+    private void download(Connection connection, Transfer transfer) throws IOException {
+        connection.out.writeUTF("DOWNLOAD_FROM");
+        connection.out.writeUTF(transfer.remoteName);
+        connection.out.writeLong(0);
+        connection.out.writeLong(-1);
+        connection.out.flush();
+        String response = connection.in.readUTF();
+        if (!"DOWNLOAD_READY".equals(response)) {
+            throw new IOException(response);
+        }
+        connection.in.readLong(); // Position de reprise : 0
+        long fileSize = connection.in.readLong();
+        connection.in.readLong(); // Version
+
+        File parent = transfer.file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Tsy azo noforonina ny " + parent);
+        }
+        File partFile = new File(parent, transfer.file.getName() + ".bulk.part");
+        CRC32C crc = new CRC32C();
+        try (RandomAccessFile out = new RandomAccessFile(partFile, "rw")) {
+            out.setLength(0);
+            byte[] buffer = new byte[1 << 16];
+            long totalRead = 0;
+            int bytesRead;
+            while (totalRead < fileSize && (bytesRead = connection.in.read(buffer, 0,
+                    (int) Math.min(buffer.length, fileSize - totalRead))) > 0) {
+                crc.update(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
+                totalRead += bytesRead;
+                bytes.addAndGet(bytesRead);
+            }
+            if (totalRead != fileSize) {
+                throw new IOException("Tapaka ny fifandraisana (" + totalRead + "/" + fileSize + " octets).");
+            }
+        }
+        if ((int) crc.getValue() != connection.in.readInt()) {
+            partFile.delete();
+            throw new IOException("Tsy mitovy ny checksum CRC32C.");
+        }
+        Files.move(partFile.toPath(), transfer.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Le catalogue du serveur est plat : les séparateurs du chemin relatif sont encodés dans le nom
+    static String remoteName(String relativePath) {
+        return relativePath.replace("%", "%25").replace(File.separator, "%2F");
+    }
+
+    static String localName(String remoteName) {
+        return remoteName.replace("%2F", File.separator).replace("%25", "%");
+    }
+
+    // Lignes "<taille locale> <date> <taille serveur> <version> <nom>" ; un manifeste illisible est ignoré
+    private void loadManifest(File dir) {
+        File file = new File(dir, MANIFEST);
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 5);
+                if (fields.length == 5) {
+                    manifest.put(fields[4], new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]), Long.parseLong(fields[3]) });
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Tsy voavaky ny " + file + ": " + e.getMessage());
+            manifest.clear();
+        }
+    }
+
+    // Écrit dans un fichier temporaire puis renomme : jamais de manifeste à moitié écrit
+    private void saveManifest(File dir) throws IOException {
+        File file = new File(dir, MANIFEST);
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+            for (Map.Entry<String, long[]> entry : manifest.entrySet()) {
+                long[] known = entry.getValue();
+                writer.write(known[0] + " " + known[1] + " " + known[2] + " " + known[3] + " " + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -8,11 +8,21 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32C;
 
 public class Client {
 
+    // Nombre de reconnexions tentées quand un upload ou un download reprenable est coupé
+    private static final int MAX_RETRIES = 3;
+
     private String serverHost;
     private int serverPort;
     private Socket socket;
@@ -26,14 +36,9 @@ public class Client {
 
     public void connectToServer() throws Exception {
         try {
-            this.setSocket(new Socket(this.getServerHost(), this.getServerPort()));
-            DataInputStream input = new DataInputStream(this.getSocket().getInputStream());
-            DataOutputStream output = new DataOutputStream(this.getSocket().getOutputStream());
-
-            System.out.println("Connected to the server at " + this.getServerHost() + ":" + this.getServerPort());
-
             // Lire le message de bienvenue
-            String serverMessage = input.readUTF();
+            String serverMessage = openConnection();
+            System.out.println("Connected to the server at " + this.getServerHost() + ":" + this.getServerPort());
             System.out.println("\nMessage du serveur: " + serverMessage);
 
             Scanner scanner = new Scanner(System.in);
@@ -42,6 +47,10 @@ public class Client {
                 // Affichage des options et interaction utilisateur
                 String command = displayMenuAndGetChoice(scanner);
 
+                // La connexion a pu être refaite pendant un upload ou un download reprenable
+                DataInputStream input = this.getInput();
+                DataOutputStream output = this.getOutput();
+
                 switch (command) {
                     case "1":
                         output.writeUTF("LISTING");
@@ -53,10 +62,7 @@ public class Client {
                         String filePath = scanner.nextLine();
                         File file = new File(filePath);
                         if (file.exists() && file.isFile()) {
-                            output.writeUTF("UPLOAD");
-                            sendFile(filePath, output, input);
-                            String uploadResponse = input.readUTF();
-                            System.out.println("Server: " + uploadResponse);
+                            sendFileResumable(filePath);
                         } else {
                             System.out.println("Hamarino tsara ny path nosoratanao. Avereno indray.");
                         }
@@ -66,21 +72,95 @@ public class Client {
                         String fileName = scanner.nextLine();
                         System.out.println("Ampidiro ny lalana feno tianao ametrahana ny fichier: ");
                         String savePath = scanner.nextLine();
-                        output.writeUTF("DOWNLOAD");
-                        output.writeUTF(fileName);
-                        receiveFile(fileName, savePath, input, output);
+                        receiveFileResumable(fileName, savePath);
                         break;
                     case "4":
                         System.out.println("Sorato eto ny anaran'ny fichier tianao hofafaina: ");
                         String fileNameRm = scanner.nextLine();
                         output.writeUTF("REMOVE");
                         output.writeUTF(fileNameRm);
+                        System.out.println("Server: " + input.readUTF());
                         break;
                     case "5":
                         output.writeUTF("EXIT");
                         System.out.println("Miala amin'ny fifandraisana...");
                         scanner.close();
                         return;
+                    case "6":
+                        System.out.println("Sorato ny lalana feno makany amin'ny fichier ho alefa (erasure coding): ");
+                        String ecFilePath = scanner.nextLine();
+                        if (new File(ecFilePath).isFile()) {
+                            output.writeUTF("UPLOAD_EC");
+                            sendFile(ecFilePath, output, input);
+                            System.out.println("Server: " + input.readUTF());
+                        } else {
+                            System.out.println("Hamarino tsara ny path nosoratanao. Avereno indray.");
+                        }
+                        break;
+                    case "7":
+                        System.out.println("Sorato ny lalana feno makany amin'ny fichier ho alefa (dedup): ");
+                        String dedupFilePath = scanner.nextLine();
+                        if (new File(dedupFilePath).isFile()) {
+                            sendFileDeduplicated(dedupFilePath, output, input);
+                        } else {
+                            System.out.println("Hamarino tsara ny path nosoratanao. Avereno indray.");
+                        }
+                        break;
+                    case "8":
+                        System.out.println("Sorato ny anaran'ny fichier: ");
+                        String rangeFileName = scanner.nextLine();
+                        long rangeOffset;
+                        long rangeLength;
+                        try {
+                            System.out.println("Manomboka amin'ny octet faha-firy (offset)? ");
+                            rangeOffset = Long.parseLong(scanner.nextLine().trim());
+                            System.out.println("Octets firy (length)? ");
+                            rangeLength = Long.parseLong(scanner.nextLine().trim());
+                        } catch (NumberFormatException e) {
+                            System.out.println("Tsy isa ny nosoratanao. Avereno indray.");
+                            break;
+                        }
+                        System.out.println("Ampidiro ny lalana feno tianao ametrahana ilay ampahany: ");
+                        String rangeSavePath = scanner.nextLine();
+                        receiveRange(rangeFileName, rangeOffset, rangeLength, rangeSavePath, input, output);
+                        break;
+                    case "9":
+                        System.out.println("Sorato ny anaran'ireo fichiers tianao ho alaina (misaraka amin'ny virgule): ");
+                        String[] batchFileNames = scanner.nextLine().split(",");
+                        System.out.println("Ampidiro ny lalana feno tianao ametrahana ireo fichiers: ");
+                        String batchSavePath = scanner.nextLine();
+                        receiveFilesPipelined(batchFileNames, batchSavePath);
+                        break;
+                    case "10":
+                        System.out.println("Sorato ny lalana feno makany amin'ny fichier ho alefa mivantana: ");
+                        String directFilePath = scanner.nextLine();
+                        File directFile = new File(directFilePath);
+                        if (!directFile.isFile()) {
+                            System.out.println("Hamarino tsara ny path nosoratanao. Avereno indray.");
+                        } else if (!DirectTransfer.upload(directFile, output, input)) {
+                            System.out.println("Alefa amin'ny alalan'ny master ny fichier.");
+                            sendFileResumable(directFilePath);
+                        }
+                        break;
+                    case "11":
+                        System.out.println("Sorato ny anaran'ny fichier tianao ho alaina mivantana: ");
+                        String directFileName = scanner.nextLine();
+                        System.out.println("Ampidiro ny lalana feno tianao ametrahana ny fichier: ");
+                        String directSavePath = scanner.nextLine();
+                        if (!DirectTransfer.download(directFileName, directSavePath, output, input)) {
+                            System.out.println("Alaina amin'ny alalan'ny master ny fichier.");
+                            receiveFileResumable(directFileName, directSavePath);
+                        }
+                        break;
+                    case "12":
+                        // Un rapport par serveur : le master puis chaque slave actif
+                        output.writeUTF("STATS");
+                        output.flush();
+                        int sections = input.readInt();
+                        for (int i = 0; i < sections; i++) {
+                            System.out.println(input.readUTF());
+                        }
+                        break;
                     default:
                         System.out.println("\nDiso safidy enao ah. Avereno azafady.");
                 }
@@ -99,10 +179,213 @@ public class Client {
         System.out.println("3. (download) Maka fichier ao amin'ny serveur");
         System.out.println("4. (remove) Mamafa fichier ao amin'ny serveur");
         System.out.println("5. (exit) Hiala");
+        System.out.println("6. (upload EC) Mandefa fichier amin'ny erasure coding");
+        System.out.println("7. (upload dedup) Mandefa fichier, ny chunks tsy mbola ao amin'ny serveur ihany");
+        System.out.println("8. (range) Maka ampahany amin'ny fichier (offset, length)");
+        System.out.println("9. (batch download) Maka fichiers maromaro miaraka (protocole binaire)");
+        System.out.println("10. (upload direct) Mandefa fichier mivantana any amin'ny slaves");
+        System.out.println("11. (download direct) Maka fichier mivantana any amin'ny slaves");
+        System.out.println("12. (stats) Mijery ny fandrefesana ny master sy ny slaves (latence, debit)");
         System.out.print("Sorato eto ny chiffre mifandray amin'izay tianao atao: ");
         return scanner.nextLine();
     }
 
+    // Ouvre une connexion au serveur ; retourne le message de bienvenue
+    private String openConnection() throws IOException {
+        this.setSocket(new Socket(this.getServerHost(), this.getServerPort()));
+        this.setInput(new DataInputStream(this.getSocket().getInputStream()));
+        this.setOutput(new DataOutputStream(this.getSocket().getOutputStream()));
+        return this.getInput().readUTF();
+    }
+
+    // Après une coupure : nouvelle connexion au serveur, après une attente qui augmente à chaque essai.
+    // Un échec de connexion n'est pas fatal, il fera échouer l'essai suivant.
+    private void reconnect(int attempt) {
+        System.out.println("Averina ny fifandraisana amin'ny serveur (" + attempt + "/" + MAX_RETRIES + ")...");
+        try {
+            this.getSocket().close();
+        } catch (IOException e) {
+            // La connexion est déjà perdue
+        }
+        try {
+            Thread.sleep(1000L * attempt);
+            openConnection();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Tsy tafiditra amin'ny serveur: " + e.getMessage());
+        }
+    }
+
+    // Download reprenable : le fichier est reçu dans <nom>.v<version>.part puis renommé une fois complet et
+    // vérifié. Après une coupure, le serveur reprend là où le fichier partiel s'est arrêté, si la version
+    // du fichier sur le serveur n'a pas changé entre-temps (sinon il renvoie tout).
+    public void receiveFileResumable(String fileName, String savePath) throws IOException {
+        for (int attempt = 0;; attempt++) {
+            File partial = findPartialDownload(savePath, fileName);
+            long version = partial != null ? partialVersion(partial, fileName) : -1;
+            try {
+                DataOutputStream output = this.getOutput();
+                DataInputStream inputStream = this.getInput();
+                output.writeUTF("DOWNLOAD_FROM");
+                output.writeUTF(fileName);
+                output.writeLong(partial != null ? partial.length() : 0);
+                output.writeLong(version);
+                output.flush();
+
+                String serverResponse = inputStream.readUTF();
+                if (!serverResponse.equalsIgnoreCase("DOWNLOAD_READY")) {
+                    System.out.println(serverResponse);
+                    return;
+                }
+                long offset = inputStream.readLong();
+                long fileSize = inputStream.readLong();
+                long currentVersion = inputStream.readLong();
+
+                File partFile = new File(savePath, fileName + ".v" + currentVersion + ".part");
+                if (partial != null && !partial.equals(partFile)) {
+                    partial.delete(); // Version remplacée sur le serveur
+                }
+                if (offset > 0) {
+                    System.out.println("Tohizana manomboka amin'ny octet " + offset + "/" + fileSize);
+                }
+
+                // CRC32C des octets reçus, comparé à celui envoyé par le serveur après les données
+                CRC32C crc = new CRC32C();
+                try (RandomAccessFile out = new RandomAccessFile(partFile, "rw")) {
+                    out.setLength(offset);
+                    out.seek(offset);
+                    byte[] buffer = new byte[1 << 16];
+                    long totalRead = offset;
+                    int bytesRead = 0;
+                    while (totalRead < fileSize && (bytesRead = inputStream.read(buffer, 0,
+                            (int) Math.min(buffer.length, fileSize - totalRead))) > 0) {
+                        crc.update(buffer, 0, bytesRead);
+                        out.write(buffer, 0, bytesRead);
+                        totalRead += bytesRead;
+                    }
+                    if (totalRead != fileSize) {
+                        throw new IOException("Tapaka ny fifandraisana (" + totalRead + "/" + fileSize + " octets).");
+                    }
+                }
+                if ((int) crc.getValue() != inputStream.readInt()) {
+                    // Les octets reçus sont faux : le fichier partiel n'est pas gardé
+                    partFile.delete();
+                    System.out.println("Error: Could not download file. Tsy mitovy ny checksum CRC32C.");
+                    return;
+                }
+
+                File saveFile = new File(savePath, fileName);
+                Files.move(partFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Vita ny download: " + saveFile.getAbsolutePath());
+                return;
+            } catch (IOException e) {
+                if (attempt >= MAX_RETRIES) {
+                    // Le fichier partiel est gardé pour un prochain essai
+                    System.out.println("Error: Could not download file. " + e.getMessage());
+                    return;
+                }
+                System.err.println("Tapaka ny download: " + e.getMessage());
+                reconnect(attempt + 1);
+            }
+        }
+    }
+
+    // Fichier partiel d'un download précédent (<nom>.v<version>.part), ou null
+    private static File findPartialDownload(String savePath, String fileName) {
+        File[] candidates = new File(savePath).listFiles(
+                (dir, name) -> name.startsWith(fileName + ".v") && name.endsWith(".part"));
+        if (candidates != null) {
+            for (File candidate : candidates) {
+                if (partialVersion(candidate, fileName) >= 0) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long partialVersion(File partial, String fileName) {
+        String name = partial.getName();
+        try {
+            return Long.parseLong(name.substring(fileName.length() + 2, name.length() - ".part".length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    // Téléchargement de plusieurs fichiers sur une connexion en protocole binaire : toutes les requêtes partent
+    // d'un coup et chaque fichier est enregistré dès que sa réponse est complète
+    public void receiveFilesPipelined(String[] fileNames, String savePath) throws IOException {
+        try (FramedClient framedClient = new FramedClient(this.getServerHost(), this.getServerPort())) {
+            // Compression des données si le master l'accepte ; sinon tout arrive brut
+            String codec = framedClient.requestCompression("deflate").exceptionally(error -> "none").join();
+            System.out.println("Compression: " + codec);
+            List<CompletableFuture<Void>> downloads = new ArrayList<>();
+            for (String name : fileNames) {
+                String fileName = name.trim();
+                if (fileName.isEmpty()) {
+                    continue;
+                }
+                downloads.add(framedClient.download(fileName, new File(savePath, fileName))
+                        .handle((length, error) -> {
+                            if (error != null) {
+                                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                                System.out.println(fileName + ": " + cause.getMessage());
+                            } else {
+                                System.out.println("Vita ny download " + fileName + " (" + length + " octets).");
+                            }
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+        }
+    }
+
+    // Lecture d'une plage du fichier, enregistrée dans <nom>.<début>-<fin> ; le serveur ne lit que les chunks
+    // qui la recouvrent
+    public void receiveRange(String fileName, long offset, long length, String savePath, DataInputStream inputStream,
+            DataOutputStream output) throws IOException {
+        output.writeUTF("READ_RANGE");
+        output.writeUTF(fileName);
+        output.writeLong(offset);
+        output.writeLong(length);
+        output.flush();
+
+        String serverResponse = inputStream.readUTF();
+        if (!"RANGE_READY".equals(serverResponse)) {
+            System.out.println(serverResponse);
+            return;
+        }
+        long rangeLength = inputStream.readLong();
+        File saveFile = new File(savePath, fileName + "." + offset + "-" + (offset + rangeLength));
+        boolean valid = false;
+        try (FileOutputStream fileOutputStream = new FileOutputStream(saveFile)) {
+            byte[] buffer = new byte[1 << 16];
+            long totalRead = 0;
+            int bytesRead;
+            CRC32C crc = new CRC32C();
+            while (totalRead < rangeLength && (bytesRead = inputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, rangeLength - totalRead))) > 0) {
+                crc.update(buffer, 0, bytesRead);
+                fileOutputStream.write(buffer, 0, bytesRead);
+                totalRead += bytesRead;
+            }
+            if (totalRead != rangeLength) {
+                throw new IOException("Tapaka ny fifandraisana (" + totalRead + "/" + rangeLength + " octets).");
+            }
+            if ((int) crc.getValue() != inputStream.readInt()) {
+                throw new IOException("Tsy mitovy ny checksum CRC32C.");
+            }
+            valid = true;
+            System.out.println("Vita ny range (" + rangeLength + " octets): " + saveFile.getAbsolutePath());
+        } finally {
+            if (!valid) {
+                saveFile.delete();
+            }
+        }
+    }
+
     // Receive a file from the server
     public void receiveFile(String fileName, String savePath, DataInputStream inputStream, DataOutputStream output)
             throws IOException {
@@ -114,20 +397,38 @@ public class Client {
 
         File saveFile = new File(savePath, fileName);
         long fileSize = inputStream.readLong();
+        boolean valid = false;
         try (
                 FileOutputStream fileOutputStream = new FileOutputStream(saveFile)) {
             byte[] buffer = new byte[4096];
             long totalRead = 0;
             int bytesRead = 0;
-            while (totalRead < fileSize && (bytesRead = inputStream.read(buffer)) > 0) {
+            // CRC32C calculé au fil de la réception, comparé à celui envoyé par le serveur après les données
+            CRC32C crc = new CRC32C();
+            while (totalRead < fileSize && (bytesRead = inputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, fileSize - totalRead))) > 0) {
+                crc.update(buffer, 0, bytesRead);
                 fileOutputStream.write(buffer, 0, bytesRead);
                 totalRead += bytesRead;
             }
+            if (totalRead != fileSize) {
+                throw new IOException("Tapaka ny fifandraisana (" + totalRead + "/" + fileSize + " octets).");
+            }
+            int expectedCrc = inputStream.readInt();
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("Tsy mitovy ny checksum CRC32C.");
+            }
+            valid = true;
             System.out.println("Vita ny download: " + saveFile.getAbsolutePath());
         } catch (FileNotFoundException e) {
             System.out.println("Error: Could not create file for writing.");
         } catch (IOException e) {
             System.out.println("Error: Could not download file. " + e.getMessage());
+        } finally {
+            // Un fichier incomplet ou corrompu n'est pas gardé
+            if (!valid) {
+                saveFile.delete();
+            }
         }
     }
 
@@ -158,6 +459,102 @@ public class Client {
 
     }
 
+    // Upload reprenable : le serveur donne un identifiant d'upload et la position à partir de laquelle envoyer.
+    // Si la connexion est coupée, le client se reconnecte et reprend à la dernière position confirmée.
+    public void sendFileResumable(String filePath) throws IOException {
+        File file = new File(filePath);
+        String uploadId = null;
+        for (int attempt = 0;; attempt++) {
+            try {
+                DataOutputStream out = this.getOutput();
+                DataInputStream input = this.getInput();
+                if (uploadId == null) {
+                    out.writeUTF("UPLOAD_RESUMABLE");
+                    out.writeUTF(file.getName());
+                    out.writeLong(file.length());
+                } else {
+                    out.writeUTF("UPLOAD_RESUME");
+                    out.writeUTF(uploadId);
+                }
+                out.flush();
+
+                String response = input.readUTF();
+                if (!"UPLOAD_ID".equals(response)) {
+                    System.out.println("Server: " + response);
+                    return;
+                }
+                uploadId = input.readUTF();
+                long offset = input.readLong();
+                if (offset > 0) {
+                    System.out.println("Tohizana manomboka amin'ny octet " + offset + "/" + file.length());
+                }
+
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                    randomAccessFile.seek(offset);
+                    byte[] buffer = new byte[1 << 16];
+                    int bytesRead;
+                    while ((bytesRead = randomAccessFile.read(buffer)) > 0) {
+                        out.write(buffer, 0, bytesRead);
+                    }
+                }
+                out.flush();
+                System.out.println("Lasa soa amantsara ny fichier!");
+                System.out.println("Server: " + input.readUTF());
+                return;
+            } catch (IOException e) {
+                if (uploadId == null || attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                System.err.println("Tapaka ny upload: " + e.getMessage());
+                reconnect(attempt + 1);
+            }
+        }
+    }
+
+    // Upload dédupliqué : le fichier est découpé selon son contenu, le serveur reçoit la liste des IDs
+    // de chunks et ne demande que ceux qu'aucun slave ne possède encore
+    public void sendFileDeduplicated(String filePath, DataOutputStream out, DataInputStream input)
+            throws IOException {
+        File file = new File(filePath);
+        List<ContentChunker.Chunk> chunks = ContentChunker.split(file);
+
+        out.writeUTF("UPLOAD_DEDUP");
+        out.writeUTF(file.getName());
+        out.writeLong(file.length());
+        out.writeInt(chunks.size());
+        for (ContentChunker.Chunk chunk : chunks) {
+            out.writeUTF(chunk.getId());
+            out.writeInt(chunk.getLength());
+        }
+        out.flush();
+
+        String response = input.readUTF();
+        if (!"DEDUP_MISSING".equals(response)) {
+            System.out.println("Server: " + response);
+            return;
+        }
+        int[] missing = new int[input.readInt()];
+        for (int i = 0; i < missing.length; i++) {
+            missing[i] = input.readInt();
+        }
+
+        // Envoyer uniquement les chunks manquants, dans l'ordre demandé
+        long sent = 0;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            byte[] buffer = new byte[ContentChunker.MAX_CHUNK_SIZE];
+            for (int index : missing) {
+                ContentChunker.Chunk chunk = chunks.get(index);
+                randomAccessFile.seek(chunk.getOffset());
+                randomAccessFile.readFully(buffer, 0, chunk.getLength());
+                out.write(buffer, 0, chunk.getLength());
+                sent += chunk.getLength();
+            }
+        }
+        out.flush();
+        System.out.println(missing.length + "/" + chunks.size() + " chunks nalefa (" + sent + " octets).");
+        System.out.println("Server: " + input.readUTF());
+    }
+
     public Socket getSocket() {
         return socket;
     }
@@ -0,0 +1,119 @@
+package client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Découpage d'un fichier en chunks définis par leur contenu (hash roulant "gear") : une coupure a lieu
+// quand les bits de poids faible du hash sont nuls, donc une insertion ne déplace que les coupures voisines
+// et les autres chunks gardent le même contenu. L'ID d'un chunk est le SHA-256 de son contenu.
+// Le découpage doit être identique sur tous les clients : la table et les paramètres ne doivent pas changer.
+public class ContentChunker {
+
+    public static final int MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    // Coupure en moyenne tous les 1 Mo après la taille minimale
+    private static final long BOUNDARY_MASK = (1L << 20) - 1;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6765617243444344L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public static final class Chunk {
+        private final long offset;
+        private final int length;
+        private final String id;
+
+        Chunk(long offset, int length, String id) {
+            this.offset = offset;
+            this.length = length;
+            this.id = id;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    // Une seule lecture du fichier : la recherche des coupures et le SHA-256 se font dans le même passage
+    public static List<Chunk> split(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return split(in);
+        }
+    }
+
+    public static List<Chunk> split(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] buffer = new byte[1 << 16];
+        long chunkStart = 0;
+        long position = 0;
+        int length = 0;
+        long hash = 0;
+
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) > 0) {
+            int segmentStart = 0;
+            for (int i = 0; i < bytesRead; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                length++;
+                if ((length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || length == MAX_CHUNK_SIZE) {
+                    digest.update(buffer, segmentStart, i + 1 - segmentStart);
+                    chunks.add(new Chunk(chunkStart, length, toHex(digest.digest())));
+                    segmentStart = i + 1;
+                    chunkStart = position + i + 1;
+                    length = 0;
+                    hash = 0;
+                }
+            }
+            digest.update(buffer, segmentStart, bytesRead - segmentStart);
+            position += bytesRead;
+        }
+        if (length > 0) {
+            chunks.add(new Chunk(chunkStart, length, toHex(digest.digest())));
+        }
+        return chunks;
+    }
+
+    // ID (SHA-256 en hexadécimal) des length premiers octets de data
+    public static String idOf(byte[] data, int length) {
+        MessageDigest digest = sha256();
+        digest.update(data, 0, length);
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
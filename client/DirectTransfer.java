@@ -0,0 +1,368 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+// Transferts directs entre le client et les slaves : le master ne fait que donner le placement des chunks et
+// des jetons d'accès signés ; les données passent par une connexion par slave, en parallèle.
+// Le master refuse (transferts directs désactivés, erasure coding) : les méthodes retournent false et
+// l'appelant passe par le master.
+public class DirectTransfer {
+
+    private static final int NO_CRC = -1;
+
+    // Copie d'un chunk sur un slave, avec le jeton de lecture de sa clé
+    private static final class Location {
+        final String host;
+        final int port;
+        final String key;
+        final long offset;
+        final long expiresAt;
+        final String token;
+
+        Location(DataInputStream in) throws IOException {
+            this.host = in.readUTF();
+            this.port = in.readInt();
+            this.key = in.readUTF();
+            this.offset = in.readLong();
+            this.expiresAt = in.readLong();
+            this.token = in.readUTF();
+        }
+
+        String slave() {
+            return host + ":" + port;
+        }
+    }
+
+    // Connexion à un slave, ouverte à la première lecture
+    private static final class SlaveLink {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        SlaveLink(String host, int port) throws IOException {
+            this.socket = new Socket(host, port);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Déjà fermée
+            }
+        }
+    }
+
+    // Upload direct : chaque slave reçoit sa partie du client, puis le master vérifie les trames reçues par les
+    // slaves et publie le fichier (UPLOAD_DIRECT_COMMIT). Pas de reprise : un upload coupé est à refaire.
+    public static boolean upload(File file, DataOutputStream out, DataInputStream in) throws IOException {
+        out.writeUTF("UPLOAD_DIRECT");
+        out.writeUTF(file.getName());
+        out.writeLong(file.length());
+        out.flush();
+        String response = in.readUTF();
+        if (!"DIRECT_LAYOUT".equals(response)) {
+            System.out.println("Server: " + response);
+            return false;
+        }
+        String uploadId = in.readUTF();
+        String partKey = in.readUTF();
+        int chunkSize = in.readInt();
+        int chunkCount = in.readInt();
+        int slaveCount = in.readInt();
+        String[] hosts = new String[slaveCount];
+        int[] ports = new int[slaveCount];
+        long[] expirations = new long[slaveCount];
+        String[] tokens = new String[slaveCount];
+        for (int i = 0; i < slaveCount; i++) {
+            hosts[i] = in.readUTF();
+            ports[i] = in.readInt();
+            expirations[i] = in.readLong();
+            tokens[i] = in.readUTF();
+        }
+        // Écritures de chaque slave, dans l'ordre de leur position dans sa partie : {chunk, position, longueur}
+        List<List<long[]>> writes = new ArrayList<>();
+        for (int i = 0; i < slaveCount; i++) {
+            writes.add(new ArrayList<>());
+        }
+        int writeCount = in.readInt();
+        for (int w = 0; w < writeCount; w++) {
+            int slave = in.readInt();
+            writes.get(slave).add(new long[] { in.readInt(), in.readLong(), in.readInt() });
+        }
+        for (List<long[]> slaveWrites : writes) {
+            slaveWrites.sort((a, b) -> Long.compare(a[1], b[1]));
+        }
+
+        long start = System.nanoTime();
+        int[] chunkCrcs = new int[chunkCount];
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < slaveCount; i++) {
+            if (writes.get(i).isEmpty()) {
+                continue;
+            }
+            int slave = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    sendPart(file, hosts[slave], ports[slave], partKey, expirations[slave], tokens[slave],
+                            writes.get(slave), chunkSize, chunkCrcs);
+                } catch (IOException e) {
+                    // Le master verra les copies manquantes au moment de valider l'upload
+                    System.err.println("Tsy lasa ny ampahany ho an'ny " + hosts[slave] + ":" + ports[slave]
+                            + ": " + e.getMessage());
+                }
+            }, "direct-upload-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        joinAll(threads);
+        long elapsedNanos = System.nanoTime() - start;
+
+        // Un chunk qu'aucun slave n'a reçu garde un CRC nul : le master le verra manquant
+        out.writeUTF("UPLOAD_DIRECT_COMMIT");
+        out.writeUTF(uploadId);
+        out.writeInt(chunkCount);
+        for (int crc : chunkCrcs) {
+            out.writeInt(crc);
+        }
+        out.flush();
+        System.out.println("Lasa mivantana any amin'ny slaves ny fichier (" + throughput(file.length(), elapsedNanos)
+                + ").");
+        System.out.println("Server: " + in.readUTF());
+        return true;
+    }
+
+    // Envoie à un slave sa partie : une trame par chunk, lue dans le fichier à la position du chunk
+    private static void sendPart(File file, String host, int port, String partKey, long expiresAt, String token,
+            List<long[]> writes, int chunkSize, int[] chunkCrcs) throws IOException {
+        SlaveLink link = new SlaveLink(host, port);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            link.out.writeUTF("CLIENT_UPLOAD_AT");
+            link.out.writeUTF(partKey);
+            link.out.writeLong(writes.get(0)[1]);
+            link.out.writeLong(expiresAt);
+            link.out.writeUTF(token);
+            link.out.flush();
+            String ready = link.in.readUTF();
+            if (!"UPLOAD_READY".equals(ready)) {
+                throw new IOException(ready);
+            }
+
+            byte[] buffer = new byte[chunkSize];
+            int[] sentCrcs = new int[writes.size()];
+            CRC32C crc = new CRC32C();
+            for (int w = 0; w < writes.size(); w++) {
+                long[] write = writes.get(w);
+                int length = (int) write[2];
+                randomAccessFile.seek(write[0] * chunkSize);
+                randomAccessFile.readFully(buffer, 0, length);
+                crc.reset();
+                crc.update(buffer, 0, length);
+                sentCrcs[w] = (int) crc.getValue();
+                link.out.writeInt(length);
+                link.out.write(buffer, 0, length);
+            }
+            link.out.writeInt(0);
+            link.out.flush();
+
+            String response = link.in.readUTF();
+            if (!response.startsWith("UPLOAD_SUCCESS")) {
+                throw new IOException(response);
+            }
+            int count = link.in.readInt();
+            int[] receivedCrcs = new int[count];
+            for (int f = 0; f < count; f++) {
+                receivedCrcs[f] = link.in.readInt();
+            }
+            // Seuls les chunks reçus intacts par le slave gardent leur CRC
+            for (int w = 0; w < writes.size(); w++) {
+                if (w < count && receivedCrcs[w] == sentCrcs[w]) {
+                    chunkCrcs[(int) writes.get(w)[0]] = sentCrcs[w];
+                }
+            }
+        } finally {
+            link.close();
+        }
+    }
+
+    // Download direct : chaque chunk est lu sur une de ses copies et vérifié (CRC32C, ou SHA-256 pour un chunk
+    // dédupliqué), puis écrit à sa position dans <nom>.direct.part, renommé une fois le fichier complet.
+    // Un worker par slave qui porte la première copie des chunks ; une copie illisible fait passer à la suivante.
+    public static boolean download(String fileName, String savePath, DataOutputStream out, DataInputStream in)
+            throws IOException {
+        out.writeUTF("DOWNLOAD_DIRECT");
+        out.writeUTF(fileName);
+        out.flush();
+        String response = in.readUTF();
+        if (!"DIRECT_LAYOUT".equals(response)) {
+            System.out.println(response);
+            return false;
+        }
+        long fileSize = in.readLong();
+        in.readLong(); // Version : le fichier direct n'est pas repris
+        int chunkCount = in.readInt();
+        int[] lengths = new int[chunkCount];
+        long[] crcs = new long[chunkCount];
+        long[] positions = new long[chunkCount];
+        List<List<Location>> locations = new ArrayList<>();
+        long position = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            lengths[c] = in.readInt();
+            crcs[c] = in.readLong();
+            positions[c] = position;
+            position += lengths[c];
+            List<Location> copies = new ArrayList<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                copies.add(new Location(in));
+            }
+            locations.add(copies);
+        }
+
+        // Chunks de chaque worker, d'après le slave de leur première copie
+        Map<String, List<Integer>> assignments = new LinkedHashMap<>();
+        for (int c = 0; c < chunkCount; c++) {
+            if (locations.get(c).isEmpty()) {
+                System.out.println("Error: Could not download file. Tsy misy slave manana ny chunk " + c + ".");
+                return true;
+            }
+            assignments.computeIfAbsent(locations.get(c).get(0).slave(), slave -> new ArrayList<>()).add(c);
+        }
+
+        File partFile = new File(savePath, fileName + ".direct.part");
+        long start = System.nanoTime();
+        AtomicBoolean failed = new AtomicBoolean();
+        try (FileChannel fileChannel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Thread> threads = new ArrayList<>();
+            for (List<Integer> chunks : assignments.values()) {
+                Thread thread = new Thread(() -> {
+                    Map<String, SlaveLink> links = new HashMap<>();
+                    try {
+                        for (int c : chunks) {
+                            if (failed.get()) {
+                                return;
+                            }
+                            byte[] data = readChunk(locations.get(c), lengths[c], crcs[c], links);
+                            if (data == null) {
+                                System.out.println("Error: Tsy azo ny chunk " + c + " tamin'ny slave rehetra.");
+                                failed.set(true);
+                                return;
+                            }
+                            ByteBuffer buffer = ByteBuffer.wrap(data);
+                            long chunkPosition = positions[c];
+                            while (buffer.hasRemaining()) {
+                                chunkPosition += fileChannel.write(buffer, chunkPosition);
+                            }
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                        failed.set(true);
+                    } finally {
+                        for (SlaveLink link : links.values()) {
+                            link.close();
+                        }
+                    }
+                }, "direct-download-" + threads.size());
+                thread.start();
+                threads.add(thread);
+            }
+            joinAll(threads);
+        }
+
+        if (failed.get()) {
+            partFile.delete();
+            System.out.println("Error: Could not download file.");
+            return true;
+        }
+        File saveFile = new File(savePath, fileName);
+        Files.move(partFile.toPath(), saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Vita ny download mivantana: " + saveFile.getAbsolutePath() + " ("
+                + throughput(fileSize, System.nanoTime() - start) + ").");
+        return true;
+    }
+
+    // Octets du chunk lus et vérifiés sur la première copie qui répond ; null si aucune n'est bonne
+    private static byte[] readChunk(List<Location> copies, int length, long expectedCrc, Map<String, SlaveLink> links) {
+        byte[] data = new byte[length];
+        for (Location location : copies) {
+            SlaveLink link = links.get(location.slave());
+            try {
+                if (link == null) {
+                    link = new SlaveLink(location.host, location.port);
+                    links.put(location.slave(), link);
+                }
+                link.out.writeUTF("CLIENT_READ_RANGE");
+                link.out.writeUTF(location.key);
+                link.out.writeLong(location.offset);
+                link.out.writeLong(length);
+                link.out.writeLong(location.expiresAt);
+                link.out.writeUTF(location.token);
+                link.out.flush();
+                if (link.in.readLong() != length) {
+                    System.err.println("Copie " + location.key + " tsy hita tao amin'ny " + location.slave());
+                    continue;
+                }
+                link.in.readFully(data);
+                if (isValid(data, length, expectedCrc, location.key)) {
+                    return data;
+                }
+                System.err.println("Copie " + location.key + " simba tao amin'ny " + location.slave());
+            } catch (IOException e) {
+                System.err.println("Tsy azo ny " + location.key + " tao amin'ny " + location.slave() + ": "
+                        + e.getMessage());
+                if (link != null) {
+                    link.close();
+                }
+                links.remove(location.slave());
+            }
+        }
+        return null;
+    }
+
+    // Chunk dédupliqué (clé chunks/<ab>/<id>) sans CRC : son ID est le SHA-256 de son contenu
+    private static boolean isValid(byte[] data, int length, long expectedCrc, String key) {
+        if (expectedCrc != NO_CRC) {
+            CRC32C crc = new CRC32C();
+            crc.update(data, 0, length);
+            return crc.getValue() == expectedCrc;
+        }
+        String chunkId = key.substring(key.lastIndexOf('/') + 1);
+        return !key.startsWith("chunks/") || ContentChunker.idOf(data, length).equals(chunkId);
+    }
+
+    private static void joinAll(List<Thread> threads) throws IOException {
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Transfert interrompu.");
+        }
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        return String.format("%.1f Mio/s", bytes * 1e9 / Math.max(nanos, 1) / (1 << 20));
+    }
+}
@@ -0,0 +1,317 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+import protocol.Compression;
+import protocol.Frame;
+
+// Connexion au master en protocole binaire : les requêtes partent sans attendre les réponses des précédentes
+// et chaque méthode retourne un CompletableFuture. Un thread lecteur range chaque trame reçue dans la
+// requête qui porte son identifiant ; les réponses arrivent dans l'ordre où le master les termine.
+// Les trames de données compressées (après requestCompression) sont décompressées à la réception.
+// Une requête qui échoue côté client (fichier local illisible, réponse invalide) est annulée auprès du master
+// (CANCEL) pour qu'il cesse d'envoyer ses trames.
+public class FramedClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, PendingRequest<?>> pending = new ConcurrentHashMap<>();
+    private final Thread reader;
+
+    public FramedClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        try {
+            // Message de bienvenue (ou refus), puis passage au protocole binaire
+            String welcome = in.readUTF();
+            if (welcome.startsWith("ERROR")) {
+                throw new IOException(welcome);
+            }
+            out.writeUTF("FRAMED");
+            out.flush();
+            String answer = in.readUTF();
+            if (!"FRAMED_OK".equals(answer)) {
+                throw new IOException("Protocole binaire refusé : " + answer);
+            }
+            byte version = in.readByte();
+            if (version != Frame.VERSION) {
+                throw new IOException("Version du protocole binaire non supportée : " + version);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        this.reader = new Thread(this::readResponses, "framed-client-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    // Propose des codecs par ordre de préférence ; le future donne celui retenu par le master ("none" sinon).
+    // À attendre avant d'envoyer les requêtes qui doivent en profiter.
+    public CompletableFuture<String> requestCompression(String... codecNames) {
+        return send(Frame.COMPRESS, data -> {
+            data.writeInt(codecNames.length);
+            for (String codecName : codecNames) {
+                data.writeUTF(codecName);
+            }
+        }, new MessageRequest());
+    }
+
+    public CompletableFuture<List<String>> listing() {
+        return send(Frame.LISTING, data -> {
+        }, new ListingRequest());
+    }
+
+    // Taille et version de chaque fichier ({-1, -1} s'il n'existe pas), en une requête
+    public CompletableFuture<long[][]> stat(List<String> fileNames) {
+        return send(Frame.STAT, data -> {
+            data.writeInt(fileNames.size());
+            for (String fileName : fileNames) {
+                data.writeUTF(fileName);
+            }
+        }, new StatRequest());
+    }
+
+    public CompletableFuture<String> remove(String fileName) {
+        return send(Frame.REMOVE, data -> data.writeUTF(fileName), new MessageRequest());
+    }
+
+    // Fichier reçu dans <cible>.part, renommé une fois complet et vérifié ; le future donne sa taille
+    public CompletableFuture<Long> download(String fileName, File target) {
+        File partial = new File(target.getPath() + ".part");
+        DataRequest request = new DataRequest(() -> new FileOutputStream(partial));
+        return send(Frame.DOWNLOAD, data -> data.writeUTF(fileName), request)
+                .whenComplete((length, error) -> {
+                    if (error != null) {
+                        partial.delete();
+                    }
+                })
+                .thenApply(length -> {
+                    try {
+                        Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Tsy voafindra ny fichier: " + e.getMessage(), e);
+                    }
+                    return length;
+                });
+    }
+
+    public CompletableFuture<byte[]> readRange(String fileName, long offset, long length) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        return send(Frame.READ_RANGE, data -> {
+            data.writeUTF(fileName);
+            data.writeLong(offset);
+            data.writeLong(length);
+        }, new DataRequest(() -> bytes)).thenApply(received -> bytes.toByteArray());
+    }
+
+    private <T> CompletableFuture<T> send(byte opcode, Frame.PayloadWriter writer, PendingRequest<T> request) {
+        int requestId = nextRequestId.incrementAndGet();
+        pending.put(requestId, request);
+        try {
+            byte[] payload = Frame.payload(writer);
+            synchronized (out) {
+                Frame.write(out, opcode, requestId, (byte) 0, payload, 0, payload.length);
+                out.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(requestId);
+            request.fail(e);
+        }
+        return request.result;
+    }
+
+    // Thread lecteur : distribue les trames aux requêtes en attente jusqu'à la fermeture de la connexion
+    private void readResponses() {
+        IOException failure;
+        try {
+            while (true) {
+                Frame frame = Frame.read(in);
+                PendingRequest<?> request = pending.get(frame.getRequestId());
+                if (request == null) {
+                    continue;
+                }
+                try {
+                    if (frame.isError()) {
+                        pending.remove(frame.getRequestId());
+                        request.fail(new IOException(frame.payloadInput().readUTF()));
+                    } else if (request.accept(frame)) {
+                        pending.remove(frame.getRequestId());
+                    }
+                } catch (IOException e) {
+                    pending.remove(frame.getRequestId());
+                    request.fail(e);
+                    cancel(frame.getRequestId());
+                }
+            }
+        } catch (IOException e) {
+            failure = new IOException("Tapaka ny fifandraisana: " + e.getMessage(), e);
+        }
+        for (Integer requestId : new ArrayList<>(pending.keySet())) {
+            PendingRequest<?> request = pending.remove(requestId);
+            if (request != null) {
+                request.fail(failure);
+            }
+        }
+    }
+
+    // Pas de réponse : les trames de la requête encore en route sont ignorées par le lecteur
+    private void cancel(int requestId) {
+        try {
+            synchronized (out) {
+                Frame.write(out, Frame.CANCEL, requestId, (byte) 0, new byte[0], 0, 0);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Connexion perdue : le master abandonne de toute façon la requête
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Requête en attente de sa réponse ; accept() reçoit les trames dans l'ordre et retourne true à la dernière
+    private abstract static class PendingRequest<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        abstract boolean accept(Frame frame) throws IOException;
+
+        void fail(IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static class ListingRequest extends PendingRequest<List<String>> {
+        @Override
+        boolean accept(Frame frame) throws IOException {
+            DataInputStream data = frame.payloadInput();
+            int count = data.readInt();
+            List<String> files = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                files.add(data.readUTF());
+            }
+            result.complete(files);
+            return true;
+        }
+    }
+
+    private static class StatRequest extends PendingRequest<long[][]> {
+        @Override
+        boolean accept(Frame frame) throws IOException {
+            DataInputStream data = frame.payloadInput();
+            long[][] stats = new long[data.readInt()][];
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = new long[] { data.readLong(), data.readLong() };
+            }
+            result.complete(stats);
+            return true;
+        }
+    }
+
+    // Réponse réduite à un message (REMOVE, COMPRESS)
+    private static class MessageRequest extends PendingRequest<String> {
+        @Override
+        boolean accept(Frame frame) throws IOException {
+            result.complete(frame.payloadInput().readUTF());
+            return true;
+        }
+    }
+
+    interface OutputOpener {
+        OutputStream open() throws IOException;
+    }
+
+    // DOWNLOAD ou READ_RANGE : en-tête [long longueur][long version], trames de données, puis [int CRC32C]
+    private static class DataRequest extends PendingRequest<Long> {
+        private final OutputOpener opener;
+        private final CRC32C crc = new CRC32C();
+        private OutputStream output;
+        private long length = -1;
+        private long received;
+
+        DataRequest(OutputOpener opener) {
+            this.opener = opener;
+        }
+
+        @Override
+        boolean accept(Frame frame) throws IOException {
+            if (length < 0) {
+                DataInputStream header = frame.payloadInput();
+                length = header.readLong();
+                header.readLong(); // version
+                output = opener.open();
+                return false;
+            }
+            if (frame.hasMore()) {
+                byte[] data = frame.isCompressed() ? decompress(frame) : frame.getPayload();
+                output.write(data);
+                crc.update(data);
+                received += data.length;
+                return false;
+            }
+            output.close();
+            if (received != length) {
+                throw new IOException("Tsy feno ny valiny (" + received + "/" + length + " octets).");
+            }
+            if ((int) crc.getValue() != frame.payloadInput().readInt()) {
+                throw new IOException("Tsy mitovy ny checksum CRC32C.");
+            }
+            result.complete(length);
+            return true;
+        }
+
+        // Payload [byte codec][int longueur d'origine][octets compressés]
+        private static byte[] decompress(Frame frame) throws IOException {
+            DataInputStream data = frame.payloadInput();
+            byte codecId = data.readByte();
+            int rawLength = data.readInt();
+            if (rawLength < 0 || rawLength > Frame.MAX_PAYLOAD) {
+                throw new IOException("Trame compressée invalide : " + rawLength);
+            }
+            byte[] raw = new byte[rawLength];
+            byte[] payload = frame.getPayload();
+            Compression.decompress(codecId, payload, 5, payload.length - 5, raw, 0, rawLength);
+            return raw;
+        }
+
+        @Override
+        void fail(IOException e) {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException closeError) {
+                    // Le fichier partiel est supprimé de toute façon
+                }
+            }
+            super.fail(e);
+        }
+    }
+}
@@ -32,6 +32,36 @@ public class ConfigLoader {
         return properties.getProperty(key, "localhost");
     }
 
+    // Poids statique du slave pour le placement (2 : deux fois plus de chunks à débit égal, 0 : en dernier recours)
+    public double getSlaveWeight(String slaveId) {
+        return Double.parseDouble(properties.getProperty(slaveId.concat(".weight"), "1"));
+    }
+
+    // "ring" (anneau de hachage cohérent), "weighted" (poids, débit et charge des slaves) ou "roundrobin"
+    public String getPlacement() {
+        return properties.getProperty("placement", "ring");
+    }
+
+    // Points de chaque slave sur l'anneau, par unité de poids
+    public int getRingVirtualNodes() {
+        return Integer.parseInt(properties.getProperty("ringVirtualNodes", "128"));
+    }
+
+    // Débit maximal du rééquilibrage en tâche de fond (0 : pas de rééquilibrage)
+    public long getRebalanceBytesPerSec() {
+        return Long.parseLong(properties.getProperty("rebalanceBytesPerSec", "10485760"));
+    }
+
+    // Délai entre le dernier changement des slaves actifs et le rééquilibrage, puis avant la suppression
+    // des copies déplacées
+    public long getRebalanceDelayMs() {
+        return Long.parseLong(properties.getProperty("rebalanceDelayMs", "30000"));
+    }
+
+    public long getPlacementMinFreeBytes() {
+        return Long.parseLong(properties.getProperty("placementMinFreeBytes", "67108864"));
+    }
+
     public int getSlavePort(String slaveId) {
         String key = slaveId.concat(".port");
         return Integer.parseInt(properties.getProperty(key));
@@ -49,6 +79,224 @@ public class ConfigLoader {
     //     return Integer.parseInt(properties.getProperty("masterPortForClient", "3184"));
     // }
 
+    // Taille des chunks distribués en round-robin sur les slaves
+    public int getChunkSize() {
+        return Integer.parseInt(properties.getProperty("chunkSize", "1048576"));
+    }
+
+    // Nombre maximal de chunks d'un upload : une taille annoncée au-delà est refusée avant toute allocation
+    public int getMaxUploadChunks() {
+        return Integer.parseInt(properties.getProperty("maxUploadChunks", "1048576"));
+    }
+
+    // Nombre de chunks en attente par slave avant de bloquer la lecture du client
+    public int getSlaveQueueDepth() {
+        return Integer.parseInt(properties.getProperty("slaveQueueDepth", "4"));
+    }
+
+    // Nombre de copies de chaque chunk (sur des slaves différents)
+    public int getReplicationFactor() {
+        return Integer.parseInt(properties.getProperty("replicationFactor", "1"));
+    }
+
+    // Mode de stockage par défaut : "replication" ou "erasure" (bandes de k chunks de données + m de parité)
+    public String getStorageMode() {
+        return properties.getProperty("storageMode", "replication");
+    }
+
+    public int getEcDataShards() {
+        return Integer.parseInt(properties.getProperty("ecDataShards", "2"));
+    }
+
+    public int getEcParityShards() {
+        return Integer.parseInt(properties.getProperty("ecParityShards", "1"));
+    }
+
+    // Taille maximale d'un chunk annoncé par un client en upload dédupliqué
+    public int getDedupMaxChunkSize() {
+        return Integer.parseInt(properties.getProperty("dedupMaxChunkSize", "8388608"));
+    }
+
+    // Taille minimale des chunks du découpage des clients (ContentChunker.MIN_CHUNK_SIZE), sauf le dernier
+    public int getDedupMinChunkSize() {
+        return Integer.parseInt(properties.getProperty("dedupMinChunkSize", "262144"));
+    }
+
+    // Nombre maximal de chunks d'un upload dédupliqué, quelle que soit la taille annoncée
+    public int getDedupMaxChunks() {
+        return Integer.parseInt(properties.getProperty("dedupMaxChunks", "1048576"));
+    }
+
+    // Secret partagé par le master et les slaves pour signer les jetons des transferts directs et authentifier
+    // les connexions du master aux slaves (vide : transferts directs désactivés, connexions non authentifiées)
+    public String getDirectSecret() {
+        return properties.getProperty("directSecret", "");
+    }
+
+    // Durée de validité d'un jeton d'accès direct
+    public long getDirectTokenTtlMs() {
+        return Long.parseLong(properties.getProperty("directTokenTtlMs", "600000"));
+    }
+
+    // Taille maximale d'un petit fichier rangé dans un segment de pack plutôt que découpé (0 : désactivé)
+    public int getPackThreshold() {
+        return Integer.parseInt(properties.getProperty("packThreshold", "65536"));
+    }
+
+    public long getPackSegmentSize() {
+        return Long.parseLong(properties.getProperty("packSegmentSize", "67108864"));
+    }
+
+    // Part d'octets supprimés à partir de laquelle un segment est compacté
+    public double getPackCompactRatio() {
+        return Double.parseDouble(properties.getProperty("packCompactRatio", "0.5"));
+    }
+
+    public long getPackCompactIntervalMs() {
+        return Long.parseLong(properties.getProperty("packCompactIntervalMs", "60000"));
+    }
+
+    // Durée d'inactivité après laquelle un upload reprenable est abandonné
+    public long getUploadSessionTimeoutMs() {
+        return Long.parseLong(properties.getProperty("uploadSessionTimeoutMs", "3600000"));
+    }
+
+    // "virtual" (un thread virtuel par connexion, Java 21+) ou "pool"
+    public String getExecutionMode() {
+        return properties.getProperty("executionMode", "virtual");
+    }
+
+    // Threads gardés prêts en mode "pool" (et dans le repli quand les threads virtuels sont indisponibles)
+    public int getExecutorPoolSize() {
+        return Integer.parseInt(properties.getProperty("executorPoolSize", "64"));
+    }
+
+    // Nombre maximal de connexions ouvertes, actives ou non ; au-delà elles sont refusées
+    public int getMaxConnections() {
+        return Integer.parseInt(properties.getProperty("maxConnections", "10000"));
+    }
+
+    // Nombre maximal de requêtes traitées en même temps, toutes connexions confondues (une connexion qui
+    // attend sa prochaine commande n'en occupe pas)
+    public int getMaxInFlight() {
+        return Integer.parseInt(properties.getProperty("maxInFlight", "256"));
+    }
+
+    // Nombre maximal de requêtes en attente d'une place ; au-delà elles sont refusées
+    public int getExecutorQueueLimit() {
+        return Integer.parseInt(properties.getProperty("executorQueueLimit", "1000"));
+    }
+
+    // File d'attente des connexions TCP pas encore acceptées
+    public int getAcceptBacklog() {
+        return Integer.parseInt(properties.getProperty("acceptBacklog", "1024"));
+    }
+
+    // Temps laissé aux requêtes en cours pour se terminer à l'arrêt du serveur
+    public long getShutdownGraceMs() {
+        return Long.parseLong(properties.getProperty("shutdownGraceMs", "10000"));
+    }
+
+    // Requêtes traitées en parallèle sur une connexion en protocole binaire
+    public int getFramedMaxInFlight() {
+        return Integer.parseInt(properties.getProperty("framedMaxInFlight", "32"));
+    }
+
+    // Codec proposé sur les connexions (master -> slaves, client -> master) : "deflate" ou "none"
+    public String getCompression() {
+        return properties.getProperty("compression", "none");
+    }
+
+    // Un chunk n'est envoyé compressé que s'il descend à cette fraction de sa taille ou moins
+    public double getCompressionMaxRatio() {
+        return Double.parseDouble(properties.getProperty("compressionMaxRatio", "0.9"));
+    }
+
+    // Taille de l'échantillon compressé pour décider si un chunk vaut la peine d'être compressé
+    public int getCompressionSampleSize() {
+        return Integer.parseInt(properties.getProperty("compressionSampleSize", "4096"));
+    }
+
+    // Slave : les chunks reçus compressés sont écrits tels quels sur le disque
+    public boolean isCompressedStorage() {
+        return Boolean.parseBoolean(properties.getProperty("compressedStorage", "true"));
+    }
+
+    // Écritures des slaves synchronisées sur disque avant confirmation (false : plus rapide, perdues en cas de crash)
+    public boolean isSlaveFsync() {
+        return Boolean.parseBoolean(properties.getProperty("slaveFsync", "true"));
+    }
+
+    // Budget en octets du cache de chunks du master (0 pour le désactiver)
+    public long getCacheBytes() {
+        return Long.parseLong(properties.getProperty("cacheBytes", "268435456"));
+    }
+
+    // Nombre de chunks lus en avance pendant un téléchargement
+    public int getDownloadWindow() {
+        return Integer.parseInt(properties.getProperty("downloadWindow", "8"));
+    }
+
+    // Lectures de secours vers une autre copie quand la première dépasse son 95e centile
+    public boolean isHedgedReads() {
+        return Boolean.parseBoolean(properties.getProperty("hedgedReads", "true"));
+    }
+
+    public long getHedgeMinDelayMs() {
+        return Long.parseLong(properties.getProperty("hedgeMinDelayMs", "2"));
+    }
+
+    public long getHedgeDefaultDelayMs() {
+        return Long.parseLong(properties.getProperty("hedgeDefaultDelayMs", "50"));
+    }
+
+    // Pool de connexions master -> slaves
+    public int getPoolMaxPerSlave() {
+        return Integer.parseInt(properties.getProperty("poolMaxPerSlave", "8"));
+    }
+
+    public long getPoolIdleTimeoutMs() {
+        return Long.parseLong(properties.getProperty("poolIdleTimeoutMs", "60000"));
+    }
+
+    public long getPoolValidateAfterMs() {
+        return Long.parseLong(properties.getProperty("poolValidateAfterMs", "5000"));
+    }
+
+    public long getPoolBorrowTimeoutMs() {
+        return Long.parseLong(properties.getProperty("poolBorrowTimeoutMs", "10000"));
+    }
+
+    public int getSlaveConnectTimeoutMs() {
+        return Integer.parseInt(properties.getProperty("slaveConnectTimeoutMs", "2000"));
+    }
+
+    // Heartbeat : intervalle, délai de réponse et nombre d'échecs avant de déclarer un slave mort
+    public long getHeartbeatIntervalMs() {
+        return Long.parseLong(properties.getProperty("heartbeatIntervalMs", "1000"));
+    }
+
+    public int getHeartbeatTimeoutMs() {
+        return Integer.parseInt(properties.getProperty("heartbeatTimeoutMs", "1000"));
+    }
+
+    public int getHeartbeatMissesBeforeDown() {
+        return Integer.parseInt(properties.getProperty("heartbeatMissesBeforeDown", "2"));
+    }
+
+    // Catalogue des fichiers : répertoire du journal et du snapshot (storageDir par défaut)
+    public String getCatalogDir() {
+        return properties.getProperty("catalogDir", getSavePath());
+    }
+
+    public boolean isCatalogFsync() {
+        return Boolean.parseBoolean(properties.getProperty("catalogFsync", "true"));
+    }
+
+    public int getCatalogSnapshotEvery() {
+        return Integer.parseInt(properties.getProperty("catalogSnapshotEvery", "10000"));
+    }
+
     public String getSavePath() {
         return properties.getProperty("storageDir");
     }
@@ -0,0 +1,76 @@
+package protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Jeton d'accès direct d'un client à un slave (transferts sans passer par le master) : HMAC-SHA256 de
+// "<droit>|<clé>|<expiration>" avec le secret partagé par le master et les slaves (directSecret).
+// Le slave le vérifie sans contacter le master. Un jeton ne vaut que pour une clé (partie ou chunk), un droit
+// (READ ou WRITE) et jusqu'à son expiration (en millisecondes depuis l'epoch).
+// Le même secret authentifie les connexions du master aux slaves (défi-réponse, droit MASTER) : sur le port
+// d'un slave, un client sans ce secret n'a accès qu'aux commandes vérifiées par jeton.
+public final class AccessToken {
+
+    public static final String READ = "R";
+    public static final String WRITE = "W";
+    public static final String MASTER = "M";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private AccessToken() {
+    }
+
+    public static String sign(String secret, String right, String key, long expiresAt) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] digest = mac.doFinal((right + "|" + key + "|" + expiresAt).getBytes(StandardCharsets.UTF_8));
+            return hex(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Défi aléatoire envoyé par un slave à une connexion qui veut s'authentifier comme master
+    public static String newChallenge() {
+        byte[] challenge = new byte[16];
+        RANDOM.nextBytes(challenge);
+        return hex(challenge);
+    }
+
+    // Réponse du master à un défi ; le droit MASTER la distingue de tout jeton READ ou WRITE
+    public static String answer(String secret, String challenge) {
+        return sign(secret, MASTER, challenge, 0);
+    }
+
+    // Un secret vide refuse tout : sans secret, les connexions ne s'authentifient pas
+    public static boolean verifyAnswer(String secret, String challenge, String answer) {
+        if (secret.isEmpty()) {
+            return false;
+        }
+        return MessageDigest.isEqual(answer(secret, challenge).getBytes(StandardCharsets.UTF_8),
+                answer.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Comparaison en temps constant ; un secret vide refuse tout (transferts directs désactivés)
+    public static boolean verify(String secret, String right, String key, long expiresAt, String token) {
+        if (secret.isEmpty() || expiresAt < System.currentTimeMillis()) {
+            return false;
+        }
+        return MessageDigest.isEqual(sign(secret, right, key, expiresAt).getBytes(StandardCharsets.UTF_8),
+                token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,20 @@
+package protocol;
+
+import java.io.IOException;
+
+// Algorithme de compression des chunks. Chaque codec a un identifiant d'un octet, écrit devant chaque chunk
+// compressé (0 = chunk brut), et un nom utilisé pour la négociation sur une connexion.
+public interface ChunkCodec {
+
+    byte getId();
+
+    String getName();
+
+    // Compresse src[offset, offset + length) dans dst[dstOffset, dstOffset + dstLength) ;
+    // retourne la longueur compressée, ou -1 si le résultat ne tient pas dans dst
+    int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int dstLength);
+
+    // Décompresse exactement rawLength octets dans dst à partir de dstOffset
+    void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength)
+            throws IOException;
+}
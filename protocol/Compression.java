@@ -0,0 +1,111 @@
+package protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compression adaptative des chunks sur une connexion où un codec a été négocié.
+// Chaque chunk est décidé séparément : un échantillon du milieu du chunk est d'abord compressé, et si
+// l'échantillon ne descend pas sous maxRatio de sa taille (média, archive, parité d'erasure coding...)
+// le chunk part brut sans avoir été compressé en entier. Sinon le chunk entier est compressé et n'est
+// gardé que s'il respecte lui aussi maxRatio.
+public class Compression {
+
+    // En dessous, l'en-tête et l'appel au codec coûtent plus que ce qu'on gagne
+    private static final int MIN_LENGTH = 512;
+
+    private static final Map<String, ChunkCodec> CODECS_BY_NAME = new ConcurrentHashMap<>();
+    private static final Map<Byte, ChunkCodec> CODECS_BY_ID = new ConcurrentHashMap<>();
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    private final ChunkCodec codec;
+    private final double maxRatio;
+    private final int sampleSize;
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong skippedChunks = new AtomicLong();
+
+    public Compression(ChunkCodec codec, double maxRatio, int sampleSize) {
+        this.codec = codec;
+        this.maxRatio = maxRatio;
+        this.sampleSize = sampleSize;
+    }
+
+    // Ajoute un codec (par exemple un algorithme plus rapide que Deflate) aux codecs négociables
+    public static void register(ChunkCodec codec) {
+        CODECS_BY_NAME.put(codec.getName(), codec);
+        CODECS_BY_ID.put(codec.getId(), codec);
+    }
+
+    // null si le codec est inconnu ou "none"
+    public static ChunkCodec codec(String name) {
+        return name == null ? null : CODECS_BY_NAME.get(name);
+    }
+
+    public static ChunkCodec codec(byte id) throws IOException {
+        ChunkCodec codec = CODECS_BY_ID.get(id);
+        if (codec == null) {
+            throw new IOException("Codec de compression inconnu : " + id);
+        }
+        return codec;
+    }
+
+    // Mêmes réglages avec le codec négocié sur une connexion
+    public Compression withCodec(ChunkCodec negotiated) {
+        return negotiated == codec ? this : new Compression(negotiated, maxRatio, sampleSize);
+    }
+
+    // Version compressée de data[offset, offset + length), ou null si le chunk doit partir brut
+    public byte[] compress(byte[] data, int offset, int length) {
+        rawBytes.addAndGet(length);
+        if (length >= MIN_LENGTH && isWorthCompressing(data, offset, length)) {
+            byte[] compressed = new byte[(int) (length * maxRatio)];
+            int compressedLength = codec.compress(data, offset, length, compressed, 0, compressed.length);
+            if (compressedLength >= 0) {
+                sentBytes.addAndGet(compressedLength);
+                return Arrays.copyOf(compressed, compressedLength);
+            }
+        }
+        skippedChunks.incrementAndGet();
+        sentBytes.addAndGet(length);
+        return null;
+    }
+
+    // Décompresse un chunk reçu avec l'identifiant de son codec
+    public static void decompress(byte codecId, byte[] src, int offset, int length, byte[] dst, int dstOffset,
+            int rawLength) throws IOException {
+        codec(codecId).decompress(src, offset, length, dst, dstOffset, rawLength);
+    }
+
+    private boolean isWorthCompressing(byte[] data, int offset, int length) {
+        if (length <= 2 * sampleSize) {
+            return true; // Petit chunk : l'échantillon coûterait presque autant que le chunk entier
+        }
+        byte[] sample = new byte[(int) (sampleSize * maxRatio)];
+        return codec.compress(data, offset + (length - sampleSize) / 2, sampleSize, sample, 0, sample.length) >= 0;
+    }
+
+    public ChunkCodec getCodec() {
+        return codec;
+    }
+
+    // Octets présentés à la compression
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    // Octets réellement envoyés (compressés ou bruts)
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    // Chunks envoyés bruts parce qu'ils ne se compressaient pas assez
+    public long getSkippedChunks() {
+        return skippedChunks.get();
+    }
+}
@@ -0,0 +1,65 @@
+package protocol;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Deflate du JDK au niveau le plus rapide : sur un lien lent le gain vient du volume, pas du taux maximal
+public class DeflateCodec implements ChunkCodec {
+
+    public static final byte ID = 1;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public int compress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int dstLength) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(src, offset, length);
+            deflater.finish();
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == dstLength) {
+                    return -1;
+                }
+                written += deflater.deflate(dst, dstOffset + written, dstLength - written);
+            }
+            return written;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int offset, int length, byte[] dst, int dstOffset, int rawLength)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src, offset, length);
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(dst, dstOffset + read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength || !inflater.finished()) {
+                throw new IOException("Chunk compressé invalide (" + read + "/" + rawLength + " octets).");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Chunk compressé invalide : " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Trame du protocole binaire entre le client et le master (après la commande FRAMED) :
+// [byte version][byte opcode][int requestId][byte flags][int longueur][payload]
+// Chaque requête porte un identifiant choisi par le client ; les réponses reprennent l'opcode et l'identifiant
+// de la requête, ce qui permet d'en envoyer plusieurs sans attendre et de recevoir les réponses dans le
+// désordre. Une réponse longue est découpée en trames marquées MORE, la dernière ne l'est pas.
+// Une trame ERROR termine la requête : son payload est le message d'erreur (writeUTF). Elle peut suivre des
+// trames MORE (lecture interrompue) : les données déjà reçues pour la requête sont alors à jeter.
+// Un client qui abandonne une requête en cours envoie CANCEL avec son identifiant ; le master cesse d'envoyer
+// ses trames, sans réponse.
+public class Frame {
+
+    public static final byte VERSION = 1;
+
+    public static final byte LISTING = 1;
+    public static final byte DOWNLOAD = 2;
+    public static final byte READ_RANGE = 3;
+    public static final byte REMOVE = 4;
+    // Négociation de la compression : payload [int n][UTF codec]... par ordre de préférence,
+    // réponse [UTF codec retenu] ("none" si aucun)
+    public static final byte COMPRESS = 5;
+    // Métadonnées de plusieurs fichiers : payload [int n][UTF nom]..., réponse [int n]([long taille][long version])...
+    // (taille -1 : fichier absent)
+    public static final byte STAT = 6;
+    // Abandon d'une requête par le client : requestId de la requête, payload vide, pas de réponse
+    public static final byte CANCEL = 7;
+
+    public static final byte FLAG_MORE = 1;
+    public static final byte FLAG_ERROR = 2;
+    // Trame de données compressée : payload [byte codec][int longueur d'origine][octets compressés]
+    public static final byte FLAG_COMPRESSED = 4;
+
+    // Taille maximale d'un payload ; les données plus longues sont envoyées en plusieurs trames
+    public static final int MAX_PAYLOAD = 256 * 1024;
+
+    private final byte opcode;
+    private final int requestId;
+    private final byte flags;
+    private final byte[] payload;
+
+    public Frame(byte opcode, int requestId, byte flags, byte[] payload) {
+        this.opcode = opcode;
+        this.requestId = requestId;
+        this.flags = flags;
+        this.payload = payload;
+    }
+
+    public static void write(DataOutputStream out, byte opcode, int requestId, byte flags, byte[] payload, int offset,
+            int length) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(opcode);
+        out.writeInt(requestId);
+        out.writeByte(flags);
+        out.writeInt(length);
+        out.write(payload, offset, length);
+    }
+
+    public static Frame read(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Version de trame non supportée : " + version);
+        }
+        byte opcode = in.readByte();
+        int requestId = in.readInt();
+        byte flags = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Trame de " + length + " octets refusée.");
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(opcode, requestId, flags, payload);
+    }
+
+    // Payload construit avec un DataOutputStream (noms, positions, messages)
+    public static byte[] payload(PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    public interface PayloadWriter {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    public DataInputStream payloadInput() {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+
+    public boolean hasMore() {
+        return (flags & FLAG_MORE) != 0;
+    }
+
+    public boolean isCompressed() {
+        return (flags & FLAG_COMPRESSED) != 0;
+    }
+
+    public boolean isError() {
+        return (flags & FLAG_ERROR) != 0;
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
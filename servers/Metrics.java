@@ -0,0 +1,275 @@
+package servers;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Mesures d'un master ou d'un slave : histogrammes de latence, compteurs et jauges, par nom.
+// Le chemin chaud ne prend ni verrou ni allocation : les histogrammes et compteurs sont créés une fois
+// (au démarrage ou au premier usage d'un nom) et gardés par l'appelant ; enregistrer une mesure n'est qu'une
+// suite d'incréments atomiques. Les jauges sont des fonctions lues seulement au moment du rapport.
+// Exposé par la commande STATS et en JMX (dfs:type=Metrics,name=<master ou slaveId>).
+public class Metrics implements MetricsMXBean {
+
+    private final String name;
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public Metrics(String name) {
+        this.name = name;
+    }
+
+    public Histogram histogram(String histogramName) {
+        return histograms.computeIfAbsent(histogramName, key -> new Histogram());
+    }
+
+    public LongAdder counter(String counterName) {
+        return counters.computeIfAbsent(counterName, key -> new LongAdder());
+    }
+
+    public void gauge(String gaugeName, LongSupplier value) {
+        gauges.put(gaugeName, value);
+    }
+
+    // Enregistre le bean JMX ; un bean du même nom (serveur redémarré dans la même JVM) est remplacé
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("dfs:type=Metrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.err.println("Mesures non exposées en JMX : " + e.getMessage());
+        }
+    }
+
+    public void unregisterMBean() {
+        try {
+            ObjectName objectName = new ObjectName("dfs:type=Metrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            // Déjà retiré
+        }
+    }
+
+    // Une ligne par mesure, triées par nom
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder("== " + name + " ==\n");
+        for (Map.Entry<String, Long> value : getValues().entrySet()) {
+            report.append(value.getKey()).append(" = ").append(value.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            if (histogram.getValue().getCount() > 0) {
+                report.append(histogram.getKey()).append(' ').append(histogram.getValue()).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    // Compteurs et jauges
+    @Override
+    public Map<String, Long> getValues() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getP50Micros() {
+        return percentiles(0.50);
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        return percentiles(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            counts.put(histogram.getKey(), histogram.getValue().getCount());
+        }
+        return counts;
+    }
+
+    private Map<String, Long> percentiles(double p) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            values.put(histogram.getKey(), histogram.getValue().percentile(p) / 1000);
+        }
+        return values;
+    }
+
+    // Histogramme de durées en nanosecondes, à précision relative constante : chaque puissance de 2 est
+    // découpée en SUB_BUCKETS cases (erreur de moins de 1/SUB_BUCKETS sur un centile)
+    public static final class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Un autre thread a écrit un maximum entre-temps : on relit
+            }
+        }
+
+        // Durée depuis un System.nanoTime() pris au début de l'opération
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // Plus petite valeur de la case
+        private static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return (1L << exponent) | (sub << (exponent - SUB_BITS));
+        }
+
+        // Centile p (entre 0 et 1), au milieu de sa case ; 0 sans mesure
+        public long percentile(double p) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    long low = lowerBound(b);
+                    long high = b + 1 < buckets.length() ? lowerBound(b + 1) : low;
+                    return Math.min(max.get(), low + (high - low) / 2);
+                }
+            }
+            return max.get();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        public long getMeanNanos() {
+            long total = count.sum();
+            return total == 0 ? 0 : sum.sum() / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d moy=%s p50=%s p90=%s p99=%s p999=%s max=%s", getCount(),
+                    format(getMeanNanos()), format(percentile(0.5)), format(percentile(0.9)),
+                    format(percentile(0.99)), format(percentile(0.999)), format(getMaxNanos()));
+        }
+
+        private static String format(long nanos) {
+            if (nanos >= 1_000_000_000L) {
+                return String.format("%.2fs", nanos / 1e9);
+            }
+            if (nanos >= 1_000_000L) {
+                return String.format("%.2fms", nanos / 1e6);
+            }
+            return String.format("%.0fus", nanos / 1e3);
+        }
+    }
+
+    // Flux qui ajoutent les octets lus ou écrits à un compteur
+    public static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder bytes;
+
+        public CountingInputStream(InputStream in, LongAdder bytes) {
+            super(in);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = in.read();
+            if (value >= 0) {
+                bytes.increment();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = in.read(buffer, offset, length);
+            if (count > 0) {
+                bytes.add(count);
+            }
+            return count;
+        }
+    }
+
+    public static final class CountingOutputStream extends FilterOutputStream {
+        private final LongAdder bytes;
+
+        public CountingOutputStream(OutputStream out, LongAdder bytes) {
+            super(out);
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            out.write(value);
+            bytes.increment();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            bytes.add(length);
+        }
+    }
+}
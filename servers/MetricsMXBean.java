@@ -0,0 +1,20 @@
+package servers;
+
+import java.util.Map;
+
+// Vue JMX des mesures d'un serveur (voir Metrics)
+public interface MetricsMXBean {
+
+    // Rapport complet, le même que la réponse à STATS
+    String getReport();
+
+    // Compteurs et jauges
+    Map<String, Long> getValues();
+
+    // Nombre de mesures de chaque histogramme
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getP50Micros();
+
+    Map<String, Long> getP99Micros();
+}
@@ -0,0 +1,219 @@
+package servers;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import config.ConfigLoader;
+
+// Exécution des connexions acceptées par le master et les slaves.
+// Mode "virtual" : un thread virtuel par connexion (Java 21+, sinon repli sur le pool) ; mode "pool" : un
+// thread de plateforme par connexion, dont executorPoolSize restent prêts entre deux connexions. Au plus
+// maxConnections connexions sont ouvertes ; au-delà, la connexion est refusée tout de suite.
+// L'admission se fait par requête, pas par connexion : une connexion qui attend sa prochaine commande ne
+// prend pas de place. Au plus maxInFlight requêtes sont traitées en même temps et executorQueueLimit
+// attendent leur tour ; au-delà, la requête est refusée tout de suite.
+// À l'arrêt, les connexions qui attendent une commande sont fermées et celles qui traitent une requête
+// ont shutdownGraceMs pour la terminer.
+public class RequestExecutor {
+
+    private final String name;
+    private final ExecutorService executor;
+    private final Semaphore running;
+    private final int maxConnections;
+    private final int queueLimit;
+    private final long shutdownGraceMs;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+    // Connexions ouvertes -> requêtes en cours sur la connexion, chacune tenant une des maxInFlight places
+    // (une au plus en protocole texte, plusieurs en protocole binaire)
+    private final Map<Socket, AtomicInteger> connections = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown;
+
+    public RequestExecutor(String name, ConfigLoader configLoader) {
+        this.name = name;
+        this.shutdownGraceMs = configLoader.getShutdownGraceMs();
+        this.maxConnections = configLoader.getMaxConnections();
+        this.queueLimit = configLoader.getExecutorQueueLimit();
+        int maxInFlight = configLoader.getMaxInFlight();
+
+        ExecutorService virtual = "virtual".equals(configLoader.getExecutionMode()) ? newVirtualExecutor() : null;
+        if (virtual != null) {
+            this.executor = virtual;
+            System.out.println(name + " : un thread virtuel par connexion, " + maxInFlight
+                    + " requêtes en parallèle au plus.");
+        } else {
+            // Le nombre de threads suit celui des connexions, déjà borné par submit()
+            int poolSize = Math.min(configLoader.getExecutorPoolSize(), maxConnections);
+            AtomicInteger threadCount = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(poolSize, maxConnections, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), r -> new Thread(r, name + "-" + threadCount.incrementAndGet()));
+            System.out.println(name + " : pool de " + poolSize + " à " + maxConnections + " threads, " + maxInFlight
+                    + " requêtes en parallèle au plus.");
+        }
+        this.running = new Semaphore(maxInFlight);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() n'existe qu'à partir de Java 21 : appel par réflexion
+    private ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println(name + " : threads virtuels indisponibles sur Java "
+                    + Runtime.version().feature() + ", repli sur le pool.");
+            return null;
+        }
+    }
+
+    // Confie la connexion au moteur ; false si elle est refusée (serveur saturé ou en cours d'arrêt)
+    public boolean submit(Socket socket, Runnable handler) {
+        if (shuttingDown || admitted.incrementAndGet() > maxConnections) {
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        connections.put(socket, new AtomicInteger());
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    // Une requête interrompue par une erreur rend sa place
+                    AtomicInteger requests = connections.remove(socket);
+                    if (requests != null) {
+                        running.release(requests.getAndSet(0));
+                    }
+                    admitted.decrementAndGet();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            connections.remove(socket);
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    // Appelé par le handler quand il a lu une requête : attend une des maxInFlight places. Retourne false si
+    // executorQueueLimit requêtes attendent déjà ou si le serveur s'arrête ; la requête est alors refusée.
+    // Chaque requête admise est terminée par endRequest().
+    public boolean beginRequest(Socket socket) {
+        AtomicInteger requests = connections.get(socket);
+        if (requests == null) {
+            return true;
+        }
+        if (shuttingDown) {
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        if (!running.tryAcquire()) {
+            if (waiting.incrementAndGet() > queueLimit) {
+                waiting.decrementAndGet();
+                rejectedRequests.incrementAndGet();
+                return false;
+            }
+            try {
+                running.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedRequests.incrementAndGet();
+                return false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        if (shuttingDown) {
+            running.release();
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        requests.incrementAndGet();
+        return true;
+    }
+
+    // Une requête de la connexion est terminée et rend sa place ; sans requête en cours, ne fait rien
+    public void endRequest(Socket socket) {
+        AtomicInteger requests = connections.get(socket);
+        if (requests != null && requests.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            running.release();
+        }
+    }
+
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    // Arrêt propre : plus de nouvelles connexions, fermeture des connexions inactives, puis attente des
+    // requêtes en cours pendant shutdownGraceMs avant de couper les dernières
+    public void shutdown() {
+        shuttingDown = true;
+        closeConnections(false);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownGraceMs, TimeUnit.MILLISECONDS)) {
+                System.err.println(name + " : " + connections.size() + " requête(s) interrompue(s) à l'arrêt.");
+                closeConnections(true);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    private void closeConnections(boolean includingBusy) {
+        for (Map.Entry<Socket, AtomicInteger> connection : connections.entrySet()) {
+            if (includingBusy || connection.getValue().get() == 0) {
+                try {
+                    connection.getKey().close();
+                } catch (IOException e) {
+                    // Connexion déjà fermée
+                }
+            }
+        }
+    }
+
+    // Connexions ouvertes, actives ou non
+    public int getAdmitted() {
+        return admitted.get();
+    }
+
+    // Requêtes qui attendent une place
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    // Requêtes en cours de traitement, toutes connexions confondues
+    public int getBusyCount() {
+        int busy = 0;
+        for (AtomicInteger requests : connections.values()) {
+            busy += requests.get();
+        }
+        return busy;
+    }
+
+    // Connexions refusées
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    // Requêtes refusées sur une connexion déjà ouverte
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
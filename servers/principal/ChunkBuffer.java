@@ -0,0 +1,55 @@
+package servers.principal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import protocol.Compression;
+
+// Tampon d'un chunk en transit entre un slave et le client ; seuls les "length" premiers octets sont valides.
+// Un même tampon peut être envoyé à plusieurs slaves (réplication) : il n'est recyclé qu'après le dernier release().
+// crc est le CRC32C des "length" octets, ou ChunkInfo.NO_CRC s'il n'a pas été calculé.
+public class ChunkBuffer {
+
+    private final byte[] data;
+    private final int length;
+    private final AtomicInteger references;
+    private final long crc;
+    private byte[] compressed;
+    private boolean compressionTried;
+
+    public ChunkBuffer(byte[] data, int length) {
+        this(data, length, 1, ChunkInfo.NO_CRC);
+    }
+
+    public ChunkBuffer(byte[] data, int length, int references, long crc) {
+        this.data = data;
+        this.length = length;
+        this.references = new AtomicInteger(references);
+        this.crc = crc;
+    }
+
+    // Retourne true quand plus personne n'utilise le tampon
+    public boolean release() {
+        return references.decrementAndGet() == 0;
+    }
+
+    // Version compressée du chunk, calculée une seule fois pour toutes ses copies ; null s'il part brut
+    public synchronized byte[] compress(Compression compression) {
+        if (!compressionTried) {
+            compressed = compression.compress(data, 0, length);
+            compressionTried = true;
+        }
+        return compressed;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+}
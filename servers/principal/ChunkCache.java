@@ -0,0 +1,275 @@
+package servers.principal;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Cache des chunks lus sur les slaves, hors du tas Java : les octets sont rangés dans des pages de 64 Kio
+// découpées dans des blocs allocateDirect, alloués au fur et à mesure jusqu'à cacheBytes. Un fichier
+// téléchargé souvent est servi depuis la mémoire, sans aller-retour vers les slaves ni charge pour le GC.
+// Éviction 2Q, qui résiste aux parcours : un chunk lu pour la première fois entre dans une file FIFO (A1in,
+// un quart du budget). Il ne passe dans la file LRU principale (Am) que s'il est redemandé après être sorti
+// de A1in, ce que retient une file fantôme de clés sans données (A1out). Un gros fichier lu une seule fois
+// traverse donc A1in sans chasser les chunks populaires.
+// La clé est l'emplacement du chunk : une partie a un identifiant d'upload unique et un chunk dédupliqué
+// est nommé par son contenu, donc une clé ne désigne jamais deux contenus différents.
+// La copie vers l'appelant se fait hors du verrou : read() épingle le chunk le temps de la copie, et un chunk
+// évincé ou invalidé pendant qu'il est épinglé ne rend ses pages qu'au dernier désépinglage.
+public class ChunkCache {
+
+    private static final int PAGE_SIZE = 64 * 1024;
+    private static final int PAGES_PER_BLOCK = 1024;
+
+    private final int maxPages;
+    private final int maxRecentPages;
+    private final int maxGhostPages;
+    private final ByteBuffer[] blocks; // Lus hors du verrou par read() : tableau de taille fixe
+    private final int[] freePages;
+    private int freeCount;
+    private int allocatedPages;
+
+    private final LinkedHashMap<String, CachedChunk> recent = new LinkedHashMap<>();
+    private final LinkedHashMap<String, CachedChunk> frequent = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Integer> ghosts = new LinkedHashMap<>();
+    private int recentPages;
+    private int ghostPages;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // capacityBytes : budget en octets (0 : cache désactivé)
+    public ChunkCache(long capacityBytes) {
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, capacityBytes / PAGE_SIZE));
+        this.maxRecentPages = maxPages / 4;
+        this.maxGhostPages = maxPages / 2;
+        this.freePages = new int[maxPages];
+        this.blocks = new ByteBuffer[(maxPages + PAGES_PER_BLOCK - 1) / PAGES_PER_BLOCK];
+    }
+
+    private static final class CachedChunk {
+        final int length;
+        final int[] pages;
+        int pins;
+        boolean removed;
+
+        CachedChunk(int length, int[] pages) {
+            this.length = length;
+            this.pages = pages;
+        }
+    }
+
+    static String keyOf(ChunkInfo chunk) {
+        ChunkLocation primary = chunk.getPrimary();
+        if (ChunkLocation.isChunkId(ChunkLocation.chunkId(primary.getKey()))) {
+            return primary.getKey(); // Même contenu sur tous les slaves et dans tous les fichiers
+        }
+        // Une partie porte le même nom sur chaque slave mais pas les mêmes chunks
+        return primary.getSlaveId() + "/" + primary.getKey() + "@" + primary.getOffset();
+    }
+
+    public synchronized boolean contains(ChunkInfo chunk) {
+        String key = keyOf(chunk);
+        return frequent.containsKey(key) || recent.containsKey(key);
+    }
+
+    // Copie les octets [offsetInChunk, offsetInChunk + length) du chunk dans target ; false s'il n'est pas en cache
+    public boolean read(ChunkInfo chunk, int offsetInChunk, int length, byte[] target) {
+        CachedChunk cached = pin(chunk);
+        if (cached == null) {
+            return false;
+        }
+        try {
+            int position = offsetInChunk;
+            int copied = 0;
+            while (copied < length) {
+                int page = position / PAGE_SIZE;
+                int inPage = position % PAGE_SIZE;
+                int n = Math.min(length - copied, PAGE_SIZE - inPage);
+                blockOf(cached.pages[page]).get(offsetOf(cached.pages[page]) + inPage, target, copied, n);
+                copied += n;
+                position += n;
+            }
+        } finally {
+            unpin(cached);
+        }
+        return true;
+    }
+
+    private synchronized CachedChunk pin(ChunkInfo chunk) {
+        if (maxPages == 0) {
+            return null;
+        }
+        String key = keyOf(chunk);
+        CachedChunk cached = frequent.get(key); // Remonte en tête de la LRU
+        if (cached == null) {
+            cached = recent.get(key); // A1in reste une FIFO
+        }
+        if (cached == null || cached.length != chunk.getLength()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        cached.pins++;
+        return cached;
+    }
+
+    private synchronized void unpin(CachedChunk cached) {
+        cached.pins--;
+        if (cached.removed && cached.pins == 0) {
+            freeAll(cached);
+        }
+    }
+
+    // Ajoute un chunk entier lu sur un slave ; ignoré s'il est déjà là ou plus gros que A1in
+    public synchronized void put(ChunkInfo chunk, byte[] data) {
+        int length = chunk.getLength();
+        int pageCount = (length + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (maxPages == 0 || pageCount == 0 || pageCount > maxRecentPages) {
+            return;
+        }
+        String key = keyOf(chunk);
+        if (frequent.containsKey(key) || recent.containsKey(key)) {
+            return;
+        }
+        // Redemandé peu après son éviction de A1in : c'est un chunk populaire
+        Integer ghost = ghosts.remove(key);
+        if (ghost != null) {
+            ghostPages -= ghost;
+        }
+        if (!reclaim(pageCount)) {
+            return; // Pages encore tenues par des lectures en cours
+        }
+
+        int[] pages = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pages[i] = allocatePage();
+            int n = Math.min(PAGE_SIZE, length - i * PAGE_SIZE);
+            blockOf(pages[i]).put(offsetOf(pages[i]), data, i * PAGE_SIZE, n);
+        }
+        CachedChunk cached = new CachedChunk(length, pages);
+        if (ghost != null) {
+            frequent.put(key, cached);
+        } else {
+            recent.put(key, cached);
+            recentPages += pageCount;
+        }
+    }
+
+    // Fichier supprimé ou remplacé : ses chunks libèrent leur place
+    public synchronized void invalidate(ChunkInfo[] chunks) {
+        for (ChunkInfo chunk : chunks) {
+            String key = keyOf(chunk);
+            CachedChunk cached = frequent.remove(key);
+            if (cached == null) {
+                cached = recent.remove(key);
+                if (cached != null) {
+                    recentPages -= cached.pages.length;
+                }
+            }
+            if (cached != null) {
+                release(cached);
+            }
+            Integer ghost = ghosts.remove(key);
+            if (ghost != null) {
+                ghostPages -= ghost;
+            }
+        }
+    }
+
+    // Libère des pages jusqu'à en avoir pageCount disponibles : A1in d'abord s'il dépasse sa part, sinon Am.
+    // Retourne false si les chunks épinglés retiennent trop de pages
+    private boolean reclaim(int pageCount) {
+        while (freeCount + (maxPages - allocatedPages) < pageCount) {
+            if (!recent.isEmpty() && (recentPages > maxRecentPages || frequent.isEmpty())) {
+                Iterator<Map.Entry<String, CachedChunk>> oldest = recent.entrySet().iterator();
+                Map.Entry<String, CachedChunk> evicted = oldest.next();
+                oldest.remove();
+                recentPages -= evicted.getValue().pages.length;
+                release(evicted.getValue());
+                remember(evicted.getKey(), evicted.getValue().pages.length);
+            } else if (!frequent.isEmpty()) {
+                Iterator<Map.Entry<String, CachedChunk>> leastRecent = frequent.entrySet().iterator();
+                CachedChunk evicted = leastRecent.next().getValue();
+                leastRecent.remove();
+                release(evicted);
+            } else {
+                return false;
+            }
+            evictions++;
+        }
+        return true;
+    }
+
+    // File fantôme A1out : seulement les clés, bornée à la moitié du budget en pages représentées
+    private void remember(String key, int pageCount) {
+        ghosts.put(key, pageCount);
+        ghostPages += pageCount;
+        Iterator<Map.Entry<String, Integer>> oldest = ghosts.entrySet().iterator();
+        while (ghostPages > maxGhostPages && oldest.hasNext()) {
+            ghostPages -= oldest.next().getValue();
+            oldest.remove();
+        }
+    }
+
+    private int allocatePage() {
+        if (freeCount > 0) {
+            return freePages[--freeCount];
+        }
+        if (allocatedPages % PAGES_PER_BLOCK == 0) {
+            int blockPages = Math.min(PAGES_PER_BLOCK, maxPages - allocatedPages);
+            blocks[allocatedPages / PAGES_PER_BLOCK] = ByteBuffer.allocateDirect(blockPages * PAGE_SIZE);
+        }
+        return allocatedPages++;
+    }
+
+    // Chunk sorti du cache : ses pages sont libérées tout de suite, ou par le dernier unpin() s'il est épinglé
+    private void release(CachedChunk cached) {
+        cached.removed = true;
+        if (cached.pins == 0) {
+            freeAll(cached);
+        }
+    }
+
+    private void freeAll(CachedChunk cached) {
+        for (int page : cached.pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+    private ByteBuffer blockOf(int page) {
+        return blocks[page / PAGES_PER_BLOCK];
+    }
+
+    private static int offsetOf(int page) {
+        return (page % PAGES_PER_BLOCK) * PAGE_SIZE;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Octets occupés par les chunks en cache (pages entières)
+    public synchronized long getUsedBytes() {
+        return (long) (allocatedPages - freeCount) * PAGE_SIZE;
+    }
+
+    public long getCapacityBytes() {
+        return (long) maxPages * PAGE_SIZE;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "cache " + (getUsedBytes() >> 20) + "/" + (getCapacityBytes() >> 20) + " Mio, " + hits + " hit(s), "
+                + misses + " miss(es), " + evictions + " éviction(s)";
+    }
+}
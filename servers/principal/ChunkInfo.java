@@ -0,0 +1,73 @@
+package servers.principal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.zip.CRC32C;
+
+// Un chunk d'un fichier : sa taille, son CRC32C calculé à l'upload et les slaves qui en ont une copie.
+// Les chunks dédupliqués n'ont pas de CRC : leur ID (SHA-256) sert de contrôle d'intégrité.
+public final class ChunkInfo {
+
+    public static final long NO_CRC = -1;
+
+    private final int length;
+    private final long crc;
+    private final ChunkLocation[] locations;
+
+    public ChunkInfo(int length, ChunkLocation... locations) {
+        this(length, NO_CRC, locations);
+    }
+
+    public ChunkInfo(int length, long crc, ChunkLocation... locations) {
+        this.length = length;
+        this.crc = crc;
+        this.locations = locations;
+    }
+
+    public static long crc32c(byte[] data, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(length);
+        out.writeLong(crc);
+        out.writeByte(locations.length);
+        for (ChunkLocation location : locations) {
+            location.writeTo(out);
+        }
+    }
+
+    public static ChunkInfo readFrom(DataInput in) throws IOException {
+        int length = in.readInt();
+        long crc = in.readLong();
+        ChunkLocation[] locations = new ChunkLocation[in.readUnsignedByte()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = ChunkLocation.readFrom(in);
+        }
+        return new ChunkInfo(length, crc, locations);
+    }
+
+    // Même chunk, copies à d'autres emplacements
+    public ChunkInfo withLocations(ChunkLocation... newLocations) {
+        return new ChunkInfo(length, crc, newLocations);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public ChunkLocation[] getLocations() {
+        return locations;
+    }
+
+    public ChunkLocation getPrimary() {
+        return locations[0];
+    }
+}
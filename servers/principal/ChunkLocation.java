@@ -0,0 +1,56 @@
+package servers.principal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Emplacement d'une copie de chunk : objet "key" sur le slave "slaveId", à partir de "offset"
+public final class ChunkLocation {
+
+    private final String slaveId;
+    private final String key;
+    private final long offset;
+
+    public ChunkLocation(String slaveId, String key, long offset) {
+        this.slaveId = slaveId;
+        this.key = key;
+        this.offset = offset;
+    }
+
+    // Clé d'un chunk stocké par contenu sur un slave : chunks/<2 premiers caractères de l'ID>/<ID>
+    public static String chunkKey(String chunkId) {
+        return "chunks/" + chunkId.substring(0, 2) + "/" + chunkId;
+    }
+
+    public static String chunkId(String chunkKey) {
+        return chunkKey.substring(chunkKey.lastIndexOf('/') + 1);
+    }
+
+    // Un ID de chunk est un SHA-256 en hexadécimal (jamais un chemin)
+    public static boolean isChunkId(String chunkId) {
+        return chunkId.length() == 64
+                && chunkId.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(slaveId);
+        out.writeUTF(key);
+        out.writeLong(offset);
+    }
+
+    public static ChunkLocation readFrom(DataInput in) throws IOException {
+        return new ChunkLocation(in.readUTF().intern(), in.readUTF(), in.readLong());
+    }
+
+    public String getSlaveId() {
+        return slaveId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+}
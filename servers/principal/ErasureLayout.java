@@ -0,0 +1,109 @@
+package servers.principal;
+
+// Découpage d'un fichier en mode erasure coding : les chunks sont groupés en bandes de dataShards chunks,
+// chaque bande recevant parityShards chunks de parité de la taille de son premier chunk.
+// Le shard t (0..dataShards-1 : données, puis parités) de la bande s va au slave (s + t) % numSlaves :
+// les shards d'une bande sont sur des slaves distincts et les parités tournent entre les slaves.
+public class ErasureLayout {
+
+    private long fileSize;
+    private int chunkSize;
+    private int numSlaves;
+    private int dataShards;
+    private int parityShards;
+
+    public ErasureLayout(long fileSize, int chunkSize, int numSlaves, int dataShards, int parityShards) {
+        if (chunkSize <= 0 || dataShards <= 0 || parityShards < 0) {
+            throw new IllegalArgumentException("chunkSize et dataShards doivent être positifs.");
+        }
+        if (dataShards + parityShards > numSlaves) {
+            throw new IllegalArgumentException("Il faut au moins " + (dataShards + parityShards) + " slaves.");
+        }
+        this.setFileSize(fileSize);
+        this.setChunkSize(chunkSize);
+        this.setNumSlaves(numSlaves);
+        this.setDataShards(dataShards);
+        this.setParityShards(parityShards);
+    }
+
+    public long getChunkCount() {
+        return (fileSize + chunkSize - 1) / chunkSize;
+    }
+
+    public int getChunkLength(long chunkIndex) {
+        return (int) Math.min(chunkSize, fileSize - chunkIndex * chunkSize);
+    }
+
+    public long getStripeCount() {
+        return (getChunkCount() + dataShards - 1) / dataShards;
+    }
+
+    // Nombre de chunks de données de la bande (la dernière peut être incomplète)
+    public int getDataCount(long stripe) {
+        return (int) Math.min(dataShards, getChunkCount() - stripe * dataShards);
+    }
+
+    // Taille des shards de parité de la bande : celle de son plus grand chunk, le premier
+    public int getShardLength(long stripe) {
+        return getChunkLength(stripe * dataShards);
+    }
+
+    public int getSlaveIndex(long stripe, int shard) {
+        return (int) ((stripe + shard) % numSlaves);
+    }
+
+    // Taille de la partie stockée par un slave (chunks de données et de parité qui lui reviennent)
+    public long getPartSize(int slaveIndex) {
+        long partSize = 0;
+        long stripeCount = getStripeCount();
+        for (long stripe = 0; stripe < stripeCount; stripe++) {
+            int shard = (int) Math.floorMod(slaveIndex - stripe, (long) numSlaves);
+            if (shard < getDataCount(stripe)) {
+                partSize += getChunkLength(stripe * dataShards + shard);
+            } else if (shard >= dataShards && shard < dataShards + parityShards) {
+                partSize += getShardLength(stripe);
+            }
+        }
+        return partSize;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getNumSlaves() {
+        return numSlaves;
+    }
+
+    public void setNumSlaves(int numSlaves) {
+        this.numSlaves = numSlaves;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        this.parityShards = parityShards;
+    }
+}
@@ -0,0 +1,288 @@
+package servers.principal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import config.ConfigLoader;
+
+// Catalogue des fichiers du master : un index en mémoire (nom -> FileEntry) pour des lectures en O(1),
+// persisté dans un journal en ajout seul. Toutes les catalogSnapshotEvery écritures, l'index complet est
+// écrit dans un snapshot : au redémarrage on ne rejoue qu'un journal court.
+// Le snapshot est écrit hors du verrou : sous le verrou on copie l'index et on met le journal de côté
+// (catalog.journal.old) pour en ouvrir un nouveau ; l'ancien n'est supprimé qu'une fois le snapshot publié.
+// Rejouer un journal déjà contenu dans le snapshot redonne le même index, donc un crash entre les deux
+// étapes ne perd rien.
+//
+// Format d'un enregistrement du journal : [int taille][int crc32][byte type][payload]
+// avec payload = FileEntry (PUT) ou nom (REMOVE).
+public class FileCatalog {
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int SNAPSHOT_MAGIC = 0x43415433; // "CAT3"
+
+    private Map<String, FileEntry> entries = new ConcurrentHashMap<>();
+    private File journalFile;
+    private File oldJournalFile;
+    private File snapshotFile;
+    private boolean fsync;
+    private int snapshotEvery;
+    private FileOutputStream journalStream;
+    private DataOutputStream journal;
+    private int recordsSinceSnapshot;
+    private boolean snapshotting;
+
+    public FileCatalog(ConfigLoader configLoader) throws IOException {
+        File dir = new File(configLoader.getCatalogDir());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Impossible de créer le répertoire du catalogue : " + dir);
+        }
+        this.journalFile = new File(dir, "catalog.journal");
+        this.oldJournalFile = new File(dir, "catalog.journal.old");
+        this.snapshotFile = new File(dir, "catalog.snapshot");
+        this.fsync = configLoader.isCatalogFsync();
+        this.snapshotEvery = configLoader.getCatalogSnapshotEvery();
+
+        long start = System.currentTimeMillis();
+        loadSnapshot();
+        // Journal mis de côté par un snapshot interrompu : il précède le journal courant
+        replayJournal(oldJournalFile);
+        long validLength = replayJournal(journalFile);
+        openJournal(validLength);
+        System.out.println("Catalogue chargé : " + entries.size() + " fichier(s) en "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    public FileEntry get(String name) {
+        return entries.get(name);
+    }
+
+    // Liste des noms, triée
+    public List<String> list() {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Enregistre une nouvelle version du fichier ; retourne l'entrée remplacée (ou null)
+    public FileEntry put(FileEntry entry) throws IOException {
+        FileEntry previous;
+        List<FileEntry> snapshot;
+        synchronized (this) {
+            previous = entries.get(entry.getName());
+            FileEntry versioned = entry.withVersion(previous == null ? 1 : previous.getVersion() + 1);
+            append(PUT, versioned);
+            entries.put(versioned.getName(), versioned);
+            snapshot = startSnapshotIfNeeded();
+        }
+        writeSnapshot(snapshot);
+        return previous;
+    }
+
+    // Remplace une entrée par la même version aux emplacements changés (rééquilibrage), sauf si le fichier a
+    // été remplacé ou supprimé entre-temps ; retourne false dans ce cas
+    public boolean replace(FileEntry expected, FileEntry updated) throws IOException {
+        List<FileEntry> snapshot;
+        synchronized (this) {
+            if (entries.get(expected.getName()) != expected) {
+                return false;
+            }
+            FileEntry sameVersion = updated.withVersion(expected.getVersion());
+            append(PUT, sameVersion);
+            entries.put(sameVersion.getName(), sameVersion);
+            snapshot = startSnapshotIfNeeded();
+        }
+        writeSnapshot(snapshot);
+        return true;
+    }
+
+    public FileEntry remove(String name) throws IOException {
+        FileEntry previous;
+        List<FileEntry> snapshot = null;
+        synchronized (this) {
+            previous = entries.get(name);
+            if (previous != null) {
+                append(REMOVE, name);
+                entries.remove(name);
+                snapshot = startSnapshotIfNeeded();
+            }
+        }
+        writeSnapshot(snapshot);
+        return previous;
+    }
+
+    public synchronized void close() throws IOException {
+        journal.close();
+    }
+
+    private void append(byte type, Object record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(type);
+        if (type == PUT) {
+            ((FileEntry) record).writeTo(payload);
+        } else {
+            payload.writeUTF((String) record);
+        }
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        journal.writeInt(data.length);
+        journal.writeInt((int) crc.getValue());
+        journal.write(data);
+        journal.flush();
+        if (fsync) {
+            journalStream.getChannel().force(false);
+        }
+        recordsSinceSnapshot++;
+    }
+
+    // Appelé sous le verrou après la mise à jour de l'index, pour que le snapshot contienne le dernier
+    // enregistrement. Copie l'index et bascule sur un nouveau journal ; retourne la copie à écrire (ou null).
+    // Si un snapshot précédent a échoué, le journal mis de côté est conservé et le journal courant n'est pas
+    // basculé : le nouveau snapshot couvre les deux.
+    private List<FileEntry> startSnapshotIfNeeded() throws IOException {
+        if (recordsSinceSnapshot < snapshotEvery || snapshotting) {
+            return null;
+        }
+        List<FileEntry> snapshot = new ArrayList<>(entries.values());
+        if (!oldJournalFile.exists()) {
+            journal.close();
+            Files.move(journalFile.toPath(), oldJournalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            openJournal(0);
+            recordsSinceSnapshot = 0;
+        }
+        snapshotting = true;
+        return snapshot;
+    }
+
+    // Ecrit la copie de l'index dans un fichier temporaire, la publie par renommage atomique, puis supprime
+    // le journal mis de côté. Un échec n'annule pas l'écriture déjà journalisée : il est seulement signalé,
+    // et le snapshot suivant reprendra le journal mis de côté.
+    private void writeSnapshot(List<FileEntry> snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(snapshot.size());
+                for (FileEntry entry : snapshot) {
+                    entry.writeTo(out);
+                }
+                out.flush();
+                fileOut.getChannel().force(true);
+            }
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(oldJournalFile.toPath());
+            System.out.println("Snapshot du catalogue écrit : " + snapshot.size() + " fichier(s).");
+        } catch (IOException e) {
+            System.err.println("Echec du snapshot du catalogue : " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotting = false;
+            }
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Snapshot du catalogue invalide : " + snapshotFile);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                FileEntry entry = FileEntry.readFrom(in);
+                entries.put(entry.getName(), entry);
+            }
+        }
+    }
+
+    // Rejoue le journal ; un enregistrement incomplet ou corrompu en fin de fichier (crash pendant
+    // l'écriture) marque la fin du journal valide. Retourne la longueur valide.
+    private long replayJournal(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            while (true) {
+                byte[] data;
+                int expectedCrc;
+                try {
+                    int length = in.readInt();
+                    expectedCrc = in.readInt();
+                    if (length <= 0 || length > file.length()) {
+                        break;
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(data));
+                byte type = record.readByte();
+                if (type == PUT) {
+                    FileEntry entry = FileEntry.readFrom(record);
+                    entries.put(entry.getName(), entry);
+                } else {
+                    entries.remove(record.readUTF());
+                }
+                validLength += 8 + data.length;
+                recordsSinceSnapshot++;
+            }
+        }
+        if (validLength < file.length()) {
+            System.err.println("Fin du journal " + file.getName() + " tronquée à " + validLength + " octets.");
+        }
+        return validLength;
+    }
+
+    private void openJournal(long validLength) throws IOException {
+        // Tronquer une éventuelle fin corrompue avant d'ajouter de nouveaux enregistrements
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(validLength);
+        }
+        journalStream = new FileOutputStream(journalFile, true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalStream, 1 << 16));
+    }
+}
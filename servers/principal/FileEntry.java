@@ -0,0 +1,198 @@
+package servers.principal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Métadonnées d'un fichier dans le catalogue du master : taille, découpage et placement des chunks.
+// En mode erasure coding, les chunks sont groupés par bandes de dataShards chunks, chacune complétée
+// par parityShards chunks de parité (parity[bande * parityShards + j]).
+// Un fichier dédupliqué référence des chunks stockés par contenu (ChunkLocation.chunkKey) et partagés
+// avec d'autres fichiers, au lieu d'une partie à son nom sur chaque slave.
+public final class FileEntry {
+
+    private final String name;
+    private final long size;
+    private final int chunkSize;
+    private final long version;
+    private final ChunkInfo[] chunks;
+    private final int dataShards;
+    private final int parityShards;
+    private final ChunkInfo[] parity;
+    private final boolean deduplicated;
+
+    public FileEntry(String name, long size, int chunkSize, long version, ChunkInfo[] chunks) {
+        this(name, size, chunkSize, version, chunks, 0, 0, new ChunkInfo[0], false);
+    }
+
+    public FileEntry(String name, long size, int chunkSize, long version, ChunkInfo[] chunks,
+            int dataShards, int parityShards, ChunkInfo[] parity) {
+        this(name, size, chunkSize, version, chunks, dataShards, parityShards, parity, false);
+    }
+
+    public FileEntry(String name, long size, int chunkSize, long version, ChunkInfo[] chunks,
+            int dataShards, int parityShards, ChunkInfo[] parity, boolean deduplicated) {
+        this.name = name;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.version = version;
+        this.chunks = chunks;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.parity = parity;
+        this.deduplicated = deduplicated;
+    }
+
+    public FileEntry withVersion(long newVersion) {
+        return new FileEntry(name, size, chunkSize, newVersion, chunks, dataShards, parityShards, parity,
+                deduplicated);
+    }
+
+    // Même fichier, chunks déplacés
+    public FileEntry withChunks(ChunkInfo[] newChunks, ChunkInfo[] newParity) {
+        return new FileEntry(name, size, chunkSize, version, newChunks, dataShards, parityShards, newParity,
+                deduplicated);
+    }
+
+    public boolean isDeduplicated() {
+        return deduplicated;
+    }
+
+    public boolean isErasureCoded() {
+        return dataShards > 0;
+    }
+
+    // Nombre de bandes en mode erasure coding
+    public int getStripeCount() {
+        return isErasureCoded() ? (chunks.length + dataShards - 1) / dataShards : 0;
+    }
+
+    // Index du chunk qui contient l'octet "position" (chunks.length en fin de fichier).
+    // Les chunks font tous chunkSize octets sauf le dernier, sauf en déduplication où leur taille varie
+    public int findChunk(long position) {
+        if (!deduplicated) {
+            return (int) Math.min(chunks.length, position / chunkSize);
+        }
+        long chunkStart = 0;
+        for (int c = 0; c < chunks.length; c++) {
+            chunkStart += chunks[c].getLength();
+            if (position < chunkStart) {
+                return c;
+            }
+        }
+        return chunks.length;
+    }
+
+    // Position dans le fichier du premier octet du chunk
+    public long getChunkStart(int index) {
+        if (!deduplicated) {
+            return (long) index * chunkSize;
+        }
+        long chunkStart = 0;
+        for (int c = 0; c < index; c++) {
+            chunkStart += chunks[c].getLength();
+        }
+        return chunkStart;
+    }
+
+    // Slaves qui détiennent au moins un chunk du fichier
+    public Set<String> getSlaveIds() {
+        Set<String> slaveIds = new LinkedHashSet<>();
+        for (ChunkInfo[] group : new ChunkInfo[][] { chunks, parity }) {
+            for (ChunkInfo chunk : group) {
+                for (ChunkLocation location : chunk.getLocations()) {
+                    slaveIds.add(location.getSlaveId());
+                }
+            }
+        }
+        return slaveIds;
+    }
+
+    // Parties du fichier sur les slaves : clé de la partie -> slaves qui la détiennent
+    public Map<String, Set<String>> getPartKeys() {
+        Map<String, Set<String>> partKeys = new LinkedHashMap<>();
+        for (ChunkInfo[] group : new ChunkInfo[][] { chunks, parity }) {
+            for (ChunkInfo chunk : group) {
+                for (ChunkLocation location : chunk.getLocations()) {
+                    partKeys.computeIfAbsent(location.getKey(), key -> new LinkedHashSet<>())
+                            .add(location.getSlaveId());
+                }
+            }
+        }
+        return partKeys;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeLong(size);
+        out.writeInt(chunkSize);
+        out.writeLong(version);
+        out.writeInt(chunks.length);
+        for (ChunkInfo chunk : chunks) {
+            chunk.writeTo(out);
+        }
+        out.writeByte(dataShards);
+        out.writeByte(parityShards);
+        out.writeInt(parity.length);
+        for (ChunkInfo chunk : parity) {
+            chunk.writeTo(out);
+        }
+        out.writeBoolean(deduplicated);
+    }
+
+    public static FileEntry readFrom(DataInput in) throws IOException {
+        String name = in.readUTF();
+        long size = in.readLong();
+        int chunkSize = in.readInt();
+        long version = in.readLong();
+        ChunkInfo[] chunks = new ChunkInfo[in.readInt()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ChunkInfo.readFrom(in);
+        }
+        int dataShards = in.readUnsignedByte();
+        int parityShards = in.readUnsignedByte();
+        ChunkInfo[] parity = new ChunkInfo[in.readInt()];
+        for (int i = 0; i < parity.length; i++) {
+            parity[i] = ChunkInfo.readFrom(in);
+        }
+        boolean deduplicated = in.readBoolean();
+        return new FileEntry(name, size, chunkSize, version, chunks, dataShards, parityShards, parity,
+                deduplicated);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public ChunkInfo[] getChunks() {
+        return chunks;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public ChunkInfo[] getParity() {
+        return parity;
+    }
+}
@@ -0,0 +1,273 @@
+package servers.principal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import protocol.ChunkCodec;
+import protocol.Compression;
+import protocol.Frame;
+import servers.Metrics;
+import servers.RequestExecutor;
+
+// Connexion client passée en protocole binaire (commande FRAMED). Chaque trame reçue est une requête,
+// traitée en parallèle des autres (au plus maxInFlight par connexion, le lecteur attend au-delà, et dans la
+// limite des requêtes admises par le RequestExecutor du master).
+// Les réponses sont écrites trame par trame sous un verrou : celles de requêtes différentes s'entrelacent
+// et arrivent dans l'ordre où elles sont prêtes, pas dans celui des requêtes.
+// Après une requête COMPRESS acceptée, chaque trame de données est compressée si elle s'y prête.
+// Une requête annulée par le client (CANCEL) s'arrête à sa prochaine trame, sans trame d'erreur.
+public class FramedSession {
+
+    private final MasterServer master;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ExecutorService workers;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // Requêtes en cours -> annulée par le client
+    private final Map<Integer, AtomicBoolean> active = new ConcurrentHashMap<>();
+    private volatile Compression compression;
+
+    public FramedSession(MasterServer master, Socket socket, ExecutorService workers, int maxInFlight)
+            throws IOException {
+        this.master = master;
+        this.socket = socket;
+        // Plus rien n'est lu ni écrit par les streams du protocole texte : on peut les bufferiser
+        this.in = new DataInputStream(new BufferedInputStream(
+                new Metrics.CountingInputStream(socket.getInputStream(), master.getClientBytesIn()), 1 << 16));
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new Metrics.CountingOutputStream(socket.getOutputStream(), master.getClientBytesOut()), 1 << 16));
+        this.workers = workers;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    // Lit les requêtes jusqu'à la fermeture de la connexion ; les requêtes reçues se terminent avant le retour.
+    // Chaque requête passe par l'admission du master comme une commande du protocole texte : refusée, elle
+    // reçoit une trame d'erreur et la connexion continue.
+    public void run() throws IOException {
+        RequestExecutor requestExecutor = master.getRequestExecutor();
+        try {
+            while (!requestExecutor.isShuttingDown()) {
+                Frame request = Frame.read(in);
+                int requestId = request.getRequestId();
+                if (request.getOpcode() == Frame.CANCEL) {
+                    // Sans effet si la requête est déjà terminée
+                    AtomicBoolean cancelled = active.get(requestId);
+                    if (cancelled != null) {
+                        cancelled.set(true);
+                    }
+                    continue;
+                }
+                inFlight.acquireUninterruptibly();
+                if (!requestExecutor.beginRequest(socket)) {
+                    inFlight.release();
+                    sendError(request.getOpcode(), requestId, "ERROR: Server busy.");
+                    continue;
+                }
+                AtomicBoolean cancelled = new AtomicBoolean();
+                active.put(requestId, cancelled);
+                workers.execute(() -> {
+                    try {
+                        handle(request, cancelled);
+                    } finally {
+                        active.remove(requestId, cancelled);
+                        requestExecutor.endRequest(socket);
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            inFlight.acquireUninterruptibly(maxInFlight);
+        }
+    }
+
+    private void handle(Frame request, AtomicBoolean cancelled) {
+        byte opcode = request.getOpcode();
+        int requestId = request.getRequestId();
+        long start = System.nanoTime();
+        try {
+            DataInputStream payload = request.payloadInput();
+            switch (opcode) {
+                case Frame.LISTING:
+                    List<String> files = master.getCatalog().list();
+                    send(opcode, requestId, (byte) 0, Frame.payload(data -> {
+                        data.writeInt(files.size());
+                        for (String file : files) {
+                            data.writeUTF(file);
+                        }
+                    }));
+                    break;
+
+                case Frame.REMOVE:
+                    String message = master.removeFile(payload.readUTF());
+                    if (message.startsWith("ERROR")) {
+                        sendError(opcode, requestId, message);
+                    } else {
+                        send(opcode, requestId, (byte) 0, Frame.payload(data -> data.writeUTF(message)));
+                    }
+                    break;
+
+                case Frame.DOWNLOAD:
+                    master.streamRange(payload.readUTF(), 0, Long.MAX_VALUE,
+                            new FrameSink(opcode, requestId, cancelled));
+                    break;
+
+                case Frame.READ_RANGE:
+                    String fileName = payload.readUTF();
+                    long offset = payload.readLong();
+                    long length = payload.readLong();
+                    master.streamRange(fileName, offset, length, new FrameSink(opcode, requestId, cancelled));
+                    break;
+
+                case Frame.COMPRESS:
+                    compression = negotiateCompression(payload);
+                    String codecName = compression != null ? compression.getCodec().getName() : "none";
+                    send(opcode, requestId, (byte) 0, Frame.payload(data -> data.writeUTF(codecName)));
+                    break;
+
+                case Frame.STAT:
+                    FileEntry[] entries = new FileEntry[payload.readInt()];
+                    for (int i = 0; i < entries.length; i++) {
+                        entries[i] = master.getCatalog().get(payload.readUTF());
+                    }
+                    send(opcode, requestId, (byte) 0, Frame.payload(data -> {
+                        data.writeInt(entries.length);
+                        for (FileEntry entry : entries) {
+                            data.writeLong(entry != null ? entry.getSize() : -1);
+                            data.writeLong(entry != null ? entry.getVersion() : -1);
+                        }
+                    }));
+                    break;
+
+                default:
+                    sendError(opcode, requestId, "ERROR: Unknown opcode " + opcode + ".");
+            }
+        } catch (IOException e) {
+            if (cancelled.get()) {
+                System.out.println("Requête " + requestId + " annulée par le client.");
+                return;
+            }
+            // Erreur de la requête (slave perdu en cours de lecture...) : signalée au client si la connexion tient,
+            // par une trame ERROR qui termine la requête même si des données sont déjà parties
+            System.err.println("Requête " + requestId + " échouée : " + e.getMessage());
+            try {
+                sendError(opcode, requestId, "ERROR: " + e.getMessage());
+            } catch (IOException closed) {
+                closeQuietly();
+            }
+        } finally {
+            master.getFramedLatency(opcode).recordSince(start);
+        }
+    }
+
+    // Premier codec proposé par le client que le master connaît, si la compression est activée
+    private Compression negotiateCompression(DataInputStream payload) throws IOException {
+        int count = payload.readInt();
+        for (int i = 0; i < count; i++) {
+            ChunkCodec codec = Compression.codec(payload.readUTF());
+            if (codec != null && master.getCompression() != null) {
+                return master.getCompression().withCodec(codec);
+            }
+        }
+        return null;
+    }
+
+    private void send(byte opcode, int requestId, byte flags, byte[] payload) throws IOException {
+        send(opcode, requestId, flags, payload, 0, payload.length);
+    }
+
+    private void send(byte opcode, int requestId, byte flags, byte[] payload, int offset, int length)
+            throws IOException {
+        synchronized (out) {
+            Frame.write(out, opcode, requestId, flags, payload, offset, length);
+            out.flush();
+        }
+    }
+
+    private void sendError(byte opcode, int requestId, String message) throws IOException {
+        send(opcode, requestId, Frame.FLAG_ERROR, Frame.payload(data -> data.writeUTF(message)));
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Connexion déjà fermée
+        }
+    }
+
+    // Réponse d'un DOWNLOAD ou d'un READ_RANGE : [long longueur][long version], les données en trames d'au plus
+    // Frame.MAX_PAYLOAD octets, puis [int CRC32C] dans la dernière trame. Chaque trame vérifie d'abord que le
+    // client n'a pas annulé la requête : la lecture sur les slaves s'arrête alors aussi.
+    private class FrameSink implements RangeSink {
+        private final byte opcode;
+        private final int requestId;
+        private final AtomicBoolean cancelled;
+
+        FrameSink(byte opcode, int requestId, AtomicBoolean cancelled) {
+            this.opcode = opcode;
+            this.requestId = requestId;
+            this.cancelled = cancelled;
+        }
+
+        private void checkCancelled() throws IOException {
+            if (cancelled.get()) {
+                throw new IOException("Requête " + requestId + " annulée.");
+            }
+        }
+
+        @Override
+        public void begin(long length, long version) throws IOException {
+            checkCancelled();
+            send(opcode, requestId, Frame.FLAG_MORE, Frame.payload(data -> {
+                data.writeLong(length);
+                data.writeLong(version);
+            }));
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            Compression frameCompression = compression;
+            for (int position = 0; position < length; position += Frame.MAX_PAYLOAD) {
+                checkCancelled();
+                int frameLength = Math.min(Frame.MAX_PAYLOAD, length - position);
+                byte[] compressed = frameCompression != null
+                        ? frameCompression.compress(data, offset + position, frameLength)
+                        : null;
+                if (compressed != null) {
+                    byte flags = (byte) (Frame.FLAG_MORE | Frame.FLAG_COMPRESSED);
+                    send(opcode, requestId, flags, Frame.payload(frame -> {
+                        frame.writeByte(frameCompression.getCodec().getId());
+                        frame.writeInt(frameLength);
+                        frame.write(compressed);
+                    }));
+                } else {
+                    send(opcode, requestId, Frame.FLAG_MORE, data, offset + position, frameLength);
+                }
+            }
+        }
+
+        @Override
+        public void end(int crc) throws IOException {
+            checkCancelled();
+            send(opcode, requestId, (byte) 0, Frame.payload(data -> data.writeInt(crc)));
+        }
+
+        @Override
+        public void fail(String message) throws IOException {
+            sendError(opcode, requestId, message);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package servers.principal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Anneau de hachage cohérent : chaque slave y occupe virtualNodes × poids points (hash de "<slaveId>#<i>").
+// Les propriétaires d'une clé sont les premiers slaves distincts rencontrés en tournant à partir du hash de
+// la clé ; les slaves inactifs sont sautés. Quand un slave arrive ou part, seules les clés dont il est
+// (ou devient) propriétaire changent de propriétaires : les autres chunks restent où ils sont.
+public class HashRing {
+
+    private final long[] points;
+    private final String[] pointSlaves;
+
+    // weights : poids statique de chaque slave configuré (un slave de poids 0 n'est jamais choisi)
+    public HashRing(Map<String, Double> weights, int virtualNodes) {
+        List<long[]> ring = new ArrayList<>(); // {hash, index du slave}
+        List<String> slaveIds = new ArrayList<>(weights.keySet());
+        for (int s = 0; s < slaveIds.size(); s++) {
+            long count = Math.round(virtualNodes * weights.get(slaveIds.get(s)));
+            for (int i = 0; i < count; i++) {
+                ring.add(new long[] { hash(slaveIds.get(s) + "#" + i), s });
+            }
+        }
+        ring.sort((a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[ring.size()];
+        this.pointSlaves = new String[ring.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = ring.get(i)[0];
+            pointSlaves[i] = slaveIds.get((int) ring.get(i)[1]);
+        }
+    }
+
+    // Au plus count slaves distincts parmi live, dans l'ordre de l'anneau à partir de la clé
+    public List<String> owners(String key, int count, Collection<String> live) {
+        List<String> owners = new ArrayList<>(count);
+        if (points.length == 0) {
+            return owners;
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length && owners.size() < count; i++) {
+            String slaveId = pointSlaves[(start + i) % points.length];
+            if (live.contains(slaveId) && !owners.contains(slaveId)) {
+                owners.add(slaveId);
+            }
+        }
+        return owners;
+    }
+
+    // 64 premiers bits du MD5 : bien répartis, et identiques d'une exécution du master à l'autre
+    static long hash(String value) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    public int size() {
+        return points.length;
+    }
+}
@@ -0,0 +1,58 @@
+package servers.principal;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Latences observées des lectures de chunks, par slave : moyenne mobile (pour choisir la copie la plus
+// rapide) et 95e centile sur les derniers échantillons (pour décider quand lancer une requête de secours).
+public class LatencyTracker {
+
+    private static final int SAMPLES = 256;
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private Map<String, SlaveSamples> samples = new ConcurrentHashMap<>();
+
+    public void record(String slaveId, long nanos) {
+        samples.computeIfAbsent(slaveId, id -> new SlaveSamples()).add(nanos);
+    }
+
+    // Moyenne mobile en nanosecondes ; 0 pour un slave jamais mesuré (il sera essayé en priorité)
+    public long getAverageNanos(String slaveId) {
+        SlaveSamples slave = samples.get(slaveId);
+        return slave == null ? 0 : slave.average();
+    }
+
+    // 95e centile en nanosecondes, ou defaultNanos tant qu'il n'y a pas assez d'échantillons
+    public long getP95Nanos(String slaveId, long defaultNanos) {
+        SlaveSamples slave = samples.get(slaveId);
+        return slave == null ? defaultNanos : slave.percentile(0.95, defaultNanos);
+    }
+
+    private static class SlaveSamples {
+        private final long[] ring = new long[SAMPLES];
+        private int count;
+        private int next;
+        private double average;
+
+        synchronized void add(long nanos) {
+            ring[next] = nanos;
+            next = (next + 1) % SAMPLES;
+            count = Math.min(count + 1, SAMPLES);
+            average = average == 0 ? nanos : average + EWMA_WEIGHT * (nanos - average);
+        }
+
+        synchronized long average() {
+            return (long) average;
+        }
+
+        synchronized long percentile(double p, long defaultNanos) {
+            if (count < 20) {
+                return defaultNanos;
+            }
+            long[] sorted = Arrays.copyOf(ring, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.ceil(p * count) - 1)];
+        }
+    }
+}
@@ -1,28 +1,74 @@
 package servers.principal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
 
 import config.ConfigLoader;
-import servers.subservers.SlaveServer;
+import protocol.AccessToken;
+import protocol.ChunkCodec;
+import protocol.Compression;
+import protocol.Frame;
+import servers.Metrics;
+import servers.RequestExecutor;
 
 public class MasterServer {
 
     private String host;
     private int port;
     private ServerSocket serverSocket;
-    private List<SlaveServer> activeSubs;
     private String configPath;
     private ConfigLoader configLoader;
+    private SlaveConnectionPool connectionPool;
+    private MembershipService membership;
+    private FileCatalog catalog;
+    private ReplicaReader replicaReader;
+    private StripeReader stripeReader;
+    private RequestExecutor requestExecutor;
+    // Traitement parallèle des requêtes reçues sur les connexions en protocole binaire
+    private ExecutorService framedWorkers;
+    // Compression des chunks proposée aux slaves et acceptée des clients (null : désactivée)
+    private Compression compression;
+    // Répartition des chunks des uploads selon le poids et la charge des slaves
+    private PlacementEngine placement;
+    // Chunks servis récemment, gardés hors du tas pour les fichiers téléchargés souvent
+    private ChunkCache chunkCache;
+    // Déplacement en tâche de fond des chunks vers leurs propriétaires sur l'anneau
+    private Rebalancer rebalancer;
+    // Uploads reprenables en cours, par identifiant
+    private Map<String, UploadSession> uploadSessions = new ConcurrentHashMap<>();
+    private Map<String, PackedUpload> packedUploads = new ConcurrentHashMap<>();
+    // Latences, débits et jauges exposés par STATS et en JMX
+    private Metrics metrics = new Metrics("master");
+    // Histogramme de chaque commande du protocole texte, créé au démarrage
+    private Map<String, Metrics.Histogram> commandLatencies = new ConcurrentHashMap<>();
+    private Metrics.Histogram[] framedLatencies = new Metrics.Histogram[Frame.STAT + 1];
+    private LongAdder clientBytesIn = metrics.counter("client.bytesIn");
+    private LongAdder clientBytesOut = metrics.counter("client.bytesOut");
+    private LongAdder clientConnections = metrics.counter("client.connections");
+    private LongAdder clientErrors = metrics.counter("client.errors");
+    private AtomicInteger openConnections = new AtomicInteger();
 
     public MasterServer() {
     }
@@ -33,117 +79,246 @@ public class MasterServer {
         this.setConfigLoader(configLoader);
         this.setHost(configLoader.getMasterHost());
         this.setPort(configLoader.getMasterPort());
-        this.setActiveSubs(new ArrayList<>());
+        ChunkCodec codec = Compression.codec(configLoader.getCompression());
+        if (codec != null) {
+            this.setCompression(new Compression(codec, configLoader.getCompressionMaxRatio(),
+                    configLoader.getCompressionSampleSize()));
+        }
+        this.setConnectionPool(new SlaveConnectionPool(configLoader, compression));
+        connectionPool.setMetrics(metrics);
+        this.setMembership(new MembershipService(configLoader, connectionPool));
+        this.setPlacement(new PlacementEngine(configLoader, membership));
+        this.setReplicaReader(new ReplicaReader(configLoader, connectionPool, membership));
+        this.setStripeReader(new StripeReader(replicaReader));
+        this.setChunkCache(new ChunkCache(configLoader.getCacheBytes()));
+        this.setRequestExecutor(new RequestExecutor("master", configLoader));
+        // Une requête binaire n'y entre qu'admise par le RequestExecutor : au plus maxInFlight threads, créés
+        // à la demande et partagés par toutes les connexions
+        AtomicInteger framedThreads = new AtomicInteger();
+        this.framedWorkers = Executors.newFixedThreadPool(configLoader.getMaxInFlight(), r -> {
+            Thread thread = new Thread(r, "framed-request-" + framedThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.setCatalog(new FileCatalog(configLoader));
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossible de charger le catalogue : " + e.getMessage(), e);
+        }
+        this.setRebalancer(new Rebalancer(this, configLoader));
+        registerMetrics();
     }
 
-    public void start() {
-        System.out.println("MasterServer starting...");
-
-        // Charger la liste des sous-serveurs depuis le fichier de configuration
-        int numOfSlaves = configLoader.getNumOfSlaves();
-        boolean hasActiveSlaves = false;
+    // Histogrammes des commandes et jauges des composants (cache, compression, placement, rééquilibrage...)
+    private void registerMetrics() {
+        for (String command : new String[] { "LISTING", "UPLOAD", "UPLOAD_EC", "UPLOAD_RESUMABLE", "UPLOAD_RESUME",
+                "UPLOAD_DEDUP", "UPLOAD_DIRECT", "UPLOAD_DIRECT_COMMIT", "DOWNLOAD_DIRECT", "DOWNLOAD",
+                "DOWNLOAD_FROM", "READ_RANGE", "REMOVE", "STATS", "other" }) {
+            commandLatencies.put(command, metrics.histogram("cmd." + command));
+        }
+        String[] opcodes = { "other", "LISTING", "DOWNLOAD", "READ_RANGE", "REMOVE", "COMPRESS", "STAT" };
+        for (int opcode = 0; opcode < framedLatencies.length; opcode++) {
+            framedLatencies[opcode] = metrics.histogram("framed." + opcodes[opcode]);
+        }
 
-        for (int i = 1; i <= numOfSlaves; i++) {
-            String slaveId = "slave" + i;
-            String slaveHost = configLoader.getSlaveHost(slaveId);
-            int slavePort = configLoader.getSlavePort(slaveId);
-            try {
-                System.out.println("Checking connection to " + slaveId + " (" + slaveHost + ":" + slavePort + ")...");
-                Socket socket = new Socket(slaveHost, slavePort); // Test de connexion
-                socket.close(); // Fermer immédiatement le socket de test
-                System.out.println("Slave " + slaveId + " is active.");
+        metrics.gauge("client.open", openConnections::get);
+        metrics.gauge("executor.busy", requestExecutor::getBusyCount);
+        metrics.gauge("executor.admitted", requestExecutor::getAdmitted);
+        metrics.gauge("executor.waiting", requestExecutor::getWaiting);
+        metrics.gauge("executor.rejected", requestExecutor::getRejected);
+        metrics.gauge("executor.rejectedRequests", requestExecutor::getRejectedRequests);
+        metrics.gauge("catalog.files", catalog::size);
+        metrics.gauge("uploads.open", uploadSessions::size);
+        metrics.gauge("cache.hits", chunkCache::getHits);
+        metrics.gauge("cache.misses", chunkCache::getMisses);
+        metrics.gauge("cache.evictions", chunkCache::getEvictions);
+        metrics.gauge("cache.usedBytes", chunkCache::getUsedBytes);
+        if (compression != null) {
+            metrics.gauge("compression.rawBytes", compression::getRawBytes);
+            metrics.gauge("compression.sentBytes", compression::getSentBytes);
+            metrics.gauge("compression.skippedChunks", compression::getSkippedChunks);
+        }
+        metrics.gauge("rebalance.movedChunks", rebalancer::getMovedChunks);
+        metrics.gauge("rebalance.movedBytes", rebalancer::getMovedBytes);
+        for (SlaveNode slave : membership.getConfiguredSlaves()) {
+            String slaveId = slave.getSlaveId();
+            metrics.gauge("slave." + slaveId + ".live", () -> membership.findLive(slaveId) != null ? 1 : 0);
+            metrics.gauge("placement." + slaveId + ".writeKiBs",
+                    () -> (long) (placement.getThroughputMiBs(slaveId) * 1024));
+        }
+    }
 
-                // Ajouter ce sous-serveur à la liste des slaves actifs
-                activeSubs.add(new SlaveServer(this.getConfigPath(), slaveId));
-                hasActiveSlaves = true;
+    public void start() {
+        System.out.println("MasterServer starting...");
 
-            } catch (IOException e) {
-                System.err.println("Slave " + slaveId + " is unavailable.");
-            }
-        }
+        // Premier heartbeat sur les sous-serveurs de la configuration, puis surveillance en tâche de fond
+        membership.start();
+        boolean hasActiveSlaves = !membership.getLiveSlaves().isEmpty();
 
         if (!hasActiveSlaves) {
             System.out.println("No active slaves found. Shutting down MasterServer.");
+            requestExecutor.shutdown();
+            membership.stop();
+            connectionPool.shutdown();
             return; // Quitte le programme si aucun sous-serveur n'est disponible
         }
 
         System.out.println("Active slaves detected. MasterServer is running...");
+        rebalancer.start();
+        metrics.registerMBean();
+
+        // Arrêt propre (Ctrl+C, SIGTERM) : les requêtes en cours se terminent avant la fermeture
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "master-shutdown"));
 
         // Écoute des connexions entrantes pour un client
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocket serverSocket = new ServerSocket(port, configLoader.getAcceptBacklog())) {
             this.serverSocket = serverSocket;
 
-            while (true) {
+            while (!requestExecutor.isShuttingDown()) {
                 System.out
                         .println("Waiting for a client connection at " + this.getHost() + ":" + this.getPort() + "...");
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New client connected: " + clientSocket.getInetAddress());
 
-                // Gestion de la connexion client (implémentez votre logique ici)
-                new Thread(() -> handleClientRequests(clientSocket)).start();
+                if (!requestExecutor.submit(clientSocket, () -> handleClientRequests(clientSocket))) {
+                    rejectClient(clientSocket);
+                }
             }
         } catch (IOException e) {
-            System.err.println("Error with the MasterServer socket: " + e.getMessage());
+            if (!requestExecutor.isShuttingDown()) {
+                System.err.println("Error with the MasterServer socket: " + e.getMessage());
+            }
         }
     }
 
-    private void updateActiveSlaves() {
-        System.out.println("Updating active slaves...");
-
-        // Nettoyer la liste des slaves actifs
-        activeSubs.clear();
-        int numOfSlaves = configLoader.getNumOfSlaves();
-
-        for (int i = 1; i <= numOfSlaves; i++) {
-            String slaveId = "slave" + i;
-            String slaveHost = configLoader.getSlaveHost(slaveId);
-            int slavePort = configLoader.getSlavePort(slaveId);
-
-            try {
-                System.out.println("Checking connection to " + slaveId + " (" + slaveHost + ":" + slavePort + ")...");
-                Socket socket = new Socket(slaveHost, slavePort); // Test de connexion
-                socket.close(); // Fermer immédiatement le socket de test
-                System.out.println("Slave " + slaveId + " is active.");
-
-                // Ajouter ce sous-serveur à la liste des slaves actifs
-                activeSubs.add(new SlaveServer(this.getConfigPath(), slaveId));
-            } catch (IOException e) {
-                System.err.println("Slave " + slaveId + " is unavailable.");
+    // Arrête d'accepter des clients, laisse finir les requêtes en cours puis libère les ressources
+    public void stop() {
+        System.out.println("MasterServer stopping...");
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
             }
+        } catch (IOException e) {
+            System.err.println("Error closing the MasterServer socket: " + e.getMessage());
         }
+        requestExecutor.shutdown();
+        framedWorkers.shutdown();
+        rebalancer.stop();
+        membership.stop();
+        replicaReader.shutdown();
+        connectionPool.shutdown();
+        System.out.println("Chunk " + chunkCache + ".");
+        System.out.println("Bilan du " + rebalancer + ".");
+        metrics.unregisterMBean();
+        try {
+            catalog.close();
+        } catch (IOException e) {
+            System.err.println("Error closing the catalog: " + e.getMessage());
+        }
+        System.out.println("MasterServer stopped.");
+    }
 
-        System.out.println("Active slaves updated: " + activeSubs.size() + " active slave(s) found.");
+    // Serveur saturé : le client reçoit un message d'erreur à la place du message de bienvenue
+    private static void rejectClient(Socket clientSocket) {
+        System.err.println("Connexion refusée (serveur saturé) : " + clientSocket.getRemoteSocketAddress());
+        try (Socket socket = clientSocket) {
+            new DataOutputStream(socket.getOutputStream()).writeUTF("ERROR: Server busy.");
+        } catch (IOException e) {
+            // Le client est déjà parti
+        }
     }
 
     public void handleClientRequests(Socket clientSocket) {
         Socket socketClient = clientSocket;
-        try (DataInputStream in = new DataInputStream(socketClient.getInputStream());
-                DataOutputStream out = new DataOutputStream(socketClient.getOutputStream())) {
+        clientConnections.increment();
+        openConnections.incrementAndGet();
+        try (DataInputStream in = new DataInputStream(
+                new Metrics.CountingInputStream(socketClient.getInputStream(), clientBytesIn));
+                DataOutputStream out = new DataOutputStream(
+                        new Metrics.CountingOutputStream(socketClient.getOutputStream(), clientBytesOut))) {
 
             // Envoyer un message de bienvenue
             out.writeUTF("Tongasoa eto amin'ny Livai's Server!");
             System.out.println("Message de bienvenue envoyé à " + socketClient.getRemoteSocketAddress());
 
             String command;
-            while ((command = in.readUTF()) != null && !socketClient.isClosed()) {
+            while (!requestExecutor.isShuttingDown() && (command = in.readUTF()) != null && !socketClient.isClosed()) {
                 System.out.println("Commande choisi: " + command);
+                // Les arguments de la commande ne sont pas lus : un refus ferme la connexion
+                if (!requestExecutor.beginRequest(socketClient)) {
+                    System.err.println("Commande " + command + " refusée (serveur saturé) : "
+                            + socketClient.getRemoteSocketAddress());
+                    out.writeUTF("ERROR: Server busy.");
+                    return;
+                }
+                long commandStart = System.nanoTime();
                 switch (command) {
                     case "LISTING":
                         handleListing(out);
                         break;
 
                     case "UPLOAD":
-                        handleFileUpload(in, out);
+                        handleFileUpload(socketClient, in, out, "erasure".equals(configLoader.getStorageMode()), false);
+                        break;
+
+                    case "UPLOAD_EC":
+                        handleFileUpload(socketClient, in, out, true, false);
+                        break;
+
+                    case "UPLOAD_RESUMABLE":
+                        handleFileUpload(socketClient, in, out, "erasure".equals(configLoader.getStorageMode()), true);
+                        break;
+
+                    case "UPLOAD_RESUME":
+                        handleUploadResume(socketClient, in, out);
+                        break;
+
+                    case "UPLOAD_DEDUP":
+                        handleDedupUpload(in, out);
+                        break;
+
+                    case "UPLOAD_DIRECT":
+                        handleDirectUpload(in, out);
+                        break;
+
+                    case "UPLOAD_DIRECT_COMMIT":
+                        handleDirectCommit(socketClient, in, out);
+                        break;
+
+                    case "DOWNLOAD_DIRECT":
+                        handleDirectDownload(in, out);
                         break;
 
                     case "DOWNLOAD":
-                        handleFileDownload(in, out);
+                        handleFileDownload(in, out, false);
+                        break;
+
+                    case "DOWNLOAD_FROM":
+                        handleFileDownload(in, out, true);
+                        break;
+
+                    case "READ_RANGE":
+                        handleRangeRead(in, out);
                         break;
 
                     case "REMOVE":
                         handleFileRemove(in, out);
                         break;
 
+                    case "STATS":
+                        handleStats(out);
+                        break;
+
+                    case "FRAMED":
+                        // Passage au protocole binaire pour le reste de la connexion
+                        out.writeUTF("FRAMED_OK");
+                        out.writeByte(Frame.VERSION);
+                        out.flush();
+                        // La session n'occupe pas de place : chacune de ses requêtes prend la sienne
+                        requestExecutor.endRequest(socketClient);
+                        new FramedSession(this, socketClient, framedWorkers, configLoader.getFramedMaxInFlight()).run();
+                        return;
+
                     case "EXIT":
                         System.out.println("Client disconnected: " + socketClient.getRemoteSocketAddress());
                         return;
@@ -152,30 +327,74 @@ public class MasterServer {
                         System.out.println("Commande inconnue reçue : " + command);
                         out.writeUTF("Commande inconnue : " + command);
                 }
+                commandLatencies.getOrDefault(command, commandLatencies.get("other")).recordSince(commandStart);
+                requestExecutor.endRequest(socketClient);
             }
         } catch (IOException e) {
+            clientErrors.increment();
             System.err.println("Erreur pendant le traitement des requêtes client : " + e.getMessage());
+        } finally {
+            openConnections.decrementAndGet();
         }
     }
 
-    private void handleListing(DataOutputStream out) throws IOException {
-        File dir = new File(this.getConfigLoader().getSavePath()); // Répertoire où les fichiers sont stockés
-        if (!dir.exists() || !dir.isDirectory()) {
-            out.writeUTF("Répertoire introuvable ou invalide.");
-            return;
+    // Mesures du master puis de chaque slave actif : [int sections]([UTF rapport])...
+    private void handleStats(DataOutputStream out) throws IOException {
+        List<String> sections = new ArrayList<>();
+        sections.add(metrics.getReport());
+        for (SlaveNode slave : membership.getLiveSlaves()) {
+            SlaveConnection connection = null;
+            try {
+                connection = connectionPool.borrow(slave);
+                connection.getOut().writeUTF("STATS");
+                connection.getOut().flush();
+                sections.add(connection.getIn().readUTF());
+                connectionPool.release(connection);
+            } catch (IOException e) {
+                if (connection != null) {
+                    connectionPool.invalidate(connection);
+                }
+                sections.add("== " + slave.getSlaveId() + " ==\nindisponible : " + e.getMessage() + "\n");
+            }
+        }
+        out.writeInt(sections.size());
+        for (String section : sections) {
+            out.writeUTF(section);
         }
+        out.flush();
+    }
+
+    // Octets échangés avec les clients, protocole texte et binaire
+    LongAdder getClientBytesIn() {
+        return clientBytesIn;
+    }
+
+    LongAdder getClientBytesOut() {
+        return clientBytesOut;
+    }
+
+    // Histogramme des requêtes en protocole binaire de cet opcode
+    Metrics.Histogram getFramedLatency(byte opcode) {
+        return framedLatencies[opcode > 0 && opcode < framedLatencies.length ? opcode : 0];
+    }
 
-        String[] files = dir.list();
-        if (files == null || files.length == 0) {
+    private void handleListing(DataOutputStream out) throws IOException {
+        // Les fichiers disponibles sont ceux du catalogue
+        List<String> files = catalog.list();
+        if (files.isEmpty()) {
             out.writeUTF("Aucun fichier disponible.");
         } else {
             out.writeUTF(String.join(", ", files));
         }
     }
 
-    private void handleFileUpload(DataInputStream in, DataOutputStream out) throws IOException {
-        // Mettre à jour la liste des slaves actifs
-        updateActiveSlaves();
+    // Upload d'un fichier, répliqué ou en erasure coding (k chunks de données + m de parité par bande).
+    // En mode reprenable, le client reçoit un identifiant d'upload et la position à partir de laquelle envoyer ;
+    // après une coupure, UPLOAD_RESUME reprend au premier chunk (ou bande) qui n'est pas encore sur disque.
+    private void handleFileUpload(Socket clientSocket, DataInputStream in, DataOutputStream out, boolean erasure,
+            boolean resumable) throws IOException {
+        // Snapshot des slaves actifs, tenu à jour par le heartbeat
+        List<SlaveNode> activeSubs = membership.getLiveSlaves();
 
         if (activeSubs.isEmpty()) {
             out.writeUTF("Aucun slave actif. Impossible de traiter le fichier.");
@@ -187,176 +406,1279 @@ public class MasterServer {
         long fileSize = in.readLong();
 
         System.out.println("Réception du fichier " + fileName + " de taille " + fileSize + " octets.");
+        if (!isValidUploadSize(fileSize)) {
+            // Les octets annoncés ne sont pas lus : la connexion est fermée après la réponse
+            out.writeUTF("ERROR: Invalid file size.");
+            out.flush();
+            throw new IOException("Upload refusé : " + fileSize + " octets annoncés pour " + fileName + ".");
+        }
+        if (fileSize > 0 && fileSize <= configLoader.getPackThreshold()) {
+            handlePackedUpload(clientSocket, fileName, (int) fileSize, erasure, in, out, resumable);
+            return;
+        }
 
-        // Diviser le fichier en parties pour chaque slave
-        int numSlaves = activeSubs.size();
-        long partSize = fileSize / numSlaves;
-        long remainingBytes = fileSize % numSlaves;
+        // L'erasure coding demande k + m slaves distincts ; sinon on se replie sur la réplication
+        int dataShards = configLoader.getEcDataShards();
+        int parityShards = configLoader.getEcParityShards();
+        if (erasure && dataShards + parityShards > activeSubs.size()) {
+            System.out.println("Erasure coding " + dataShards + "+" + parityShards + " impossible avec "
+                    + activeSubs.size() + " slave(s) actif(s) : fichier répliqué.");
+            erasure = false;
+        }
 
-        System.out.println("Fichier divisé en " + numSlaves + " parties, chacune de taille " + partSize + " octets.");
+        int chunkSize = configLoader.getChunkSize();
+        UploadSession session = new UploadSession(newUploadId(), fileName, fileSize, chunkSize, activeSubs,
+                configLoader.getReplicationFactor(), erasure ? stripeReader.getCodec(dataShards, parityShards) : null,
+                placement);
+        if (erasure) {
+            System.out.println("Fichier divisé en " + session.getChunkCount() + " chunks de " + chunkSize + " octets, "
+                    + session.getGroupCount() + " bande(s) " + dataShards + "+" + parityShards + " sur "
+                    + activeSubs.size() + " slaves.");
+        } else {
+            System.out.println("Fichier divisé en " + session.getChunkCount() + " chunks de " + chunkSize
+                    + " octets sur " + activeSubs.size() + " slaves.");
+        }
+        if (placement.isWeighted()) {
+            System.out.println("Placement pondéré : " + describePlacement(session, activeSubs) + ".");
+        } else if (placement.isRing()) {
+            System.out.println("Placement sur l'anneau : " + describeRingPlacement(session, activeSubs) + ".");
+        }
 
-        // Transférer les parties du fichier aux slaves
-        byte[] buffer = new byte[4096]; // Tampon pour les transferts
-        long totalRead = 0;
+        if (resumable) {
+            expireUploadSessions();
+            uploadSessions.put(session.getUploadId(), session);
+        }
+        session.takeOver(clientSocket);
+        transferUpload(session, in, out, resumable);
+    }
 
-        for (int i = 0; i < numSlaves; i++) {
-            SlaveServer slave = activeSubs.get(i);
-
-            long bytesToSend = partSize + (i == numSlaves - 1 ? remainingBytes : 0); // Ajouter les octets restants à la
-                                                                                     // dernière partie
-            System.out.println("Envoi de " + bytesToSend + " octets à " + slave.getSlaveId());
-
-            try (Socket slaveSocket = new Socket(slave.getHost(), slave.getPort());
-                    DataOutputStream slaveOut = new DataOutputStream(slaveSocket.getOutputStream())) {
-
-                // Envoyer les métadonnées du fichier au slave
-                slaveOut.writeUTF("UPLOAD");
-                slaveOut.writeUTF(fileName);
-                slaveOut.writeLong(bytesToSend);
-
-                // Lire les données depuis le client et les envoyer au slave
-                long sentBytes = 0;
-                while (sentBytes < bytesToSend) {
-                    int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, bytesToSend - sentBytes));
-                    if (bytesRead == -1) {
-                        throw new IOException("Connexion interrompue par le client.");
-                    }
+    // Taille annoncée par un client, vérifiée avant d'allouer les tableaux de ses chunks
+    private boolean isValidUploadSize(long fileSize) {
+        return fileSize >= 0 && fileSize <= (long) configLoader.getChunkSize() * configLoader.getMaxUploadChunks();
+    }
 
-                    slaveOut.write(buffer, 0, bytesRead);
-                    sentBytes += bytesRead;
-                    totalRead += bytesRead;
-                }
+    // Petit fichier : reçu en entier, puis ajouté tel quel (un seul chunk) à un segment de pack sur
+    // replicationFactor slaves, sans découpage ni partie propre. En erasure coding aussi, avec au moins
+    // ecParityShards + 1 copies pour survivre à autant de pertes qu'une bande : une bande de k + m shards pour
+    // quelques Kio coûterait plus que ces copies. En upload reprenable, une reprise renvoie tout le fichier.
+    private void handlePackedUpload(Socket clientSocket, String fileName, int fileSize, boolean erasure,
+            DataInputStream in, DataOutputStream out, boolean resumable) throws IOException {
+        PackedUpload upload = new PackedUpload(newUploadId(), fileName, fileSize, erasure);
+        if (resumable) {
+            expireUploadSessions();
+            packedUploads.put(upload.getUploadId(), upload);
+        }
+        upload.takeOver(clientSocket);
+        transferPacked(upload, in, out, resumable);
+    }
+
+    private void transferPacked(PackedUpload upload, DataInputStream in, DataOutputStream out, boolean resumable)
+            throws IOException {
+        String fileName = upload.getFileName();
+        int fileSize = upload.getFileSize();
+        if (resumable) {
+            out.writeUTF("UPLOAD_ID");
+            out.writeUTF(upload.getUploadId());
+            out.writeLong(0);
+            out.flush();
+        }
+        byte[] data = new byte[fileSize];
+        in.readFully(data);
+        // Un autre envoi du même upload a pu le terminer entre-temps
+        if (resumable && !packedUploads.remove(upload.getUploadId(), upload)) {
+            out.writeUTF("ERROR: Unknown upload.");
+            return;
+        }
 
-                System.out.println("Partie envoyée avec succès à " + slave.getSlaveId());
+        List<SlaveNode> activeSubs = membership.getLiveSlaves();
+        if (activeSubs.isEmpty()) {
+            out.writeUTF("Aucun slave actif. Impossible de traiter le fichier.");
+            return;
+        }
+        int copies = configLoader.getReplicationFactor();
+        if (upload.isErasure()) {
+            copies = Math.max(copies, configLoader.getEcParityShards() + 1);
+        }
+        copies = Math.min(copies, activeSubs.size());
+        int[] copyLengths = new int[copies];
+        Arrays.fill(copyLengths, fileSize);
+        int[] targets = placement.place(activeSubs, fileName, new int[][] { copyLengths })[0];
+        String key = "packs/" + upload.getUploadId();
+        List<ChunkLocation> locations = new ArrayList<>();
+        List<String> failedSlaves = new ArrayList<>();
+        for (int target : targets) {
+            SlaveNode slave = activeSubs.get(target);
+            if (putPackEntry(slave, key, data)) {
+                locations.add(new ChunkLocation(slave.getSlaveId(), key, 0));
+            } else {
+                failedSlaves.add(slave.getSlaveId());
+            }
+        }
+        if (locations.isEmpty()) {
+            out.writeUTF("Erreur : aucun slave n'a pu recevoir le fichier " + fileName + ".");
+            return;
+        }
+
+        ChunkInfo chunk = new ChunkInfo(fileSize, ChunkInfo.crc32c(data, fileSize),
+                locations.toArray(new ChunkLocation[0]));
+        System.out.println("Petit fichier " + fileName + " ajouté aux segments de pack (" + key + ").");
+        out.writeUTF(publish(new FileEntry(fileName, fileSize, fileSize, 0, new ChunkInfo[] { chunk }),
+                failedSlaves));
+    }
+
+    // PACK_PUT sur un slave ; false si le slave n'a pas confirmé l'ajout
+    private boolean putPackEntry(SlaveNode slave, String key, byte[] data) {
+        SlaveConnection connection = null;
+        try {
+            connection = connectionPool.borrow(slave);
+            DataOutputStream slaveOut = connection.getOut();
+            slaveOut.writeUTF("PACK_PUT");
+            slaveOut.writeUTF(key);
+            slaveOut.writeInt(data.length);
+            slaveOut.write(data);
+            slaveOut.flush();
+            boolean stored = connection.getIn().readBoolean();
+            connectionPool.release(connection);
+            return stored;
+        } catch (IOException e) {
+            if (connection != null) {
+                connectionPool.invalidate(connection);
+            }
+            System.err.println("Erreur lors de la communication avec le slave " + slave + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Part de chaque slave dans l'upload, avec le poids et le débit mesuré qui l'ont décidée
+    private String describePlacement(UploadSession session, List<SlaveNode> slaves) {
+        double[] weights = placement.getWeights(slaves);
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        List<String> shares = new ArrayList<>();
+        for (int i = 0; i < slaves.size(); i++) {
+            String slaveId = slaves.get(i).getSlaveId();
+            shares.add(String.format("%s %d Kio (poids %.0f%%, %.1f Mio/s)", slaveId,
+                    session.getPlannedBytes(i) >> 10, total > 0 ? 100 * weights[i] / total : 0,
+                    placement.getThroughputMiBs(slaveId)));
+        }
+        return String.join(", ", shares);
+    }
+
+    private static String describeRingPlacement(UploadSession session, List<SlaveNode> slaves) {
+        List<String> shares = new ArrayList<>();
+        for (int i = 0; i < slaves.size(); i++) {
+            shares.add(slaves.get(i).getSlaveId() + " " + (session.getPlannedBytes(i) >> 10) + " Kio");
+        }
+        return String.join(", ", shares);
+    }
+
+    // Reprise d'un upload interrompu : le client renvoie le fichier à partir de la position confirmée
+    private void handleUploadResume(Socket clientSocket, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String uploadId = in.readUTF();
+        PackedUpload packed = packedUploads.get(uploadId);
+        if (packed != null) {
+            packed.takeOver(clientSocket);
+            System.out.println("Reprise de l'upload " + uploadId + " (" + packed.getFileName() + ") depuis le début.");
+            transferPacked(packed, in, out, true);
+            return;
+        }
+        UploadSession session = uploadSessions.get(uploadId);
+        if (session == null) {
+            out.writeUTF("ERROR: Unknown upload.");
+            return;
+        }
+        session.takeOver(clientSocket);
+        // L'envoi précédent a pu terminer (ou abandonner) l'upload pendant qu'on attendait
+        if (uploadSessions.get(uploadId) != session) {
+            session.release();
+            out.writeUTF("ERROR: Unknown upload.");
+            return;
+        }
+        System.out.println("Reprise de l'upload " + uploadId + " (" + session.getFileName() + ") à "
+                + session.getCommittedOffset() + " octets.");
+        transferUpload(session, in, out, true);
+    }
+
+    // Reçoit la suite du fichier puis publie la nouvelle version dans le catalogue ; la session est libérée à la fin
+    private void transferUpload(UploadSession session, DataInputStream in, DataOutputStream out, boolean resumable)
+            throws IOException {
+        try {
+            IOException interrupted = null;
+            try {
+                if (resumable) {
+                    out.writeUTF("UPLOAD_ID");
+                    out.writeUTF(session.getUploadId());
+                    out.writeLong(session.getCommittedOffset());
+                    out.flush();
+                }
+                session.writeSegment(in, connectionPool, placement, configLoader.getSlaveQueueDepth(),
+                        resumable);
             } catch (IOException e) {
-                System.err.println("Erreur lors de l'envoi à " + slave.getSlaveId() + ": " + e.getMessage());
-                out.writeUTF("Erreur lors de l'envoi d'une partie à " + slave.getSlaveId() + ".");
+                interrupted = e;
+            }
+
+            // Un groupe qui a perdu trop de copies ne peut plus être terminé
+            String error = session.checkRecoverable();
+            if (error != null) {
+                discardUpload(session);
+                if (interrupted != null) {
+                    throw interrupted;
+                }
+                out.writeUTF(error);
+                return;
+            }
+            if (interrupted != null) {
+                if (resumable) {
+                    System.out.println("Upload " + session.getUploadId() + " interrompu à "
+                            + session.getCommittedOffset() + " octets : " + interrupted.getMessage());
+                } else {
+                    discardUpload(session);
+                }
+                throw interrupted;
             }
+
+            out.writeUTF(publishUpload(session));
+        } finally {
+            session.release();
         }
+    }
 
-        // Confirmer la réception au client
-        if (totalRead == fileSize) {
-            out.writeUTF("Fichier " + fileName + " distribué avec succès aux slaves.");
-        } else {
-            out.writeUTF("Erreur : tous les octets du fichier n'ont pas été transmis.");
+    // Publie l'upload terminé dans le catalogue et libère la version remplacée ; retourne le message pour le client
+    private String publishUpload(UploadSession session) throws IOException {
+        FileEntry entry = session.toEntry();
+        uploadSessions.remove(session.getUploadId());
+        return publish(entry, session.getFailedSlaves());
+    }
+
+    private String publish(FileEntry entry, List<String> failedSlaves) throws IOException {
+        FileEntry previous = catalog.put(entry);
+        if (previous != null) {
+            releaseStorage(previous, entry);
         }
 
-        System.out.println("Fichier " + fileName + " distribué avec succès.");
+        String fileName = entry.getName();
+        if (failedSlaves.isEmpty()) {
+            System.out.println("Fichier " + fileName + " distribué avec succès.");
+            return "Fichier " + fileName + " distribué avec succès aux slaves.";
+        }
+        String missing = "Fichier " + fileName + " distribué, copies manquantes sur : "
+                + String.join(", ", failedSlaves);
+        System.out.println(missing);
+        return missing;
     }
 
-    private void handleFileDownload(DataInputStream in, DataOutputStream out) throws IOException {
-        // 1. Recevoir la demande du client
+    // Upload direct : le master ne reçoit pas les données. Il répond avec le placement des chunks et, pour chaque
+    // slave, un jeton d'écriture de la partie de l'upload ; le client envoie lui-même sa partie à chaque slave
+    // (CLIENT_UPLOAD_AT), en parallèle, puis valide l'upload par UPLOAD_DIRECT_COMMIT. Réplication seulement :
+    // en erasure coding, les parités sont calculées par le master et l'upload passe par lui.
+    // Réponse : DIRECT_LAYOUT [UTF uploadId][UTF partie][int chunkSize][int chunks]
+    // [int slaves]([UTF host][int port][long expiration][UTF jeton])... [int écritures]([int slave][int chunk]
+    // [long position dans la partie][int longueur])...
+    private void handleDirectUpload(DataInputStream in, DataOutputStream out) throws IOException {
         String fileName = in.readUTF();
-        System.out.println("Download request received for file: " + fileName);
+        long fileSize = in.readLong();
+        String secret = configLoader.getDirectSecret();
+        List<SlaveNode> activeSubs = membership.getLiveSlaves();
+        if (secret.isEmpty()) {
+            out.writeUTF("ERROR: Direct transfers disabled.");
+            return;
+        }
+        if ("erasure".equals(configLoader.getStorageMode())) {
+            out.writeUTF("ERROR: Direct upload unavailable in erasure mode.");
+            return;
+        }
+        if (!isValidUploadSize(fileSize)) {
+            out.writeUTF("ERROR: Invalid file size.");
+            return;
+        }
+        if (activeSubs.isEmpty()) {
+            out.writeUTF("Aucun slave actif. Impossible de traiter le fichier.");
+            return;
+        }
 
-        updateActiveSlaves();
+        UploadSession session = new UploadSession(newUploadId(), fileName, fileSize, configLoader.getChunkSize(),
+                activeSubs, configLoader.getReplicationFactor(), null, placement);
+        expireUploadSessions();
+        uploadSessions.put(session.getUploadId(), session);
+        System.out.println("Upload direct " + session.getUploadId() + " de " + fileName + " (" + fileSize
+                + " octets, " + session.getChunkCount() + " chunks).");
+
+        long expiresAt = System.currentTimeMillis() + configLoader.getDirectTokenTtlMs();
+        out.writeUTF("DIRECT_LAYOUT");
+        out.writeUTF(session.getUploadId());
+        out.writeUTF(session.getPartKey());
+        out.writeInt(session.getChunkSize());
+        out.writeInt(session.getChunkCount());
+        out.writeInt(activeSubs.size());
+        for (SlaveNode slave : activeSubs) {
+            out.writeUTF(slave.getHost());
+            out.writeInt(slave.getPort());
+            out.writeLong(expiresAt);
+            out.writeUTF(AccessToken.sign(secret, AccessToken.WRITE, session.getPartKey(), expiresAt));
+        }
+        out.writeInt(session.getWriteCount());
+        for (int w = 0; w < session.getWriteCount(); w++) {
+            out.writeInt(session.getWriteSlave(w));
+            out.writeInt(session.getWriteChunk(w));
+            out.writeLong(session.getWriteOffset(w));
+            out.writeInt(session.getWriteLength(w));
+        }
+        out.flush();
+    }
 
+    // Fin d'un upload direct : [UTF uploadId][int chunks]([int CRC32C])... Chaque slave donne les trames qu'il a
+    // reçues ; seules celles qui ont la position, la longueur et le CRC attendus deviennent des copies
+    private void handleDirectCommit(Socket clientSocket, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        String uploadId = in.readUTF();
+        int chunkCount = in.readInt();
+        if (chunkCount < 0 || chunkCount > configLoader.getMaxUploadChunks()) {
+            // Les CRC annoncés ne sont pas lus : la connexion est fermée après la réponse
+            out.writeUTF("ERROR: Unknown upload.");
+            out.flush();
+            throw new IOException("Confirmation refusée : " + chunkCount + " chunks annoncés pour " + uploadId + ".");
+        }
+        long[] crcs = new long[chunkCount];
+        for (int c = 0; c < crcs.length; c++) {
+            crcs[c] = in.readInt() & 0xFFFFFFFFL;
+        }
+        UploadSession session = uploadSessions.get(uploadId);
+        if (session == null || session.isErasureCoded() || crcs.length != session.getChunkCount()) {
+            out.writeUTF("ERROR: Unknown upload.");
+            return;
+        }
+        session.takeOver(clientSocket);
+        try {
+            if (uploadSessions.get(uploadId) != session) {
+                out.writeUTF("ERROR: Unknown upload.");
+                return;
+            }
+            session.setChunkCrcs(crcs);
+            List<SlaveNode> slaves = session.getSlaves();
+            for (int i = 0; i < slaves.size(); i++) {
+                if (session.getPlannedBytes(i) == 0) {
+                    continue;
+                }
+                try {
+                    session.confirmDirect(i, readPartFrames(slaves.get(i), session.getPartKey()));
+                } catch (IOException e) {
+                    System.err.println("Trames de " + session.getPartKey() + " illisibles sur " + slaves.get(i)
+                            + " : " + e.getMessage());
+                    session.markFailed(i);
+                }
+            }
+
+            String error = session.checkRecoverable();
+            if (error != null) {
+                discardUpload(session);
+                out.writeUTF(error);
+                return;
+            }
+            out.writeUTF(publishUpload(session));
+        } finally {
+            session.release();
+        }
+    }
+
+    // Trames d'une partie sur un slave : {position, longueur, crc} ; vide si la partie n'existe pas
+    private List<long[]> readPartFrames(SlaveNode slave, String key) throws IOException {
+        SlaveConnection connection = connectionPool.borrow(slave);
+        try {
+            DataOutputStream slaveOut = connection.getOut();
+            slaveOut.writeUTF("PART_FRAMES");
+            slaveOut.writeUTF(key);
+            slaveOut.flush();
+            DataInputStream slaveIn = connection.getIn();
+            int count = slaveIn.readInt();
+            List<long[]> frames = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                frames.add(new long[] { slaveIn.readLong(), slaveIn.readInt(), slaveIn.readInt() & 0xFFFFFFFFL });
+            }
+            connectionPool.release(connection);
+            return frames;
+        } catch (IOException e) {
+            connectionPool.invalidate(connection);
+            throw e;
+        }
+    }
+
+    // Download direct : le client reçoit les chunks du fichier et, pour chacun, ses copies sur les slaves
+    // actifs avec un jeton de lecture ; il les lit lui-même (CLIENT_READ_RANGE) et vérifie leurs CRC.
+    // Réponse : DIRECT_LAYOUT [long taille][long version][int chunks]([int longueur][long crc][int copies]
+    // ([UTF host][int port][UTF clé][long position][long expiration][UTF jeton])...)...
+    private void handleDirectDownload(DataInputStream in, DataOutputStream out) throws IOException {
+        String fileName = in.readUTF();
+        FileEntry entry = catalog.get(fileName);
+        String secret = configLoader.getDirectSecret();
+        if (entry == null) {
+            out.writeUTF("ERROR: File not found.");
+            return;
+        }
+        if (secret.isEmpty()) {
+            out.writeUTF("ERROR: Direct transfers disabled.");
+            return;
+        }
+        if (entry.isErasureCoded()) {
+            // Une bande incomplète se reconstruit sur le master
+            out.writeUTF("ERROR: Direct download unavailable for erasure-coded files.");
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + configLoader.getDirectTokenTtlMs();
+        Map<String, String> tokens = new LinkedHashMap<>(); // Un jeton par clé, partagé par ses chunks
+        out.writeUTF("DIRECT_LAYOUT");
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getVersion());
+        out.writeInt(entry.getChunks().length);
+        for (ChunkInfo chunk : entry.getChunks()) {
+            List<SlaveNode> slaves = new ArrayList<>();
+            List<ChunkLocation> locations = new ArrayList<>();
+            for (ChunkLocation location : chunk.getLocations()) {
+                SlaveNode slave = membership.findLive(location.getSlaveId());
+                if (slave != null) {
+                    slaves.add(slave);
+                    locations.add(location);
+                }
+            }
+            out.writeInt(chunk.getLength());
+            out.writeLong(chunk.getCrc());
+            out.writeInt(locations.size());
+            for (int i = 0; i < locations.size(); i++) {
+                ChunkLocation location = locations.get(i);
+                out.writeUTF(slaves.get(i).getHost());
+                out.writeInt(slaves.get(i).getPort());
+                out.writeUTF(location.getKey());
+                out.writeLong(location.getOffset());
+                out.writeLong(expiresAt);
+                out.writeUTF(tokens.computeIfAbsent(location.getKey(),
+                        key -> AccessToken.sign(secret, AccessToken.READ, key, expiresAt)));
+            }
+        }
+        out.flush();
+        System.out.println("Placement de " + fileName + " envoyé pour un download direct.");
+    }
+
+    // Abandon d'un upload : ses parties (clé propre à l'upload) sont supprimées des slaves
+    private void discardUpload(UploadSession session) {
+        uploadSessions.remove(session.getUploadId());
+        System.out.println("Upload " + session.getUploadId() + " de " + session.getFileName() + " abandonné.");
+        removeParts(session.getPartKey(), session.getSlaveIds());
+    }
+
+    // Les uploads reprenables inactifs depuis plus de uploadSessionTimeoutMs sont abandonnés
+    private void expireUploadSessions() {
+        long limit = System.currentTimeMillis() - configLoader.getUploadSessionTimeoutMs();
+        for (UploadSession session : uploadSessions.values()) {
+            if (session.isIdleSince(limit) && uploadSessions.containsKey(session.getUploadId())) {
+                discardUpload(session);
+            }
+        }
+        // Rien n'a été écrit sur les slaves pour un petit fichier pas encore reçu
+        packedUploads.values().removeIf(upload -> upload.isIdleSince(limit));
+    }
+
+    static String newUploadId() {
+        return UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+    }
+
+    // Upload dédupliqué : le client annonce les IDs (SHA-256) de ses chunks découpés selon leur contenu.
+    // Chaque chunk va sur replicationFactor slaves choisis d'après son ID, donc toujours les mêmes pour un
+    // même contenu. Les slaves indiquent les chunks qu'ils ont déjà (en leur ajoutant une référence) et seuls
+    // les chunks manquants sont demandés au client ; un ré-upload inchangé ne transfère que des métadonnées.
+    private void handleDedupUpload(DataInputStream in, DataOutputStream out) throws IOException {
+        String fileName = in.readUTF();
+        long fileSize = in.readLong();
+        int chunkCount = in.readInt();
+        int maxChunkSize = configLoader.getDedupMaxChunkSize();
+
+        // Seul le dernier chunk peut être plus petit que la taille minimale du découpage : un nombre de chunks
+        // au-delà est refusé avant d'allouer quoi que ce soit. La liste annoncée n'est pas lue, la connexion
+        // est donc fermée après la réponse.
+        long maxChunks = Math.min(fileSize / configLoader.getDedupMinChunkSize() + 1, configLoader.getDedupMaxChunks());
+        if (chunkCount < 0 || chunkCount > maxChunks) {
+            out.writeUTF("Erreur : liste de chunks invalide pour " + fileName + ".");
+            throw new IOException("Upload dédupliqué refusé : " + chunkCount + " chunks annoncés pour " + fileSize
+                    + " octets.");
+        }
+
+        String[] chunkIds = new String[chunkCount];
+        int[] lengths = new int[chunkCount];
+        long totalLength = 0;
+        boolean valid = true;
+        for (int c = 0; c < chunkIds.length; c++) {
+            chunkIds[c] = in.readUTF();
+            lengths[c] = in.readInt();
+            valid &= ChunkLocation.isChunkId(chunkIds[c]) && lengths[c] > 0 && lengths[c] <= maxChunkSize;
+            totalLength += lengths[c];
+        }
+        if (!valid || totalLength != fileSize) {
+            out.writeUTF("Erreur : liste de chunks invalide pour " + fileName + ".");
+            return;
+        }
+
+        List<SlaveNode> activeSubs = membership.getLiveSlaves();
         if (activeSubs.isEmpty()) {
-            out.writeUTF("ERROR: No active slaves available to retrieve the file.");
+            out.writeUTF("Aucun slave actif. Impossible de traiter le fichier.");
             return;
         }
+        int numSlaves = activeSubs.size();
+        int replication = Math.min(configLoader.getReplicationFactor(), numSlaves);
 
-        // 2. Collecter les parties du fichier depuis les slaves actifs
-        Map<Integer, byte[]> fileParts = new TreeMap<>();
-        int totalParts = activeSubs.size();
+        // Slaves cibles de chaque chunk, et chunks demandés à chaque slave
+        int[][] targets = new int[chunkCount][];
+        List<List<Integer>> slaveChunks = new ArrayList<>();
+        for (int i = 0; i < numSlaves; i++) {
+            slaveChunks.add(new ArrayList<>());
+        }
+        for (int c = 0; c < chunkCount; c++) {
+            targets[c] = placement.contentOwners(chunkIds[c], replication, activeSubs);
+            for (int r = 0; r < replication; r++) {
+                slaveChunks.get(targets[c][r]).add(c);
+            }
+        }
 
-        for (int i = 0; i < activeSubs.size(); i++) {
-            SlaveServer slave = activeSubs.get(i);
-            try (Socket slaveSocket = new Socket(slave.getHost(), slave.getPort());
-                    DataOutputStream slaveOut = new DataOutputStream(slaveSocket.getOutputStream());
-                    DataInputStream slaveIn = new DataInputStream(slaveSocket.getInputStream())) {
+        boolean[][] stored = new boolean[chunkCount][replication];
+        boolean[] failed = new boolean[numSlaves];
+        boolean committed = false;
+        try {
+            SlaveConnection[] connections = new SlaveConnection[numSlaves];
+            int alreadyPresent = 0;
+            int missingCount = 0;
+            boolean corrupted = false;
+            boolean synchronizedWithSlaves = false;
+            try {
+                // 1. Chunks déjà présents sur chaque slave cible
+                for (int i = 0; i < numSlaves; i++) {
+                    List<Integer> chunks = slaveChunks.get(i);
+                    if (chunks.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        connections[i] = connectionPool.borrow(activeSubs.get(i));
+                        DataOutputStream slaveOut = connections[i].getOut();
+                        slaveOut.writeUTF("CLAIM_CHUNKS");
+                        slaveOut.writeInt(chunks.size());
+                        for (int c : chunks) {
+                            slaveOut.writeUTF(chunkIds[c]);
+                        }
+                        slaveOut.flush();
+                        DataInputStream slaveIn = connections[i].getIn();
+                        for (int c : chunks) {
+                            stored[c][replicaIndex(targets[c], i)] = slaveIn.readBoolean();
+                        }
+                    } catch (IOException e) {
+                        failSlave(activeSubs.get(i), connections, failed, i, e);
+                    }
+                }
 
-                System.out.println("Maka ny partie any amin'ny slave: " + slave.getSlaveId());
+                // 2. Demander au client les chunks qui manquent sur au moins un slave cible
+                List<Integer> missing = new ArrayList<>();
+                for (int c = 0; c < chunkCount; c++) {
+                    boolean needed = false;
+                    boolean present = false;
+                    for (int r = 0; r < replication; r++) {
+                        needed |= !stored[c][r] && !failed[targets[c][r]];
+                        present |= stored[c][r];
+                    }
+                    if (needed) {
+                        missing.add(c);
+                    }
+                    if (present) {
+                        alreadyPresent++;
+                    }
+                }
+                missingCount = missing.size();
+
+                // 3. Recevoir chaque chunk manquant, vérifier son ID et l'envoyer aux slaves qui ne l'ont pas ;
+                // les réponses des slaves sont lues à la fin pour ne pas attendre un aller-retour par chunk
+                byte[] buffer = new byte[maxChunkSize];
+                MessageDigest digest = sha256();
+                List<List<Integer>> pendingPuts = new ArrayList<>();
+                for (int i = 0; i < numSlaves; i++) {
+                    pendingPuts.add(new ArrayList<>());
+                }
+                IOException clientError = null;
+                try {
+                    out.writeUTF("DEDUP_MISSING");
+                    out.writeInt(missing.size());
+                    for (int c : missing) {
+                        out.writeInt(c);
+                    }
+                    out.flush();
+                    for (int c : missing) {
+                        in.readFully(buffer, 0, lengths[c]);
+                        digest.update(buffer, 0, lengths[c]);
+                        if (!toHex(digest.digest()).equals(chunkIds[c])) {
+                            corrupted = true;
+                            continue;
+                        }
+                        for (int r = 0; r < replication; r++) {
+                            int i = targets[c][r];
+                            if (stored[c][r] || failed[i]) {
+                                continue;
+                            }
+                            try {
+                                DataOutputStream slaveOut = connections[i].getOut();
+                                slaveOut.writeUTF("PUT_CHUNK");
+                                slaveOut.writeUTF(chunkIds[c]);
+                                slaveOut.writeLong(lengths[c]);
+                                slaveOut.write(buffer, 0, lengths[c]);
+                                pendingPuts.get(i).add(c);
+                            } catch (IOException e) {
+                                failSlave(activeSubs.get(i), connections, failed, i, e);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // Client parti : un chunk n'est envoyé aux slaves qu'une fois reçu en entier, leurs réponses
+                    // sont donc lues quand même, pour savoir quelles références rendre
+                    clientError = e;
+                }
+
+                // 4. Réponses des slaves, dans l'ordre des envois
+                for (int i = 0; i < numSlaves; i++) {
+                    if (failed[i] || pendingPuts.get(i).isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        connections[i].getOut().flush();
+                        DataInputStream slaveIn = connections[i].getIn();
+                        for (int c : pendingPuts.get(i)) {
+                            stored[c][replicaIndex(targets[c], i)] = slaveIn.readBoolean();
+                        }
+                    } catch (IOException e) {
+                        failSlave(activeSubs.get(i), connections, failed, i, e);
+                    }
+                }
+                synchronizedWithSlaves = true;
+                if (clientError != null) {
+                    throw clientError;
+                }
+            } finally {
+                // Erreur inattendue en cours de route : les slaves attendent peut-être encore un chunk
+                for (int i = 0; i < numSlaves; i++) {
+                    if (connections[i] != null && synchronizedWithSlaves) {
+                        connectionPool.release(connections[i]);
+                    } else if (connections[i] != null) {
+                        connectionPool.invalidate(connections[i]);
+                    }
+                }
+            }
+
+            List<String> failedSlaves = new ArrayList<>();
+            for (int i = 0; i < numSlaves; i++) {
+                if (failed[i]) {
+                    failedSlaves.add(activeSubs.get(i).getSlaveId());
+                }
+            }
 
-                // Envoyer la demande de fichier au slave
-                slaveOut.writeUTF("DOWNLOAD_PART");
-                slaveOut.writeUTF(fileName);
+            // Références obtenues (réutilisées ou écrites) sur les slaves qui n'ont pas échoué
+            ChunkInfo[] chunks = new ChunkInfo[chunkCount];
+            boolean complete = !corrupted;
+            int largestChunk = 1;
+            for (int c = 0; c < chunkCount; c++) {
+                List<ChunkLocation> locations = new ArrayList<>();
+                for (int r = 0; r < replication; r++) {
+                    if (stored[c][r] && !failed[targets[c][r]]) {
+                        locations.add(new ChunkLocation(activeSubs.get(targets[c][r]).getSlaveId(),
+                                ChunkLocation.chunkKey(chunkIds[c]), 0));
+                    }
+                }
+                complete &= !locations.isEmpty();
+                chunks[c] = new ChunkInfo(lengths[c], locations.toArray(new ChunkLocation[0]));
+                largestChunk = Math.max(largestChunk, lengths[c]);
+            }
+            if (!complete) {
+                out.writeUTF(corrupted ? "Erreur : contenu d'un chunk différent de son ID."
+                        : "Erreur lors de l'envoi d'une partie à " + String.join(", ", failedSlaves) + ".");
+                return;
+            }
 
-                // Recevoir la partie du fichier
-                System.out.println("Waiting to receive file size from slave...");
-                int partSize = slaveIn.readInt();
-                System.out.println("Received file size: " + partSize);
+            FileEntry entry = new FileEntry(fileName, fileSize, largestChunk, 0, chunks, 0, 0, new ChunkInfo[0], true);
+            FileEntry previous = catalog.put(entry);
+            committed = true;
+            if (previous != null) {
+                releaseStorage(previous, entry);
+            }
 
-                byte[] partData = new byte[partSize];
-                System.out.println("Waiting to receive file data...");
-                slaveIn.readFully(partData);
+            String summary = alreadyPresent + "/" + chunkCount + " chunks déjà présents, " + missingCount
+                    + " reçus";
+            if (failedSlaves.isEmpty()) {
+                out.writeUTF("Fichier " + fileName + " distribué avec succès aux slaves (" + summary + ").");
+            } else {
+                out.writeUTF("Fichier " + fileName + " distribué (" + summary + "), copies manquantes sur : "
+                        + String.join(", ", failedSlaves));
+            }
+            System.out.println("Fichier " + fileName + " distribué avec déduplication : " + summary + ".");
+        } finally {
+            releaseUncommitted(chunkIds, targets, stored, failed, committed, activeSubs);
+        }
+    }
 
-                // Stocker la partie dans une collection triée
-                System.out.println("Received part from slave: " + slave.getSlaveId());
-                fileParts.put(i, partData);
-            } catch (IOException e) {
-                System.err.println("Failed to retrieve part from slave: " + slave.getSlaveId() + ": " + e.getMessage());
+    // Rend les références prises pendant un upload dédupliqué (chunk réutilisé ou écrit) qui ne sont pas
+    // entrées au catalogue : toutes si l'upload n'y est pas entré (client parti, chunk corrompu, copies
+    // manquantes), sinon celles des slaves en échec, absentes des emplacements enregistrés
+    private void releaseUncommitted(String[] chunkIds, int[][] targets, boolean[][] stored, boolean[] failed,
+            boolean committed, List<SlaveNode> activeSubs) {
+        List<ChunkInfo> uncommitted = new ArrayList<>();
+        for (int c = 0; c < chunkIds.length; c++) {
+            List<ChunkLocation> locations = new ArrayList<>();
+            for (int r = 0; r < targets[c].length; r++) {
+                if (stored[c][r] && (!committed || failed[targets[c][r]])) {
+                    locations.add(new ChunkLocation(activeSubs.get(targets[c][r]).getSlaveId(),
+                            ChunkLocation.chunkKey(chunkIds[c]), 0));
+                }
+            }
+            if (!locations.isEmpty()) {
+                uncommitted.add(new ChunkInfo(0, locations.toArray(new ChunkLocation[0])));
+            }
+        }
+        if (!uncommitted.isEmpty()) {
+            releaseChunks(uncommitted.toArray(new ChunkInfo[0]));
+        }
+    }
+
+    private static int replicaIndex(int[] chunkTargets, int slaveIndex) {
+        for (int r = 0; r < chunkTargets.length; r++) {
+            if (chunkTargets[r] == slaveIndex) {
+                return r;
+            }
+        }
+        throw new IllegalArgumentException("Slave " + slaveIndex + " non ciblé.");
+    }
+
+    private void failSlave(SlaveNode slave, SlaveConnection[] connections, boolean[] failed, int i,
+            IOException e) {
+        System.err.println("Erreur lors de l'envoi à " + slave.getSlaveId() + ": " + e.getMessage());
+        failed[i] = true;
+        if (connections[i] != null) {
+            connectionPool.invalidate(connections[i]);
+            connections[i] = null;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Téléchargement d'un fichier ; DOWNLOAD_FROM reprend à la position demandée si la version du fichier
+    // est toujours celle que le client a commencé à recevoir, sinon il repart du début
+    private void handleFileDownload(DataInputStream in, DataOutputStream out, boolean resumable) throws IOException {
+        // 1. Recevoir la demande du client
+        String fileName = in.readUTF();
+        long offset = resumable ? in.readLong() : 0;
+        long version = resumable ? in.readLong() : -1;
+        System.out.println("Download request received for file: " + fileName
+                + (offset > 0 ? " (from " + offset + ")" : ""));
+
+        // 2. Retrouver le placement des chunks dans le catalogue
+        FileEntry entry = catalog.get(fileName);
+        if (entry == null) {
+            out.writeUTF("ERROR: File not found.");
+            return;
+        }
+        if (version != entry.getVersion() || offset < 0 || offset > entry.getSize()) {
+            offset = 0;
+        }
+        if (entry.isErasureCoded()) {
+            sendErasureCoded(entry, offset, out, resumable);
+        } else {
+            sendReplicated(entry, offset, out, resumable);
+        }
+    }
+
+    private void sendReplicated(FileEntry entry, long offset, DataOutputStream out, boolean resumable)
+            throws IOException {
+        String fileName = entry.getName();
+        ChunkInfo[] chunks = entry.getChunks();
+
+        // Premier chunk à envoyer
+        int first = entry.findChunk(offset);
+        long chunkStart = entry.getChunkStart(first);
+
+        // Chaque chunk doit avoir au moins une copie sur un slave vivant
+        for (int c = first; c < chunks.length; c++) {
+            if (!chunkCache.contains(chunks[c]) && !replicaReader.isReadable(chunks[c])) {
+                System.err.println("No live replica for a chunk of " + fileName + ".");
                 out.writeUTF("ERROR: Failed to retrieve all parts of the file.");
                 return;
             }
         }
 
-        // 3. Rassembler les parties du fichier
-        ByteArrayOutputStream assembledFile = new ByteArrayOutputStream();
-        for (int i = 0; i < totalParts; i++) {
-            if (!fileParts.containsKey(i)) {
-                System.err.println("Missing part " + i + " of the file.");
-                out.writeUTF("ERROR: Missing parts of the file.");
+        // 3. Lire les chunks en avance (fenêtre de downloadWindow chunks), chacun sur sa copie la plus rapide,
+        // pendant que les précédents sont envoyés au client
+        int window = configLoader.getDownloadWindow();
+        ArrayDeque<CompletableFuture<ChunkBuffer>> inflight = new ArrayDeque<>();
+        ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+        int next = first;
+        try {
+            while (next < chunks.length && inflight.size() < window) {
+                inflight.add(readChunk(chunks[next++], nextBuffer(freeBuffers, entry.getChunkSize())));
+            }
+
+            // Attendre le premier chunk avant d'annoncer le téléchargement : on peut encore signaler une erreur
+            if (!inflight.isEmpty()) {
+                try {
+                    awaitResult(inflight.peek());
+                } catch (IOException e) {
+                    System.err.println("Failed to retrieve part of " + fileName + ": " + e.getMessage());
+                    out.writeUTF("ERROR: Failed to retrieve all parts of the file.");
+                    return;
+                }
+            }
+
+            // 4. Envoyer le fichier au client au fil de l'eau, chunk par chunk dans l'ordre du fichier,
+            // suivi du CRC32C des octets envoyés que le client compare au sien
+            writeDownloadHeader(out, entry, offset, resumable);
+            CRC32C fileCrc = new CRC32C();
+            long skip = offset - chunkStart;
+            while (!inflight.isEmpty()) {
+                ChunkBuffer chunk = awaitResult(inflight.poll());
+                skip = writeChunk(out, fileCrc, chunk, skip);
+                if (chunk.getData().length == entry.getChunkSize()) {
+                    freeBuffers.add(chunk.getData());
+                }
+                if (next < chunks.length) {
+                    inflight.add(readChunk(chunks[next++], nextBuffer(freeBuffers, entry.getChunkSize())));
+                }
+            }
+            out.writeInt((int) fileCrc.getValue());
+            out.flush();
+        } finally {
+            // Client parti ou erreur : abandonner les lectures en cours
+            for (CompletableFuture<ChunkBuffer> pending : inflight) {
+                pending.cancel(true);
+            }
+        }
+
+        System.out.println("File " + fileName + " sent to client.");
+    }
+
+    // Envoi d'un fichier en erasure coding : les bandes sont lues en avance (downloadWindow chunks de données),
+    // chacune terminée dès que ses k premiers shards sont arrivés
+    private void sendErasureCoded(FileEntry entry, long offset, DataOutputStream out, boolean resumable)
+            throws IOException {
+        String fileName = entry.getName();
+        int stripeCount = entry.getStripeCount();
+        long stripeSize = (long) entry.getChunkSize() * entry.getDataShards();
+        int firstStripe = (int) Math.min(stripeCount, offset / stripeSize);
+        for (int stripe = firstStripe; stripe < stripeCount; stripe++) {
+            if (!isStripeCached(entry, stripe) && !stripeReader.isReadable(entry, stripe)) {
+                System.err.println("Not enough live shards for a stripe of " + fileName + ".");
+                out.writeUTF("ERROR: Failed to retrieve all parts of the file.");
                 return;
             }
-            assembledFile.write(fileParts.get(i));
         }
 
-        byte[] completeFile = assembledFile.toByteArray();
-        System.out.println("File " + fileName + " assembled successfully.");
+        int window = Math.max(1, configLoader.getDownloadWindow() / entry.getDataShards());
+        ArrayDeque<CompletableFuture<ChunkBuffer[]>> inflight = new ArrayDeque<>();
+        int next = firstStripe;
+        try {
+            while (next < stripeCount && inflight.size() < window) {
+                inflight.add(readStripe(entry, next++));
+            }
 
-        // 4. Envoyer le fichier complet au client
-        out.writeUTF("DOWNLOAD_READY");
-        out.writeLong(completeFile.length);
-        out.write(completeFile);
+            if (!inflight.isEmpty()) {
+                try {
+                    awaitResult(inflight.peek());
+                } catch (IOException e) {
+                    System.err.println("Failed to retrieve part of " + fileName + ": " + e.getMessage());
+                    out.writeUTF("ERROR: Failed to retrieve all parts of the file.");
+                    return;
+                }
+            }
+
+            writeDownloadHeader(out, entry, offset, resumable);
+            CRC32C fileCrc = new CRC32C();
+            long skip = offset - firstStripe * stripeSize;
+            while (!inflight.isEmpty()) {
+                for (ChunkBuffer chunk : awaitResult(inflight.poll())) {
+                    skip = writeChunk(out, fileCrc, chunk, skip);
+                }
+                if (next < stripeCount) {
+                    inflight.add(readStripe(entry, next++));
+                }
+            }
+            out.writeInt((int) fileCrc.getValue());
+            out.flush();
+        } finally {
+            for (CompletableFuture<ChunkBuffer[]> pending : inflight) {
+                pending.cancel(true);
+            }
+        }
 
         System.out.println("File " + fileName + " sent to client.");
     }
 
+    // Lecture d'une plage d'octets d'un fichier. La réponse est RANGE_READY, la longueur effective (la plage
+    // est tronquée à la fin du fichier), les octets puis leur CRC32C
+    private void handleRangeRead(DataInputStream in, DataOutputStream out) throws IOException {
+        String fileName = in.readUTF();
+        long offset = in.readLong();
+        long length = in.readLong();
+
+        streamRange(fileName, offset, length, new RangeSink() {
+            @Override
+            public void begin(long rangeLength, long version) throws IOException {
+                out.writeUTF("RANGE_READY");
+                out.writeLong(rangeLength);
+            }
+
+            @Override
+            public void write(byte[] data, int dataOffset, int dataLength) throws IOException {
+                out.write(data, dataOffset, dataLength);
+            }
+
+            @Override
+            public void end(int crc) throws IOException {
+                out.writeInt(crc);
+                out.flush();
+            }
+
+            @Override
+            public void fail(String message) throws IOException {
+                out.writeUTF(message);
+            }
+        });
+    }
+
+    // Envoie une plage d'octets d'un fichier : seuls les chunks qui la recouvrent sont lus, et pour chacun
+    // seulement la partie utile (lecture positionnelle sur le slave)
+    void streamRange(String fileName, long offset, long length, RangeSink sink) throws IOException {
+        FileEntry entry = catalog.get(fileName);
+        if (entry == null) {
+            sink.fail("ERROR: File not found.");
+            return;
+        }
+        if (offset < 0 || length < 0 || offset > entry.getSize()) {
+            sink.fail("ERROR: Invalid range.");
+            return;
+        }
+        long end = offset + Math.min(length, entry.getSize() - offset);
+
+        int first = entry.findChunk(offset);
+        int last = entry.findChunk(end - 1);
+        for (int c = first; end > offset && c <= last; c++) {
+            if (!isChunkReadable(entry, c)) {
+                System.err.println("No live copy for a chunk of " + fileName + ".");
+                sink.fail("ERROR: Failed to retrieve all parts of the file.");
+                return;
+            }
+        }
+
+        // Les morceaux (un par chunk touché) sont lus en avance dans une fenêtre de downloadWindow
+        int window = configLoader.getDownloadWindow();
+        ArrayDeque<CompletableFuture<ChunkBuffer>> inflight = new ArrayDeque<>();
+        int next = first;
+        long nextStart = entry.getChunkStart(first);
+        try {
+            while (nextStart < end && inflight.size() < window) {
+                inflight.add(readPiece(entry, next, nextStart, offset, end));
+                nextStart += entry.getChunks()[next++].getLength();
+            }
+
+            if (!inflight.isEmpty()) {
+                try {
+                    awaitResult(inflight.peek());
+                } catch (IOException e) {
+                    System.err.println("Failed to retrieve part of " + fileName + ": " + e.getMessage());
+                    sink.fail("ERROR: Failed to retrieve all parts of the file.");
+                    return;
+                }
+            }
+
+            sink.begin(end - offset, entry.getVersion());
+            CRC32C rangeCrc = new CRC32C();
+            while (!inflight.isEmpty()) {
+                ChunkBuffer piece = awaitResult(inflight.poll());
+                rangeCrc.update(piece.getData(), 0, piece.getLength());
+                sink.write(piece.getData(), 0, piece.getLength());
+                if (nextStart < end) {
+                    inflight.add(readPiece(entry, next, nextStart, offset, end));
+                    nextStart += entry.getChunks()[next++].getLength();
+                }
+            }
+            sink.end((int) rangeCrc.getValue());
+        } finally {
+            for (CompletableFuture<ChunkBuffer> pending : inflight) {
+                pending.cancel(true);
+            }
+        }
+
+        System.out.println("Range " + offset + "-" + end + " of " + fileName + " sent to client.");
+    }
+
+    // Partie du chunk c (qui commence à chunkStart dans le fichier) comprise dans [offset, end[. En erasure coding,
+    // si la copie du chunk de données est perdue, la bande est reconstruite et on n'en garde que la plage demandée
+    private CompletableFuture<ChunkBuffer> readPiece(FileEntry entry, int c, long chunkStart, long offset, long end) {
+        ChunkInfo chunk = entry.getChunks()[c];
+        int offsetInChunk = (int) Math.max(0, offset - chunkStart);
+        int length = (int) (Math.min(end, chunkStart + chunk.getLength()) - chunkStart) - offsetInChunk;
+
+        byte[] cached = new byte[length];
+        if (chunkCache.read(chunk, offsetInChunk, length, cached)) {
+            return CompletableFuture.completedFuture(new ChunkBuffer(cached, length));
+        }
+        CompletableFuture<ChunkBuffer> direct = replicaReader.readRange(chunk, offsetInChunk, length, cached);
+        if (offsetInChunk == 0 && length == chunk.getLength()) {
+            // Chunk lu en entier : gardé en cache ; un morceau de chunk ne l'est pas
+            direct = cacheOnSuccess(direct, read -> chunkCache.put(chunk, read.getData()));
+        }
+        if (!entry.isErasureCoded()) {
+            return direct;
+        }
+        int stripe = c / entry.getDataShards();
+        return direct.exceptionallyCompose(error -> stripeReader.read(entry, stripe).thenApply(chunks -> {
+            byte[] data = chunks[c - stripe * entry.getDataShards()].getData();
+            return new ChunkBuffer(Arrays.copyOfRange(data, offsetInChunk, offsetInChunk + length), length);
+        }));
+    }
+
+    // Chunk entier depuis le cache, sinon depuis les slaves ; le chunk lu est ajouté au cache avant d'être rendu
+    // (ensuite son tampon peut être réutilisé pour le chunk suivant)
+    private CompletableFuture<ChunkBuffer> readChunk(ChunkInfo chunk, byte[] buffer) {
+        byte[] target = buffer.length >= chunk.getLength() ? buffer : new byte[chunk.getLength()];
+        if (chunkCache.read(chunk, 0, chunk.getLength(), target)) {
+            return CompletableFuture.completedFuture(new ChunkBuffer(target, chunk.getLength()));
+        }
+        return cacheOnSuccess(replicaReader.read(chunk, buffer), read -> chunkCache.put(chunk, read.getData()));
+    }
+
+    // Chunks de données d'une bande : depuis le cache s'ils y sont tous, sinon lecture de la bande sur les slaves
+    private CompletableFuture<ChunkBuffer[]> readStripe(FileEntry entry, int stripe) {
+        int k = entry.getDataShards();
+        int dataCount = Math.min(k, entry.getChunks().length - stripe * k);
+        ChunkBuffer[] cached = new ChunkBuffer[dataCount];
+        for (int i = 0; i < dataCount; i++) {
+            ChunkInfo chunk = entry.getChunks()[stripe * k + i];
+            byte[] data = new byte[chunk.getLength()];
+            if (!chunkCache.read(chunk, 0, chunk.getLength(), data)) {
+                return cacheOnSuccess(stripeReader.read(entry, stripe), chunks -> {
+                    for (int j = 0; j < chunks.length; j++) {
+                        chunkCache.put(entry.getChunks()[stripe * k + j], chunks[j].getData());
+                    }
+                });
+            }
+            cached[i] = new ChunkBuffer(data, chunk.getLength());
+        }
+        return CompletableFuture.completedFuture(cached);
+    }
+
+    // Rend un futur qui n'est terminé qu'une fois le résultat mis en cache ; l'annuler annule la lecture
+    private static <T> CompletableFuture<T> cacheOnSuccess(CompletableFuture<T> read, Consumer<T> cache) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        read.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                cache.accept(value);
+                result.complete(value);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                read.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private boolean isStripeCached(FileEntry entry, int stripe) {
+        int k = entry.getDataShards();
+        for (int c = stripe * k; c < Math.min(entry.getChunks().length, (stripe + 1) * k); c++) {
+            if (!chunkCache.contains(entry.getChunks()[c])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isChunkReadable(FileEntry entry, int c) {
+        return chunkCache.contains(entry.getChunks()[c]) || replicaReader.isReadable(entry.getChunks()[c])
+                || (entry.isErasureCoded() && stripeReader.isReadable(entry, c / entry.getDataShards()));
+    }
+
+    // DOWNLOAD_FROM annonce aussi la position de départ effective et la version envoyée
+    private static void writeDownloadHeader(DataOutputStream out, FileEntry entry, long offset, boolean resumable)
+            throws IOException {
+        out.writeUTF("DOWNLOAD_READY");
+        if (resumable) {
+            out.writeLong(offset);
+        }
+        out.writeLong(entry.getSize());
+        if (resumable) {
+            out.writeLong(entry.getVersion());
+        }
+    }
+
+    // Envoie le chunk au client sans ses "skip" premiers octets ; retourne ce qu'il reste à sauter
+    private static long writeChunk(DataOutputStream out, CRC32C crc, ChunkBuffer chunk, long skip)
+            throws IOException {
+        int start = (int) Math.min(skip, chunk.getLength());
+        crc.update(chunk.getData(), start, chunk.getLength() - start);
+        out.write(chunk.getData(), start, chunk.getLength() - start);
+        return skip - start;
+    }
+
+    private static byte[] nextBuffer(ArrayDeque<byte[]> freeBuffers, int chunkSize) {
+        byte[] buffer = freeBuffers.poll();
+        return buffer != null ? buffer : new byte[chunkSize];
+    }
+
+    private static <T> T awaitResult(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Téléchargement interrompu.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
     private void handleFileRemove(DataInputStream in, DataOutputStream out) throws IOException {
         // Recevoir le nom du fichier à supprimer
         String fileName = in.readUTF();
+        out.writeUTF(removeFile(fileName));
+        out.flush();
+    }
 
-        // Mettre à jour la liste des slaves actifs
-        updateActiveSlaves();
+    // Supprime le fichier du catalogue puis libère son stockage ; retourne le message pour le client
+    String removeFile(String fileName) throws IOException {
+        // Le catalogue fait foi : le fichier disparaît de la liste même si un slave est injoignable
+        FileEntry entry = catalog.remove(fileName);
+        if (entry == null) {
+            return "ERROR: File not found.";
+        }
 
-        // Vérifier si des slaves sont disponibles
-        if (activeSubs.isEmpty()) {
-            out.writeUTF("ERROR: No active slaves available to retrieve the file.");
-            return;
+        // Seuls les slaves qui détiennent des chunks du fichier sont contactés
+        List<String> failedSlaves = releaseStorage(entry, null);
+        if (failedSlaves.isEmpty()) {
+            return "Fichier supprimé avec succès.";
         }
+        return "Fichier supprimé ; parties non supprimées sur : " + String.join(", ", failedSlaves);
+    }
 
-        for (SlaveServer slave : this.getActiveSubs()) {
+    // Libère le stockage d'une version remplacée ou supprimée : les références de ses chunks dédupliqués,
+    // ou ses parties sur les slaves. Retourne les slaves en échec
+    private List<String> releaseStorage(FileEntry previous, FileEntry replacement) {
+        chunkCache.invalidate(previous.getChunks());
+        if (previous.isDeduplicated()) {
+            return releaseChunks(previous.getChunks());
+        }
+        // Une partie encore utilisée par la nouvelle version (même clé sur le même slave) est conservée
+        Map<String, Set<String>> replacementParts = replacement != null && !replacement.isDeduplicated()
+                ? replacement.getPartKeys()
+                : Map.of();
+        List<String> failedSlaves = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> part : previous.getPartKeys().entrySet()) {
+            Set<String> slaveIds = part.getValue();
+            slaveIds.removeAll(replacementParts.getOrDefault(part.getKey(), Set.of()));
+            failedSlaves.addAll(removeParts(part.getKey(), slaveIds));
+        }
+        return failedSlaves;
+    }
+
+    // Retire une référence à chaque copie de chunk dédupliqué ; le slave supprime les chunks inutilisés
+    List<String> releaseChunks(ChunkInfo[] chunks) {
+        Map<String, List<String>> chunkIdsBySlave = new LinkedHashMap<>();
+        for (ChunkInfo chunk : chunks) {
+            for (ChunkLocation location : chunk.getLocations()) {
+                chunkIdsBySlave.computeIfAbsent(location.getSlaveId(), id -> new ArrayList<>())
+                        .add(ChunkLocation.chunkId(location.getKey()));
+            }
+        }
+
+        List<String> failedSlaves = new ArrayList<>();
+        for (Map.Entry<String, List<String>> slaveChunks : chunkIdsBySlave.entrySet()) {
+            String slaveId = slaveChunks.getKey();
+            SlaveNode slave = membership.findLive(slaveId);
+            if (slave == null) {
+                System.err.println("Slave " + slaveId + " indisponible : chunks non libérés.");
+                failedSlaves.add(slaveId);
+                continue;
+            }
+
+            SlaveConnection connection = null;
             try {
-                Socket slaveSocket = new Socket(slave.getHost(), slave.getPort());
-                DataOutputStream slaveOut = new DataOutputStream(slaveSocket.getOutputStream());
-                DataInputStream slaveIn = new DataInputStream(slaveSocket.getInputStream());
+                connection = connectionPool.borrow(slave);
+                DataOutputStream slaveOut = connection.getOut();
+                slaveOut.writeUTF("RELEASE_CHUNKS");
+                slaveOut.writeInt(slaveChunks.getValue().size());
+                for (String chunkId : slaveChunks.getValue()) {
+                    slaveOut.writeUTF(chunkId);
+                }
+                slaveOut.flush();
+                int deleted = connection.getIn().readInt();
+                connectionPool.release(connection);
+                System.out.println(deleted + " chunk(s) supprimé(s) dans slave: " + slaveId);
+            } catch (IOException e) {
+                if (connection != null) {
+                    connectionPool.invalidate(connection);
+                }
+                System.err.println("Erreur lors de la communication avec le slave " + slave + ": " + e.getMessage());
+                failedSlaves.add(slaveId);
+            }
+        }
+        return failedSlaves;
+    }
+
+    // Supprime la partie "key" sur chacun des slaves ; retourne les slaves où la suppression a échoué
+    List<String> removeParts(String key, Set<String> slaveIds) {
+        List<String> failedSlaves = new ArrayList<>();
+        for (String slaveId : slaveIds) {
+            SlaveNode slave = membership.findLive(slaveId);
+            if (slave == null) {
+                System.err.println("Slave " + slaveId + " indisponible : partie " + key + " non supprimée.");
+                failedSlaves.add(slaveId);
+                continue;
+            }
+
+            SlaveConnection connection = null;
+            try {
+                connection = connectionPool.borrow(slave);
+                DataOutputStream slaveOut = connection.getOut();
+                DataInputStream slaveIn = connection.getIn();
 
                 // Envoyer le nom de la commande et le fichier à supprimer
                 slaveOut.writeUTF("REMOVE_PART");
-                slaveOut.writeUTF(fileName);
+                slaveOut.writeUTF(key);
                 slaveOut.flush();
 
                 // Lire la réponse du slave
                 boolean success = slaveIn.readBoolean();
+                connectionPool.release(connection);
                 if (!success) {
-                    System.out.println("Erreur pendant la suppression d'une partie dans slave:" + slave.getSlaveId());
-                    out.writeUTF("Erreur pendant la suppression d'une partie dans slave:" + slave.getSlaveId());
+                    System.out.println("Erreur pendant la suppression d'une partie dans slave:" + slaveId);
+                    failedSlaves.add(slaveId);
                 } else {
-                    out.writeUTF("Partie supprimée dans slave: "+slave.getSlaveId());
+                    System.out.println("Partie supprimée dans slave: " + slaveId);
                 }
-
-                // Fermer la connexion avec le slave
-                slaveOut.close();
-                slaveIn.close();
-                slaveSocket.close();
             } catch (IOException e) {
+                if (connection != null) {
+                    connectionPool.invalidate(connection);
+                }
                 System.err.println("Erreur lors de la communication avec le slave " + slave + ": " + e.getMessage());
+                failedSlaves.add(slaveId);
             }
         }
-
-        out.writeUTF("Fichier supprimé avec succès.");
-        out.flush();
+        return failedSlaves;
     }
 
     public String getHost() {
@@ -383,12 +1705,92 @@ public class MasterServer {
         this.serverSocket = serverSocket;
     }
 
-    public List<SlaveServer> getActiveSubs() {
-        return activeSubs;
+    public List<SlaveNode> getActiveSubs() {
+        return membership.getLiveSlaves();
+    }
+
+    public MembershipService getMembership() {
+        return membership;
+    }
+
+    public void setMembership(MembershipService membership) {
+        this.membership = membership;
+    }
+
+    public SlaveConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public void setConnectionPool(SlaveConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public ReplicaReader getReplicaReader() {
+        return replicaReader;
+    }
+
+    public void setReplicaReader(ReplicaReader replicaReader) {
+        this.replicaReader = replicaReader;
+    }
+
+    public StripeReader getStripeReader() {
+        return stripeReader;
+    }
+
+    public void setStripeReader(StripeReader stripeReader) {
+        this.stripeReader = stripeReader;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public PlacementEngine getPlacement() {
+        return placement;
+    }
+
+    public void setPlacement(PlacementEngine placement) {
+        this.placement = placement;
+    }
+
+    public ChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    public void setChunkCache(ChunkCache chunkCache) {
+        this.chunkCache = chunkCache;
+    }
+
+    public Rebalancer getRebalancer() {
+        return rebalancer;
+    }
+
+    public void setRebalancer(Rebalancer rebalancer) {
+        this.rebalancer = rebalancer;
+    }
+
+    public RequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public void setRequestExecutor(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    public FileCatalog getCatalog() {
+        return catalog;
     }
 
-    public void setActiveSubs(List<SlaveServer> activeSubs) {
-        this.activeSubs = activeSubs;
+    public void setCatalog(FileCatalog catalog) {
+        this.catalog = catalog;
     }
 
     public ConfigLoader getConfigLoader() {
@@ -0,0 +1,174 @@
+package servers.principal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import config.ConfigLoader;
+
+// Surveille les slaves en tâche de fond : un STATUS par slave à intervalle fixe, sur une connexion dédiée.
+// La réponse donne aussi l'espace libre et la charge du slave, gardés pour le placement des uploads.
+// La liste des slaves vivants est publiée comme un snapshot immuable : les requêtes la lisent sans verrou
+// et sans aucune entrée/sortie.
+public class MembershipService {
+
+    private List<SlaveNode> configuredSlaves;
+    private SlaveConnectionPool connectionPool;
+    private long intervalMs;
+    private int timeoutMs;
+    private int connectTimeoutMs;
+    private String secret;
+    private int missesBeforeDown;
+
+    // Connexions dédiées au heartbeat (hors pool : un slave saturé de transferts répond quand même)
+    private Map<String, SlaveConnection> heartbeatConnections = new HashMap<>();
+    private Map<String, Integer> misses = new HashMap<>();
+    // Dernier état rapporté par chaque slave (espace libre, charge), utilisé par le placement
+    private Map<String, SlaveStatus> statuses = new ConcurrentHashMap<>();
+
+    private volatile List<SlaveNode> liveSlaves = List.of();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService probes;
+
+    public MembershipService(ConfigLoader configLoader, SlaveConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        this.intervalMs = configLoader.getHeartbeatIntervalMs();
+        this.timeoutMs = configLoader.getHeartbeatTimeoutMs();
+        this.connectTimeoutMs = configLoader.getSlaveConnectTimeoutMs();
+        this.secret = configLoader.getDirectSecret();
+        this.missesBeforeDown = configLoader.getHeartbeatMissesBeforeDown();
+
+        // La configuration n'est lue qu'une fois
+        List<SlaveNode> slaves = new ArrayList<>();
+        int numOfSlaves = configLoader.getNumOfSlaves();
+        for (int i = 1; i <= numOfSlaves; i++) {
+            String slaveId = "slave" + i;
+            slaves.add(new SlaveNode(slaveId, configLoader.getSlaveHost(slaveId), configLoader.getSlavePort(slaveId)));
+        }
+        this.configuredSlaves = List.copyOf(slaves);
+    }
+
+    // Premier tour de heartbeat synchrone (pour savoir si le master peut démarrer), puis tours périodiques
+    public synchronized void start() {
+        probes = Executors.newFixedThreadPool(Math.max(1, configuredSlaves.size()), daemon("heartbeat-probe"));
+        heartbeat();
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon("heartbeat"));
+        scheduler.scheduleWithFixedDelay(this::heartbeat, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (probes != null) {
+            probes.shutdownNow();
+        }
+        synchronized (heartbeatConnections) {
+            for (SlaveConnection connection : heartbeatConnections.values()) {
+                connection.close();
+            }
+        }
+    }
+
+    // Snapshot des slaves vivants, dans l'ordre de la configuration
+    public List<SlaveNode> getLiveSlaves() {
+        return liveSlaves;
+    }
+
+    // Slave vivant correspondant à un identifiant, ou null s'il est absent du snapshot
+    public SlaveNode findLive(String slaveId) {
+        for (SlaveNode slave : liveSlaves) {
+            if (slave.getSlaveId().equals(slaveId)) {
+                return slave;
+            }
+        }
+        return null;
+    }
+
+    // Dernier état connu du slave, ou null s'il n'a jamais répondu
+    public SlaveStatus getStatus(String slaveId) {
+        return statuses.get(slaveId);
+    }
+
+    public List<SlaveNode> getConfiguredSlaves() {
+        return configuredSlaves;
+    }
+
+    private synchronized void heartbeat() {
+        // Tous les slaves sont sondés en parallèle : un slave lent ne retarde pas les autres
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (SlaveNode slave : configuredSlaves) {
+            results.add(CompletableFuture.supplyAsync(() -> probe(slave), probes));
+        }
+
+        List<SlaveNode> alive = new ArrayList<>();
+        for (int i = 0; i < configuredSlaves.size(); i++) {
+            SlaveNode slave = configuredSlaves.get(i);
+            boolean responded = results.get(i).join();
+            boolean wasAlive = liveSlaves.contains(slave);
+            int missed = responded ? 0 : misses.getOrDefault(slave.getSlaveId(), 0) + 1;
+            misses.put(slave.getSlaveId(), missed);
+
+            // Un slave vivant n'est retiré qu'après plusieurs heartbeats manqués ; un slave mort revient dès qu'il répond
+            if (responded || (wasAlive && missed < missesBeforeDown)) {
+                alive.add(slave);
+                if (!wasAlive) {
+                    System.out.println("Slave " + slave + " is active.");
+                }
+            } else if (wasAlive) {
+                System.err.println("Slave " + slave + " is unavailable.");
+                connectionPool.closeIdle(slave.getSlaveId());
+            }
+        }
+
+        List<SlaveNode> snapshot = List.copyOf(alive);
+        if (!snapshot.equals(liveSlaves)) {
+            liveSlaves = snapshot;
+            System.out.println("Active slaves updated: " + snapshot.size() + " active slave(s) found.");
+        }
+    }
+
+    private boolean probe(SlaveNode slave) {
+        SlaveConnection connection;
+        synchronized (heartbeatConnections) {
+            connection = heartbeatConnections.get(slave.getSlaveId());
+        }
+        try {
+            if (connection == null || !connection.isOpen()) {
+                connection = new SlaveConnection(slave.getSlaveId(), slave.getHost(), slave.getPort(),
+                        connectTimeoutMs, null, null, null, secret);
+                synchronized (heartbeatConnections) {
+                    heartbeatConnections.put(slave.getSlaveId(), connection);
+                }
+            }
+            SlaveStatus status = connection.status(timeoutMs);
+            if (status != null) {
+                statuses.put(slave.getSlaveId(), status);
+                return true;
+            }
+        } catch (IOException e) {
+            // slave injoignable
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        return false;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package servers.principal;
+
+import java.io.IOException;
+import java.net.Socket;
+
+// Upload reprenable d'un petit fichier destiné aux segments de pack. Rien n'est écrit sur les slaves avant
+// que le fichier soit reçu en entier : une reprise (UPLOAD_RESUME) le renvoie depuis le début.
+public class PackedUpload {
+
+    private final String uploadId;
+    private final String fileName;
+    private final int fileSize;
+    private final boolean erasure;
+    private Socket clientSocket;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    public PackedUpload(String uploadId, String fileName, int fileSize, boolean erasure) {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.erasure = erasure;
+    }
+
+    // Nouvel envoi : la connexion d'un envoi précédent encore bloquée en lecture est fermée
+    public void takeOver(Socket socket) throws IOException {
+        Socket previous;
+        synchronized (this) {
+            previous = clientSocket;
+            clientSocket = socket;
+        }
+        if (previous != null && previous != socket) {
+            previous.close();
+        }
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public boolean isIdleSince(long timestamp) {
+        return lastActivity < timestamp;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    public boolean isErasure() {
+        return erasure;
+    }
+}
@@ -0,0 +1,216 @@
+package servers.principal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import config.ConfigLoader;
+
+// Choix des slaves qui reçoivent les chunks d'un upload. En mode "ring" (par défaut), les écritures du groupe g
+// vont aux propriétaires de la clé "<fichier>#<g>" sur l'anneau de hachage cohérent (HashRing), et un chunk
+// dédupliqué à ceux de son ID : le placement ne dépend que des slaves actifs, ce qui permet au Rebalancer de
+// ne déplacer que les chunks concernés quand un slave arrive ou part.
+// En mode "weighted", chaque slave a un poids :
+// son poids statique (slaveN.weight) × son débit d'écriture mesuré / (1 + requêtes en cours). Chaque écriture
+// va au slave dont la charge prévue, rapportée à son poids, reste la plus faible : la part de chaque slave est
+// proportionnelle à son poids, et tous finissent leur part à peu près en même temps. Un slave n'est choisi
+// au-delà de son espace libre (moins placementMinFreeBytes) que si aucun autre ne peut recevoir l'écriture.
+// Les écritures d'un même groupe (copies d'un chunk, shards d'une bande) vont toujours à des slaves distincts.
+// En mode "roundrobin", l'écriture t du groupe g va au slave (g + t) % numSlaves, quelle que soit la charge.
+public class PlacementEngine {
+
+    private static final double EWMA_WEIGHT = 0.3;
+    // En dessous, le temps mesuré est surtout la latence fixe du segment (synchronisation, confirmation)
+    private static final long MIN_SAMPLE_BYTES = 1 << 20;
+
+    private final MembershipService membership;
+    private final boolean weighted;
+    private final HashRing ring; // null hors du mode "ring"
+    private final long minFreeBytes;
+    private final Map<String, Double> staticWeights = new ConcurrentHashMap<>();
+    // Débit d'écriture récent de chaque slave, en octets par nanoseconde
+    private final Map<String, Double> throughputs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeWrites = new ConcurrentHashMap<>();
+
+    public PlacementEngine(ConfigLoader configLoader, MembershipService membership) {
+        this.membership = membership;
+        String mode = configLoader.getPlacement();
+        this.weighted = "weighted".equals(mode);
+        this.minFreeBytes = configLoader.getPlacementMinFreeBytes();
+        for (SlaveNode slave : membership.getConfiguredSlaves()) {
+            staticWeights.put(slave.getSlaveId(), configLoader.getSlaveWeight(slave.getSlaveId()));
+        }
+        this.ring = "ring".equals(mode) ? new HashRing(staticWeights, configLoader.getRingVirtualNodes()) : null;
+    }
+
+    // Slave de chaque écriture : writeLengths[g] donne les longueurs des écritures du groupe g, le résultat
+    // l'indice dans slaves de chacune
+    public int[][] place(List<SlaveNode> slaves, String fileName, int[][] writeLengths) {
+        int numSlaves = slaves.size();
+        int[][] targets = new int[writeLengths.length][];
+        if (ring != null) {
+            for (int g = 0; g < writeLengths.length; g++) {
+                targets[g] = owners(groupKey(fileName, g), writeLengths[g].length, slaves);
+            }
+            return targets;
+        }
+        if (!weighted) {
+            for (int g = 0; g < writeLengths.length; g++) {
+                targets[g] = new int[writeLengths[g].length];
+                for (int t = 0; t < targets[g].length; t++) {
+                    targets[g][t] = (g + t) % numSlaves;
+                }
+            }
+            return targets;
+        }
+
+        double[] weights = getWeights(slaves);
+        long[] capacity = new long[numSlaves];
+        for (int i = 0; i < numSlaves; i++) {
+            SlaveStatus status = membership.getStatus(slaves.get(i).getSlaveId());
+            capacity[i] = status == null ? Long.MAX_VALUE : status.getFreeBytes() - minFreeBytes;
+        }
+
+        long[] planned = new long[numSlaves];
+        for (int g = 0; g < writeLengths.length; g++) {
+            targets[g] = new int[writeLengths[g].length];
+            boolean[] used = new boolean[numSlaves];
+            for (int t = 0; t < targets[g].length; t++) {
+                int length = writeLengths[g][t];
+                int best = pick(weights, planned, capacity, used, length, true);
+                if (best < 0) {
+                    best = pick(weights, planned, capacity, used, length, false);
+                }
+                targets[g][t] = best;
+                used[best] = true;
+                planned[best] += length;
+            }
+        }
+        return targets;
+    }
+
+    // Slaves (indices dans slaves) des count copies d'un chunk dédupliqué, d'après son ID
+    public int[] contentOwners(String chunkId, int count, List<SlaveNode> slaves) {
+        if (ring != null) {
+            return owners(chunkId, count, slaves);
+        }
+        int numSlaves = slaves.size();
+        int first = Math.floorMod(Integer.parseUnsignedInt(chunkId.substring(0, 8), 16), numSlaves);
+        int[] targets = new int[count];
+        for (int r = 0; r < count; r++) {
+            targets[r] = (first + r) % numSlaves;
+        }
+        return targets;
+    }
+
+    // Propriétaires de la clé sur l'anneau parmi slaves ; complétés par les autres slaves si l'anneau
+    // n'en fournit pas assez (slaves de poids 0)
+    private int[] owners(String key, int count, List<SlaveNode> slaves) {
+        List<String> slaveIds = new ArrayList<>();
+        for (SlaveNode slave : slaves) {
+            slaveIds.add(slave.getSlaveId());
+        }
+        List<String> owners = ringOwners(key, count, slaveIds);
+        int[] targets = new int[owners.size()];
+        for (int t = 0; t < targets.length; t++) {
+            targets[t] = slaveIds.indexOf(owners.get(t));
+        }
+        return targets;
+    }
+
+    // Propriétaires (identifiants) de la clé parmi les slaves live, dans l'ordre de l'anneau
+    public List<String> ringOwners(String key, int count, List<String> live) {
+        List<String> owners = ring.owners(key, count, live);
+        for (int i = 0; i < live.size() && owners.size() < count; i++) {
+            if (!owners.contains(live.get(i))) {
+                owners.add(live.get(i));
+            }
+        }
+        return owners;
+    }
+
+    // Clé sur l'anneau du groupe g d'un fichier (un chunk en réplication, une bande en erasure coding)
+    public static String groupKey(String fileName, int group) {
+        return fileName + "#" + group;
+    }
+
+    // Slave non utilisé par le groupe dont la charge après l'écriture, rapportée au poids, est la plus faible
+    private static int pick(double[] weights, long[] planned, long[] capacity, boolean[] used, int length,
+            boolean withinCapacity) {
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < weights.length; i++) {
+            if (used[i] || (withinCapacity && (weights[i] <= 0 || planned[i] + length > capacity[i]))) {
+                continue;
+            }
+            double score = weights[i] > 0 ? (planned[i] + length) / weights[i] : Double.MAX_VALUE / 2;
+            if (best < 0 || score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // Poids effectifs des slaves ; un slave dont le débit n'est pas encore mesuré a le débit moyen des autres
+    public double[] getWeights(List<SlaveNode> slaves) {
+        double known = 0;
+        int knownCount = 0;
+        for (SlaveNode slave : slaves) {
+            Double throughput = throughputs.get(slave.getSlaveId());
+            if (throughput != null) {
+                known += throughput;
+                knownCount++;
+            }
+        }
+        double defaultThroughput = knownCount > 0 ? known / knownCount : 1;
+
+        double[] weights = new double[slaves.size()];
+        for (int i = 0; i < weights.length; i++) {
+            String slaveId = slaves.get(i).getSlaveId();
+            SlaveStatus status = membership.getStatus(slaveId);
+            int pending = Math.max(getActiveWrites(slaveId), status != null ? status.getActiveRequests() : 0);
+            weights[i] = staticWeights.getOrDefault(slaveId, 1.0) * throughputs.getOrDefault(slaveId, defaultThroughput)
+                    / (1 + pending);
+        }
+        return weights;
+    }
+
+    // Un SlaveWriter commence ou termine un segment
+    public void beginWrite(String slaveId) {
+        activeWrites.computeIfAbsent(slaveId, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    public void endWrite(String slaveId) {
+        activeWrites.computeIfAbsent(slaveId, id -> new AtomicInteger()).decrementAndGet();
+    }
+
+    // Octets écrits sur le slave et temps passé à attendre le slave (envoi et confirmation)
+    public void recordWrite(String slaveId, long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        double sample = (double) bytes / nanos;
+        throughputs.merge(slaveId, sample, (average, value) -> average + EWMA_WEIGHT * (value - average));
+    }
+
+    private int getActiveWrites(String slaveId) {
+        AtomicInteger count = activeWrites.get(slaveId);
+        return count == null ? 0 : count.get();
+    }
+
+    // Débit d'écriture récent en Mio/s, 0 s'il n'a pas encore été mesuré
+    public double getThroughputMiBs(String slaveId) {
+        return throughputs.getOrDefault(slaveId, 0.0) * 1e9 / (1 << 20);
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    public boolean isRing() {
+        return ring != null;
+    }
+}
@@ -0,0 +1,19 @@
+package servers.principal;
+
+import java.io.IOException;
+
+// Destination d'une plage d'octets lue sur les slaves : flux du protocole texte ou trames du protocole binaire.
+// Soit fail() est appelé avant toute donnée, soit begin(), les données dans l'ordre du fichier puis end().
+// Une erreur après begin() sort de streamRange par une IOException : c'est à l'appelant de terminer la réponse.
+public interface RangeSink {
+
+    // length : longueur effective de la plage ; version : version du fichier lue
+    void begin(long length, long version) throws IOException;
+
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    // crc : CRC32C des octets envoyés
+    void end(int crc) throws IOException;
+
+    void fail(String message) throws IOException;
+}
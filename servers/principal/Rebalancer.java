@@ -0,0 +1,580 @@
+package servers.principal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import config.ConfigLoader;
+
+// Rééquilibrage en tâche de fond (placement=ring). Quand l'ensemble des slaves actifs a changé puis n'a plus
+// bougé pendant rebalanceDelayMs, chaque fichier du catalogue est comparé à l'anneau : un chunk (un shard en
+// erasure coding) qui n'est pas sur ses propriétaires y est copié, puis les copies hors des propriétaires sont
+// retirées de l'entrée. Les chunks dont les propriétaires n'ont pas changé ne bougent pas.
+// Les chunks copiés vers un slave pour un fichier forment une nouvelle partie "<fichier>.<id>", envoyée comme
+// un upload (UPLOAD_AT, CRC vérifiés) ; un chunk dédupliqué est réclamé ou écrit par son ID (CLAIM/PUT_CHUNK).
+// Un shard dont aucune copie n'est lisible est reconstruit à partir de sa bande. Le débit est plafonné à
+// rebalanceBytesPerSec pour laisser la bande passante aux clients.
+// L'entrée n'est remplacée que si le fichier n'a pas changé entre-temps (même version). Les parties et
+// références qui ne servent plus sont supprimées rebalanceDelayMs plus tard, pour ne pas couper un
+// téléchargement qui lit encore l'ancienne entrée, ou au retour du slave s'il est absent.
+public class Rebalancer {
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final MasterServer master;
+    private final long bytesPerSec;
+    private final long delayMs;
+    private final int replicationFactor;
+    private final int queueDepth;
+    private ScheduledExecutorService scheduler;
+
+    // Slaves actifs observés, depuis quand, et ceux du dernier passage terminé (null : aucun)
+    private List<String> observedSlaves;
+    private long observedSince;
+    private List<String> balancedSlaves;
+    private final List<PendingRemoval> pendingRemovals = new ArrayList<>();
+    private long throttleUntil;
+
+    private long movedChunks;
+    private long movedBytes;
+
+    // Copie d'un chunk (index >= 0) ou d'un shard de parité (-1 - index) vers le slave target
+    private static final class Move {
+        final int index;
+        final String target;
+        ChunkLocation result;
+
+        Move(int index, String target) {
+            this.index = index;
+            this.target = target;
+        }
+    }
+
+    // Partie (ou référence de chunk dédupliqué) à supprimer sur un slave à partir de notBefore
+    private static final class PendingRemoval {
+        final String slaveId;
+        final String key;
+        final boolean chunk;
+        final long notBefore;
+
+        PendingRemoval(String slaveId, String key, boolean chunk, long notBefore) {
+            this.slaveId = slaveId;
+            this.key = key;
+            this.chunk = chunk;
+            this.notBefore = notBefore;
+        }
+    }
+
+    public Rebalancer(MasterServer master, ConfigLoader configLoader) {
+        this.master = master;
+        this.bytesPerSec = configLoader.getRebalanceBytesPerSec();
+        this.delayMs = configLoader.getRebalanceDelayMs();
+        this.replicationFactor = configLoader.getReplicationFactor();
+        this.queueDepth = configLoader.getSlaveQueueDepth();
+    }
+
+    public void start() {
+        if (bytesPerSec <= 0 || !master.getPlacement().isRing()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void check() {
+        try {
+            removeDue();
+            List<String> live = liveSlaveIds();
+            long now = System.currentTimeMillis();
+            if (!live.equals(observedSlaves)) {
+                observedSlaves = live;
+                observedSince = now;
+                return;
+            }
+            if (live.isEmpty() || live.equals(balancedSlaves) || now - observedSince < delayMs) {
+                return;
+            }
+            if (rebalanceAll(live)) {
+                balancedSlaves = live;
+            } else {
+                observedSince = System.currentTimeMillis(); // Nouvel essai après le délai
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Rééquilibrage interrompu : " + e.getMessage());
+            observedSince = System.currentTimeMillis();
+        }
+    }
+
+    // Passe sur tout le catalogue ; false si un fichier n'a pas pu être rééquilibré ou si les slaves ont changé
+    private boolean rebalanceAll(List<String> live) throws IOException, InterruptedException {
+        long chunksBefore = movedChunks;
+        long bytesBefore = movedBytes;
+        boolean complete = true;
+        for (String name : master.getCatalog().list()) {
+            if (!liveSlaveIds().equals(live)) {
+                return false;
+            }
+            FileEntry entry = master.getCatalog().get(name);
+            if (entry != null) {
+                complete &= rebalance(entry, live);
+            }
+        }
+        if (movedChunks > chunksBefore) {
+            System.out.println("Rééquilibrage terminé : " + (movedChunks - chunksBefore) + " chunk(s), "
+                    + ((movedBytes - bytesBefore) >> 10) + " Kio copiés vers leurs propriétaires sur l'anneau.");
+        }
+        return complete;
+    }
+
+    private boolean rebalance(FileEntry entry, List<String> live) throws IOException, InterruptedException {
+        ChunkInfo[] chunks = entry.getChunks();
+        ChunkInfo[] parity = entry.getParity();
+        // Slaves qui doivent détenir chaque chunk (puis chaque shard de parité) ; null : ne pas y toucher
+        List<Set<String>> desired = new ArrayList<>();
+        for (int i = 0; i < chunks.length + parity.length; i++) {
+            desired.add(null);
+        }
+        int wanted;
+        if (entry.isErasureCoded()) {
+            wanted = 1;
+            assignStripes(entry, live, desired);
+        } else {
+            wanted = replicationFactor;
+            int count = Math.min(replicationFactor, live.size());
+            for (int c = 0; c < chunks.length; c++) {
+                String key = entry.isDeduplicated()
+                        ? ChunkLocation.chunkId(chunks[c].getPrimary().getKey())
+                        : PlacementEngine.groupKey(entry.getName(), c);
+                desired.set(c, new LinkedHashSet<>(master.getPlacement().ringOwners(key, count, live)));
+            }
+        }
+
+        List<Move> moves = new ArrayList<>();
+        for (int i = 0; i < desired.size(); i++) {
+            if (desired.get(i) == null) {
+                continue;
+            }
+            ChunkInfo chunk = i < chunks.length ? chunks[i] : parity[i - chunks.length];
+            if (!isRecoverable(entry, i)) {
+                continue; // Aucune copie lisible : on attend le retour d'un slave
+            }
+            Set<String> holders = slaveIdsOf(chunk);
+            for (String owner : desired.get(i)) {
+                if (!holders.contains(owner)) {
+                    moves.add(new Move(i < chunks.length ? i : -1 - (i - chunks.length), owner));
+                }
+            }
+        }
+
+        boolean complete = entry.isDeduplicated() ? copyChunks(entry, moves) : copyParts(entry, moves);
+
+        // Nouvelle entrée : copies ajoutées ; celles hors des propriétaires sont retirées quand tous les
+        // propriétaires en ont une et qu'ils sont assez nombreux
+        List<ChunkLocation> added = new ArrayList<>();
+        List<ChunkLocation> dropped = new ArrayList<>();
+        ChunkInfo[] newChunks = chunks.clone();
+        ChunkInfo[] newParity = parity.clone();
+        for (int i = 0; i < desired.size(); i++) {
+            ChunkInfo chunk = i < chunks.length ? chunks[i] : parity[i - chunks.length];
+            List<ChunkLocation> locations = new ArrayList<>(List.of(chunk.getLocations()));
+            for (Move move : moves) {
+                if (move.result != null && (move.index >= 0 ? move.index : chunks.length - 1 - move.index) == i) {
+                    locations.add(move.result);
+                    added.add(move.result);
+                }
+            }
+            Set<String> owners = desired.get(i);
+            if (owners != null && owners.size() >= wanted && locationsCover(locations, owners)) {
+                List<ChunkLocation> kept = new ArrayList<>();
+                for (String owner : owners) {
+                    for (ChunkLocation location : locations) {
+                        if (location.getSlaveId().equals(owner)) {
+                            kept.add(location);
+                            break;
+                        }
+                    }
+                }
+                for (ChunkLocation location : locations) {
+                    if (!kept.contains(location)) {
+                        dropped.add(location);
+                    }
+                }
+                locations = kept;
+            }
+            ChunkInfo updated = chunk.withLocations(locations.toArray(new ChunkLocation[0]));
+            if (i < chunks.length) {
+                newChunks[i] = updated;
+            } else {
+                newParity[i - chunks.length] = updated;
+            }
+        }
+        if (added.isEmpty() && dropped.isEmpty()) {
+            return complete;
+        }
+
+        FileEntry updated = entry.withChunks(newChunks, newParity);
+        long now = System.currentTimeMillis();
+        if (!master.getCatalog().replace(entry, updated)) {
+            // Fichier remplacé ou supprimé pendant la copie : les nouvelles copies ne servent à rien
+            for (ChunkLocation location : added) {
+                schedule(location, entry.isDeduplicated(), now);
+            }
+            return false;
+        }
+        if (entry.isDeduplicated()) {
+            for (ChunkLocation location : dropped) {
+                schedule(location, true, now + delayMs);
+            }
+        } else {
+            // Une partie n'est supprimée que si plus aucun chunk du fichier n'y est sur ce slave
+            Map<String, Set<String>> remaining = updated.getPartKeys();
+            for (Map.Entry<String, Set<String>> part : entry.getPartKeys().entrySet()) {
+                for (String slaveId : part.getValue()) {
+                    if (!remaining.getOrDefault(part.getKey(), Set.of()).contains(slaveId)) {
+                        schedule(new ChunkLocation(slaveId, part.getKey(), 0), false, now + delayMs);
+                    }
+                }
+            }
+        }
+        return complete;
+    }
+
+    // Erasure coding : les k+m shards d'une bande vont aux k+m propriétaires de la bande, dans n'importe quel
+    // ordre. Un shard déjà sur un propriétaire libre y reste ; les autres vont aux propriétaires restants.
+    private void assignStripes(FileEntry entry, List<String> live, List<Set<String>> desired) {
+        int k = entry.getDataShards();
+        int m = entry.getParityShards();
+        int chunkCount = entry.getChunks().length;
+        for (int stripe = 0; stripe < entry.getStripeCount(); stripe++) {
+            List<Integer> shards = new ArrayList<>(); // indices dans chunks puis parity
+            for (int c = stripe * k; c < Math.min(chunkCount, (stripe + 1) * k); c++) {
+                shards.add(c);
+            }
+            for (int j = 0; j < m; j++) {
+                shards.add(chunkCount + stripe * m + j);
+            }
+            List<String> owners = master.getPlacement().ringOwners(PlacementEngine.groupKey(entry.getName(), stripe),
+                    shards.size(), live);
+            if (owners.size() < shards.size()) {
+                continue; // Pas assez de slaves pour une bande : rien à déplacer
+            }
+            Set<String> taken = new LinkedHashSet<>();
+            List<Integer> unassigned = new ArrayList<>();
+            for (int shard : shards) {
+                ChunkInfo chunk = shard < chunkCount ? entry.getChunks()[shard] : entry.getParity()[shard - chunkCount];
+                String holder = null;
+                for (ChunkLocation location : chunk.getLocations()) {
+                    if (owners.contains(location.getSlaveId()) && !taken.contains(location.getSlaveId())) {
+                        holder = location.getSlaveId();
+                        break;
+                    }
+                }
+                if (holder != null) {
+                    taken.add(holder);
+                    desired.set(shard, Set.of(holder));
+                } else {
+                    unassigned.add(shard);
+                }
+            }
+            Iterator<String> free = owners.stream().filter(owner -> !taken.contains(owner)).iterator();
+            for (int shard : unassigned) {
+                desired.set(shard, Set.of(free.next()));
+            }
+        }
+    }
+
+    // Copie des chunks d'un fichier répliqué ou en erasure coding : une nouvelle partie par slave destinataire
+    private boolean copyParts(FileEntry entry, List<Move> moves) throws IOException, InterruptedException {
+        boolean complete = true;
+        Map<Integer, byte[][]> stripes = new HashMap<>(); // shards reconstruits, par bande
+        for (Map.Entry<String, List<Move>> targetMoves : byTarget(moves).entrySet()) {
+            SlaveNode slave = master.getMembership().findLive(targetMoves.getKey());
+            if (slave == null) {
+                complete = false;
+                continue;
+            }
+            String partKey = entry.getName() + "." + MasterServer.newUploadId();
+            SlaveWriter writer = new SlaveWriter(slave, master.getConnectionPool(), master.getPlacement(), partKey, 0,
+                    queueDepth, new ArrayBlockingQueue<>(1));
+            writer.start();
+            List<Move> sent = new ArrayList<>();
+            List<Long> offsets = new ArrayList<>();
+            long offset = 0;
+            try {
+                for (Move move : targetMoves.getValue()) {
+                    ChunkInfo chunk = chunkOf(entry, move.index);
+                    byte[] data;
+                    try {
+                        data = readShard(entry, move.index, stripes);
+                    } catch (IOException e) {
+                        System.err.println("Rééquilibrage de " + entry.getName() + " : chunk illisible ("
+                                + e.getMessage() + ").");
+                        complete = false;
+                        continue;
+                    }
+                    throttle(chunk.getLength());
+                    writer.put(new ChunkBuffer(data, chunk.getLength(), 1, chunk.getCrc()));
+                    sent.add(move);
+                    offsets.add(offset);
+                    offset += chunk.getLength();
+                }
+            } finally {
+                writer.finish();
+            }
+            if (writer.getError() != null || writer.getStoredCount() != sent.size()) {
+                System.err.println("Rééquilibrage de " + entry.getName() + " vers " + slave.getSlaveId() + " échoué : "
+                        + (writer.getError() != null ? writer.getError().getMessage() : "partie incomplète") + ".");
+                if (!sent.isEmpty()) {
+                    schedule(new ChunkLocation(slave.getSlaveId(), partKey, 0), false, System.currentTimeMillis());
+                }
+                complete = false;
+                continue;
+            }
+            for (int i = 0; i < sent.size(); i++) {
+                sent.get(i).result = new ChunkLocation(slave.getSlaveId(), partKey, offsets.get(i));
+                moved(chunkOf(entry, sent.get(i).index).getLength());
+            }
+        }
+        return complete;
+    }
+
+    // Copie des chunks d'un fichier dédupliqué : chaque slave destinataire réutilise le chunk s'il l'a déjà
+    private boolean copyChunks(FileEntry entry, List<Move> moves) throws InterruptedException {
+        boolean complete = true;
+        for (Map.Entry<String, List<Move>> targetMoves : byTarget(moves).entrySet()) {
+            SlaveNode slave = master.getMembership().findLive(targetMoves.getKey());
+            if (slave == null) {
+                complete = false;
+                continue;
+            }
+            List<Move> list = targetMoves.getValue();
+            SlaveConnection connection = null;
+            try {
+                connection = master.getConnectionPool().borrow(slave);
+                DataOutputStream slaveOut = connection.getOut();
+                DataInputStream slaveIn = connection.getIn();
+                slaveOut.writeUTF("CLAIM_CHUNKS");
+                slaveOut.writeInt(list.size());
+                for (Move move : list) {
+                    slaveOut.writeUTF(ChunkLocation.chunkId(chunkOf(entry, move.index).getPrimary().getKey()));
+                }
+                slaveOut.flush();
+                List<Move> missing = new ArrayList<>();
+                for (Move move : list) {
+                    if (slaveIn.readBoolean()) {
+                        move.result = location(slave, chunkOf(entry, move.index));
+                    } else {
+                        missing.add(move);
+                    }
+                }
+                for (Move move : missing) {
+                    ChunkInfo chunk = chunkOf(entry, move.index);
+                    byte[] data = await(master.getReplicaReader().read(chunk, new byte[chunk.getLength()])).getData();
+                    throttle(chunk.getLength());
+                    slaveOut.writeUTF("PUT_CHUNK");
+                    slaveOut.writeUTF(ChunkLocation.chunkId(chunk.getPrimary().getKey()));
+                    slaveOut.writeLong(chunk.getLength());
+                    slaveOut.write(data, 0, chunk.getLength());
+                    slaveOut.flush();
+                    if (!slaveIn.readBoolean()) {
+                        throw new IOException("chunk refusé");
+                    }
+                    move.result = location(slave, chunk);
+                    moved(chunk.getLength());
+                }
+                master.getConnectionPool().release(connection);
+            } catch (IOException e) {
+                if (connection != null) {
+                    master.getConnectionPool().invalidate(connection);
+                }
+                System.err.println("Rééquilibrage de " + entry.getName() + " vers " + slave.getSlaveId() + " échoué : "
+                        + e.getMessage() + ".");
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    private static ChunkLocation location(SlaveNode slave, ChunkInfo chunk) {
+        return new ChunkLocation(slave.getSlaveId(), chunk.getPrimary().getKey(), 0);
+    }
+
+    // Octets du chunk : lus sur une copie, ou reconstruits à partir de la bande si aucune n'est lisible
+    private byte[] readShard(FileEntry entry, int index, Map<Integer, byte[][]> stripes) throws IOException {
+        ChunkInfo chunk = chunkOf(entry, index);
+        if (master.getReplicaReader().isReadable(chunk) || !entry.isErasureCoded()) {
+            return await(master.getReplicaReader().read(chunk, new byte[chunk.getLength()])).getData();
+        }
+        int k = entry.getDataShards();
+        int m = entry.getParityShards();
+        int stripe = index >= 0 ? index / k : (-1 - index) / m;
+        byte[][] shards = stripes.get(stripe);
+        if (shards == null) {
+            shards = rebuildStripe(entry, stripe);
+            stripes.put(stripe, shards);
+        }
+        return index >= 0 ? shards[index - stripe * k] : shards[k + (-1 - index) - stripe * m];
+    }
+
+    // Chunks de données de la bande (parités absentes reconstituées), puis ses parités recalculées
+    private byte[][] rebuildStripe(FileEntry entry, int stripe) throws IOException {
+        int k = entry.getDataShards();
+        int m = entry.getParityShards();
+        ChunkBuffer[] data = await(master.getStripeReader().read(entry, stripe));
+        int shardLength = entry.getParity()[stripe * m].getLength();
+        byte[][] shards = new byte[k + m][];
+        byte[][] parity = new byte[m][shardLength];
+        ReedSolomon codec = master.getStripeReader().getCodec(k, m);
+        for (int i = 0; i < data.length; i++) {
+            shards[i] = data[i].getData();
+            codec.addToParity(i, data[i].getData(), data[i].getLength(), parity);
+        }
+        System.arraycopy(parity, 0, shards, k, m);
+        return shards;
+    }
+
+    // Chunk (ou shard de parité à l'indice i - chunks.length) lisible ou reconstructible
+    private boolean isRecoverable(FileEntry entry, int i) {
+        int chunkCount = entry.getChunks().length;
+        ChunkInfo chunk = i < chunkCount ? entry.getChunks()[i] : entry.getParity()[i - chunkCount];
+        if (master.getReplicaReader().isReadable(chunk)) {
+            return true;
+        }
+        if (!entry.isErasureCoded()) {
+            return false;
+        }
+        int stripe = i < chunkCount ? i / entry.getDataShards() : (i - chunkCount) / entry.getParityShards();
+        return master.getStripeReader().isReadable(entry, stripe);
+    }
+
+    private static ChunkInfo chunkOf(FileEntry entry, int index) {
+        return index >= 0 ? entry.getChunks()[index] : entry.getParity()[-1 - index];
+    }
+
+    private static Map<String, List<Move>> byTarget(List<Move> moves) {
+        Map<String, List<Move>> byTarget = new LinkedHashMap<>();
+        for (Move move : moves) {
+            byTarget.computeIfAbsent(move.target, target -> new ArrayList<>()).add(move);
+        }
+        return byTarget;
+    }
+
+    private static Set<String> slaveIdsOf(ChunkInfo chunk) {
+        Set<String> slaveIds = new LinkedHashSet<>();
+        for (ChunkLocation location : chunk.getLocations()) {
+            slaveIds.add(location.getSlaveId());
+        }
+        return slaveIds;
+    }
+
+    private static boolean locationsCover(List<ChunkLocation> locations, Set<String> owners) {
+        Set<String> slaveIds = new LinkedHashSet<>();
+        for (ChunkLocation location : locations) {
+            slaveIds.add(location.getSlaveId());
+        }
+        return slaveIds.containsAll(owners);
+    }
+
+    // Attend que le débit moyen repasse sous rebalanceBytesPerSec avant d'envoyer "bytes" octets
+    private void throttle(int bytes) throws InterruptedException {
+        long now = System.nanoTime();
+        throttleUntil = Math.max(throttleUntil, now) + bytes * 1_000_000_000L / bytesPerSec;
+        long wait = throttleUntil - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void schedule(ChunkLocation location, boolean chunk, long notBefore) {
+        for (PendingRemoval removal : pendingRemovals) {
+            if (!chunk && !removal.chunk && removal.slaveId.equals(location.getSlaveId())
+                    && removal.key.equals(location.getKey())) {
+                return; // Une partie n'est supprimée qu'une fois ; une référence est libérée par copie
+            }
+        }
+        pendingRemovals.add(new PendingRemoval(location.getSlaveId(), location.getKey(), chunk, notBefore));
+    }
+
+    // Suppressions arrivées à échéance ; celles d'un slave absent attendent son retour
+    private void removeDue() {
+        long now = System.currentTimeMillis();
+        for (Iterator<PendingRemoval> it = pendingRemovals.iterator(); it.hasNext();) {
+            PendingRemoval removal = it.next();
+            if (removal.notBefore > now || master.getMembership().findLive(removal.slaveId) == null) {
+                continue;
+            }
+            if (removal.chunk) {
+                ChunkLocation location = new ChunkLocation(removal.slaveId, removal.key, 0);
+                master.releaseChunks(new ChunkInfo[] { new ChunkInfo(0, location) });
+            } else {
+                master.removeParts(removal.key, Set.of(removal.slaveId));
+            }
+            it.remove();
+        }
+    }
+
+    private List<String> liveSlaveIds() {
+        List<String> slaveIds = new ArrayList<>();
+        for (SlaveNode slave : master.getMembership().getLiveSlaves()) {
+            slaveIds.add(slave.getSlaveId());
+        }
+        slaveIds.sort(null);
+        return slaveIds;
+    }
+
+    private synchronized void moved(long bytes) {
+        movedChunks++;
+        movedBytes += bytes;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Rééquilibrage interrompu.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    public synchronized long getMovedChunks() {
+        return movedChunks;
+    }
+
+    public synchronized long getMovedBytes() {
+        return movedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "rééquilibrage : " + movedChunks + " chunk(s), " + (movedBytes >> 20) + " Mio copiés";
+    }
+}
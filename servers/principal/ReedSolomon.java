@@ -0,0 +1,186 @@
+package servers.principal;
+
+// Code de Reed-Solomon systématique sur GF(256) (polynôme 0x11D), à base de tables.
+// La matrice de codage est une matrice de Vandermonde (k+m) x k normalisée pour que ses k premières lignes
+// forment l'identité : les k shards de données sont stockés tels quels, les m shards de parité sont des
+// combinaisons linéaires des données. N'importe quels k shards parmi les k+m suffisent à reconstruire les données.
+public class ReedSolomon {
+
+    private static final int[] LOG = new int[256];
+    private static final byte[] EXP = new byte[512];
+    // MUL[a][b] = a * b dans GF(256) ; une ligne MUL[a] sert de table pour multiplier tout un tampon par a
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) {
+                x ^= 0x11D;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    private final byte[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("Paramètres Reed-Solomon invalides : " + dataShards + "+" + parityShards);
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int total = dataShards + parityShards;
+        byte[][] vandermonde = new byte[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = power(r, c);
+            }
+        }
+        byte[][] top = new byte[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = multiply(vandermonde, invert(top));
+    }
+
+    // Ajoute la contribution du shard de données "dataIndex" (ses "length" premiers octets) aux parités
+    public void addToParity(int dataIndex, byte[] data, int length, byte[][] parity) {
+        for (int p = 0; p < parityShards; p++) {
+            byte[] row = MUL[matrix[dataShards + p][dataIndex] & 0xFF];
+            byte[] out = parity[p];
+            for (int x = 0; x < length; x++) {
+                out[x] ^= row[data[x] & 0xFF];
+            }
+        }
+    }
+
+    // Reconstruit les shards de données manquants. shards contient k+m tampons de shardLength octets ;
+    // present[i] indique ceux qui sont disponibles (au moins k). Les tampons de données absents sont remplis.
+    public void reconstructData(byte[][] shards, boolean[] present, int shardLength) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (present[i]) {
+                rows[found++] = i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Pas assez de shards pour reconstruire : " + found + "/" + dataShards);
+        }
+
+        byte[][] subMatrix = new byte[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            subMatrix[i] = matrix[rows[i]];
+        }
+        byte[][] decode = invert(subMatrix);
+
+        for (int d = 0; d < dataShards; d++) {
+            if (present[d]) {
+                continue;
+            }
+            byte[] out = shards[d];
+            java.util.Arrays.fill(out, 0, shardLength, (byte) 0);
+            for (int j = 0; j < dataShards; j++) {
+                byte[] row = MUL[decode[d][j] & 0xFF];
+                byte[] in = shards[rows[j]];
+                for (int x = 0; x < shardLength; x++) {
+                    out[x] ^= row[in[x] & 0xFF];
+                }
+            }
+        }
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    private static byte mul(byte a, byte b) {
+        return MUL[a & 0xFF][b & 0xFF];
+    }
+
+    private static byte power(int base, int exponent) {
+        if (exponent == 0) {
+            return 1;
+        }
+        if (base == 0) {
+            return 0;
+        }
+        return EXP[(LOG[base] * exponent) % 255];
+    }
+
+    private static byte inverse(byte a) {
+        if (a == 0) {
+            throw new ArithmeticException("Division par zéro dans GF(256)");
+        }
+        return EXP[255 - LOG[a & 0xFF]];
+    }
+
+    private static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] result = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                byte value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= mul(a[r][i], b[i][c]);
+                }
+                result[r][c] = value;
+            }
+        }
+        return result;
+    }
+
+    // Inversion de Gauss-Jordan d'une matrice carrée
+    private static byte[][] invert(byte[][] source) {
+        int n = source.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(source[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            while (pivot < n && work[pivot][c] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrice singulière");
+            }
+            byte[] tmp = work[c];
+            work[c] = work[pivot];
+            work[pivot] = tmp;
+
+            byte scale = inverse(work[c][c]);
+            for (int i = 0; i < 2 * n; i++) {
+                work[c][i] = mul(work[c][i], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                if (r != c && work[r][c] != 0) {
+                    byte factor = work[r][c];
+                    for (int i = 0; i < 2 * n; i++) {
+                        work[r][i] ^= mul(factor, work[c][i]);
+                    }
+                }
+            }
+        }
+        byte[][] result = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, result[r], 0, n);
+        }
+        return result;
+    }
+}
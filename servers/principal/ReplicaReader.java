@@ -0,0 +1,316 @@
+package servers.principal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import config.ConfigLoader;
+import protocol.Compression;
+
+// Lecture d'un chunk depuis l'une de ses copies.
+// La copie choisie est celle du slave vivant le plus rapide (moyenne mobile des latences observées).
+// Si elle n'a pas répondu au bout de son 95e centile, une requête de secours (hedged read) part vers
+// la copie suivante et la première réponse gagne. En cas d'erreur, on bascule sur la copie suivante.
+// Chaque chunk lu en entier est vérifié (CRC32C de l'upload, ou SHA-256 pour un chunk dédupliqué) avant
+// d'être rendu : une copie corrompue est traitée comme une lecture échouée. Une plage partielle d'un chunk
+// ne peut pas être comparée au CRC du chunk entier et n'est donc pas vérifiée.
+public class ReplicaReader {
+
+    private SlaveConnectionPool connectionPool;
+    private MembershipService membership;
+    private LatencyTracker latencies = new LatencyTracker();
+    private boolean hedging;
+    private long hedgeMinDelayNanos;
+    private long hedgeDefaultDelayNanos;
+    private ExecutorService executor;
+    private ScheduledExecutorService timer;
+
+    public ReplicaReader(ConfigLoader configLoader, SlaveConnectionPool connectionPool, MembershipService membership) {
+        this.connectionPool = connectionPool;
+        this.membership = membership;
+        this.hedging = configLoader.isHedgedReads();
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(configLoader.getHedgeMinDelayMs());
+        this.hedgeDefaultDelayNanos = TimeUnit.MILLISECONDS.toNanos(configLoader.getHedgeDefaultDelayMs());
+        // Une lecture occupe une connexion du pool : au-delà de poolMaxPerSlave lectures par slave, les threads
+        // supplémentaires ne feraient qu'attendre une connexion. Les lectures en trop attendent dans la file.
+        int threads = Math.max(1, configLoader.getPoolMaxPerSlave() * configLoader.getNumOfSlaves());
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemon("chunk-read"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemon("hedge-timer"));
+    }
+
+    // Lit un chunk dans "buffer" (ou dans un autre tableau si c'est la requête de secours qui gagne)
+    public CompletableFuture<ChunkBuffer> read(ChunkInfo chunk, byte[] buffer) {
+        return readRange(chunk, 0, chunk.getLength(), buffer);
+    }
+
+    // Lit "length" octets du chunk à partir de offsetInChunk : le slave ne lit et n'envoie que cette plage
+    public CompletableFuture<ChunkBuffer> readRange(ChunkInfo chunk, int offsetInChunk, int length, byte[] buffer) {
+        ReadRequest request = new ReadRequest(chunk, offsetInChunk, length, buffer, rankReplicas(chunk));
+        request.start();
+        return request.result;
+    }
+
+    // Vrai si au moins une copie du chunk est sur un slave vivant
+    public boolean isReadable(ChunkInfo chunk) {
+        return !rankReplicas(chunk).isEmpty();
+    }
+
+    public LatencyTracker getLatencies() {
+        return latencies;
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // Copies sur des slaves vivants, de la plus rapide à la plus lente
+    private List<ChunkLocation> rankReplicas(ChunkInfo chunk) {
+        List<ChunkLocation> replicas = new ArrayList<>();
+        for (ChunkLocation location : chunk.getLocations()) {
+            if (membership.findLive(location.getSlaveId()) != null) {
+                replicas.add(location);
+            }
+        }
+        replicas.sort(Comparator.comparingLong(location -> latencies.getAverageNanos(location.getSlaveId())));
+        return replicas;
+    }
+
+    private class ReadRequest {
+        private final ChunkInfo chunk;
+        private final int offsetInChunk;
+        private final int length;
+        private final byte[] buffer;
+        private final List<ChunkLocation> replicas;
+        private final List<Attempt> attempts = new ArrayList<>();
+        private final CompletableFuture<ChunkBuffer> result = new CompletableFuture<>();
+        private int nextReplica;
+        private int running;
+        private boolean bufferInUse;
+
+        ReadRequest(ChunkInfo chunk, int offsetInChunk, int length, byte[] buffer, List<ChunkLocation> replicas) {
+            this.chunk = chunk;
+            this.offsetInChunk = offsetInChunk;
+            this.length = length;
+            this.buffer = buffer;
+            this.replicas = replicas;
+        }
+
+        void start() {
+            if (replicas.isEmpty()) {
+                result.completeExceptionally(new IOException("Aucune copie du chunk sur un slave actif."));
+                return;
+            }
+            // Annulation du futur (erreur côté client) ou victoire d'une copie : on arrête les autres
+            result.whenComplete((chunkBuffer, error) -> cancelAll());
+            launchNext();
+
+            if (hedging && replicas.size() > 1) {
+                String slaveId = replicas.get(0).getSlaveId();
+                long delay = Math.max(hedgeMinDelayNanos, latencies.getP95Nanos(slaveId, hedgeDefaultDelayNanos));
+                timer.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void hedge() {
+            if (!result.isDone() && nextReplica < replicas.size()) {
+                System.out.println("Lecture de secours d'un chunk : " + replicas.get(0).getSlaveId() + " trop lent.");
+                launchNext();
+            }
+        }
+
+        synchronized void launchNext() {
+            ChunkLocation location = replicas.get(nextReplica++);
+            // Deux lectures en parallèle ne peuvent pas partager le même tableau
+            byte[] target = bufferInUse ? new byte[length] : buffer;
+            bufferInUse = true;
+            Attempt attempt = new Attempt(this, location, target);
+            attempts.add(attempt);
+            running++;
+            executor.execute(attempt);
+        }
+
+        synchronized void succeeded(Attempt attempt) {
+            result.complete(new ChunkBuffer(attempt.target, length));
+        }
+
+        synchronized void failed(Attempt attempt, IOException e) {
+            running--;
+            if (result.isDone()) {
+                return;
+            }
+            System.err.println("Lecture d'un chunk échouée sur " + attempt.location.getSlaveId() + ": " + e.getMessage());
+            if (nextReplica < replicas.size()) {
+                launchNext();
+            } else if (running == 0) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        void cancelAll() {
+            List<Attempt> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(attempts);
+            }
+            for (Attempt attempt : toCancel) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    private class Attempt implements Runnable {
+        private final ReadRequest request;
+        private final ChunkLocation location;
+        private final byte[] target;
+        private SlaveConnection connection;
+        private boolean cancelled;
+        private boolean finished;
+        private long startNanos;
+
+        Attempt(ReadRequest request, ChunkLocation location, byte[] target) {
+            this.request = request;
+            this.location = location;
+            this.target = target;
+        }
+
+        @Override
+        public void run() {
+            int length = request.length;
+            try {
+                SlaveNode slave = membership.findLive(location.getSlaveId());
+                if (slave == null) {
+                    throw new IOException("Slave " + location.getSlaveId() + " indisponible.");
+                }
+                startNanos = System.nanoTime();
+                SlaveConnection borrowed = connectionPool.borrow(slave);
+                synchronized (this) {
+                    if (cancelled) {
+                        connectionPool.release(borrowed);
+                        return;
+                    }
+                    connection = borrowed;
+                }
+
+                DataOutputStream slaveOut = borrowed.getOut();
+                DataInputStream slaveIn = borrowed.getIn();
+                slaveOut.writeUTF("READ_RANGE");
+                slaveOut.writeUTF(location.getKey());
+                slaveOut.writeLong(location.getOffset() + request.offsetInChunk);
+                slaveOut.writeLong(length);
+                slaveOut.flush();
+
+                long available = slaveIn.readLong();
+                if (available != length) {
+                    // Le slave n'a rien envoyé : la connexion reste utilisable
+                    finish(true);
+                    throw new IOException("Chunk absent de " + location.getKey() + " sur " + slave.getSlaveId());
+                }
+                if (borrowed.getCompression() != null) {
+                    readEncoded(slaveIn, target, length);
+                } else {
+                    slaveIn.readFully(target, 0, length);
+                }
+                latencies.record(slave.getSlaveId(), System.nanoTime() - startNanos);
+                finish(true);
+                boolean wholeChunk = length == request.chunk.getLength();
+                if (wholeChunk && !verify(request.chunk, location, target)) {
+                    throw new IOException("Chunk corrompu dans " + location.getKey() + " sur " + slave.getSlaveId());
+                }
+                request.succeeded(this);
+            } catch (IOException e) {
+                finish(false);
+                request.failed(this, e);
+            }
+        }
+
+        // Rend la connexion au pool si le protocole est resté synchronisé, sinon la ferme
+        private synchronized void finish(boolean reusable) {
+            finished = true;
+            if (connection != null) {
+                if (reusable) {
+                    connectionPool.release(connection);
+                } else {
+                    connectionPool.invalidate(connection);
+                }
+                connection = null;
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (connection != null) {
+                // Une copie perdante compte comme un échantillon lent pour ne plus être choisie en premier
+                if (!finished && startNanos > 0) {
+                    latencies.record(location.getSlaveId(), System.nanoTime() - startNanos);
+                }
+                connectionPool.invalidate(connection);
+                connection = null;
+            }
+        }
+    }
+
+    // Réponse sur une connexion compressée : [byte codec] puis la plage brute, ou [int longueur] et la
+    // plage compressée
+    private static void readEncoded(DataInputStream slaveIn, byte[] target, int length) throws IOException {
+        byte codecId = slaveIn.readByte();
+        if (codecId == 0) {
+            slaveIn.readFully(target, 0, length);
+            return;
+        }
+        int compressedLength = slaveIn.readInt();
+        if (compressedLength < 0 || compressedLength > length) {
+            throw new IOException("Réponse compressée invalide : " + compressedLength + "/" + length);
+        }
+        byte[] compressed = new byte[compressedLength];
+        slaveIn.readFully(compressed);
+        Compression.decompress(codecId, compressed, 0, compressed.length, target, 0, length);
+    }
+
+    private static boolean verify(ChunkInfo chunk, ChunkLocation location, byte[] data) {
+        if (chunk.getCrc() != ChunkInfo.NO_CRC) {
+            return ChunkInfo.crc32c(data, chunk.getLength()) == chunk.getCrc();
+        }
+        String chunkId = ChunkLocation.chunkId(location.getKey());
+        if (!ChunkLocation.isChunkId(chunkId)) {
+            return true; // Fichier enregistré avant les CRC : rien à vérifier
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data, 0, chunk.getLength());
+            byte[] hash = digest.digest();
+            for (int i = 0; i < hash.length; i++) {
+                if (Character.digit(chunkId.charAt(2 * i), 16) != ((hash[i] >> 4) & 0xF)
+                        || Character.digit(chunkId.charAt(2 * i + 1), 16) != (hash[i] & 0xF)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
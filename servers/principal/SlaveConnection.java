@@ -0,0 +1,188 @@
+package servers.principal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocol.AccessToken;
+import protocol.Compression;
+import servers.Metrics;
+
+// Connexion longue durée du master vers un slave, empruntée au SlaveConnectionPool.
+// Les en-têtes sont bufferisés : toujours appeler flush() avant d'attendre une réponse.
+// Si une compression est proposée et acceptée par le slave (COMPRESS), les trames de chunks de cette
+// connexion portent un octet de codec et peuvent être compressées.
+// Avec un directSecret, la connexion s'authentifie d'abord (AUTH) : le slave refuse sinon les commandes du master.
+public class SlaveConnection {
+
+    private String slaveId;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private long lastUsed;
+    private long borrowedAt;
+    private Compression compression;
+
+    public SlaveConnection(String slaveId, String host, int port, int connectTimeoutMs) throws IOException {
+        this(slaveId, host, port, connectTimeoutMs, null);
+    }
+
+    public SlaveConnection(String slaveId, String host, int port, int connectTimeoutMs, Compression compression)
+            throws IOException {
+        this(slaveId, host, port, connectTimeoutMs, compression, null, null);
+    }
+
+    // bytesIn / bytesOut : compteurs des octets reçus et envoyés sur la socket (null : non comptés)
+    public SlaveConnection(String slaveId, String host, int port, int connectTimeoutMs, Compression compression,
+            LongAdder bytesIn, LongAdder bytesOut) throws IOException {
+        this(slaveId, host, port, connectTimeoutMs, compression, bytesIn, bytesOut, null);
+    }
+
+    // secret : directSecret partagé avec les slaves (null ou vide : pas d'authentification)
+    public SlaveConnection(String slaveId, String host, int port, int connectTimeoutMs, Compression compression,
+            LongAdder bytesIn, LongAdder bytesOut, String secret) throws IOException {
+        this.setSlaveId(slaveId);
+        this.socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            InputStream socketIn = socket.getInputStream();
+            OutputStream socketOut = socket.getOutputStream();
+            if (bytesIn != null && bytesOut != null) {
+                socketIn = new Metrics.CountingInputStream(socketIn, bytesIn);
+                socketOut = new Metrics.CountingOutputStream(socketOut, bytesOut);
+            }
+            this.in = new DataInputStream(new BufferedInputStream(socketIn, 65536));
+            this.out = new DataOutputStream(new BufferedOutputStream(socketOut, 65536));
+            if (secret != null && !secret.isEmpty()) {
+                authenticate(secret, connectTimeoutMs);
+            }
+            if (compression != null) {
+                negotiateCompression(compression, connectTimeoutMs);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    // Défi-réponse : le slave envoie un défi, le master le signe avec le secret sans jamais l'envoyer
+    private void authenticate(String secret, int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        out.writeUTF("AUTH");
+        out.flush();
+        String challenge = in.readUTF();
+        out.writeUTF(AccessToken.answer(secret, challenge));
+        out.flush();
+        if (!in.readBoolean()) {
+            throw new IOException("Authentification refusée par " + slaveId + " (directSecret différent ?).");
+        }
+        socket.setSoTimeout(0);
+    }
+
+    // Le slave répond COMPRESS_OK s'il connaît le codec et accepte la compression, sinon la connexion reste brute
+    private void negotiateCompression(Compression compression, int timeoutMs) throws IOException {
+        socket.setSoTimeout(timeoutMs);
+        out.writeUTF("COMPRESS");
+        out.writeUTF(compression.getCodec().getName());
+        out.flush();
+        if ("COMPRESS_OK".equals(in.readUTF())) {
+            this.compression = compression;
+        }
+        socket.setSoTimeout(0);
+    }
+
+    // Heartbeat : état du slave (espace libre, requêtes en cours), ou null s'il ne répond pas à temps
+    public SlaveStatus status(int timeoutMs) {
+        try {
+            socket.setSoTimeout(timeoutMs);
+            out.writeUTF("STATUS");
+            out.flush();
+            if (!"STATUS_OK".equals(in.readUTF())) {
+                return null;
+            }
+            SlaveStatus status = new SlaveStatus(in.readLong(), in.readInt());
+            socket.setSoTimeout(0);
+            return status;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Vérifie que le slave répond encore sur cette connexion
+    public boolean ping(int timeoutMs) {
+        try {
+            socket.setSoTimeout(timeoutMs);
+            out.writeUTF("PING");
+            out.flush();
+            boolean alive = "PONG".equals(in.readUTF());
+            socket.setSoTimeout(0);
+            return alive;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignoré : la connexion est abandonnée
+        }
+    }
+
+    public String getSlaveId() {
+        return slaveId;
+    }
+
+    public void setSlaveId(String slaveId) {
+        this.slaveId = slaveId;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public DataInputStream getIn() {
+        return in;
+    }
+
+    public DataOutputStream getOut() {
+        return out;
+    }
+
+    // null si les chunks passent bruts sur cette connexion
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+
+    // System.nanoTime() du dernier emprunt au pool
+    public long getBorrowedAt() {
+        return borrowedAt;
+    }
+
+    public void setBorrowedAt(long borrowedAt) {
+        this.borrowedAt = borrowedAt;
+    }
+}
@@ -0,0 +1,180 @@
+package servers.principal;
+
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import config.ConfigLoader;
+import protocol.Compression;
+import servers.Metrics;
+
+// Pool de connexions persistantes du master vers les slaves.
+// Chaque slave a au plus poolMaxPerSlave connexions ouvertes ; les connexions libres sont réutilisées
+// (la plus récente d'abord), vérifiées par un PING si elles sont restées longtemps inutilisées,
+// et fermées par un thread de fond au-delà de poolIdleTimeoutMs.
+// Avec des Metrics, chaque slave a un histogramme slave.<id>.rpc (durée entre l'emprunt et la restitution
+// d'une connexion, c'est-à-dire d'un échange complet) et les compteurs d'octets et d'erreurs de ses connexions.
+public class SlaveConnectionPool {
+
+    private int maxPerSlave;
+    private long idleTimeoutMs;
+    private long validateAfterMs;
+    private long borrowTimeoutMs;
+    private int connectTimeoutMs;
+    private Compression compression;
+    private String secret;
+    private Map<String, SlavePool> pools = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictor;
+    private Metrics metrics;
+
+    public SlaveConnectionPool(ConfigLoader configLoader) {
+        this(configLoader, null);
+    }
+
+    // compression : proposée à chaque nouvelle connexion (null : connexions brutes)
+    public SlaveConnectionPool(ConfigLoader configLoader, Compression compression) {
+        this.compression = compression;
+        this.maxPerSlave = configLoader.getPoolMaxPerSlave();
+        this.idleTimeoutMs = configLoader.getPoolIdleTimeoutMs();
+        this.validateAfterMs = configLoader.getPoolValidateAfterMs();
+        this.borrowTimeoutMs = configLoader.getPoolBorrowTimeoutMs();
+        this.connectTimeoutMs = configLoader.getSlaveConnectTimeoutMs();
+        this.secret = configLoader.getDirectSecret();
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "slave-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Emprunte une connexion ; bloque si le slave a déjà maxPerSlave connexions en cours d'utilisation
+    public SlaveConnection borrow(SlaveNode slave) throws IOException {
+        SlavePool pool = pools.computeIfAbsent(slave.getSlaveId(), this::createPool);
+        try {
+            if (!pool.permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Aucune connexion disponible vers " + slave.getSlaveId());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Attente d'une connexion interrompue vers " + slave.getSlaveId());
+        }
+
+        try {
+            SlaveConnection connection;
+            while ((connection = pool.idle.pollFirst()) != null) {
+                long idleFor = System.currentTimeMillis() - connection.getLastUsed();
+                if (!connection.isOpen() || idleFor > idleTimeoutMs
+                        || (idleFor > validateAfterMs && !connection.ping(connectTimeoutMs))) {
+                    connection.close();
+                    continue;
+                }
+                connection.setBorrowedAt(System.nanoTime());
+                return connection;
+            }
+            connection = new SlaveConnection(slave.getSlaveId(), slave.getHost(), slave.getPort(),
+                    connectTimeoutMs, compression, pool.bytesIn, pool.bytesOut, secret);
+            connection.setBorrowedAt(System.nanoTime());
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    // Rend une connexion dont le protocole est resté synchronisé (réponse lue entièrement)
+    public void release(SlaveConnection connection) {
+        SlavePool pool = pools.get(connection.getSlaveId());
+        connection.setLastUsed(System.currentTimeMillis());
+        if (pool.rpc != null) {
+            pool.rpc.recordSince(connection.getBorrowedAt());
+        }
+        pool.idle.offerFirst(connection);
+        pool.permits.release();
+    }
+
+    // Ferme une connexion dans un état inconnu (erreur, transfert abandonné)
+    public void invalidate(SlaveConnection connection) {
+        connection.close();
+        SlavePool pool = pools.get(connection.getSlaveId());
+        if (pool.rpc != null) {
+            pool.rpc.recordSince(connection.getBorrowedAt());
+            pool.errors.increment();
+        }
+        pool.permits.release();
+    }
+
+    // Mesures à alimenter, avant le premier emprunt
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private SlavePool createPool(String slaveId) {
+        SlavePool pool = new SlavePool(maxPerSlave);
+        if (metrics != null) {
+            String prefix = "slave." + slaveId + ".";
+            pool.rpc = metrics.histogram(prefix + "rpc");
+            pool.bytesIn = metrics.counter(prefix + "bytesIn");
+            pool.bytesOut = metrics.counter(prefix + "bytesOut");
+            pool.errors = metrics.counter(prefix + "errors");
+            metrics.gauge(prefix + "connectionsInUse", () -> maxPerSlave - pool.permits.availablePermits());
+            metrics.gauge(prefix + "connectionsIdle", pool.idle::size);
+        }
+        return pool;
+    }
+
+    // Ferme les connexions libres d'un slave (par exemple quand il ne répond plus)
+    public void closeIdle(String slaveId) {
+        SlavePool pool = pools.get(slaveId);
+        if (pool == null) {
+            return;
+        }
+        SlaveConnection connection;
+        while ((connection = pool.idle.pollLast()) != null) {
+            connection.close();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (SlavePool pool : pools.values()) {
+            // Les plus anciennes sont en fin de file
+            SlaveConnection connection;
+            while ((connection = pool.idle.peekLast()) != null
+                    && now - connection.getLastUsed() > idleTimeoutMs) {
+                if (pool.idle.removeLastOccurrence(connection)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        evictor.shutdownNow();
+        for (String slaveId : pools.keySet()) {
+            closeIdle(slaveId);
+        }
+    }
+
+    private static class SlavePool {
+        private final Semaphore permits;
+        private final Deque<SlaveConnection> idle = new ConcurrentLinkedDeque<>();
+        private Metrics.Histogram rpc;
+        private LongAdder bytesIn;
+        private LongAdder bytesOut;
+        private LongAdder errors;
+
+        private SlavePool(int maxPerSlave) {
+            this.permits = new Semaphore(maxPerSlave, true);
+        }
+    }
+}
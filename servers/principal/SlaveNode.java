@@ -0,0 +1,32 @@
+package servers.principal;
+
+// Adresse d'un slave vue par le master, lue une seule fois depuis la configuration
+public final class SlaveNode {
+
+    private final String slaveId;
+    private final String host;
+    private final int port;
+
+    public SlaveNode(String slaveId, String host, int port) {
+        this.slaveId = slaveId;
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getSlaveId() {
+        return slaveId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return slaveId + " (" + host + ":" + port + ")";
+    }
+}
@@ -0,0 +1,27 @@
+package servers.principal;
+
+// État d'un slave relevé par le heartbeat : espace libre dans son répertoire de stockage et nombre de
+// requêtes qu'il est en train de traiter (hors heartbeat)
+public final class SlaveStatus {
+
+    private final long freeBytes;
+    private final int activeRequests;
+
+    public SlaveStatus(long freeBytes, int activeRequests) {
+        this.freeBytes = freeBytes;
+        this.activeRequests = activeRequests;
+    }
+
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public int getActiveRequests() {
+        return activeRequests;
+    }
+
+    @Override
+    public String toString() {
+        return (freeBytes >> 20) + " Mio libres, " + activeRequests + " requête(s)";
+    }
+}
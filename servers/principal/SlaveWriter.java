@@ -0,0 +1,237 @@
+package servers.principal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import protocol.Compression;
+
+
+// Envoie la partie d'un fichier à un slave dans son propre thread, à partir de la position partOffset.
+// Les chunks arrivent par une file bornée : quand le slave est lent, put() bloque le lecteur (backpressure).
+// Chaque chunk part dans une trame [int longueur][octets] ; une trame vide termine le segment, ce qui
+// permet de l'arrêter à tout moment (client déconnecté) en gardant ce qui a déjà été écrit.
+// Sur une connexion compressée, la longueur est suivie de [byte codec] (0 = brut) et, pour un chunk
+// compressé, de [int longueur d'origine].
+// Le slave renvoie le CRC32C de chaque trame après synchronisation sur disque : ils doivent être égaux
+// à ceux des chunks envoyés. Le temps passé à attendre le slave (hors attente des chunks du client) donne
+// son débit d'écriture au placement.
+public class SlaveWriter implements Runnable {
+
+    private static final ChunkBuffer END = new ChunkBuffer(null, 0);
+
+    private SlaveNode slave;
+    private SlaveConnectionPool pool;
+    private PlacementEngine placement;
+    private String fileName;
+    private long partOffset;
+    private int storedCount;
+    private List<Long> sentCrcs = new ArrayList<>();
+    private BlockingQueue<ChunkBuffer> queue;
+    private BlockingQueue<byte[]> freeBuffers;
+    private Thread thread;
+    private volatile IOException error;
+    private volatile SlaveConnection connection;
+    private volatile boolean aborted;
+    private boolean endReceived;
+
+    public SlaveWriter(SlaveNode slave, SlaveConnectionPool pool, PlacementEngine placement, String fileName,
+            long partOffset, int queueDepth, BlockingQueue<byte[]> freeBuffers) {
+        this.setSlave(slave);
+        this.pool = pool;
+        this.placement = placement;
+        this.setFileName(fileName);
+        this.setPartOffset(partOffset);
+        this.queue = new ArrayBlockingQueue<>(queueDepth);
+        this.freeBuffers = freeBuffers;
+    }
+
+    public void start() {
+        thread = new Thread(this, "writer-" + slave.getSlaveId() + "-" + fileName);
+        thread.start();
+    }
+
+    // Met un chunk en file ; bloque tant que la file du slave est pleine
+    public void put(ChunkBuffer chunk) throws IOException {
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envoi interrompu vers " + slave.getSlaveId());
+        }
+    }
+
+    // Signale la fin des chunks et attend que le slave ait confirmé sa partie
+    public void finish() throws IOException {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envoi interrompu vers " + slave.getSlaveId());
+        }
+    }
+
+    // Abandonne le segment sans le terminer : la connexion est fermée, ce qui débloque le writer s'il attend
+    // le slave ; le slave voit la connexion coupée et n'attend plus d'octets. À appeler avant finish().
+    public void abort() {
+        aborted = true;
+        SlaveConnection current = connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        long bytesSent = 0;
+        long slaveNanos = 0;
+        placement.beginWrite(slave.getSlaveId());
+        try {
+            connection = pool.borrow(slave);
+            if (aborted) {
+                throw new IOException("Envoi annulé vers " + slave.getSlaveId());
+            }
+            DataOutputStream slaveOut = connection.getOut();
+            DataInputStream slaveIn = connection.getIn();
+            Compression compression = connection.getCompression();
+
+            slaveOut.writeUTF("UPLOAD_AT");
+            slaveOut.writeUTF(fileName);
+            slaveOut.writeLong(partOffset);
+
+            ChunkBuffer chunk;
+            while ((chunk = takeChunk()) != END) {
+                long sendStart = System.nanoTime();
+                try {
+                    sentCrcs.add(chunk.getCrc());
+                    byte[] compressed = compression != null ? chunk.compress(compression) : null;
+                    if (compressed != null) {
+                        slaveOut.writeInt(compressed.length);
+                        slaveOut.writeByte(compression.getCodec().getId());
+                        slaveOut.writeInt(chunk.getLength());
+                        slaveOut.write(compressed);
+                    } else {
+                        slaveOut.writeInt(chunk.getLength());
+                        if (compression != null) {
+                            slaveOut.writeByte(0);
+                        }
+                        slaveOut.write(chunk.getData(), 0, chunk.getLength());
+                    }
+                } finally {
+                    recycle(chunk);
+                }
+                bytesSent += chunk.getLength();
+                slaveNanos += System.nanoTime() - sendStart;
+            }
+            endReceived = true;
+            if (aborted) {
+                throw new IOException("Envoi annulé vers " + slave.getSlaveId());
+            }
+            long endStart = System.nanoTime();
+            slaveOut.writeInt(0);
+            slaveOut.flush();
+
+            String reply = slaveIn.readUTF();
+            if (!reply.startsWith("UPLOAD_SUCCESS")) {
+                throw new IOException(reply);
+            }
+            int count = slaveIn.readInt();
+            long[] storedCrcs = new long[count];
+            for (int i = 0; i < count; i++) {
+                storedCrcs[i] = slaveIn.readInt() & 0xFFFFFFFFL;
+            }
+            pool.release(connection);
+            placement.recordWrite(slave.getSlaveId(), bytesSent, slaveNanos + System.nanoTime() - endStart);
+            checkCrcs(storedCrcs);
+            storedCount = count;
+        } catch (IOException e) {
+            error = e;
+            if (connection != null) {
+                pool.invalidate(connection);
+            }
+            if (!endReceived) {
+                drain();
+            }
+        } finally {
+            placement.endWrite(slave.getSlaveId());
+        }
+    }
+
+    // Un chunk corrompu entre le master et le disque du slave rend la partie inutilisable
+    private void checkCrcs(long[] storedCrcs) throws IOException {
+        if (storedCrcs.length != sentCrcs.size()) {
+            throw new IOException("Nombre de trames inattendu pour la partie " + fileName);
+        }
+        for (int i = 0; i < storedCrcs.length; i++) {
+            long expected = sentCrcs.get(i);
+            if (expected != ChunkInfo.NO_CRC && expected != storedCrcs[i]) {
+                throw new IOException("CRC32C de la trame " + i + " de " + fileName + " différent après écriture.");
+            }
+        }
+    }
+
+    private ChunkBuffer takeChunk() throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envoi interrompu vers " + slave.getSlaveId());
+        }
+    }
+
+    // Après une erreur, on continue de vider la file pour ne pas bloquer le lecteur du client
+    private void drain() {
+        try {
+            ChunkBuffer chunk;
+            while ((chunk = queue.take()) != END) {
+                recycle(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recycle(ChunkBuffer chunk) {
+        if (chunk.release()) {
+            freeBuffers.offer(chunk.getData());
+        }
+    }
+
+    // Nombre de chunks écrits et vérifiés sur le slave pendant ce segment (0 en cas d'erreur)
+    public int getStoredCount() {
+        return storedCount;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    public SlaveNode getSlave() {
+        return slave;
+    }
+
+    public void setSlave(SlaveNode slave) {
+        this.slave = slave;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getPartOffset() {
+        return partOffset;
+    }
+
+    public void setPartOffset(long partOffset) {
+        this.partOffset = partOffset;
+    }
+}
@@ -0,0 +1,102 @@
+package servers.principal;
+
+// Découpage d'un fichier en chunks de taille fixe, distribués en round-robin sur les slaves :
+// le chunk i va au slave (i % numSlaves), et ses copies aux slaves suivants ((i + r) % numSlaves).
+// La partie d'un slave est la concaténation, dans l'ordre du fichier, de tous les chunks qu'il détient.
+public class StripeLayout {
+
+    private long fileSize;
+    private int chunkSize;
+    private int numSlaves;
+    private int replication;
+
+    public StripeLayout(long fileSize, int chunkSize, int numSlaves) {
+        this(fileSize, chunkSize, numSlaves, 1);
+    }
+
+    public StripeLayout(long fileSize, int chunkSize, int numSlaves, int replication) {
+        if (chunkSize <= 0 || numSlaves <= 0 || replication <= 0) {
+            throw new IllegalArgumentException("chunkSize, numSlaves et replication doivent être positifs.");
+        }
+        this.setFileSize(fileSize);
+        this.setChunkSize(chunkSize);
+        this.setNumSlaves(numSlaves);
+        // Jamais deux copies d'un même chunk sur le même slave
+        this.setReplication(Math.min(replication, numSlaves));
+    }
+
+    public long getChunkCount() {
+        return (fileSize + chunkSize - 1) / chunkSize;
+    }
+
+    public int getChunkLength(long chunkIndex) {
+        return (int) Math.min(chunkSize, fileSize - chunkIndex * chunkSize);
+    }
+
+    public int getSlaveIndex(long chunkIndex) {
+        return (int) (chunkIndex % numSlaves);
+    }
+
+    // Slave de la copie "replica" du chunk (0 = copie principale)
+    public int getSlaveIndex(long chunkIndex, int replica) {
+        return (int) ((chunkIndex + replica) % numSlaves);
+    }
+
+    // Taille de la partie stockée par un slave (somme des chunks dont il a une copie)
+    public long getPartSize(int slaveIndex) {
+        long partSize = 0;
+        for (int replica = 0; replica < replication; replica++) {
+            // Le slave détient la copie "replica" des chunks c tels que (c + replica) % numSlaves == slaveIndex
+            int first = Math.floorMod(slaveIndex - replica, numSlaves);
+            partSize += getPrimarySize(first);
+        }
+        return partSize;
+    }
+
+    // Somme des chunks c tels que c % numSlaves == slaveIndex
+    private long getPrimarySize(int slaveIndex) {
+        long chunkCount = getChunkCount();
+        if (slaveIndex >= chunkCount) {
+            return 0;
+        }
+        long chunksOnSlave = (chunkCount - slaveIndex + numSlaves - 1) / numSlaves;
+        long partSize = chunksOnSlave * chunkSize;
+        long lastChunk = chunkCount - 1;
+        if (getSlaveIndex(lastChunk) == slaveIndex) {
+            partSize -= chunkSize - getChunkLength(lastChunk);
+        }
+        return partSize;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getReplication() {
+        return replication;
+    }
+
+    public void setReplication(int replication) {
+        this.replication = replication;
+    }
+
+    public int getNumSlaves() {
+        return numSlaves;
+    }
+
+    public void setNumSlaves(int numSlaves) {
+        this.numSlaves = numSlaves;
+    }
+}
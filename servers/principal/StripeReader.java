@@ -0,0 +1,200 @@
+package servers.principal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Lecture d'une bande d'un fichier en erasure coding : tous les shards (données et parité) sont demandés
+// en parallèle et la bande est terminée dès que k shards sont arrivés, les lectures restantes étant annulées.
+// Si un shard de données manque parmi ces k, il est reconstruit à partir des parités.
+public class StripeReader {
+
+    private ReplicaReader replicaReader;
+    private Map<String, ReedSolomon> codecs = new ConcurrentHashMap<>();
+
+    public StripeReader(ReplicaReader replicaReader) {
+        this.replicaReader = replicaReader;
+    }
+
+    // Codeur partagé pour un couple (k, m) ; la matrice de codage n'est calculée qu'une fois
+    public ReedSolomon getCodec(int dataShards, int parityShards) {
+        return codecs.computeIfAbsent(dataShards + "+" + parityShards,
+                key -> new ReedSolomon(dataShards, parityShards));
+    }
+
+    // Chunks de données de la bande, dans l'ordre du fichier
+    public CompletableFuture<ChunkBuffer[]> read(FileEntry entry, int stripe) {
+        StripeRead request = new StripeRead(entry, stripe);
+        request.start();
+        return request.result;
+    }
+
+    // Vrai si au moins k shards de la bande sont sur des slaves vivants
+    public boolean isReadable(FileEntry entry, int stripe) {
+        int k = entry.getDataShards();
+        int m = entry.getParityShards();
+        int dataCount = Math.min(k, entry.getChunks().length - stripe * k);
+        int available = k - dataCount;
+        for (int i = 0; i < dataCount; i++) {
+            if (replicaReader.isReadable(entry.getChunks()[stripe * k + i])) {
+                available++;
+            }
+        }
+        for (int j = 0; j < m; j++) {
+            if (replicaReader.isReadable(entry.getParity()[stripe * m + j])) {
+                available++;
+            }
+        }
+        return available >= k;
+    }
+
+    private class StripeRead {
+        private final FileEntry entry;
+        private final int k;
+        private final int firstChunk;
+        private final int dataCount;
+        private final int shardLength;
+        private final byte[][] shards;
+        private final boolean[] present;
+        private final List<CompletableFuture<ChunkBuffer>> reads = new ArrayList<>();
+        private final CompletableFuture<ChunkBuffer[]> result = new CompletableFuture<>();
+        private int available;
+        private int pending;
+        private boolean finished;
+
+        StripeRead(FileEntry entry, int stripe) {
+            this.entry = entry;
+            this.k = entry.getDataShards();
+            this.firstChunk = stripe * k;
+            this.dataCount = Math.min(k, entry.getChunks().length - firstChunk);
+            this.shardLength = entry.getChunks()[firstChunk].getLength();
+            this.shards = new byte[k + entry.getParityShards()][];
+            this.present = new boolean[shards.length];
+
+            // Les chunks absents d'une dernière bande incomplète valent zéro : ils sont connus d'avance
+            for (int i = dataCount; i < k; i++) {
+                shards[i] = new byte[shardLength];
+                present[i] = true;
+                available++;
+            }
+        }
+
+        void start() {
+            List<ChunkInfo> toRead = new ArrayList<>();
+            List<Integer> indexes = new ArrayList<>();
+            for (int i = 0; i < dataCount; i++) {
+                toRead.add(entry.getChunks()[firstChunk + i]);
+                indexes.add(i);
+            }
+            int m = entry.getParityShards();
+            for (int j = 0; j < m; j++) {
+                toRead.add(entry.getParity()[(firstChunk / k) * m + j]);
+                indexes.add(k + j);
+            }
+
+            synchronized (this) {
+                for (ChunkInfo chunk : toRead) {
+                    if (replicaReader.isReadable(chunk)) {
+                        pending++;
+                    }
+                }
+            }
+            if (available + pending < k) {
+                result.completeExceptionally(new IOException("Pas assez de shards sur des slaves actifs."));
+                return;
+            }
+            result.whenComplete((chunks, error) -> cancelAll());
+
+            for (int i = 0; i < toRead.size(); i++) {
+                ChunkInfo chunk = toRead.get(i);
+                if (!replicaReader.isReadable(chunk)) {
+                    continue;
+                }
+                int index = indexes.get(i);
+                CompletableFuture<ChunkBuffer> read = replicaReader.read(chunk, new byte[shardLength]);
+                synchronized (this) {
+                    reads.add(read);
+                }
+                if (result.isDone()) {
+                    read.cancel(true);
+                }
+                read.whenComplete((buffer, error) -> arrived(index, buffer, error));
+            }
+        }
+
+        // Le futur de la bande est complété hors du verrou : ses callbacks annulent les lectures restantes,
+        // qui prennent elles-mêmes le verrou de leur ReplicaReader
+        void arrived(int index, ChunkBuffer buffer, Throwable error) {
+            boolean decode = false;
+            Throwable failure = null;
+            synchronized (this) {
+                pending--;
+                if (finished) {
+                    return;
+                }
+                if (error != null) {
+                    if (available + pending < k) {
+                        finished = true;
+                        failure = error;
+                    }
+                } else {
+                    byte[] data = buffer.getData();
+                    if (data.length < shardLength) {
+                        // Tableau d'une lecture de secours, à la taille exacte du chunk : on le complète par des zéros
+                        data = Arrays.copyOf(data, shardLength);
+                    }
+                    shards[index] = data;
+                    present[index] = true;
+                    available++;
+                    if (available >= k) {
+                        finished = true;
+                        decode = true;
+                    }
+                }
+            }
+            if (failure != null) {
+                result.completeExceptionally(failure instanceof IOException ? failure
+                        : new IOException("Lecture d'un shard échouée.", failure));
+            } else if (decode) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            boolean missing = false;
+            for (int i = 0; i < dataCount; i++) {
+                if (!present[i]) {
+                    shards[i] = new byte[shardLength];
+                    missing = true;
+                }
+            }
+            try {
+                if (missing) {
+                    getCodec(k, entry.getParityShards()).reconstructData(shards, present, shardLength);
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(new IOException("Reconstruction de la bande impossible.", e));
+                return;
+            }
+            ChunkBuffer[] chunks = new ChunkBuffer[dataCount];
+            for (int i = 0; i < dataCount; i++) {
+                chunks[i] = new ChunkBuffer(shards[i], entry.getChunks()[firstChunk + i].getLength());
+            }
+            result.complete(chunks);
+        }
+
+        void cancelAll() {
+            List<CompletableFuture<ChunkBuffer>> toCancel;
+            synchronized (this) {
+                toCancel = new ArrayList<>(reads);
+            }
+            for (CompletableFuture<ChunkBuffer> read : toCancel) {
+                read.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package servers.principal;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Upload d'un fichier (répliqué ou en erasure coding), éventuellement envoyé en plusieurs fois.
+// Le placement de tous les chunks est calculé à la création. Chaque envoi (segment) reprend au premier
+// groupe non confirmé (un chunk en réplication, une bande en erasure coding) : un groupe est confirmé
+// quand chacune de ses écritures a été synchronisée sur disque par son slave, ou que ce slave est en échec.
+// Les parties sont écrites sous une clé propre à l'upload : la version précédente reste lisible jusqu'au commit.
+public class UploadSession {
+
+    private final String uploadId;
+    private final String fileName;
+    private final String partKey;
+    private final long fileSize;
+    private final int chunkSize;
+    private final List<SlaveNode> slaves;
+    private final ReedSolomon codec; // null : réplication
+    private final int dataShards;
+    private final int parityShards;
+    private final int chunkCount;
+    private final int groupCount;
+
+    // Une écriture = une copie d'un chunk ou un shard ; celles du groupe g sont [groupFirstWrite[g], groupFirstWrite[g+1])
+    private final int[] groupFirstWrite;
+    private final int[] writeSlave;
+    private final long[] writeOffset;
+    private final int[] writeLength;
+    private final int[] writeChunk; // index du chunk de données, ou -1 - index du chunk de parité
+    private final boolean[] writeStored;
+    private final long[] chunkCrcs;
+    private final long[] parityCrcs;
+    private final boolean[] failed;
+
+    private final ReentrantLock segmentLock = new ReentrantLock();
+    private Socket clientSocket;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    public UploadSession(String uploadId, String fileName, long fileSize, int chunkSize, List<SlaveNode> slaves,
+            int replicationFactor, ReedSolomon codec, PlacementEngine placement) {
+        this.uploadId = uploadId;
+        this.fileName = fileName;
+        this.partKey = fileName + "." + uploadId;
+        this.fileSize = fileSize;
+        this.chunkSize = chunkSize;
+        this.slaves = List.copyOf(slaves);
+        this.codec = codec;
+        this.dataShards = codec != null ? codec.getDataShards() : 0;
+        this.parityShards = codec != null ? codec.getParityShards() : 0;
+        this.failed = new boolean[slaves.size()];
+
+        // Longueur et chunk de chaque écriture, groupe par groupe ; le placement choisit ensuite leurs slaves
+        int numSlaves = slaves.size();
+        int[][] groupLengths;
+        int[][] groupChunks;
+        if (dataShards == 0) {
+            StripeLayout layout = new StripeLayout(fileSize, chunkSize, numSlaves, replicationFactor);
+            this.chunkCount = (int) layout.getChunkCount();
+            this.groupCount = chunkCount;
+            groupLengths = new int[groupCount][layout.getReplication()];
+            groupChunks = new int[groupCount][layout.getReplication()];
+            for (int c = 0; c < chunkCount; c++) {
+                Arrays.fill(groupLengths[c], layout.getChunkLength(c));
+                Arrays.fill(groupChunks[c], c);
+            }
+            this.parityCrcs = new long[0];
+        } else {
+            ErasureLayout layout = new ErasureLayout(fileSize, chunkSize, numSlaves, dataShards, parityShards);
+            this.chunkCount = (int) layout.getChunkCount();
+            this.groupCount = (int) layout.getStripeCount();
+            groupLengths = new int[groupCount][];
+            groupChunks = new int[groupCount][];
+            for (int stripe = 0; stripe < groupCount; stripe++) {
+                int dataCount = layout.getDataCount(stripe);
+                groupLengths[stripe] = new int[dataCount + parityShards];
+                groupChunks[stripe] = new int[dataCount + parityShards];
+                for (int i = 0; i < dataCount; i++) {
+                    int c = stripe * dataShards + i;
+                    groupLengths[stripe][i] = layout.getChunkLength(c);
+                    groupChunks[stripe][i] = c;
+                }
+                for (int j = 0; j < parityShards; j++) {
+                    groupLengths[stripe][dataCount + j] = layout.getShardLength(stripe);
+                    groupChunks[stripe][dataCount + j] = -1 - (stripe * parityShards + j);
+                }
+            }
+            this.parityCrcs = new long[groupCount * parityShards];
+        }
+        int[][] groupSlaves = placement.place(slaves, fileName, groupLengths);
+
+        long[] partOffsets = new long[numSlaves];
+        List<int[]> writes = new ArrayList<>(); // {slave, length, chunk}
+        List<Long> offsets = new ArrayList<>();
+        this.groupFirstWrite = new int[groupCount + 1];
+        for (int g = 0; g < groupCount; g++) {
+            groupFirstWrite[g] = writes.size();
+            for (int t = 0; t < groupLengths[g].length; t++) {
+                int slave = groupSlaves[g][t];
+                writes.add(new int[] { slave, groupLengths[g][t], groupChunks[g][t] });
+                offsets.add(partOffsets[slave]);
+                partOffsets[slave] += groupLengths[g][t];
+            }
+        }
+        groupFirstWrite[groupCount] = writes.size();
+
+        this.writeSlave = new int[writes.size()];
+        this.writeLength = new int[writes.size()];
+        this.writeChunk = new int[writes.size()];
+        this.writeOffset = new long[writes.size()];
+        this.writeStored = new boolean[writes.size()];
+        for (int w = 0; w < writes.size(); w++) {
+            writeSlave[w] = writes.get(w)[0];
+            writeLength[w] = writes.get(w)[1];
+            writeChunk[w] = writes.get(w)[2];
+            writeOffset[w] = offsets.get(w);
+        }
+        this.chunkCrcs = new long[chunkCount];
+    }
+
+    // Prend la main sur la session pour un nouvel envoi ; la connexion d'un envoi précédent encore bloquée
+    // en lecture est fermée pour qu'il se termine
+    public void takeOver(Socket socket) throws IOException {
+        Socket previous;
+        synchronized (this) {
+            previous = clientSocket;
+            clientSocket = socket;
+        }
+        if (previous != null && previous != socket) {
+            previous.close();
+        }
+        segmentLock.lock();
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public void release() {
+        lastActivity = System.currentTimeMillis();
+        segmentLock.unlock();
+    }
+
+    public boolean isIdleSince(long timestamp) {
+        return !segmentLock.isLocked() && lastActivity < timestamp;
+    }
+
+    // Lit la suite du fichier depuis le client (à partir de getCommittedOffset()) et l'écrit sur les slaves.
+    // Si le client coupe et que keepPartial est vrai (upload reprenable), les writers terminent proprement leur
+    // segment et ce qui a été écrit reste confirmé ; sinon l'upload sera abandonné et leurs connexions sont
+    // coupées avant de les attendre.
+    public void writeSegment(DataInputStream in, SlaveConnectionPool pool, PlacementEngine placement, int queueDepth,
+            boolean keepPartial) throws IOException {
+        int firstGroup = getCommittedGroup();
+        int numSlaves = slaves.size();
+
+        int maxBuffers = numSlaves * (queueDepth + 1) + parityShards + 1;
+        BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+        for (int i = 0; i < maxBuffers; i++) {
+            freeBuffers.add(new byte[chunkSize]);
+        }
+
+        // Chaque slave reprend sa partie à sa première écriture non confirmée
+        SlaveWriter[] writers = new SlaveWriter[numSlaves];
+        List<List<Integer>> sentWrites = new ArrayList<>();
+        for (int i = 0; i < numSlaves; i++) {
+            sentWrites.add(new ArrayList<>());
+        }
+        for (int w = groupFirstWrite[firstGroup]; w < writeSlave.length; w++) {
+            int slave = writeSlave[w];
+            if (!failed[slave] && writers[slave] == null) {
+                writers[slave] = new SlaveWriter(slaves.get(slave), pool, placement, partKey, writeOffset[w],
+                        queueDepth, freeBuffers);
+                writers[slave].start();
+            }
+        }
+
+        boolean clientLost = false;
+        try {
+            byte[][] parity = new byte[parityShards][];
+            for (int g = firstGroup; g < groupCount; g++) {
+                int first = groupFirstWrite[g];
+                int end = groupFirstWrite[g + 1];
+                if (dataShards == 0) {
+                    // Le même tampon part vers toutes les copies ; il est recyclé après la dernière
+                    byte[] buffer = takeBuffer(freeBuffers);
+                    int length = writeLength[first];
+                    in.readFully(buffer, 0, length);
+                    chunkCrcs[g] = ChunkInfo.crc32c(buffer, length);
+                    int copies = 0;
+                    for (int w = first; w < end; w++) {
+                        copies += failed[writeSlave[w]] ? 0 : 1;
+                    }
+                    ChunkBuffer chunk = new ChunkBuffer(buffer, length, Math.max(1, copies), chunkCrcs[g]);
+                    if (copies == 0) {
+                        freeBuffers.offer(buffer);
+                    }
+                    for (int w = first; w < end; w++) {
+                        send(writers, sentWrites, w, chunk);
+                    }
+                } else {
+                    int shardLength = writeLength[end - 1];
+                    for (int j = 0; j < parityShards; j++) {
+                        parity[j] = takeBuffer(freeBuffers);
+                        Arrays.fill(parity[j], 0, shardLength, (byte) 0);
+                    }
+                    for (int w = first; w < end; w++) {
+                        if (writeChunk[w] >= 0) {
+                            int c = writeChunk[w];
+                            byte[] buffer = takeBuffer(freeBuffers);
+                            in.readFully(buffer, 0, writeLength[w]);
+                            codec.addToParity(c - g * dataShards, buffer, writeLength[w], parity);
+                            chunkCrcs[c] = ChunkInfo.crc32c(buffer, writeLength[w]);
+                            sendOrRecycle(writers, sentWrites, w, new ChunkBuffer(buffer, writeLength[w], 1,
+                                    chunkCrcs[c]), freeBuffers);
+                        } else {
+                            int p = -1 - writeChunk[w];
+                            byte[] buffer = parity[p - g * parityShards];
+                            parityCrcs[p] = ChunkInfo.crc32c(buffer, shardLength);
+                            sendOrRecycle(writers, sentWrites, w, new ChunkBuffer(buffer, shardLength, 1,
+                                    parityCrcs[p]), freeBuffers);
+                        }
+                    }
+                }
+                lastActivity = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            clientLost = true;
+            throw e;
+        } finally {
+            // Toujours terminer les writers, même si le client a coupé la connexion
+            if (clientLost && !keepPartial) {
+                for (SlaveWriter writer : writers) {
+                    if (writer != null) {
+                        writer.abort();
+                    }
+                }
+            }
+            for (int i = 0; i < numSlaves; i++) {
+                SlaveWriter writer = writers[i];
+                if (writer == null) {
+                    continue;
+                }
+                writer.finish();
+                if (writer.getError() != null) {
+                    System.err.println("Erreur lors de l'envoi à " + writer.getSlave().getSlaveId() + ": "
+                            + writer.getError().getMessage());
+                    failed[i] = true;
+                } else {
+                    List<Integer> sent = sentWrites.get(i);
+                    for (int n = 0; n < writer.getStoredCount(); n++) {
+                        writeStored[sent.get(n)] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void send(SlaveWriter[] writers, List<List<Integer>> sentWrites, int w, ChunkBuffer chunk)
+            throws IOException {
+        int slave = writeSlave[w];
+        if (!failed[slave]) {
+            writers[slave].put(chunk);
+            sentWrites.get(slave).add(w);
+        }
+    }
+
+    private void sendOrRecycle(SlaveWriter[] writers, List<List<Integer>> sentWrites, int w, ChunkBuffer chunk,
+            BlockingQueue<byte[]> freeBuffers) throws IOException {
+        if (failed[writeSlave[w]]) {
+            freeBuffers.offer(chunk.getData());
+        } else {
+            send(writers, sentWrites, w, chunk);
+        }
+    }
+
+    private static byte[] takeBuffer(BlockingQueue<byte[]> freeBuffers) throws IOException {
+        try {
+            return freeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Upload interrompu.");
+        }
+    }
+
+    // Upload direct : le client a envoyé lui-même les chunks et annonce leurs CRC32C
+    public void setChunkCrcs(long[] crcs) {
+        System.arraycopy(crcs, 0, chunkCrcs, 0, chunkCount);
+    }
+
+    // Upload direct : frames = trames de la partie sur le slave ({position, longueur, crc}). Une écriture est
+    // confirmée si une trame est à sa position, de sa longueur et du CRC annoncé pour son chunk ; un slave
+    // auquel il en manque est en échec
+    public void confirmDirect(int slaveIndex, List<long[]> frames) {
+        for (int w = 0; w < writeSlave.length; w++) {
+            if (writeSlave[w] != slaveIndex) {
+                continue;
+            }
+            for (long[] frame : frames) {
+                if (frame[0] == writeOffset[w] && frame[1] == writeLength[w] && frame[2] == chunkCrcs[writeChunk[w]]) {
+                    writeStored[w] = true;
+                    break;
+                }
+            }
+            failed[slaveIndex] |= !writeStored[w];
+        }
+    }
+
+    public void markFailed(int slaveIndex) {
+        failed[slaveIndex] = true;
+    }
+
+    // Premier groupe dont une écriture attend encore un slave qui n'est pas en échec
+    public int getCommittedGroup() {
+        for (int g = 0; g < groupCount; g++) {
+            for (int w = groupFirstWrite[g]; w < groupFirstWrite[g + 1]; w++) {
+                if (!writeStored[w] && !failed[writeSlave[w]]) {
+                    return g;
+                }
+            }
+        }
+        return groupCount;
+    }
+
+    // Nombre d'octets du fichier confirmés : le client reprend l'envoi à partir de là
+    public long getCommittedOffset() {
+        int group = getCommittedGroup();
+        long firstChunk = dataShards == 0 ? group : (long) group * dataShards;
+        return Math.min(fileSize, firstChunk * chunkSize);
+    }
+
+    public boolean isComplete() {
+        return getCommittedGroup() == groupCount;
+    }
+
+    // Message d'erreur si des slaves en échec ont emporté trop de copies (ou de shards) d'un groupe
+    public String checkRecoverable() {
+        for (int g = 0; g < groupCount; g++) {
+            int lost = 0;
+            int writes = groupFirstWrite[g + 1] - groupFirstWrite[g];
+            for (int w = groupFirstWrite[g]; w < groupFirstWrite[g + 1]; w++) {
+                lost += !writeStored[w] && failed[writeSlave[w]] ? 1 : 0;
+            }
+            if (dataShards == 0 ? lost == writes : lost > parityShards) {
+                return "Erreur lors de l'envoi d'une partie à " + String.join(", ", getFailedSlaves()) + ".";
+            }
+        }
+        return null;
+    }
+
+    // Entrée du catalogue : seules les écritures confirmées deviennent des emplacements
+    public FileEntry toEntry() {
+        List<List<ChunkLocation>> chunkLocations = new ArrayList<>();
+        for (int c = 0; c < chunkCount; c++) {
+            chunkLocations.add(new ArrayList<>());
+        }
+        List<List<ChunkLocation>> parityLocations = new ArrayList<>();
+        for (int p = 0; p < parityCrcs.length; p++) {
+            parityLocations.add(new ArrayList<>());
+        }
+        int[] chunkLengths = new int[chunkCount];
+        int[] parityLengths = new int[parityCrcs.length];
+        for (int w = 0; w < writeSlave.length; w++) {
+            ChunkLocation location = writeStored[w]
+                    ? new ChunkLocation(slaves.get(writeSlave[w]).getSlaveId(), partKey, writeOffset[w])
+                    : null;
+            if (writeChunk[w] >= 0) {
+                chunkLengths[writeChunk[w]] = writeLength[w];
+                if (location != null) {
+                    chunkLocations.get(writeChunk[w]).add(location);
+                }
+            } else {
+                parityLengths[-1 - writeChunk[w]] = writeLength[w];
+                if (location != null) {
+                    parityLocations.get(-1 - writeChunk[w]).add(location);
+                }
+            }
+        }
+
+        ChunkInfo[] chunks = new ChunkInfo[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            chunks[c] = new ChunkInfo(chunkLengths[c], chunkCrcs[c],
+                    chunkLocations.get(c).toArray(new ChunkLocation[0]));
+        }
+        if (dataShards == 0) {
+            return new FileEntry(fileName, fileSize, chunkSize, 0, chunks);
+        }
+        ChunkInfo[] parity = new ChunkInfo[parityCrcs.length];
+        for (int p = 0; p < parity.length; p++) {
+            parity[p] = new ChunkInfo(parityLengths[p], parityCrcs[p],
+                    parityLocations.get(p).toArray(new ChunkLocation[0]));
+        }
+        return new FileEntry(fileName, fileSize, chunkSize, 0, chunks, dataShards, parityShards, parity);
+    }
+
+    public List<String> getFailedSlaves() {
+        List<String> failedSlaves = new ArrayList<>();
+        for (int i = 0; i < failed.length; i++) {
+            if (failed[i]) {
+                failedSlaves.add(slaves.get(i).getSlaveId());
+            }
+        }
+        return failedSlaves;
+    }
+
+    // Octets que l'upload écrit sur le slave d'indice slaveIndex (sa part prévue par le placement)
+    public long getPlannedBytes(int slaveIndex) {
+        long bytes = 0;
+        for (int w = 0; w < writeSlave.length; w++) {
+            bytes += writeSlave[w] == slaveIndex ? writeLength[w] : 0;
+        }
+        return bytes;
+    }
+
+    // Slaves qui ont (ou ont pu avoir) une partie de cet upload
+    public Set<String> getSlaveIds() {
+        Set<String> slaveIds = new LinkedHashSet<>();
+        for (int slave : writeSlave) {
+            slaveIds.add(slaves.get(slave).getSlaveId());
+        }
+        return slaveIds;
+    }
+
+    // Écritures dans l'ordre des groupes (les positions de chaque slave sont croissantes et contiguës)
+    public int getWriteCount() {
+        return writeSlave.length;
+    }
+
+    public int getWriteSlave(int write) {
+        return writeSlave[write];
+    }
+
+    public int getWriteChunk(int write) {
+        return writeChunk[write];
+    }
+
+    public long getWriteOffset(int write) {
+        return writeOffset[write];
+    }
+
+    public int getWriteLength(int write) {
+        return writeLength[write];
+    }
+
+    public List<SlaveNode> getSlaves() {
+        return slaves;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getPartKey() {
+        return partKey;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public boolean isErasureCoded() {
+        return codec != null;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+}
@@ -0,0 +1,205 @@
+package servers.subservers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Chunks stockés par contenu (nom = SHA-256) dans <dirPath>/chunks/<ab>/<id>, partagés entre fichiers.
+// Chaque chunk a un compteur de références : +1 quand un upload le réutilise (claim) ou l'écrit (put),
+// -1 quand le master libère un fichier qui l'utilisait ; il est supprimé quand le compteur tombe à 0.
+// Les variations des compteurs sont journalisées (et synchronisées sur disque) dans chunks/refs.journal.
+// Un chunk est écrit sous un nom temporaire et synchronisé avant d'être renommé : jamais de chunk tronqué.
+public class ChunkStore {
+
+    private File chunksDir;
+    private GroupCommitter committer;
+    private File journalFile;
+    private Map<String, Integer> refs = new HashMap<>();
+    private FileOutputStream journalStream;
+    private DataOutputStream journal;
+
+    public ChunkStore(String dirPath, GroupCommitter committer) throws IOException {
+        this.chunksDir = new File(dirPath, "chunks");
+        this.committer = committer;
+        if (!chunksDir.exists() && !chunksDir.mkdirs()) {
+            throw new IOException("Impossible de créer " + chunksDir);
+        }
+        File[] dirs = chunksDir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                GroupCommitter.deleteLeftovers(dir);
+            }
+        }
+        this.journalFile = new File(chunksDir, "refs.journal");
+        replayJournal();
+        compactJournal();
+    }
+
+    // Réutilise les chunks déjà présents : pour chacun, true (et une référence de plus) s'il existe
+    public synchronized boolean[] claim(String[] chunkIds) throws IOException {
+        boolean[] present = new boolean[chunkIds.length];
+        for (int i = 0; i < chunkIds.length; i++) {
+            String chunkId = chunkIds[i];
+            if (isChunkId(chunkId) && refs.getOrDefault(chunkId, 0) > 0 && fileFor(chunkId).exists()) {
+                addReference(chunkId, 1);
+                present[i] = true;
+            }
+        }
+        syncJournal();
+        return present;
+    }
+
+    // Reçoit un chunk depuis le channel (copie faite par le noyau) et lui ajoute une référence
+    public boolean put(String chunkId, ReadableByteChannel channel, long length) throws IOException {
+        if (!isChunkId(chunkId)) {
+            return false;
+        }
+        File file = fileFor(chunkId);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Impossible de créer " + dir);
+        }
+        File tmp = GroupCommitter.tempFileFor(file);
+        try (FileChannel fileChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            long totalRead = 0;
+            long bytesRead;
+            while (totalRead < length
+                    && (bytesRead = fileChannel.transferFrom(channel, totalRead, length - totalRead)) > 0) {
+                totalRead += bytesRead;
+            }
+            if (totalRead != length) {
+                throw new EOFException("Chunk " + chunkId + " incomplet.");
+            }
+            if (committer.isFsync()) {
+                fileChannel.force(false);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            // Même contenu qu'un éventuel chunk existant : le remplacer ne change rien
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            addReference(chunkId, 1);
+            syncJournal();
+        }
+        // Le renommage est durable avant de confirmer au master (fsync du répertoire partagé entre uploads)
+        committer.syncDirectory(dir);
+        return true;
+    }
+
+    // Retire une référence à chaque chunk ; retourne le nombre de chunks supprimés du disque
+    public synchronized int release(String[] chunkIds) throws IOException {
+        int deleted = 0;
+        for (String chunkId : chunkIds) {
+            if (!isChunkId(chunkId) || !refs.containsKey(chunkId)) {
+                continue;
+            }
+            if (addReference(chunkId, -1) == 0) {
+                fileFor(chunkId).delete();
+                deleted++;
+            }
+        }
+        syncJournal();
+        return deleted;
+    }
+
+    public synchronized int size() {
+        return refs.size();
+    }
+
+    private int addReference(String chunkId, int delta) throws IOException {
+        int count = refs.getOrDefault(chunkId, 0) + delta;
+        if (count > 0) {
+            refs.put(chunkId, count);
+        } else {
+            refs.remove(chunkId);
+        }
+        journal.writeUTF(chunkId);
+        journal.writeInt(delta);
+        return count;
+    }
+
+    private void syncJournal() throws IOException {
+        journal.flush();
+        journalStream.getChannel().force(false);
+    }
+
+    private File fileFor(String chunkId) {
+        return new File(new File(chunksDir, chunkId.substring(0, 2)), chunkId);
+    }
+
+    // Même règle que ChunkLocation.isChunkId côté master : un SHA-256 en hexadécimal, jamais un chemin
+    static boolean isChunkId(String chunkId) {
+        if (chunkId.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < chunkId.length(); i++) {
+            char c = chunkId.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Un enregistrement incomplet en fin de journal (crash pendant l'écriture) est ignoré
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile), 1 << 16))) {
+            while (true) {
+                String chunkId;
+                int delta;
+                try {
+                    chunkId = in.readUTF();
+                    delta = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int count = refs.getOrDefault(chunkId, 0) + delta;
+                if (count > 0) {
+                    refs.put(chunkId, count);
+                } else {
+                    refs.remove(chunkId);
+                }
+            }
+        }
+    }
+
+    // Réécrit le journal avec un seul enregistrement par chunk, puis le publie par renommage atomique
+    private void compactJournal() throws IOException {
+        File tmp = new File(chunksDir, "refs.journal.tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            for (Map.Entry<String, Integer> entry : refs.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        journalStream = new FileOutputStream(journalFile, true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalStream, 1 << 16));
+    }
+}
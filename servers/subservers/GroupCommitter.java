@@ -0,0 +1,264 @@
+package servers.subservers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Publication durable des fichiers écrits par le slave. Un fichier est écrit sous un nom temporaire puis
+// confié ici : il est synchronisé sur disque, renommé atomiquement à sa place et son répertoire est
+// synchronisé, sans quoi le renommage peut disparaître dans un crash.
+// Un seul thread traite les demandes par lots : celles arrivées pendant le lot précédent sont synchronisées
+// puis renommées ensemble et chaque répertoire touché n'est synchronisé qu'une fois par lot. Les uploads
+// concurrents confient ainsi leurs fsync à ce thread au lieu de les payer chacun pendant leur transfert.
+public class GroupCommitter {
+
+    private final boolean fsync;
+    private final BlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private boolean directorySyncSupported = true;
+
+    private long commits;
+    private long batches;
+
+    private static final class Commit {
+        final FileChannel channel; // null : fichier déjà synchronisé
+        final File tmp; // null : seulement synchroniser le répertoire
+        final File target;
+        final File dir;
+        final Commit previous; // Publié avant celui-ci, qui est abandonné si previous échoue
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Commit(FileChannel channel, File tmp, File target, File dir, Commit previous) {
+            this.channel = channel;
+            this.tmp = tmp;
+            this.target = target;
+            this.dir = dir;
+            this.previous = previous;
+        }
+    }
+
+    // fsync : false pour des écritures plus rapides mais perdues en cas de crash (publication toujours atomique)
+    public GroupCommitter(String name, boolean fsync) {
+        this.fsync = fsync;
+        this.thread = new Thread(this::run, name + "-group-commit");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Renomme tmp (déjà synchronisé) en target ; retourne quand le renommage est durable
+    public void commit(File tmp, File target) throws IOException {
+        commit(new FileChannel[] { null }, new File[] { tmp }, new File[] { target });
+    }
+
+    // Synchronise chaque tmps[i] par channels[i], ouvert dessus et laissé ouvert jusqu'au retour, puis le
+    // renomme en targets[i], dans l'ordre ; retourne quand tous les renommages sont durables
+    public void commit(FileChannel[] channels, File[] tmps, File[] targets) throws IOException {
+        List<Commit> commits = new ArrayList<>();
+        Commit previous = null;
+        for (int i = 0; i < tmps.length; i++) {
+            previous = new Commit(channels[i], tmps[i], targets[i], targets[i].getAbsoluteFile().getParentFile(),
+                    previous);
+            commits.add(previous);
+        }
+        await(commits);
+    }
+
+    // Synchronise les channels, dans l'ordre, avec ceux des autres demandes du lot : un channel demandé par
+    // plusieurs threads n'est synchronisé qu'une fois. Un channel fermé entre-temps doit l'avoir été après
+    // une synchronisation par son propriétaire. Sans fsync, retourne tout de suite
+    public void sync(FileChannel... channels) throws IOException {
+        if (!fsync) {
+            return;
+        }
+        List<Commit> commits = new ArrayList<>();
+        Commit previous = null;
+        for (FileChannel channel : channels) {
+            previous = new Commit(channel, null, null, null, previous);
+            commits.add(previous);
+        }
+        await(commits);
+    }
+
+    // Rend durables les créations et renommages déjà faits dans dir
+    public void syncDirectory(File dir) throws IOException {
+        await(List.of(new Commit(null, null, null, dir.getAbsoluteFile(), null)));
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    private void await(List<Commit> commits) throws IOException {
+        queue.addAll(commits);
+        try {
+            for (Commit commit : commits) {
+                commit.done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Publication interrompue.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void run() {
+        List<Commit> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Tout ce qui est arrivé pendant le lot précédent part dans celui-ci
+            queue.drainTo(batch);
+
+            Set<File> dirs = new LinkedHashSet<>();
+            if (fsync) {
+                syncFiles(batch);
+            }
+            for (Commit commit : batch) {
+                if (commit.previous != null && commit.previous.done.isCompletedExceptionally()) {
+                    commit.done.completeExceptionally(new IOException("Publication précédente échouée."));
+                }
+                if (commit.done.isDone()) {
+                    continue; // Fichier non synchronisé : il n'est pas publié
+                }
+                if (commit.tmp != null) {
+                    try {
+                        Files.move(commit.tmp.toPath(), commit.target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        commit.done.completeExceptionally(e);
+                        continue;
+                    }
+                }
+                if (commit.dir != null) {
+                    dirs.add(commit.dir);
+                }
+            }
+            IOException syncError = null;
+            if (fsync) {
+                for (File dir : dirs) {
+                    try {
+                        syncDir(dir);
+                    } catch (IOException e) {
+                        syncError = e;
+                    }
+                }
+            }
+            for (Commit commit : batch) {
+                if (commit.done.isDone()) {
+                    continue;
+                }
+                if (syncError != null) {
+                    commit.done.completeExceptionally(syncError);
+                } else {
+                    commit.done.complete(null);
+                }
+            }
+            synchronized (this) {
+                commits += batch.size();
+                batches++;
+            }
+            batch.clear();
+        }
+    }
+
+    // Chaque channel n'est synchronisé qu'une fois par lot, même demandé par plusieurs commits. Les premiers
+    // channels de chaque demande passent avant les deuxièmes, et ainsi de suite : un journal demandé après
+    // un segment n'est jamais synchronisé avant lui, même quand une autre demande le cite après un autre segment
+    private void syncFiles(List<Commit> batch) {
+        List<Commit> ordered = new ArrayList<>(batch);
+        ordered.sort(Comparator.comparingInt(GroupCommitter::rank));
+        Set<FileChannel> synced = new HashSet<>();
+        for (Commit commit : ordered) {
+            if (commit.channel == null || !synced.add(commit.channel)) {
+                continue;
+            }
+            try {
+                commit.channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Fermé par son propriétaire après l'avoir synchronisé
+            } catch (IOException e) {
+                for (Commit other : batch) {
+                    if (other.channel == commit.channel) {
+                        other.done.completeExceptionally(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int rank(Commit commit) {
+        int rank = 0;
+        for (Commit previous = commit.previous; previous != null; previous = previous.previous) {
+            rank++;
+        }
+        return rank;
+    }
+
+    private void syncDir(File dir) throws IOException {
+        if (!directorySyncSupported) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (!dir.isDirectory()) {
+                throw e;
+            }
+            // Certains systèmes (Windows) refusent d'ouvrir un répertoire : les fichiers restent synchronisés
+            directorySyncSupported = false;
+            System.err.println("Synchronisation des répertoires non supportée : " + e.getMessage());
+        }
+    }
+
+    // Supprime les fichiers temporaires laissés par un crash (publication jamais faite)
+    static void deleteLeftovers(File dir) {
+        File[] files = dir.listFiles((parent, name) -> name.startsWith(".") && name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.delete()) {
+                System.out.println("Fichier temporaire abandonné supprimé : " + file.getName());
+            }
+        }
+    }
+
+    // Nom temporaire caché à côté de target, unique pour les écritures concurrentes de la même cible
+    static File tempFileFor(File target) throws IOException {
+        return File.createTempFile("." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return commits + " publication(s) durable(s) en " + batches + " lot(s)";
+    }
+}
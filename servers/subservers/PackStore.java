@@ -0,0 +1,410 @@
+package servers.subservers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Petits fichiers regroupés dans des segments en ajout seul : <dirPath>/packs/segment-<n>, au plus
+// segmentSize octets chacun. Un fichier est une entrée (clé packs/<id>) à une position d'un segment : une
+// écriture ajoute à la fin du segment actif au lieu de créer une partie (et un inode) par fichier.
+// L'index des entrées est en mémoire et journalisé dans packs/index.journal ; l'entrée n'est inscrite au
+// journal qu'après la synchronisation de ses octets, un crash ne laisse au pire que des octets non référencés
+// en fin de segment. Seuls l'ajout des octets et la mise à jour de l'index prennent le verrou : les fsync
+// passent par le GroupCommitter, partagés entre les ajouts concurrents.
+// Le compactage recopie les entrées encore utilisées des segments dont au moins compactRatio des octets ne
+// le sont plus, puis supprime ces segments (à la passe suivante : une lecture en cours a pu les ouvrir).
+public class PackStore {
+
+    private static final String PREFIX = "packs/";
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    // Emplacement d'une entrée
+    static final class Slot {
+        final File segment;
+        final long position;
+        final int length;
+
+        Slot(File segment, long position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    // Octets écrits dans un segment, pas encore inscrits à l'index
+    private static final class Pending {
+        final int segment;
+        final FileChannel channel;
+        final long position;
+        final int length;
+
+        Pending(int segment, FileChannel channel, long position, int length) {
+            this.segment = segment;
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    private final File packsDir;
+    private final GroupCommitter committer;
+    private final long segmentSize;
+    private final double compactRatio;
+    private final File journalFile;
+    // ID -> {segment, position, longueur}
+    private final Map<String, long[]> entries = new HashMap<>();
+    // Octets encore référencés de chaque segment
+    private final Map<Integer, Long> liveBytes = new HashMap<>();
+    // Écritures pas encore inscrites à l'index, par segment : le compactage ne touche pas ces segments
+    private final Map<Integer, Integer> pendingWrites = new HashMap<>();
+    // Segments vidés par le compactage, supprimés à la passe suivante (thread de compactage seulement)
+    private final List<File> retired = new ArrayList<>();
+    private int activeSegment;
+    private FileChannel activeChannel;
+    private FileOutputStream journalStream;
+    private DataOutputStream journal;
+    private ScheduledExecutorService compactor;
+    private long reclaimedBytes;
+
+    public PackStore(String dirPath, GroupCommitter committer, long segmentSize, double compactRatio)
+            throws IOException {
+        this.packsDir = new File(dirPath, "packs");
+        this.committer = committer;
+        this.segmentSize = segmentSize;
+        this.compactRatio = compactRatio;
+        if (!packsDir.exists() && !packsDir.mkdirs()) {
+            throw new IOException("Impossible de créer " + packsDir);
+        }
+        this.journalFile = new File(packsDir, "index.journal");
+        replayJournal();
+        compactJournal();
+
+        File[] segments = packsDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (segments != null) {
+            for (File segment : segments) {
+                int number = segmentNumber(segment);
+                if (number < 0) {
+                    continue;
+                }
+                if (!liveBytes.containsKey(number) && number != lastSegment(segments)) {
+                    // Plus aucune entrée : segment vidé par un compactage avant un arrêt
+                    segment.delete();
+                } else {
+                    activeSegment = Math.max(activeSegment, number);
+                }
+            }
+        }
+        openSegment(Math.max(1, activeSegment));
+    }
+
+    // Compactage périodique dans un thread dédié
+    public void start(long intervalMs) {
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pack-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Compactage des segments impossible : " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+    }
+
+    // Clé d'une entrée : packs/<id>, l'ID en hexadécimal (jamais un chemin)
+    public static boolean isPackKey(String key) {
+        if (!key.startsWith(PREFIX) || key.length() == PREFIX.length() || key.length() > PREFIX.length() + 32) {
+            return false;
+        }
+        for (int i = PREFIX.length(); i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Ajoute l'entrée à la fin du segment actif ; une entrée de même clé (nouvel essai du master) est remplacée.
+    // Les octets sont synchronisés avant que l'entrée soit inscrite, puis le journal : deux fsync partagés
+    // avec les ajouts concurrents, faits hors du verrou
+    public void put(String key, byte[] data) throws IOException {
+        Pending write = write(data);
+        try {
+            committer.sync(write.channel);
+            record(key.substring(PREFIX.length()), write, null);
+        } finally {
+            finish(write);
+        }
+        committer.sync(journalStream.getChannel());
+    }
+
+    public synchronized Slot locate(String key) {
+        long[] entry = entries.get(key.substring(PREFIX.length()));
+        if (entry == null) {
+            return null;
+        }
+        return new Slot(segmentFile((int) entry[0]), entry[1], (int) entry[2]);
+    }
+
+    // Retire l'entrée de l'index ; ses octets sont récupérés au compactage de son segment
+    public boolean remove(String key) throws IOException {
+        String id = key.substring(PREFIX.length());
+        synchronized (this) {
+            long[] entry = entries.remove(id);
+            if (entry == null) {
+                return false;
+            }
+            addLive((int) entry[0], -entry[2]);
+            journal.writeUTF(id);
+            journal.writeInt((int) entry[0]);
+            journal.writeLong(entry[1]);
+            journal.writeInt(-1);
+            journal.flush();
+        }
+        committer.sync(journalStream.getChannel());
+        return true;
+    }
+
+    // Recopie les entrées des segments trop creux dans le segment actif, comme des ajouts : le verrou n'est
+    // pris que pour choisir les entrées, écrire leurs copies et les inscrire à l'index, jamais pendant la
+    // lecture d'un segment ou un fsync. Une entrée retirée ou remplacée entre-temps n'est pas réinscrite.
+    // Appelé par le seul thread de compactage
+    public void compact() throws IOException {
+        for (File segment : retired) {
+            segment.delete();
+        }
+        retired.clear();
+
+        File[] segments = packsDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX));
+        if (segments == null) {
+            return;
+        }
+        for (File segment : segments) {
+            int number = segmentNumber(segment);
+            long length = segment.length();
+            long live;
+            Map<String, long[]> moving = new HashMap<>();
+            synchronized (this) {
+                live = liveBytes.getOrDefault(number, 0L);
+                if (number < 0 || number == activeSegment || pendingWrites.containsKey(number) || length == 0
+                        || length - live < compactRatio * length) {
+                    continue;
+                }
+                for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                    if (entry.getValue()[0] == number) {
+                        moving.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            if (!moveEntries(segment, moving)) {
+                continue;
+            }
+            retired.add(segment);
+            synchronized (this) {
+                reclaimedBytes += length - live;
+            }
+            System.out.println("Compactage de " + segment.getName() + " : " + moving.size()
+                    + " entrée(s) recopiée(s), " + (length - live) + " octets récupérés.");
+        }
+    }
+
+    // Recopie les entrées du segment puis les inscrit à leur nouvel emplacement ; true si le segment ne
+    // contient plus aucune entrée
+    private boolean moveEntries(File segment, Map<String, long[]> moving) throws IOException {
+        List<Pending> writes = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        try {
+            try (FileChannel source = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+                for (Map.Entry<String, long[]> entry : moving.entrySet()) {
+                    long[] slot = entry.getValue();
+                    ByteBuffer data = ByteBuffer.allocate((int) slot[2]);
+                    while (data.hasRemaining()) {
+                        if (source.read(data, slot[1] + data.position()) < 0) {
+                            throw new EOFException("Segment " + segment.getName() + " tronqué.");
+                        }
+                    }
+                    writes.add(write(data.array()));
+                    ids.add(entry.getKey());
+                }
+            }
+            Set<FileChannel> channels = new LinkedHashSet<>();
+            for (Pending write : writes) {
+                channels.add(write.channel);
+            }
+            committer.sync(channels.toArray(new FileChannel[0]));
+            for (int i = 0; i < writes.size(); i++) {
+                record(ids.get(i), writes.get(i), moving.get(ids.get(i)));
+            }
+        } finally {
+            for (Pending write : writes) {
+                finish(write);
+            }
+        }
+        committer.sync(journalStream.getChannel());
+        synchronized (this) {
+            return !liveBytes.containsKey(segmentNumber(segment));
+        }
+    }
+
+    // Écrit les octets à la fin du segment actif. Un segment plein est synchronisé avant d'être fermé : les
+    // ajouts qui y attendent encore leur fsync sont alors déjà durables
+    private synchronized Pending write(byte[] data) throws IOException {
+        long position = activeChannel.size();
+        if (position > 0 && position + data.length > segmentSize) {
+            if (committer.isFsync()) {
+                activeChannel.force(false);
+            }
+            activeChannel.close();
+            openSegment(activeSegment + 1);
+            position = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            activeChannel.write(buffer, position + buffer.position());
+        }
+        pendingWrites.merge(activeSegment, 1, Integer::sum);
+        return new Pending(activeSegment, activeChannel, position, data.length);
+    }
+
+    // Inscrit l'entrée, dont les octets sont durables, à l'index et au journal (non synchronisé). expected :
+    // emplacement que l'entrée doit encore avoir (recopie du compactage), null pour un ajout
+    private synchronized void record(String id, Pending write, long[] expected) throws IOException {
+        if (expected != null && entries.get(id) != expected) {
+            return;
+        }
+        long[] previous = entries.put(id, new long[] { write.segment, write.position, write.length });
+        if (previous != null) {
+            addLive((int) previous[0], -previous[2]);
+        }
+        addLive(write.segment, write.length);
+        journal.writeUTF(id);
+        journal.writeInt(write.segment);
+        journal.writeLong(write.position);
+        journal.writeInt(write.length);
+        journal.flush();
+    }
+
+    private synchronized void finish(Pending write) {
+        pendingWrites.merge(write.segment, -1, (pending, done) -> pending + done == 0 ? null : pending + done);
+    }
+
+    // Un segment sans octets référencés disparaît de liveBytes
+    private void addLive(int segment, long delta) {
+        liveBytes.merge(segment, delta, (live, added) -> live + added == 0 ? null : live + added);
+    }
+
+    private void openSegment(int number) throws IOException {
+        activeSegment = number;
+        activeChannel = FileChannel.open(segmentFile(number).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        // Un nouveau segment doit survivre à un crash avant que le journal n'y renvoie
+        committer.syncDirectory(packsDir);
+    }
+
+    private File segmentFile(int number) {
+        return new File(packsDir, String.format(SEGMENT_PREFIX + "%06d", number));
+    }
+
+    private static int segmentNumber(File segment) {
+        try {
+            return Integer.parseInt(segment.getName().substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int lastSegment(File[] segments) {
+        int last = -1;
+        for (File segment : segments) {
+            last = Math.max(last, segmentNumber(segment));
+        }
+        return last;
+    }
+
+    // Un enregistrement incomplet en fin de journal (crash pendant l'écriture) est ignoré
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(journalFile), 1 << 16))) {
+            while (true) {
+                String id;
+                long[] slot;
+                try {
+                    id = in.readUTF();
+                    slot = new long[] { in.readInt(), in.readLong(), in.readInt() };
+                } catch (EOFException e) {
+                    break;
+                }
+                long[] previous = slot[2] < 0 ? entries.remove(id) : entries.put(id, slot);
+                if (previous != null) {
+                    addLive((int) previous[0], -previous[2]);
+                }
+                if (slot[2] >= 0) {
+                    addLive((int) slot[0], slot[2]);
+                }
+            }
+        }
+    }
+
+    // Réécrit le journal avec un seul enregistrement par entrée, puis le publie par renommage atomique
+    private void compactJournal() throws IOException {
+        File tmp = new File(packsDir, "index.journal.tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt((int) entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+                out.writeInt((int) entry.getValue()[2]);
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tmp.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        journalStream = new FileOutputStream(journalFile, true);
+        journal = new DataOutputStream(new BufferedOutputStream(journalStream, 1 << 16));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.size() + " petit(s) fichier(s) dans " + liveBytes.size() + " segment(s), "
+                + (reclaimedBytes >> 10) + " Kio récupérés par compactage";
+    }
+}
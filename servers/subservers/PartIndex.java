@@ -0,0 +1,171 @@
+package servers.subservers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Index d'une partie écrite par UPLOAD_AT, dans <partie>.crc : pour chaque trame, sa longueur sur le disque,
+// le CRC32C de ses octets d'origine, sa longueur d'origine et son codec (0 = trame brute).
+// Format : [int -2][int nombre]([int longueur stockée][int crc][int longueur][byte codec])...
+// L'ancien format [int nombre]([int longueur][int crc])..., où toutes les trames sont brutes, est encore lu.
+// Le master ne connaît que les positions d'origine : l'index les traduit en positions dans le fichier.
+class PartIndex {
+
+    static final String SUFFIX = ".crc";
+
+    private static final int FORMAT_CODECS = -2;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long rawSize;
+    private long storedSize;
+
+    static class Entry {
+        final int storedLength;
+        final int crc;
+        final int rawLength;
+        final byte codecId;
+        final long rawOffset;
+        final long storedOffset;
+
+        Entry(int storedLength, int crc, int rawLength, byte codecId, long rawOffset, long storedOffset) {
+            this.storedLength = storedLength;
+            this.crc = crc;
+            this.rawLength = rawLength;
+            this.codecId = codecId;
+            this.rawOffset = rawOffset;
+            this.storedOffset = storedOffset;
+        }
+
+        boolean isCompressed() {
+            return codecId != 0;
+        }
+    }
+
+    // Index de la partie, vide si elle n'en a pas
+    static PartIndex load(File part) throws IOException {
+        PartIndex index = new PartIndex();
+        File indexFile = fileFor(part);
+        if (!indexFile.exists()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            int first = in.readInt();
+            boolean withCodecs = first == FORMAT_CODECS;
+            int count = withCodecs ? in.readInt() : first;
+            for (int i = 0; i < count; i++) {
+                int storedLength = in.readInt();
+                int crc = in.readInt();
+                if (withCodecs) {
+                    index.add(storedLength, crc, in.readInt(), in.readByte());
+                } else {
+                    index.add(storedLength, crc, storedLength, (byte) 0);
+                }
+            }
+        }
+        return index;
+    }
+
+    // Index pour lire la partie, ou null si elle n'en a pas ou s'il ne correspond pas au fichier : le fichier
+    // est alors lu tel quel
+    static PartIndex forReading(File part) throws IOException {
+        if (!fileFor(part).exists()) {
+            return null;
+        }
+        PartIndex index = load(part);
+        return index.storedSize == part.length() ? index : null;
+    }
+
+    static File fileFor(File part) {
+        return new File(part.getPath() + SUFFIX);
+    }
+
+    void add(int storedLength, int crc, int rawLength, byte codecId) {
+        entries.add(new Entry(storedLength, crc, rawLength, codecId, rawSize, storedSize));
+        rawSize += rawLength;
+        storedSize += storedLength;
+    }
+
+    // Garde les trames d'avant rawOffset, qui doit tomber sur une limite de trame ; retourne la position
+    // correspondante dans le fichier
+    long truncate(long rawOffset) throws IOException {
+        int kept = 0;
+        while (kept < entries.size() && entries.get(kept).rawOffset < rawOffset) {
+            kept++;
+        }
+        long end = kept == entries.size() ? rawSize : entries.get(kept).rawOffset;
+        if (end != rawOffset) {
+            throw new IOException("Position " + rawOffset + " hors d'une limite de trame.");
+        }
+        long storedEnd = kept == entries.size() ? storedSize : entries.get(kept).storedOffset;
+        entries.subList(kept, entries.size()).clear();
+        rawSize = rawOffset;
+        storedSize = storedEnd;
+        return storedEnd;
+    }
+
+    // Trames qui recouvrent la plage [rawOffset, rawOffset + length) des octets d'origine
+    List<Entry> covering(long rawOffset, long length) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.rawOffset + entry.rawLength > rawOffset && entry.rawOffset < rawOffset + length) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    // Écrit l'index à côté de la partie sous un nom temporaire, puis le publie avec les données de la partie,
+    // écrites dans dataTmp : les deux sont synchronisés sur disque et renommés (les données d'abord) dans le
+    // même lot que les autres uploads
+    void save(File part, File dataTmp, FileChannel dataChannel, GroupCommitter committer) throws IOException {
+        File indexFile = fileFor(part);
+        File tmp = GroupCommitter.tempFileFor(indexFile);
+        try (FileChannel indexChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(indexChannel)));
+            out.writeInt(FORMAT_CODECS);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeInt(entry.storedLength);
+                out.writeInt(entry.crc);
+                out.writeInt(entry.rawLength);
+                out.writeByte(entry.codecId);
+            }
+            out.flush();
+            committer.commit(new FileChannel[] { dataChannel, indexChannel }, new File[] { dataTmp, tmp },
+                    new File[] { part, indexFile });
+        } finally {
+            tmp.delete(); // Sans effet une fois renommé
+        }
+    }
+
+    boolean isCompressed() {
+        for (Entry entry : entries) {
+            if (entry.isCompressed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    long getRawSize() {
+        return rawSize;
+    }
+
+    long getStoredSize() {
+        return storedSize;
+    }
+}
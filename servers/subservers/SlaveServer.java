@@ -2,13 +2,35 @@ package servers.subservers;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
 
 import config.ConfigLoader;
+import protocol.AccessToken;
+import protocol.ChunkCodec;
+import protocol.Compression;
+import servers.Metrics;
+import servers.RequestExecutor;
 
 public class SlaveServer {
 
+    // Taille maximale d'une trame décompressée
+    private static final int MAX_FRAME = 1 << 30;
+    // Extension du fichier temporaire d'un segment, réservée avant d'y écrire les trames
+    private static final long PREALLOCATION = 8L << 20;
+
     private String slaveId;
     private String host; // IP du SlaveServer
     private int port; // Port du SlaveServer
@@ -16,6 +38,22 @@ public class SlaveServer {
     private String dirPath;
     private Socket socket; // Socket pour se connecter au MasterServer
     private ConfigLoader configLoader;
+    private ChunkStore chunkStore;
+    private PackStore packStore;
+    // Renommages des fichiers reçus, rendus durables par lots
+    private GroupCommitter groupCommitter;
+    private RequestExecutor requestExecutor;
+    // Compression acceptée quand le master la propose (null : connexions toujours brutes)
+    private Compression compression;
+    private boolean compressedStorage;
+    // Secret des jetons présentés par les clients en transfert direct (vide : refusés)
+    private String directSecret;
+    // Durée de chaque commande et octets échangés, exposés par STATS et en JMX
+    private Metrics metrics;
+    private Map<String, Metrics.Histogram> commandLatencies = new ConcurrentHashMap<>();
+    private LongAdder bytesReceived;
+    private LongAdder bytesSent;
+    private LongAdder connectionErrors;
 
     // slaveId eg : slave1, slave2
     public SlaveServer(String configPath, String slaveId) {
@@ -26,6 +64,50 @@ public class SlaveServer {
         this.setPort(configLoader.getSlavePort(slaveId));
         this.setDirPath(configLoader.getSlaveDirPath(slaveId));
         updateSaveDir();
+        this.setRequestExecutor(new RequestExecutor(slaveId, configLoader));
+        ChunkCodec codec = Compression.codec(configLoader.getCompression());
+        if (codec != null) {
+            this.setCompression(new Compression(codec, configLoader.getCompressionMaxRatio(),
+                    configLoader.getCompressionSampleSize()));
+        }
+        this.compressedStorage = configLoader.isCompressedStorage();
+        this.directSecret = configLoader.getDirectSecret();
+        this.setGroupCommitter(new GroupCommitter(slaveId, configLoader.isSlaveFsync()));
+        GroupCommitter.deleteLeftovers(new File(dirPath));
+        try {
+            this.setChunkStore(new ChunkStore(dirPath, groupCommitter));
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossible d'ouvrir le stockage des chunks : " + e.getMessage(), e);
+        }
+        try {
+            this.setPackStore(new PackStore(dirPath, groupCommitter, configLoader.getPackSegmentSize(),
+                    configLoader.getPackCompactRatio()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Impossible d'ouvrir les segments de pack : " + e.getMessage(), e);
+        }
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        this.metrics = new Metrics(slaveId);
+        for (String command : new String[] { "UPLOAD_AT", "CLIENT_UPLOAD_AT", "PART_FRAMES", "READ_RANGE",
+                "CLIENT_READ_RANGE", "CLAIM_CHUNKS", "PUT_CHUNK", "PACK_PUT", "RELEASE_CHUNKS", "COMPRESS",
+                "STATUS", "PING", "REMOVE_PART", "STATS", "AUTH", "other" }) {
+            commandLatencies.put(command, metrics.histogram("cmd." + command));
+        }
+        bytesReceived = metrics.counter("bytesReceived");
+        bytesSent = metrics.counter("bytesSent");
+        connectionErrors = metrics.counter("connectionErrors");
+        metrics.gauge("executor.busy", requestExecutor::getBusyCount);
+        metrics.gauge("executor.admitted", requestExecutor::getAdmitted);
+        metrics.gauge("executor.waiting", requestExecutor::getWaiting);
+        metrics.gauge("executor.rejected", requestExecutor::getRejected);
+        metrics.gauge("executor.rejectedRequests", requestExecutor::getRejectedRequests);
+        metrics.gauge("commit.commits", groupCommitter::getCommits);
+        metrics.gauge("commit.batches", groupCommitter::getBatches);
+        metrics.gauge("chunks.stored", chunkStore::size);
+        metrics.gauge("packs.entries", packStore::size);
+        metrics.gauge("disk.usableBytes", () -> new File(dirPath).getUsableSpace());
     }
 
     public SlaveServer(Socket socket) {
@@ -35,30 +117,53 @@ public class SlaveServer {
     public void start() {
         System.out.println("SlaveServer starting...");
 
+        // Arrêt propre (Ctrl+C, SIGTERM) : les écritures en cours se terminent avant la fermeture
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, slaveId + "-shutdown"));
+        packStore.start(configLoader.getPackCompactIntervalMs());
+        metrics.registerMBean();
+
         try {
-            // Démarrage du ServerSocket
-            serverSocket = new ServerSocket(port, 1, InetAddress.getByName(host));
+            // Démarrage du ServerSocket (via un channel pour pouvoir utiliser transferTo/transferFrom)
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(InetAddress.getByName(host), port),
+                    configLoader.getAcceptBacklog());
+            serverSocket = serverChannel.socket();
             System.out.println("SlaveServer running at " + host + ":" + port);
             System.out.println("Waiting for MasterServer connections...");
 
             // Boucle infinie pour gérer les connexions
-            while (true) {
+            while (!requestExecutor.isShuttingDown()) {
                 // Accepter une connexion du MasterServer
-                socket = serverSocket.accept();
-                System.out.println("MasterServer connected: " + socket.getInetAddress());
-
-                // Démarrer un thread pour gérer cette connexion
-                Thread masterHandler = new Thread(() -> handleMasterConnection(socket));
-                masterHandler.start();
+                Socket masterSocket = serverChannel.accept().socket();
+                socket = masterSocket;
+                System.out.println("MasterServer connected: " + masterSocket.getInetAddress());
+
+                // Confier cette connexion au moteur d'exécution ; refusée s'il est saturé
+                if (!requestExecutor.submit(masterSocket, () -> handleMasterConnection(masterSocket))) {
+                    System.err.println("Connexion refusée (slave saturé) : " + masterSocket.getRemoteSocketAddress());
+                    masterSocket.close();
+                }
             }
 
         } catch (IOException e) {
-            System.err.println("Error in SlaveServer: " + e.getMessage());
+            if (!requestExecutor.isShuttingDown()) {
+                System.err.println("Error in SlaveServer: " + e.getMessage());
+            }
         } finally {
             closeServerSocket();
         }
     }
 
+    // Arrête d'accepter des connexions et laisse finir les requêtes en cours
+    public void stop() {
+        System.out.println("SlaveServer " + slaveId + " stopping...");
+        closeServerSocket();
+        requestExecutor.shutdown();
+        packStore.stop();
+        metrics.unregisterMBean();
+        System.out.println("SlaveServer " + slaveId + " stopped (" + groupCommitter + ", " + packStore + ").");
+    }
+
     private void closeServerSocket() {
         try {
             if (serverSocket != null) {
@@ -70,91 +175,223 @@ public class SlaveServer {
     }
 
     private void handleMasterConnection(Socket masterSocket) {
+        // Les en-têtes passent par les streams (non bufferisés), les données par le channel
+        SocketChannel channel = masterSocket.getChannel();
         try (
-                DataInputStream inputStream = new DataInputStream(masterSocket.getInputStream());
-                DataOutputStream outputStream = new DataOutputStream(masterSocket.getOutputStream())) {
+                DataInputStream inputStream = new DataInputStream(
+                        new Metrics.CountingInputStream(masterSocket.getInputStream(), bytesReceived));
+                DataOutputStream outputStream = new DataOutputStream(
+                        new Metrics.CountingOutputStream(masterSocket.getOutputStream(), bytesSent))) {
             System.out.println("Handling communication with MasterServer...");
 
+            // Compression négociée sur cette connexion : les trames de chunks portent alors un octet de codec
+            Compression connectionCompression = null;
+            // Avec un directSecret, les clients des transferts directs partagent ce port : seules leurs commandes,
+            // vérifiées par jeton, sont acceptées tant que la connexion ne s'est pas authentifiée comme master
+            boolean fromMaster = directSecret.isEmpty();
+
             // Lire et traiter les messages du MasterServer
-            String message;
-            while ((message = inputStream.readUTF()) != null) {
-                System.out.println("Message from MasterServer: " + message);
-
-                // Traiter la commande UPLOAD
-                if (message.startsWith("UPLOAD")) {
-                    String fileName = inputStream.readUTF(); // Nom du fichier à recevoir
-                    long fileSize = inputStream.readLong(); // Taille du fichier à recevoir
-                    System.out
-                            .println("Commande UPLOAD reçue. Nom du fichier : " + fileName + ", Taille : " + fileSize);
-
-                    // Stocker le fichier dans le répertoire local
-                    String saveDir = configLoader.getSlaveDirPath(this.getSlaveId()); 
-                                                                                      
-                    File file = new File(saveDir, fileName);
-
-                    try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-                        byte[] buffer = new byte[4096];
-                        long totalRead = 0;
-                        int bytesRead;
-
-                        while (totalRead < fileSize && (bytesRead = inputStream.read(buffer)) > 0) {
-                            fileOutputStream.write(buffer, 0, bytesRead);
-                            totalRead += bytesRead;
-                        }
+            String message = null;
+            long commandStart = 0;
+            while (!requestExecutor.isShuttingDown()) {
+                // La commande précédente est terminée (les branches sortent par continue ou en fin de boucle)
+                if (message != null) {
+                    commandLatencies.getOrDefault(message, commandLatencies.get("other")).recordSince(commandStart);
+                }
+                // Inactive tant qu'elle attend une commande : ne tient pas de place, fermée tout de suite à l'arrêt
+                requestExecutor.endRequest(masterSocket);
+                message = inputStream.readUTF();
+                commandStart = System.nanoTime();
+                if (!requestExecutor.beginRequest(masterSocket)) {
+                    // Les arguments ne sont pas lus : la connexion est fermée, le master la retire de son pool
+                    System.err.println("Commande " + message + " refusée (slave saturé).");
+                    break;
+                }
+                if (!"PING".equals(message) && !"STATUS".equals(message)) {
+                    System.out.println("Message from MasterServer: " + message);
+                }
 
-                        if (totalRead == fileSize) {
-                            System.out.println("Fichier " + fileName + " reçu avec succès.");
-                            outputStream.writeUTF("UPLOAD_SUCCESS " + fileName);
-                        } else {
-                            System.err.println("Erreur : Fichier " + fileName + " incomplet.");
-                            outputStream.writeUTF("UPLOAD_FAILED " + fileName);
-                        }
-                    } catch (IOException e) {
-                        System.err.println("Erreur lors de la réception du fichier : " + e.getMessage());
-                        outputStream.writeUTF("UPLOAD_FAILED " + fileName);
+                if ("AUTH".equals(message)) {
+                    // Défi-réponse : le master prouve qu'il connaît directSecret sans l'envoyer
+                    String challenge = AccessToken.newChallenge();
+                    outputStream.writeUTF(challenge);
+                    outputStream.flush();
+                    fromMaster = AccessToken.verifyAnswer(directSecret, challenge, inputStream.readUTF());
+                    outputStream.writeBoolean(fromMaster);
+                    outputStream.flush();
+                    if (!fromMaster) {
+                        System.err.println("Authentification refusée : " + masterSocket.getRemoteSocketAddress());
+                        break;
                     }
-                } else if (message.startsWith("DOWNLOAD_PART")) {
-                    // Extraire le nom du fichier demandé
+                    continue;
+                }
+                if (!fromMaster && !"CLIENT_UPLOAD_AT".equals(message) && !"CLIENT_READ_RANGE".equals(message)) {
+                    // Arguments non lus : la connexion est fermée
+                    System.err.println("Commande " + message + " refusée : connexion non authentifiée ("
+                            + masterSocket.getRemoteSocketAddress() + ").");
+                    break;
+                }
+
+                if ("UPLOAD_AT".equals(message)) {
+                    // Segment d'une partie à partir de partOffset, en trames [int longueur][octets] terminées par 0
                     String fileName = inputStream.readUTF();
-                    System.out.println("Master requested file: " + fileName);
+                    long partOffset = inputStream.readLong();
+                    System.out.println("Commande UPLOAD_AT reçue. Partie : " + fileName + ", position : " + partOffset);
+                    if (!receiveSegment(channel, inputStream, outputStream, fileName, partOffset,
+                            connectionCompression)) {
+                        break;
+                    }
 
-                    // Vérifier si le fichier existe localement
-                    File file = new File(configLoader.getSlaveDirPath(this.getSlaveId()), fileName);
-                    if (!file.exists()) {
-                        System.err.println("File " + fileName + " not found.");
-                        outputStream.writeUTF("ERROR: File not found.");
+                } else if ("CLIENT_UPLOAD_AT".equals(message)) {
+                    // Upload direct d'un client : même segment qu'UPLOAD_AT (trames brutes), avec un jeton
+                    // d'écriture signé par le master pour cette partie. Le client attend UPLOAD_READY pour envoyer.
+                    String fileName = inputStream.readUTF();
+                    long partOffset = inputStream.readLong();
+                    long expiresAt = inputStream.readLong();
+                    String token = inputStream.readUTF();
+                    if (!AccessToken.verify(directSecret, AccessToken.WRITE, fileName, expiresAt, token)) {
+                        System.err.println("Jeton d'écriture refusé pour " + fileName + ".");
+                        outputStream.writeUTF("ERROR: Invalid or expired token.");
                         outputStream.flush();
-                        continue;
+                        break;
+                    }
+                    outputStream.writeUTF("UPLOAD_READY");
+                    outputStream.flush();
+                    if (!receiveSegment(channel, inputStream, outputStream, fileName, partOffset, null)) {
+                        break;
                     }
 
-                    // Lire le contenu du fichier
-                    try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                        byte[] fileData = fileInputStream.readAllBytes();
+                } else if ("PART_FRAMES".equals(message)) {
+                    // Trames d'une partie d'après son index : le master vérifie un upload direct avant de le publier
+                    String fileName = inputStream.readUTF();
+                    File file = new File(this.getDirPath(), fileName);
+                    PartIndex index = file.exists() ? PartIndex.forReading(file) : null;
+                    if (index == null) {
+                        outputStream.writeInt(-1);
+                    } else {
+                        outputStream.writeInt(index.getEntries().size());
+                        for (PartIndex.Entry entry : index.getEntries()) {
+                            outputStream.writeLong(entry.rawOffset);
+                            outputStream.writeInt(entry.rawLength);
+                            outputStream.writeInt(entry.crc);
+                        }
+                    }
+                    outputStream.flush();
 
-                        System.out.println("File name: " + fileName);
-                        System.out.println("Actual file size: " + file.length());
-                        System.out.println("Sending file size: " + fileData.length);
+                } else if ("READ_RANGE".equals(message)) {
+                    // Lecture positionnelle d'une plage d'une partie (un chunk ou une partie de chunk)
+                    String fileName = inputStream.readUTF();
+                    long offset = inputStream.readLong();
+                    long length = inputStream.readLong();
+                    sendRangeReply(channel, outputStream, fileName, offset, length, connectionCompression);
 
-                        // Envoyer la taille et les données
-                        outputStream.writeInt(fileData.length);
+                } else if ("CLIENT_READ_RANGE".equals(message)) {
+                    // Download direct d'un client : même réponse que READ_RANGE (brute), avec un jeton de lecture
+                    String fileName = inputStream.readUTF();
+                    long offset = inputStream.readLong();
+                    long length = inputStream.readLong();
+                    long expiresAt = inputStream.readLong();
+                    String token = inputStream.readUTF();
+                    if (!AccessToken.verify(directSecret, AccessToken.READ, fileName, expiresAt, token)) {
+                        System.err.println("Jeton de lecture refusé pour " + fileName + ".");
+                        outputStream.writeLong(-1);
                         outputStream.flush();
+                        continue;
+                    }
+                    sendRangeReply(channel, outputStream, fileName, offset, length, null);
+
+                } else if ("CLAIM_CHUNKS".equals(message)) {
+                    // Déduplication : quels chunks sont déjà présents (chacun gagne une référence)
+                    String[] chunkIds = readChunkIds(inputStream);
+                    boolean[] present = chunkStore.claim(chunkIds);
+                    for (boolean chunkPresent : present) {
+                        outputStream.writeBoolean(chunkPresent);
+                    }
+                    outputStream.flush();
 
-                        System.out.println("Sending file data...");
-                        outputStream.write(fileData);
-                        outputStream.flush();
+                } else if ("PUT_CHUNK".equals(message)) {
+                    String chunkId = inputStream.readUTF();
+                    long length = inputStream.readLong();
+                    if (!ChunkStore.isChunkId(chunkId)) {
+                        // Consommer les octets pour rester synchronisé avec le master
+                        inputStream.skipNBytes(length);
+                        outputStream.writeBoolean(false);
+                    } else {
+                        outputStream.writeBoolean(chunkStore.put(chunkId, channel, length));
+                        bytesReceived.add(length);
+                    }
+                    outputStream.flush();
 
-                        System.out.println("File data sent successfully.");
+                } else if ("PACK_PUT".equals(message)) {
+                    // Petit fichier ajouté à un segment de pack : [UTF clé][int longueur][octets]
+                    String key = inputStream.readUTF();
+                    int length = inputStream.readInt();
+                    if (!PackStore.isPackKey(key) || length < 0 || length > MAX_FRAME) {
+                        System.err.println("Entrée de pack invalide : " + key + " (" + length + " octets).");
+                        break;
+                    }
+                    byte[] data = new byte[length];
+                    inputStream.readFully(data);
+                    try {
+                        packStore.put(key, data);
+                        outputStream.writeBoolean(true);
                     } catch (IOException e) {
-                        System.err.println("Error sending file: " + e.getMessage());
+                        System.err.println("Erreur lors de l'ajout de " + key + " : " + e.getMessage());
+                        outputStream.writeBoolean(false);
+                    }
+                    outputStream.flush();
+
+                } else if ("RELEASE_CHUNKS".equals(message)) {
+                    String[] chunkIds = readChunkIds(inputStream);
+                    int deleted = chunkStore.release(chunkIds);
+                    System.out.println(chunkIds.length + " référence(s) de chunks libérée(s), " + deleted
+                            + " chunk(s) supprimé(s).");
+                    outputStream.writeInt(deleted);
+                    outputStream.flush();
+
+                } else if ("COMPRESS".equals(message)) {
+                    // Le master propose un codec pour les trames de chunks de cette connexion
+                    ChunkCodec codec = Compression.codec(inputStream.readUTF());
+                    if (codec != null && compression != null) {
+                        connectionCompression = compression.withCodec(codec);
+                        outputStream.writeUTF("COMPRESS_OK");
+                    } else {
+                        outputStream.writeUTF("COMPRESS_NONE");
                     }
+                    outputStream.flush();
+
+                } else if ("STATUS".equals(message)) {
+                    // Heartbeat du master : espace libre et charge, pour répartir les prochains uploads
+                    outputStream.writeUTF("STATUS_OK");
+                    outputStream.writeLong(new File(this.getDirPath()).getUsableSpace());
+                    outputStream.writeInt(Math.max(0, requestExecutor.getBusyCount() - 1));
+                    outputStream.flush();
+
+                } else if ("STATS".equals(message)) {
+                    // Rapport des mesures de ce slave, relayé au client par la commande STATS du master
+                    outputStream.writeUTF(metrics.getReport());
+                    outputStream.flush();
+
+                } else if ("PING".equals(message)) {
+                    // Vérification de santé du pool de connexions du master
+                    outputStream.writeUTF("PONG");
+                    outputStream.flush();
 
                 } else if ("REMOVE_PART".equalsIgnoreCase(message)) {
                     String fileName = inputStream.readUTF();
                     System.out.println("Deleting part of the file:" + fileName);
+                    if (PackStore.isPackKey(fileName)) {
+                        outputStream.writeBoolean(packStore.remove(fileName));
+                        outputStream.flush();
+                        continue;
+                    }
 
                     // Définir l'emplacement du fichier sur le slave
                     File fileToRemove = new File(this.getDirPath(), fileName);
 
+                    // Les CRC de la partie disparaissent avec elle
+                    PartIndex.fileFor(fileToRemove).delete();
+
                     // Vérifier si le fichier existe
                     if (fileToRemove.exists()) {
                         // Supprimer le fichier
@@ -178,10 +415,294 @@ public class SlaveServer {
             }
 
         } catch (IOException e) {
+            connectionErrors.increment();
             System.err.println("Connection with MasterServer lost: " + e.getMessage());
         }
     }
 
+    // Reçoit un segment d'UPLOAD_AT et répond avec les CRC des trames ; false si la connexion doit être fermée
+    // (position dans le flux inconnue après une erreur)
+    private boolean receiveSegment(SocketChannel channel, DataInputStream inputStream, DataOutputStream outputStream,
+            String fileName, long partOffset, Compression connectionCompression) throws IOException {
+        File file = new File(this.getDirPath(), fileName);
+        try {
+            int[] crcs = receiveFrames(channel, inputStream, file, partOffset, connectionCompression);
+            System.out.println("Partie " + fileName + " : " + crcs.length + " trame(s) reçue(s).");
+            outputStream.writeUTF("UPLOAD_SUCCESS " + fileName);
+            outputStream.writeInt(crcs.length);
+            for (int crc : crcs) {
+                outputStream.writeInt(crc);
+            }
+            outputStream.flush();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Erreur lors de la réception de " + fileName + " : " + e.getMessage());
+            outputStream.writeUTF("UPLOAD_FAILED " + fileName);
+            outputStream.flush();
+            return false;
+        }
+    }
+
+    // Réponse à READ_RANGE : [long longueur] (-1 si la plage n'existe pas) puis les octets, envoyés du fichier
+    // vers la socket par le noyau quand ni la partie ni la connexion ne sont compressées
+    private void sendRangeReply(SocketChannel channel, DataOutputStream outputStream, String fileName, long offset,
+            long length, Compression connectionCompression) throws IOException {
+        File file = new File(this.getDirPath(), fileName);
+        PartIndex index = null;
+        long base = 0; // Position de l'objet dans le fichier (entrée d'un segment de pack)
+        long size;
+        PackStore.Slot slot = PackStore.isPackKey(fileName) ? packStore.locate(fileName) : null;
+        if (slot != null) {
+            file = slot.segment;
+            base = slot.position;
+            size = slot.length;
+        } else {
+            index = file.exists() ? PartIndex.forReading(file) : null;
+            size = index != null ? index.getRawSize() : file.length();
+        }
+        // Comparé à size - offset pour qu'une longueur proche de Long.MAX_VALUE ne déborde pas ; au plus une
+        // trame, la plage pouvant être lue en mémoire
+        if (!file.exists() || offset < 0 || length < 0 || length > size - offset || length > MAX_FRAME) {
+            System.err.println("Range " + offset + "+" + length + " of " + fileName + " not available.");
+            outputStream.writeLong(-1);
+            outputStream.flush();
+            return;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            outputStream.writeLong(length);
+            if (connectionCompression != null || (index != null && index.isCompressed())) {
+                sendRange(fileChannel, channel, outputStream, index, base + offset, (int) length,
+                        connectionCompression);
+                return;
+            }
+            outputStream.flush();
+
+            long totalSent = 0;
+            long bytesSent;
+            while (totalSent < length
+                    && (bytesSent = fileChannel.transferTo(base + offset + totalSent, length - totalSent,
+                            channel)) > 0) {
+                totalSent += bytesSent;
+            }
+            this.bytesSent.add(totalSent);
+            if (totalSent != length) {
+                throw new IOException("File " + fileName + " truncated while sending range.");
+            }
+        }
+    }
+
+    // Chaque segment est écrit dans un fichier temporaire : sur une reprise, les trames confirmées de la partie
+    // (avant partOffset) y sont d'abord recopiées par le noyau, puis chaque trame reçue est écrite à la suite,
+    // son CRC32C étant calculé au passage. Sur une connexion compressée, chaque trame porte [byte codec] et,
+    // si elle est compressée, [int longueur d'origine] : elle est décompressée pour vérifier son CRC puis
+    // écrite telle quelle (compressedStorage) ou décompressée. Le fichier reçoit sa taille par extensions de
+    // PREALLOCATION octets avant les données, puis est ramené à sa taille finale.
+    // En fin de segment, le fichier et son index sont synchronisés et publiés par le GroupCommitter : la partie
+    // publiée n'est jamais réécrite, une lecture voit l'ancienne ou la nouvelle. Un segment interrompu
+    // laisse l'ancienne partie intacte. Retourne les CRC des octets d'origine des trames reçues
+    private int[] receiveFrames(SocketChannel channel, DataInputStream inputStream, File file, long partOffset,
+            Compression connectionCompression) throws IOException {
+        PartIndex index = PartIndex.load(file);
+        if (partOffset > 0 && (index.getRawSize() < partOffset || !file.exists())) {
+            throw new IOException("Reprise impossible de " + file.getName() + " à " + partOffset);
+        }
+        long position = index.truncate(partOffset);
+        if (position > 0 && file.length() < position) {
+            throw new IOException("Reprise impossible de " + file.getName() + " à " + partOffset);
+        }
+        List<Integer> crcs = new ArrayList<>();
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        File tmp = GroupCommitter.tempFileFor(file);
+        // Ouvert par NIO, qui permet de le renommer pendant que le GroupCommitter le garde ouvert pour le fsync
+        try (FileChannel fileChannel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+            if (position > 0) {
+                copyPrefix(file, fileChannel, position);
+            }
+            long allocated = position;
+            int length;
+            while ((length = inputStream.readInt()) != 0) {
+                if (length < 0 || length > MAX_FRAME) {
+                    throw new IOException("Trame invalide : " + length);
+                }
+                if (position + length > allocated) {
+                    allocated = preallocate(fileChannel, Math.max(position + length, allocated + PREALLOCATION));
+                }
+                byte codecId = connectionCompression != null ? inputStream.readByte() : 0;
+                crc.reset();
+                if (codecId != 0) {
+                    int rawLength = inputStream.readInt();
+                    if (rawLength < length || rawLength > MAX_FRAME) {
+                        throw new IOException("Trame compressée invalide : " + length + "/" + rawLength);
+                    }
+                    byte[] stored = new byte[length];
+                    inputStream.readFully(stored);
+                    byte[] raw = new byte[rawLength];
+                    Compression.decompress(codecId, stored, 0, length, raw, 0, rawLength);
+                    crc.update(raw);
+                    if (!compressedStorage && position + rawLength > allocated) {
+                        allocated = preallocate(fileChannel, position + rawLength);
+                    }
+                    byte[] written = compressedStorage ? stored : raw;
+                    position += writeFully(fileChannel, ByteBuffer.wrap(written), position);
+                    if (compressedStorage) {
+                        index.add(length, (int) crc.getValue(), rawLength, codecId);
+                    } else {
+                        index.add(rawLength, (int) crc.getValue(), rawLength, (byte) 0);
+                    }
+                } else {
+                    long remaining = length;
+                    while (remaining > 0) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                        if (channel.read(buffer) < 0) {
+                            throw new EOFException("Trame incomplète pour " + file.getName());
+                        }
+                        buffer.flip();
+                        remaining -= buffer.remaining();
+                        bytesReceived.add(buffer.remaining());
+                        crc.update(buffer.duplicate());
+                        position += writeFully(fileChannel, buffer, position);
+                    }
+                    index.add(length, (int) crc.getValue(), length, (byte) 0);
+                }
+                crcs.add((int) crc.getValue());
+            }
+            fileChannel.truncate(position);
+            // Les trames ne comptent qu'une fois l'index publié : un crash avant laisse l'ancienne partie et
+            // son index, et le fichier temporaire est supprimé au redémarrage
+            index.save(file, tmp, fileChannel, groupCommitter);
+        } finally {
+            tmp.delete(); // Sans effet une fois renommé
+        }
+
+        int[] result = new int[crcs.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = crcs.get(i);
+        }
+        return result;
+    }
+
+    // Donne au fichier la taille size (sans écrire les octets d'avant : le système les réserve à l'écriture)
+    private static long preallocate(FileChannel fileChannel, long size) throws IOException {
+        fileChannel.write(ByteBuffer.allocate(1), size - 1);
+        return size;
+    }
+
+    // Recopie les length premiers octets de la partie publiée dans le fichier temporaire d'une reprise
+    private static void copyPrefix(File file, FileChannel target, long length) throws IOException {
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < length) {
+                long count = source.transferTo(copied, length - copied, target);
+                if (count <= 0) {
+                    throw new EOFException("Partie " + file.getName() + " plus courte que son index.");
+                }
+                copied += count;
+            }
+        }
+    }
+
+    private static int writeFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += fileChannel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    // Réponse à READ_RANGE quand la partie a des trames compressées ou que la connexion est compressée.
+    // Sur une connexion compressée la plage est précédée de [byte codec] (0 = brute) et, si elle est
+    // compressée, de [int longueur compressée]. Une plage qui est exactement une trame stockée compressée
+    // part telle quelle, sans la décompresser ; sinon elle est reconstituée puis éventuellement compressée.
+    private void sendRange(FileChannel fileChannel, SocketChannel channel, DataOutputStream outputStream,
+            PartIndex index, long offset, int length, Compression connectionCompression) throws IOException {
+        List<PartIndex.Entry> covering = index != null ? index.covering(offset, length) : new ArrayList<>();
+        if (connectionCompression != null && covering.size() == 1) {
+            PartIndex.Entry entry = covering.get(0);
+            if (entry.isCompressed() && entry.rawOffset == offset && entry.rawLength == length) {
+                outputStream.writeByte(entry.codecId);
+                outputStream.writeInt(entry.storedLength);
+                outputStream.flush();
+                long totalSent = 0;
+                long bytesSent;
+                while (totalSent < entry.storedLength && (bytesSent = fileChannel.transferTo(
+                        entry.storedOffset + totalSent, entry.storedLength - totalSent, channel)) > 0) {
+                    totalSent += bytesSent;
+                }
+                this.bytesSent.add(totalSent);
+                if (totalSent != entry.storedLength) {
+                    throw new IOException("Trame tronquée pendant l'envoi.");
+                }
+                return;
+            }
+        }
+
+        byte[] data = new byte[length];
+        if (index == null || !index.isCompressed()) {
+            readFully(fileChannel, data, 0, length, offset);
+        } else {
+            for (PartIndex.Entry entry : covering) {
+                long from = Math.max(offset, entry.rawOffset);
+                long to = Math.min(offset + length, entry.rawOffset + entry.rawLength);
+                if (entry.isCompressed()) {
+                    byte[] raw = readRaw(fileChannel, entry);
+                    System.arraycopy(raw, (int) (from - entry.rawOffset), data, (int) (from - offset),
+                            (int) (to - from));
+                } else {
+                    readFully(fileChannel, data, (int) (from - offset), (int) (to - from),
+                            entry.storedOffset + from - entry.rawOffset);
+                }
+            }
+        }
+
+        if (connectionCompression != null) {
+            byte[] compressed = connectionCompression.compress(data, 0, length);
+            if (compressed != null) {
+                outputStream.writeByte(connectionCompression.getCodec().getId());
+                outputStream.writeInt(compressed.length);
+                outputStream.write(compressed);
+                outputStream.flush();
+                return;
+            }
+            outputStream.writeByte(0);
+        }
+        outputStream.write(data);
+        outputStream.flush();
+    }
+
+    // Octets d'origine d'une trame, décompressés si besoin
+    private static byte[] readRaw(FileChannel fileChannel, PartIndex.Entry entry) throws IOException {
+        byte[] stored = new byte[entry.storedLength];
+        readFully(fileChannel, stored, 0, stored.length, entry.storedOffset);
+        if (!entry.isCompressed()) {
+            return stored;
+        }
+        byte[] raw = new byte[entry.rawLength];
+        Compression.decompress(entry.codecId, stored, 0, stored.length, raw, 0, raw.length);
+        return raw;
+    }
+
+    private static void readFully(FileChannel fileChannel, byte[] data, int offset, int length, long position)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position() - offset) < 0) {
+                throw new EOFException("Partie plus courte que son index.");
+            }
+        }
+    }
+
+    private static String[] readChunkIds(DataInputStream inputStream) throws IOException {
+        String[] chunkIds = new String[inputStream.readInt()];
+        for (int i = 0; i < chunkIds.length; i++) {
+            chunkIds[i] = inputStream.readUTF();
+        }
+        return chunkIds;
+    }
+
     private void updateSaveDir() {
         try {
             File dirCheck = new File(this.getConfigLoader().getSlaveDirPath(this.getSlaveId()));
@@ -243,6 +764,50 @@ public class SlaveServer {
         this.configLoader = configLoader;
     }
 
+    public RequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    public void setRequestExecutor(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    public void setGroupCommitter(GroupCommitter groupCommitter) {
+        this.groupCommitter = groupCommitter;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public PackStore getPackStore() {
+        return packStore;
+    }
+
+    public void setPackStore(PackStore packStore) {
+        this.packStore = packStore;
+    }
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    public void setChunkStore(ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+    }
+
     public ServerSocket getServerSocket() {
         return serverSocket;
     }